@@ -0,0 +1,83 @@
+package steam.boiler.benchmarks;
+
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.events.ControllerEvent;
+import steam.boiler.events.Flow;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This measures the cost of a controller cycle with nobody subscribed to its
+ * events, with a subscriber which keeps up, and with a subscriber which never
+ * asks for anything, so that every event is queued or conflated.
+ */
+public final class EventBenchmark {
+  /**
+   * A sink subscriber asks for a number of events up front and discards them.
+   */
+  private static final class Sink implements Flow.Subscriber<ControllerEvent> {
+    /**
+     * This is the number of events to ask for.
+     */
+    private final long demand;
+
+    /**
+     * Construct a sink.
+     *
+     * @param demand
+     *          the number of events to ask for
+     */
+    Sink(long demand) {
+      this.demand = demand;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      if (this.demand > 0) {
+        subscription.request(this.demand);
+      }
+    }
+
+    @Override
+    public void onNext(ControllerEvent item) {
+      Measure.sink += item.getCycle();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      throwable.printStackTrace();
+    }
+
+    @Override
+    public void onComplete() {
+      // nothing to do
+    }
+  }
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private EventBenchmark() {
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    String[] names = { "no subscribers", "keeping up", "never requesting" };
+    long[] demands = { 0, Long.MAX_VALUE, 0 };
+    for (int i = 0; i < names.length; i++) {
+      SteamBoilerController[] controller = new SteamBoilerController[1];
+      PhysicalUnits[] model = new PhysicalUnits[1];
+      Measure.startUp(config, 5000, controller, model);
+      if (i > 0) {
+        controller[0].getPublisher().subscribe(new Sink(demands[i]));
+      }
+      Measure.report("clock, " + names[i], Measure.nanosPerCycle(controller[0], model[0], 2_000));
+    }
+  }
+}
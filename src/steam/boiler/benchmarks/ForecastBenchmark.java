@@ -0,0 +1,54 @@
+package steam.boiler.benchmarks;
+
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.LimitForecast;
+import steam.boiler.core.ReadingHistory;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This measures the cost of recording a cycle in the reading history and of
+ * updating the limit forecast, against the cost of a whole controller cycle.
+ */
+public final class ForecastBenchmark {
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private ForecastBenchmark() {
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    ReadingHistory history = new ReadingHistory(SteamBoilerController.HISTORY_CYCLES);
+    LimitForecast forecast = new LimitForecast();
+    Measure.report("ReadingHistory.record", Measure.nanosPerOperation(n -> {
+      for (int i = 0; i < n; i++) {
+        history.record(500 + (i & 63), 10, i & 3, Mailbox.Mode.NORMAL);
+      }
+      return history.size();
+    }, 10_000_000));
+    Measure.report("LimitForecast.update", Measure.nanosPerOperation(n -> {
+      long total = 0;
+      for (int i = 0; i < n; i++) {
+        forecast.update(400 + (i & 255), 100, 900, (i & 15) - 8, history);
+        total += forecast.getCyclesToBreach();
+      }
+      return total;
+    }, 10_000_000));
+
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    SteamBoilerController[] controller = new SteamBoilerController[1];
+    PhysicalUnits[] model = new PhysicalUnits[1];
+    Measure.startUp(config, CompiledConfiguration.DEFAULT_PERIOD_MILLIS, controller, model);
+    Measure.report("SteamBoilerController.clock (normal mode)",
+        Measure.nanosPerCycle(controller[0], model[0], 10_000));
+  }
+}
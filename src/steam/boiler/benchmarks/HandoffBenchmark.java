@@ -0,0 +1,160 @@
+package steam.boiler.benchmarks;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.runtime.LatestSlot;
+
+/**
+ * This measures handing the latest value from a producer thread to a consumer
+ * thread while both run flat out, with a {@link LatestSlot} and with a slot
+ * guarded by a lock. For each it reports the rate of offers, the rate of polls,
+ * and the time each side spends per call.
+ */
+public final class HandoffBenchmark {
+  /**
+   * This is how long each measurement runs, in milliseconds.
+   */
+  private static final long DURATION = 2000;
+
+  /**
+   * A slot is one way of handing over the latest value.
+   */
+  private interface Slot {
+    /**
+     * This hands over a value.
+     *
+     * @param item
+     *          the value
+     */
+    void offer(Object item);
+
+    /**
+     * This takes the latest value.
+     *
+     * @return the value, or null
+     */
+    @Nullable
+    Object poll();
+  }
+
+  /**
+   * A locked slot guards the latest value with a lock.
+   */
+  private static final class LockedSlot implements Slot {
+    /**
+     * This guards the value.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * This is the latest value not yet taken.
+     */
+    private @Nullable Object value;
+
+    @Override
+    public void offer(Object item) {
+      this.lock.lock();
+      try {
+        this.value = item;
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    @Override
+    public @Nullable Object poll() {
+      this.lock.lock();
+      try {
+        Object result = this.value;
+        this.value = null;
+        return result;
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private HandoffBenchmark() {
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          ignored
+   * @throws InterruptedException
+   *           if the benchmark is interrupted
+   */
+  public static void main(String[] args) throws InterruptedException {
+    for (int round = 0; round < 3; round++) {
+      LatestSlot<Object> latest = new LatestSlot<>();
+      run("LatestSlot", new Slot() {
+        @Override
+        public void offer(Object item) {
+          latest.offer(item);
+        }
+
+        @Override
+        public @Nullable Object poll() {
+          return latest.poll();
+        }
+      });
+      run("ReentrantLock", new LockedSlot());
+    }
+  }
+
+  /**
+   * This is a helper method which runs a producer and a consumer against a
+   * slot and prints the rates they achieved.
+   *
+   * @param name
+   *          the name of the slot
+   * @param slot
+   *          the slot
+   * @throws InterruptedException
+   *           if the benchmark is interrupted
+   */
+  private static void run(String name, Slot slot) throws InterruptedException {
+    AtomicBoolean running = new AtomicBoolean(true);
+    long[] offers = new long[1];
+    long[] polls = new long[2];
+    Object item = new Object();
+    Thread producer = new Thread(() -> {
+      long n = 0;
+      while (running.get()) {
+        slot.offer(item);
+        n++;
+      }
+      offers[0] = n;
+    });
+    Thread consumer = new Thread(() -> {
+      long n = 0;
+      long taken = 0;
+      while (running.get()) {
+        if (slot.poll() != null) {
+          taken++;
+        }
+        n++;
+      }
+      polls[0] = n;
+      polls[1] = taken;
+    });
+    producer.start();
+    consumer.start();
+    Thread.sleep(DURATION);
+    running.set(false);
+    producer.join();
+    consumer.join();
+    double seconds = DURATION / 1000.0;
+    System.out.println(String.format(
+        "%-14s offers %8.1fM/s (%6.1f ns)  polls %8.1fM/s (%6.1f ns)  taken %8.3fM/s", name,
+        Double.valueOf(offers[0] / seconds / 1e6), Double.valueOf(DURATION * 1e6 / offers[0]),
+        Double.valueOf(polls[0] / seconds / 1e6), Double.valueOf(DURATION * 1e6 / polls[0]),
+        Double.valueOf(polls[1] / seconds / 1e6)));
+  }
+}
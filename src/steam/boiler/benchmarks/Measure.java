@@ -0,0 +1,163 @@
+package steam.boiler.benchmarks;
+
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Measure holds the timing loop shared by the benchmarks. A body is run for a
+ * number of warm-up rounds so that it is compiled, and then for a number of
+ * measured rounds, and the fastest round is reported, since slower rounds only
+ * add noise from the rest of the machine.
+ */
+final class Measure {
+  /**
+   * This is the number of rounds run before measuring.
+   */
+  private static final int WARMUP_ROUNDS = 5;
+  /**
+   * This is the number of rounds measured.
+   */
+  private static final int MEASURED_ROUNDS = 10;
+  /**
+   * This accumulates the results of the bodies, so the work cannot be
+   * optimised away.
+   */
+  static volatile long sink;
+
+  /**
+   * A body is the code being measured.
+   */
+  interface Body {
+    /**
+     * This runs the code a number of times.
+     *
+     * @param operations
+     *          the number of times to run the code
+     * @return any value depending on the work done
+     */
+    long run(int operations);
+  }
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private Measure() {
+  }
+
+  /**
+   * This measures the time a body takes per operation.
+   *
+   * @param body
+   *          the code to measure
+   * @param operations
+   *          the number of operations in a round
+   * @return the time per operation of the fastest round, in nanoseconds
+   */
+  static double nanosPerOperation(Body body, int operations) {
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+      long start = System.nanoTime();
+      sink += body.run(operations);
+      long time = System.nanoTime() - start;
+      if (round >= WARMUP_ROUNDS) {
+        best = Math.min(best, time);
+      }
+    }
+    return (double) best / operations;
+  }
+
+  /**
+   * This prints a measurement.
+   *
+   * @param name
+   *          what was measured
+   * @param nanos
+   *          the time per operation in nanoseconds
+   */
+  static void report(String name, double nanos) {
+    System.out.println(String.format("%-48s %12.1f ns/op", name, Double.valueOf(nanos)));
+  }
+
+  /**
+   * This builds a controller which has been brought into normal mode against a
+   * simulated boiler, along with the simulated boiler.
+   *
+   * @param config
+   *          the characteristics of the boiler
+   * @param period
+   *          the control period in milliseconds
+   * @param controllers
+   *          where to put the controller
+   * @param models
+   *          where to put the simulated boiler
+   */
+  static void startUp(SteamBoilerCharacteristics config, int period,
+      SteamBoilerController[] controllers, PhysicalUnits[] models) {
+    SteamBoilerController controller =
+        new SteamBoilerController(CompiledConfiguration.of(config, period));
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    for (int time = 0; time < 300_000 && controller.getMode() != Mailbox.Mode.NORMAL;
+        time += period) {
+      cycle(controller, model);
+    }
+    controllers[0] = controller;
+    models[0] = model;
+  }
+
+  /**
+   * This measures the time a controller spends per cycle against a simulated
+   * boiler, leaving out the time spent in the simulation.
+   *
+   * @param controller
+   *          the controller
+   * @param model
+   *          the simulated boiler
+   * @param cycles
+   *          the number of cycles in a round
+   * @return the time per cycle of the fastest round, in nanoseconds
+   */
+  static double nanosPerCycle(SteamBoilerController controller, PhysicalUnits model,
+      int cycles) {
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+      long time = 0;
+      for (int i = 0; i < cycles; i++) {
+        time += cycle(controller, model);
+      }
+      if (round >= WARMUP_ROUNDS) {
+        best = Math.min(best, time);
+      }
+    }
+    return (double) best / cycles;
+  }
+
+  /**
+   * This runs one cycle of a controller against a simulated boiler, clocking
+   * the boiler for one control period.
+   *
+   * @param controller
+   *          the controller
+   * @param model
+   *          the simulated boiler
+   * @return the time spent in the controller, in nanoseconds
+   */
+  static long cycle(SteamBoilerController controller, PhysicalUnits model) {
+    Mailbox incoming = new UnboundedMailbox(100);
+    Mailbox outgoing = new UnboundedMailbox(100);
+    model.transmit(incoming);
+    long start = System.nanoTime();
+    controller.clock(incoming, outgoing);
+    long time = System.nanoTime() - start;
+    model.receive(outgoing);
+    int period = controller.getConfiguration().getPeriodMillis();
+    for (int i = 0; i < period; i += 100) {
+      model.clock(100);
+    }
+    return time;
+  }
+}
@@ -0,0 +1,53 @@
+package steam.boiler.benchmarks;
+
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This measures the cost of a controller cycle at control periods from five
+ * seconds down to 100ms, and from it the share of one core a fleet of
+ * controllers needs at each period.
+ */
+public final class PeriodBenchmark {
+  /**
+   * These are the control periods measured, in milliseconds.
+   */
+  private static final int[] PERIODS = { 5000, 1000, 500, 200, 100 };
+  /**
+   * These are the fleet sizes the load is reported for.
+   */
+  private static final int[] FLEETS = { 1_000, 10_000, 100_000 };
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private PeriodBenchmark() {
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          optionally the number of pumps
+   */
+  public static void main(String[] args) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    if (args.length > 0) {
+      config = config.setNumberOfPumps(Integer.parseInt(args[0]), config.getPumpCapacity(0));
+    }
+    for (int period : PERIODS) {
+      SteamBoilerController[] controller = new SteamBoilerController[1];
+      PhysicalUnits[] model = new PhysicalUnits[1];
+      Measure.startUp(config, period, controller, model);
+      double nanos = Measure.nanosPerCycle(controller[0], model[0], 2_000);
+      Measure.report("clock at " + period + "ms (" + controller[0].getMode() + ")", nanos);
+      for (int fleet : FLEETS) {
+        // the share of one core needed to clock the whole fleet every period
+        double load = fleet * nanos / (period * 1e6);
+        System.out.println(String.format("    %7d boilers: %8.2f%% of a core", fleet,
+            Double.valueOf(load * 100)));
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package steam.boiler.benchmarks;
+
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This measures the cost of a controller cycle on plants with more and more
+ * pumps, all of the same capacity and together four times the capacity of the
+ * default pump, along with the cost per pump, which should stay roughly flat
+ * if the cycle scales linearly.
+ */
+public final class PumpScaleBenchmark {
+  /**
+   * These are the numbers of pumps measured.
+   */
+  private static final int[] PUMPS = { 8, 64, 256, 1024 };
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private PumpScaleBenchmark() {
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    for (int pumps : PUMPS) {
+      SteamBoilerCharacteristics plant =
+          config.setNumberOfPumps(pumps, 4 * config.getPumpCapacity(0) / pumps);
+      SteamBoilerController[] controller = new SteamBoilerController[1];
+      PhysicalUnits[] model = new PhysicalUnits[1];
+      Measure.startUp(plant, CompiledConfiguration.DEFAULT_PERIOD_MILLIS, controller, model);
+      double nanos = Measure.nanosPerCycle(controller[0], model[0], 20_000 / pumps + 100);
+      Measure.report("clock, " + pumps + " pumps (" + controller[0].getMode() + ")", nanos);
+      Measure.report("    per pump", nanos / pumps);
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package steam.boiler.benchmarks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.runtime.BoilerRuntime;
+import steam.boiler.runtime.Gateway;
+import steam.boiler.runtime.JitterHistogram;
+import steam.boiler.runtime.TickScheduler;
+import steam.boiler.runtime.TimeSource;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * This runs a fleet of controllers in real time in two ways: with a
+ * {@link BoilerRuntime}, where each controller has its own thread blocking on a
+ * gateway which delivers a frame every period, and with a fixed pool of one
+ * {@link TickScheduler} thread per core sharing the fleet between them. For
+ * each it reports the share of cycles completed on time and how late they ran.
+ * Every controller starts in normal mode and is fed the same steady frame.
+ *
+ * <p>Without virtual threads the runtime falls back to a platform thread per
+ * boiler, so fleets above {@link #MAX_PLATFORM_THREADS} are only run pooled.
+ */
+public final class RuntimeBenchmark {
+  /**
+   * This is the control period, in milliseconds.
+   */
+  private static final int PERIOD = 1000;
+  /**
+   * This is how long each run lasts, in periods.
+   */
+  private static final int PERIODS = 10;
+  /**
+   * This is the largest fleet given a platform thread per boiler.
+   */
+  private static final int MAX_PLATFORM_THREADS = 10_000;
+
+  /**
+   * A periodic gateway delivers the same frame on every deadline of its
+   * boiler, counting how late the reader woke up.
+   */
+  private static final class PeriodicGateway implements Gateway {
+    /**
+     * This is the frame delivered.
+     */
+    private final Mailbox frame;
+    /**
+     * This accumulates how late reads returned, in nanoseconds.
+     */
+    private final LongAdder lateness;
+    /**
+     * This is the next deadline.
+     */
+    private long deadline;
+    /**
+     * This is the number of messages written, so the commands are not dead.
+     */
+    long written;
+
+    /**
+     * Construct a gateway.
+     *
+     * @param frame
+     *          the frame to deliver
+     * @param first
+     *          the first deadline
+     * @param lateness
+     *          where to accumulate lateness
+     */
+    PeriodicGateway(Mailbox frame, long first, LongAdder lateness) {
+      this.frame = frame;
+      this.deadline = first;
+      this.lateness = lateness;
+    }
+
+    @Override
+    public Mailbox read() throws InterruptedException {
+      long remaining = this.deadline - System.nanoTime();
+      while (remaining > 0) {
+        // parking unmounts a virtual thread from its carrier
+        LockSupport.parkNanos(remaining);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        remaining = this.deadline - System.nanoTime();
+      }
+      this.lateness.add(-remaining);
+      this.deadline += PERIOD * 1_000_000L;
+      return this.frame;
+    }
+
+    @Override
+    public void write(Mailbox mailbox) {
+      this.written += mailbox.size();
+    }
+  }
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private RuntimeBenchmark() {
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          optionally the fleet sizes to run
+   * @throws InterruptedException
+   *           if the benchmark is interrupted
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int[] fleets = { 10_000, 100_000 };
+    if (args.length > 0) {
+      fleets = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        fleets[i] = Integer.parseInt(args[i]);
+      }
+    }
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    SteamBoilerController[] template = new SteamBoilerController[1];
+    PhysicalUnits[] model = new PhysicalUnits[1];
+    Measure.startUp(config, PERIOD, template, model);
+    Mailbox frame = new UnboundedMailbox(100);
+    model[0].transmit(frame);
+    for (int fleet : fleets) {
+      SteamBoilerController[] controllers = new SteamBoilerController[fleet];
+      for (int i = 0; i < fleet; i++) {
+        controllers[i] = new SteamBoilerController(template[0].getConfiguration());
+        template[0].copyStateTo(controllers[i]);
+      }
+      try (BoilerRuntime runtime = new BoilerRuntime()) {
+        if (runtime.isVirtual() || fleet <= MAX_PLATFORM_THREADS) {
+          perBoiler(runtime, controllers, frame);
+        } else {
+          System.out.println(String.format("%7d boilers, per boiler: skipped, no virtual threads",
+              Integer.valueOf(fleet)));
+        }
+      }
+      pooled(controllers, frame);
+    }
+  }
+
+  /**
+   * This is a helper method which runs a fleet with a thread per boiler and
+   * prints the result.
+   *
+   * @param runtime
+   *          the runtime to run the fleet on
+   * @param controllers
+   *          the controllers
+   * @param frame
+   *          the frame fed to every controller
+   * @throws InterruptedException
+   *           if the benchmark is interrupted
+   */
+  private static void perBoiler(BoilerRuntime runtime, SteamBoilerController[] controllers,
+      Mailbox frame) throws InterruptedException {
+    LongAdder lateness = new LongAdder();
+    BoilerRuntime.Boiler[] boilers = new BoilerRuntime.Boiler[controllers.length];
+    long period = PERIOD * 1_000_000L;
+    // leave a period to start the threads, and spread the boilers over it
+    long start = System.nanoTime() + period;
+    for (int i = 0; i < controllers.length; i++) {
+      long phase = period * i / controllers.length;
+      boilers[i] = runtime.start(controllers[i],
+          new PeriodicGateway(frame, start + phase, lateness));
+    }
+    LockSupport.parkNanos(start + PERIODS * period - System.nanoTime());
+    runtime.close(10_000);
+    long cycles = 0;
+    for (BoilerRuntime.Boiler boiler : boilers) {
+      cycles += boiler.getCycles();
+    }
+    report(runtime.isVirtual() ? "virtual" : "platform", controllers.length, cycles,
+        lateness.sum() / Math.max(1.0, cycles), -1);
+  }
+
+  /**
+   * This is a helper method which runs a fleet on a pool of scheduler threads
+   * and prints the result.
+   *
+   * @param controllers
+   *          the controllers
+   * @param frame
+   *          the frame fed to every controller
+   * @throws InterruptedException
+   *           if the benchmark is interrupted
+   */
+  private static void pooled(SteamBoilerController[] controllers, Mailbox frame)
+      throws InterruptedException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    TickScheduler[] schedulers = new TickScheduler[threads];
+    AtomicLong cycles = new AtomicLong();
+    for (int t = 0; t < threads; t++) {
+      TickScheduler scheduler = new TickScheduler(TimeSource.SYSTEM, PERIOD * 1_000_000L);
+      for (int i = t; i < controllers.length; i += threads) {
+        SteamBoilerController controller = controllers[i];
+        scheduler.add(() -> {
+          Mailbox outgoing = new UnboundedMailbox(frame.size() + 8);
+          controller.clock(frame, outgoing);
+        });
+      }
+      schedulers[t] = scheduler;
+    }
+    Thread[] pool = new Thread[threads];
+    long end = System.nanoTime() + PERIODS * PERIOD * 1_000_000L;
+    for (int t = 0; t < threads; t++) {
+      TickScheduler scheduler = schedulers[t];
+      pool[t] = new Thread(() -> {
+        try {
+          scheduler.runUntil(end);
+        } catch (InterruptedException e) {
+          // stop early
+        }
+        cycles.addAndGet(scheduler.getFiredTicks());
+      });
+      pool[t].start();
+    }
+    JitterHistogram jitter = new JitterHistogram();
+    for (int t = 0; t < threads; t++) {
+      pool[t].join();
+      jitter.add(schedulers[t].getJitter());
+    }
+    report("pooled x" + threads, controllers.length, cycles.get(), jitter.getMean(),
+        jitter.getPercentile(0.99));
+  }
+
+  /**
+   * This is a helper method which prints the result of a run.
+   *
+   * @param name
+   *          the name of the design
+   * @param fleet
+   *          the number of boilers
+   * @param cycles
+   *          the number of cycles completed
+   * @param meanLateness
+   *          how late cycles ran on average, in nanoseconds
+   * @param p99Lateness
+   *          the 99th percentile of lateness in nanoseconds, or -1 if unknown
+   */
+  private static void report(String name, int fleet, long cycles, double meanLateness,
+      long p99Lateness) {
+    double expected = (double) fleet * PERIODS;
+    System.out.println(String.format(
+        "%7d boilers, %-11s %6.1f%% of cycles, mean lateness %9.1fus%s",
+        Integer.valueOf(fleet), name + ":", Double.valueOf(100 * cycles / expected),
+        Double.valueOf(meanLateness / 1000), p99Lateness < 0 ? ""
+            : String.format(", p99 %9.1fus", Double.valueOf(p99Lateness / 1000.0))));
+  }
+}
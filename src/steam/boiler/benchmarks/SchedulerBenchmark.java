@@ -0,0 +1,90 @@
+package steam.boiler.benchmarks;
+
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.runtime.TickScheduler;
+import steam.boiler.runtime.TimeSource;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This runs a fleet of controllers against simulated boilers on one
+ * {@link TickScheduler} in real time, once with every controller on the same
+ * phase and once with their phases staggered across the period, and reports
+ * the scheduling jitter, overruns and missed ticks of each.
+ */
+public final class SchedulerBenchmark {
+  /**
+   * This is the control period, in milliseconds.
+   */
+  private static final int PERIOD = 100;
+  /**
+   * This is how long each run lasts, in periods.
+   */
+  private static final int PERIODS = 100;
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private SchedulerBenchmark() {
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *          optionally the number of boilers
+   * @throws InterruptedException
+   *           if the benchmark is interrupted
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int fleet = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    SteamBoilerController[] controllers = new SteamBoilerController[fleet];
+    PhysicalUnits[] models = new PhysicalUnits[fleet];
+    SteamBoilerController[] controller = new SteamBoilerController[1];
+    PhysicalUnits[] model = new PhysicalUnits[1];
+    for (int i = 0; i < fleet; i++) {
+      Measure.startUp(config, PERIOD, controller, model);
+      controllers[i] = controller[0];
+      models[i] = model[0];
+    }
+    for (int round = 0; round < 2; round++) {
+      run("aligned", controllers, models, false);
+      run("staggered", controllers, models, true);
+    }
+  }
+
+  /**
+   * This is a helper method which runs the fleet for a while and prints how
+   * well the scheduler kept to its deadlines.
+   *
+   * @param name
+   *          the name of the run
+   * @param controllers
+   *          the controllers
+   * @param models
+   *          the simulated boilers
+   * @param stagger
+   *          whether to stagger the phases of the controllers
+   * @throws InterruptedException
+   *           if the benchmark is interrupted
+   */
+  private static void run(String name, SteamBoilerController[] controllers,
+      PhysicalUnits[] models, boolean stagger) throws InterruptedException {
+    TickScheduler scheduler = new TickScheduler(TimeSource.SYSTEM, PERIOD * 1_000_000L);
+    for (int i = 0; i < controllers.length; i++) {
+      SteamBoilerController c = controllers[i];
+      PhysicalUnits m = models[i];
+      Runnable tick = () -> Measure.cycle(c, m);
+      if (stagger) {
+        scheduler.add(tick);
+      } else {
+        scheduler.add(tick, 0);
+      }
+    }
+    scheduler.runUntil(System.nanoTime() + PERIODS * scheduler.getPeriod());
+    System.out.println(String.format("%-10s %s overruns %d missed %d", name,
+        scheduler.getJitter(), Long.valueOf(scheduler.getTotalOverruns()),
+        Long.valueOf(scheduler.getTotalMissedTicks())));
+  }
+}
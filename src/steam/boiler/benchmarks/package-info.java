@@ -0,0 +1,6 @@
+/**
+ * Stand-alone benchmarks of the controller and its supporting structures. Each
+ * benchmark is a class with a main method which prints its measurements.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+package steam.boiler.benchmarks;
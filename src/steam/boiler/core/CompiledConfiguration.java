@@ -0,0 +1,491 @@
+package steam.boiler.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This is an immutable form of the steam boiler characteristics that the
+ * controller uses on every cycle. The thresholds the controller needs are
+ * computed once and kept in final fields, along with the prefix sums of the pump
+ * capacities and the pump combination table. Configurations with the same
+ * characteristics are shared, so a fleet of identical boilers uses a single
+ * instance. They are only shared while something still uses them: the sharing
+ * holds them weakly, so the configurations left behind by reloads and finished
+ * runs are collected like any other object.
+ *
+ * <p>The configuration also fixes the control period, the time between two
+ * clocks of the controller. Every conversion between a rate in litres per
+ * second and a volume per cycle is made with it, so a controller can be run
+ * faster than the usual five seconds on boilers which need it.
+ *
+ * <p>Finally the configuration holds the table of messages the controller
+ * sends, so controllers sharing it send the same immutable instances rather
+ * than allocating a message for every send.
+ */
+public final class CompiledConfiguration {
+  /**
+   * This is the control period used when none is given, in milliseconds.
+   */
+  public static final int DEFAULT_PERIOD_MILLIS = 5000;
+  /**
+   * This is the shortest control period allowed, in milliseconds.
+   */
+  public static final int MIN_PERIOD_MILLIS = 100;
+  /**
+   * This is the longest control period allowed, in milliseconds.
+   */
+  public static final int MAX_PERIOD_MILLIS = 5000;
+  /**
+   * This is used to share configurations between controllers. The entries of
+   * collected configurations are removed by the next call to of.
+   */
+  private static final ConcurrentHashMap<Key, Shared> CACHE = new ConcurrentHashMap<>();
+  /**
+   * This is where the entries of collected configurations are queued.
+   */
+  private static final ReferenceQueue<CompiledConfiguration> COLLECTED = new ReferenceQueue<>();
+
+  /**
+   * This is the total capacity of the boiler.
+   */
+  private final double capacity;
+  /**
+   * This is the minimal limit level M1.
+   */
+  private final double minimalLimitLevel;
+  /**
+   * This is the maximal limit level M2.
+   */
+  private final double maximalLimitLevel;
+  /**
+   * This is the minimal normal level N1.
+   */
+  private final double minimalNormalLevel;
+  /**
+   * This is the maximal normal level N2.
+   */
+  private final double maximalNormalLevel;
+  /**
+   * This is the middle of the normal band.
+   */
+  private final double normalMidpoint;
+  /**
+   * This is the maximal steam rate in litres per second.
+   */
+  private final double maximalSteamRate;
+  /**
+   * This is the control period in milliseconds.
+   */
+  private final int periodMillis;
+  /**
+   * This is the control period in seconds.
+   */
+  private final double periodSeconds;
+  /**
+   * This is the most steam that can leave the boiler in one cycle.
+   */
+  private final double cycleSteamVolume;
+  /**
+   * This is the number of pumps.
+   */
+  private final int numberOfPumps;
+  /**
+   * This is the capacity of each pump.
+   */
+  private final double[] pumpCapacity;
+  /**
+   * This stores the total capacity of the first n pumps at index n.
+   */
+  private final double[] capacityPrefix;
+  /**
+   * This is the number of pumps the controller starts with.
+   */
+  private final int initialNumberOfPumps;
+  /**
+   * This is the table of pump subsets.
+   */
+  private final PumpCombinations pumpCombinations;
+  /**
+   * This is the table of messages sent by the controller.
+   */
+  private final MessageTable messages;
+
+  /**
+   * Construct a compiled configuration from a set of characteristics.
+   *
+   * @param characteristics
+   *          The boiler characteristics to be used.
+   * @param periodMillis
+   *          The control period in milliseconds.
+   */
+  private CompiledConfiguration(SteamBoilerCharacteristics characteristics, int periodMillis) {
+    this.capacity = characteristics.getCapacity();
+    this.minimalLimitLevel = characteristics.getMinimalLimitLevel();
+    this.maximalLimitLevel = characteristics.getMaximalLimitLevel();
+    this.minimalNormalLevel = characteristics.getMinimalNormalLevel();
+    this.maximalNormalLevel = characteristics.getMaximalNormalLevel();
+    this.normalMidpoint = this.minimalNormalLevel
+        + ((this.maximalNormalLevel - this.minimalNormalLevel) / 2);
+    this.maximalSteamRate = characteristics.getMaximualSteamRate();
+    this.periodMillis = periodMillis;
+    this.periodSeconds = periodMillis / 1000.0;
+    this.cycleSteamVolume = this.maximalSteamRate * this.periodSeconds;
+    this.numberOfPumps = characteristics.getNumberOfPumps();
+    this.pumpCapacity = new double[this.numberOfPumps];
+    this.capacityPrefix = new double[this.numberOfPumps + 1];
+    for (int i = 0; i < this.numberOfPumps; i++) {
+      this.pumpCapacity[i] = characteristics.getPumpCapacity(i);
+      this.capacityPrefix[i + 1] = this.capacityPrefix[i] + this.pumpCapacity[i];
+    }
+    this.initialNumberOfPumps = initialNumberOfPumps();
+    this.pumpCombinations = new PumpCombinations(characteristics);
+    this.messages = new MessageTable(this.numberOfPumps);
+  }
+
+  /**
+   * This returns the compiled configuration for a set of characteristics with
+   * the default control period of five seconds.
+   *
+   * @param characteristics
+   *          The boiler characteristics to be used.
+   * @return the shared compiled configuration
+   */
+  public static CompiledConfiguration of(SteamBoilerCharacteristics characteristics) {
+    return of(characteristics, DEFAULT_PERIOD_MILLIS);
+  }
+
+  /**
+   * This returns the compiled configuration for a set of characteristics and a
+   * control period. If an equal configuration has already been compiled and is
+   * still in use then that one is returned.
+   *
+   * @param characteristics
+   *          The boiler characteristics to be used.
+   * @param periodMillis
+   *          The control period in milliseconds, from {@link #MIN_PERIOD_MILLIS}
+   *          to {@link #MAX_PERIOD_MILLIS}.
+   * @return the shared compiled configuration
+   * @throws IllegalArgumentException
+   *           if the period is out of range
+   */
+  public static CompiledConfiguration of(SteamBoilerCharacteristics characteristics,
+      int periodMillis) {
+    if (periodMillis < MIN_PERIOD_MILLIS || periodMillis > MAX_PERIOD_MILLIS) {
+      throw new IllegalArgumentException("control period of " + periodMillis
+          + "ms is outside " + MIN_PERIOD_MILLIS + "ms to " + MAX_PERIOD_MILLIS + "ms");
+    }
+    removeCollected();
+    Key key = new Key(characteristics, periodMillis);
+    for (;;) {
+      Shared shared = CACHE.get(key);
+      CompiledConfiguration compiled = shared == null ? null : shared.get();
+      if (compiled != null) {
+        return compiled;
+      }
+      CompiledConfiguration created = new CompiledConfiguration(characteristics, periodMillis);
+      Shared entry = new Shared(key, created);
+      if (shared == null ? CACHE.putIfAbsent(key, entry) == null
+          : CACHE.replace(key, shared, entry)) {
+        return created;
+      }
+    }
+  }
+
+  /**
+   * This is a helper method which removes the entries of the configurations
+   * that have been collected.
+   */
+  private static void removeCollected() {
+    Reference<? extends CompiledConfiguration> collected = COLLECTED.poll();
+    while (collected != null) {
+      Shared shared = (Shared) collected;
+      CACHE.remove(shared.key, shared);
+      collected = COLLECTED.poll();
+    }
+  }
+
+  /**
+   * This is a helper method to work out the initial number of pumps, it follows
+   * the same rule the controller always used.
+   *
+   * @return the initial number of pumps
+   */
+  private int initialNumberOfPumps() {
+    double totalPumpCapsity = 0;
+    for (int i = 0; i < this.numberOfPumps; i++) {
+      if (totalPumpCapsity < this.maximalSteamRate) {
+        totalPumpCapsity = totalPumpCapsity + this.pumpCapacity[i];
+      }
+      if (totalPumpCapsity > this.maximalSteamRate) {
+        return i; // cause it less then int he pump loop
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * This returns the capacity of the boiler.
+   *
+   * @return the capacity of the boiler
+   */
+  public double getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * This returns the minimal limit level M1.
+   *
+   * @return the minimal limit level
+   */
+  public double getMinimalLimitLevel() {
+    return this.minimalLimitLevel;
+  }
+
+  /**
+   * This returns the maximal limit level M2.
+   *
+   * @return the maximal limit level
+   */
+  public double getMaximalLimitLevel() {
+    return this.maximalLimitLevel;
+  }
+
+  /**
+   * This returns the minimal normal level N1.
+   *
+   * @return the minimal normal level
+   */
+  public double getMinimalNormalLevel() {
+    return this.minimalNormalLevel;
+  }
+
+  /**
+   * This returns the maximal normal level N2.
+   *
+   * @return the maximal normal level
+   */
+  public double getMaximalNormalLevel() {
+    return this.maximalNormalLevel;
+  }
+
+  /**
+   * This returns the middle of the normal band.
+   *
+   * @return the middle of the normal band
+   */
+  public double getNormalMidpoint() {
+    return this.normalMidpoint;
+  }
+
+  /**
+   * This returns the maximal steam rate in litres per second.
+   *
+   * @return the maximal steam rate
+   */
+  public double getMaximalSteamRate() {
+    return this.maximalSteamRate;
+  }
+
+  /**
+   * This returns the control period in milliseconds.
+   *
+   * @return the control period
+   */
+  public int getPeriodMillis() {
+    return this.periodMillis;
+  }
+
+  /**
+   * This returns the control period in seconds.
+   *
+   * @return the control period
+   */
+  public double getPeriodSeconds() {
+    return this.periodSeconds;
+  }
+
+  /**
+   * This converts a rate in litres per second into the volume that flows in one
+   * control period.
+   *
+   * @param litresPerSecond
+   *          the rate
+   * @return the volume per cycle
+   */
+  public double toCycleVolume(double litresPerSecond) {
+    return litresPerSecond * this.periodSeconds;
+  }
+
+  /**
+   * This scales a threshold the controller was tuned with at the default period
+   * of five seconds in proportion to the control period, so that it is the same
+   * as it always was at five seconds and shrinks with shorter periods.
+   *
+   * @param litres
+   *          the threshold at the default period
+   * @return the threshold at this control period
+   */
+  public double scaleToPeriod(double litres) {
+    return litres * this.periodMillis / DEFAULT_PERIOD_MILLIS;
+  }
+
+  /**
+   * This converts a volume per control period into a rate in litres per second.
+   *
+   * @param litresPerCycle
+   *          the volume per cycle
+   * @return the rate
+   */
+  public double toRate(double litresPerCycle) {
+    return litresPerCycle / this.periodSeconds;
+  }
+
+  /**
+   * This returns the most steam that can leave the boiler in one cycle.
+   *
+   * @return the maximal steam volume per cycle
+   */
+  public double getCycleSteamVolume() {
+    return this.cycleSteamVolume;
+  }
+
+  /**
+   * This returns the number of pumps.
+   *
+   * @return the number of pumps
+   */
+  public int getNumberOfPumps() {
+    return this.numberOfPumps;
+  }
+
+  /**
+   * This returns the capacity of a pump.
+   *
+   * @param pump
+   *          the id of the pump
+   * @return the capacity of the pump
+   */
+  public double getPumpCapacity(int pump) {
+    return this.pumpCapacity[pump];
+  }
+
+  /**
+   * This returns the total capacity of the first pumps.
+   *
+   * @param pumps
+   *          the number of pumps, starting from pump 0
+   * @return the total capacity of the pumps
+   */
+  public double getTotalCapacity(int pumps) {
+    return this.capacityPrefix[pumps];
+  }
+
+  /**
+   * This returns the number of pumps the controller starts with.
+   *
+   * @return the initial number of pumps
+   */
+  public int getInitialNumberOfPumps() {
+    return this.initialNumberOfPumps;
+  }
+
+  /**
+   * This returns the table of pump subsets.
+   *
+   * @return the table of pump subsets
+   */
+  PumpCombinations getPumpCombinations() {
+    return this.pumpCombinations;
+  }
+
+  /**
+   * This returns the table of messages sent by the controller.
+   *
+   * @return the table of messages
+   */
+  MessageTable getMessages() {
+    return this.messages;
+  }
+
+  /**
+   * This is the key used to share configurations. It holds every characteristic
+   * the compiled configuration is built from.
+   */
+  private static final class Key {
+    /**
+     * This stores the characteristics and the control period, the pump
+     * capacities come last.
+     */
+    private final double[] values;
+    /**
+     * This is the hash of the values.
+     */
+    private final int hash;
+
+    /**
+     * Construct a key for a given set of characteristics.
+     *
+     * @param characteristics
+     *          The boiler characteristics to be used.
+     * @param periodMillis
+     *          The control period in milliseconds.
+     */
+    Key(SteamBoilerCharacteristics characteristics, int periodMillis) {
+      int pumps = characteristics.getNumberOfPumps();
+      this.values = new double[7 + pumps];
+      this.values[0] = characteristics.getCapacity();
+      this.values[1] = characteristics.getMinimalLimitLevel();
+      this.values[2] = characteristics.getMaximalLimitLevel();
+      this.values[3] = characteristics.getMinimalNormalLevel();
+      this.values[4] = characteristics.getMaximalNormalLevel();
+      this.values[5] = characteristics.getMaximualSteamRate();
+      this.values[6] = periodMillis;
+      for (int i = 0; i < pumps; i++) {
+        this.values[7 + i] = characteristics.getPumpCapacity(i);
+      }
+      this.hash = Arrays.hashCode(this.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      return o instanceof Key && Arrays.equals(this.values, ((Key) o).values);
+    }
+  }
+
+  /**
+   * This is an entry of the shared configurations. It holds its configuration
+   * weakly, and remembers its key so that it can be removed once the
+   * configuration has been collected.
+   */
+  private static final class Shared extends WeakReference<CompiledConfiguration> {
+    /**
+     * This is the key of the entry.
+     */
+    final Key key;
+
+    /**
+     * Construct an entry for a configuration.
+     *
+     * @param key
+     *          The key of the configuration.
+     * @param configuration
+     *          The configuration to share.
+     */
+    Shared(Key key, CompiledConfiguration configuration) {
+      super(configuration, COLLECTED);
+      this.key = key;
+    }
+  }
+}
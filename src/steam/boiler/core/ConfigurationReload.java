@@ -0,0 +1,30 @@
+package steam.boiler.core;
+
+/**
+ * A configuration reload is everything a controller needs to switch to a new
+ * configuration, prepared in advance by the thread asking for the reload. The
+ * controller picks it up at the start of its next cycle with a single
+ * reference swap, so the tick itself neither compiles nor allocates anything.
+ */
+final class ConfigurationReload {
+  /**
+   * This is the new configuration.
+   */
+  final CompiledConfiguration configuration;
+  /**
+   * This is the pump selection for the pump combination table of the new
+   * configuration.
+   */
+  final PumpSelection pumpSelection;
+
+  /**
+   * Construct a reload to a given configuration.
+   *
+   * @param configuration
+   *          the new configuration
+   */
+  ConfigurationReload(CompiledConfiguration configuration) {
+    this.configuration = configuration;
+    this.pumpSelection = new PumpSelection(configuration.getPumpCombinations());
+  }
+}
@@ -0,0 +1,363 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * These are the incoming messages of one cycle, decoded in a single pass over
+ * the mailbox. The state reported by each pump and pump controller is stored by
+ * pump, the kinds of message present are kept as a bitmap, and the pumps named
+ * by each kind of message with a pump parameter are both listed in the order
+ * they arrived and kept as a bitmap. So every question the controller asks about its input during the
+ * cycle is answered without searching the mailbox again, which matters on
+ * plants with hundreds of pumps where the mailbox holds thousands of messages.
+ *
+ * <p>The same pass validates the mailbox. A bitmap of the pumps seen is kept
+ * for the pump states and for the pump controller states, so a pump reported
+ * twice, or a pump which does not exist, is caught even when the number of
+ * states adds up, and so is a second level or steam reading.
+ */
+final class IncomingMessages {
+  /**
+   * These are the message kinds, by ordinal.
+   */
+  private static final MessageKind[] KINDS = MessageKind.values();
+
+  /**
+   * These are the kinds of message with a pump parameter.
+   */
+  private static final MessageKind[] PUMP_KINDS = { MessageKind.PUMP_REPAIRED_n,
+      MessageKind.PUMP_CONTROL_REPAIRED_n, MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n,
+      MessageKind.PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n, MessageKind.PUMP_FAILURE_DETECTION_n,
+      MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n };
+
+  static {
+    assert (KINDS.length <= Long.SIZE);
+  }
+
+  /**
+   * This stores the state reported by each pump.
+   */
+  private final boolean[] pumps;
+  /**
+   * This stores the state reported by each pump controller.
+   */
+  private final boolean[] controllers;
+  /**
+   * This is the bitmap of the pumps whose state was received.
+   */
+  private final long[] seenPumps;
+  /**
+   * This is the bitmap of the pumps whose pump controller state was received.
+   */
+  private final long[] seenControllers;
+  /**
+   * This is true if a message was duplicated or named a pump which does not
+   * exist.
+   */
+  private boolean malformed;
+  /**
+   * This is the number of pump state messages received.
+   */
+  private int pumpStates;
+  /**
+   * This is the number of pump controller state messages received.
+   */
+  private int controllerStates;
+  /**
+   * This is the number of pump state messages reporting a pump on.
+   */
+  private int pumpsOn;
+  /**
+   * This is the number of level messages received.
+   */
+  private int levels;
+  /**
+   * This is the number of steam messages received.
+   */
+  private int steams;
+  /**
+   * This is the level reading.
+   */
+  private double level;
+  /**
+   * This is the steam reading.
+   */
+  private double steam;
+  /**
+   * This is a bitmap over the message kind ordinals of the kinds received.
+   */
+  private long kinds;
+  /**
+   * This lists, for each kind of message with a pump parameter, the pumps
+   * named in the order they arrived.
+   */
+  private final int[][] parameters = new int[KINDS.length][];
+  /**
+   * This is the length of each list in parameters.
+   */
+  private final int[] parameterCounts = new int[KINDS.length];
+  /**
+   * This is, for each kind of message with a pump parameter, the bitmap of the
+   * pumps named. It is null for the other kinds.
+   */
+  private final long[][] named = new long[KINDS.length][];
+
+  /**
+   * Construct the decoded messages for a given number of pumps.
+   *
+   * @param numberOfPumps
+   *          the number of pumps
+   */
+  IncomingMessages(int numberOfPumps) {
+    this.pumps = new boolean[numberOfPumps];
+    this.controllers = new boolean[numberOfPumps];
+    this.seenPumps = new long[PublishedState.wordsFor(numberOfPumps)];
+    this.seenControllers = new long[PublishedState.wordsFor(numberOfPumps)];
+    for (int k = 0; k < KINDS.length; k++) {
+      this.parameters[k] = new int[4];
+    }
+    for (MessageKind kind : PUMP_KINDS) {
+      this.named[kind.ordinal()] = new long[PublishedState.wordsFor(numberOfPumps)];
+    }
+  }
+
+  /**
+   * This decodes the messages of a cycle, replacing those of the last one.
+   *
+   * @param incoming
+   *          the messages received
+   */
+  void decode(Mailbox incoming) {
+    int n = this.pumps.length;
+    this.pumpStates = 0;
+    this.controllerStates = 0;
+    this.pumpsOn = 0;
+    this.levels = 0;
+    this.steams = 0;
+    this.kinds = 0;
+    this.malformed = false;
+    Arrays.fill(this.seenPumps, 0);
+    Arrays.fill(this.seenControllers, 0);
+    Arrays.fill(this.parameterCounts, 0);
+    for (MessageKind kind : PUMP_KINDS) {
+      Arrays.fill(this.named[kind.ordinal()], 0);
+    }
+    for (int i = 0; i < incoming.size(); i++) {
+      Message message = incoming.read(i);
+      MessageKind kind = message.getKind();
+      this.kinds |= 1L << kind.ordinal();
+      switch (kind) {
+        case PUMP_STATE_n_b: {
+          int pump = message.getIntegerParameter();
+          if (see(this.seenPumps, pump, n)) {
+            boolean on = message.getBooleanParameter();
+            this.pumps[pump] = on;
+            this.pumpStates++;
+            if (on) {
+              this.pumpsOn++;
+            }
+          }
+          break;
+        }
+        case PUMP_CONTROL_STATE_n_b: {
+          int pump = message.getIntegerParameter();
+          if (see(this.seenControllers, pump, n)) {
+            this.controllers[pump] = message.getBooleanParameter();
+            this.controllerStates++;
+          }
+          break;
+        }
+        case LEVEL_v:
+          this.level = message.getDoubleParameter();
+          this.levels++;
+          break;
+        case STEAM_v:
+          this.steam = message.getDoubleParameter();
+          this.steams++;
+          break;
+        case PUMP_REPAIRED_n:
+        case PUMP_CONTROL_REPAIRED_n:
+        case PUMP_FAILURE_ACKNOWLEDGEMENT_n:
+        case PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n:
+        case PUMP_FAILURE_DETECTION_n:
+        case PUMP_CONTROL_FAILURE_DETECTION_n: {
+          int pump = message.getIntegerParameter();
+          if (pump >= 0 && pump < n) {
+            add(kind.ordinal(), pump);
+          } else {
+            this.malformed = true;
+          }
+          break;
+        }
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * This marks a pump as seen in a bitmap, unless it does not exist or has
+   * already been seen, in which case the messages are malformed.
+   *
+   * @param seen
+   *          the bitmap
+   * @param pump
+   *          the pump
+   * @param numberOfPumps
+   *          the number of pumps
+   * @return true if the pump was marked
+   */
+  private boolean see(long[] seen, int pump, int numberOfPumps) {
+    if (pump < 0 || pump >= numberOfPumps) {
+      this.malformed = true;
+      return false;
+    }
+    long bit = 1L << pump;
+    if ((seen[pump >>> 6] & bit) != 0) {
+      this.malformed = true;
+      return false;
+    }
+    seen[pump >>> 6] |= bit;
+    return true;
+  }
+
+  /**
+   * This adds a pump to the list of a kind of message.
+   *
+   * @param kind
+   *          the ordinal of the kind
+   * @param pump
+   *          the pump named by the message
+   */
+  private void add(int kind, int pump) {
+    int count = this.parameterCounts[kind];
+    if (count == this.parameters[kind].length) {
+      this.parameters[kind] = Arrays.copyOf(this.parameters[kind], count * 2);
+    }
+    this.parameters[kind][count] = pump;
+    this.parameterCounts[kind] = count + 1;
+    long[] bits = this.named[kind];
+    assert (bits != null);
+    bits[pump >>> 6] |= 1L << pump;
+  }
+
+  /**
+   * This checks that exactly one level, one steam and one state for every pump
+   * and pump controller were received, and that no message named a pump which
+   * does not exist.
+   *
+   * @return true if nothing is missing, duplicated or out of range
+   */
+  boolean isComplete() {
+    return !this.malformed && this.levels == 1 && this.steams == 1
+        && this.pumpStates == this.pumps.length
+        && this.controllerStates == this.controllers.length;
+  }
+
+  /**
+   * This checks whether a message of a given kind was received.
+   *
+   * @param kind
+   *          the kind
+   * @return true if there was such a message
+   */
+  boolean has(MessageKind kind) {
+    return (this.kinds & (1L << kind.ordinal())) != 0;
+  }
+
+  /**
+   * This checks whether a message of a given kind naming a given pump was
+   * received.
+   *
+   * @param kind
+   *          the kind, which has a pump parameter
+   * @param pump
+   *          the pump
+   * @return true if there was such a message
+   */
+  boolean has(MessageKind kind, int pump) {
+    long[] bits = this.named[kind.ordinal()];
+    if (bits == null || pump < 0 || pump >= this.pumps.length) {
+      return false;
+    }
+    return (bits[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * This returns the number of messages of a kind with a pump parameter.
+   *
+   * @param kind
+   *          the kind
+   * @return the number of messages
+   */
+  int count(MessageKind kind) {
+    return this.parameterCounts[kind.ordinal()];
+  }
+
+  /**
+   * This returns the pump named by a message of a kind with a pump parameter.
+   *
+   * @param kind
+   *          the kind
+   * @param index
+   *          the index of the message among those of its kind
+   * @return the pump
+   */
+  int getPump(MessageKind kind, int index) {
+    assert (index < this.parameterCounts[kind.ordinal()]);
+    return this.parameters[kind.ordinal()][index];
+  }
+
+  /**
+   * This returns the state reported by a pump.
+   *
+   * @param pump
+   *          the pump
+   * @return true if the pump reported it is on
+   */
+  boolean isPumpOn(int pump) {
+    return this.pumps[pump];
+  }
+
+  /**
+   * This returns the state reported by a pump controller.
+   *
+   * @param pump
+   *          the pump of the controller
+   * @return true if the pump controller reported its pump is on
+   */
+  boolean isPumpControllerOn(int pump) {
+    return this.controllers[pump];
+  }
+
+  /**
+   * This checks whether any pump reported it is on.
+   *
+   * @return true if a pump is on
+   */
+  boolean isAnyPumpOn() {
+    return this.pumpsOn > 0;
+  }
+
+  /**
+   * This returns the level reading.
+   *
+   * @return the level
+   */
+  double getLevel() {
+    return this.level;
+  }
+
+  /**
+   * This returns the steam reading.
+   *
+   * @return the steam rate
+   */
+  double getSteam() {
+    return this.steam;
+  }
+}
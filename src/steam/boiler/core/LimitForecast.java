@@ -0,0 +1,203 @@
+package steam.boiler.core;
+
+/**
+ * A limit forecast estimates how many cycles remain before the water level
+ * crosses one of the limit levels, M1 or M2. It combines the rate predicted
+ * from the pumps commanded open and the steam output with the rates observed
+ * in the reading history, and for each limit takes whichever rate reaches it
+ * soonest. Each update costs O(1).
+ */
+public final class LimitForecast {
+  /**
+   * This is the number of cycles returned when no breach is predicted.
+   */
+  public static final int NO_BREACH = Integer.MAX_VALUE;
+
+  /**
+   * This is the number of cycles before the level falls below M1.
+   */
+  private int cyclesToLower = NO_BREACH;
+  /**
+   * This is the number of cycles before the level rises above M2.
+   */
+  private int cyclesToUpper = NO_BREACH;
+  /**
+   * This is the change in level per cycle predicted from the pumps and steam.
+   */
+  private double predictedRate;
+  /**
+   * This is the change in level per cycle used for the lower limit.
+   */
+  private double fallingRate;
+  /**
+   * This is the change in level per cycle used for the upper limit.
+   */
+  private double risingRate;
+
+  /**
+   * This updates the forecast.
+   *
+   * @param level
+   *          the water level
+   * @param minimalLimit
+   *          the minimal limit level, M1
+   * @param maximalLimit
+   *          the maximal limit level, M2
+   * @param predicted
+   *          the change in level per cycle predicted from the pumps commanded
+   *          open and the steam output
+   * @param history
+   *          the readings of the last few cycles
+   */
+  public void update(double level, double minimalLimit, double maximalLimit, double predicted,
+      ReadingHistory history) {
+    double falling = predicted;
+    double rising = predicted;
+    if (history.size() >= 2) {
+      double slope = history.getLevelSlope();
+      double last = history.getLevel(0) - history.getLevel(1);
+      falling = Math.min(falling, Math.min(slope, last));
+      rising = Math.max(rising, Math.max(slope, last));
+    }
+    this.predictedRate = predicted;
+    this.fallingRate = falling;
+    this.risingRate = rising;
+    this.cyclesToLower = cyclesTo(level - minimalLimit, -falling);
+    this.cyclesToUpper = cyclesTo(maximalLimit - level, rising);
+  }
+
+  /**
+   * This updates the forecast without any observed rates, for when the level
+   * readings cannot be trusted.
+   *
+   * @param level
+   *          the estimated water level
+   * @param minimalLimit
+   *          the minimal limit level, M1
+   * @param maximalLimit
+   *          the maximal limit level, M2
+   * @param predicted
+   *          the change in level per cycle predicted from the pumps commanded
+   *          open and the steam output
+   */
+  public void update(double level, double minimalLimit, double maximalLimit,
+      double predicted) {
+    this.predictedRate = predicted;
+    this.fallingRate = predicted;
+    this.risingRate = predicted;
+    this.cyclesToLower = cyclesTo(level - minimalLimit, -predicted);
+    this.cyclesToUpper = cyclesTo(maximalLimit - level, predicted);
+  }
+
+  /**
+   * This is a helper method which computes the number of cycles needed to
+   * cover a distance at a given rate.
+   *
+   * @param distance
+   *          the distance to the limit
+   * @param rate
+   *          the rate towards the limit per cycle
+   * @return the number of cycles, rounded up, or NO_BREACH
+   */
+  private static int cyclesTo(double distance, double rate) {
+    if (distance <= 0) {
+      return 0;
+    } else if (rate <= 0) {
+      return NO_BREACH;
+    }
+    double cycles = Math.ceil(distance / rate);
+    return cycles >= NO_BREACH ? NO_BREACH : (int) cycles;
+  }
+
+  /**
+   * This returns the number of cycles before the level is expected to fall
+   * below M1.
+   *
+   * @return the number of cycles, or NO_BREACH
+   */
+  public int getCyclesToLowerLimit() {
+    return this.cyclesToLower;
+  }
+
+  /**
+   * This returns the number of cycles before the level is expected to rise
+   * above M2.
+   *
+   * @return the number of cycles, or NO_BREACH
+   */
+  public int getCyclesToUpperLimit() {
+    return this.cyclesToUpper;
+  }
+
+  /**
+   * This returns the number of cycles before the level is expected to cross
+   * either limit.
+   *
+   * @return the number of cycles, or NO_BREACH
+   */
+  public int getCyclesToBreach() {
+    return Math.min(this.cyclesToLower, this.cyclesToUpper);
+  }
+
+  /**
+   * This returns true if a breach is expected within a number of cycles.
+   *
+   * @param cycles
+   *          the number of cycles to look ahead
+   * @return true if a breach is expected
+   */
+  public boolean isBreachPredicted(int cycles) {
+    return getCyclesToBreach() <= cycles;
+  }
+
+  /**
+   * This returns the change in level per cycle predicted from the pumps
+   * commanded open and the steam output.
+   *
+   * @return the change in level per cycle
+   */
+  public double getPredictedRate() {
+    return this.predictedRate;
+  }
+
+  /**
+   * This returns the change in level per cycle the lower limit was forecast
+   * from, which is never more than the predicted rate.
+   *
+   * @return the change in level per cycle
+   */
+  public double getFallingRate() {
+    return this.fallingRate;
+  }
+
+  /**
+   * This returns the change in level per cycle the upper limit was forecast
+   * from, which is never less than the predicted rate.
+   *
+   * @return the change in level per cycle
+   */
+  public double getRisingRate() {
+    return this.risingRate;
+  }
+
+  /**
+   * This copies this forecast into another.
+   *
+   * @param target
+   *          the forecast to copy into
+   */
+  void copyTo(LimitForecast target) {
+    target.cyclesToLower = this.cyclesToLower;
+    target.cyclesToUpper = this.cyclesToUpper;
+    target.predictedRate = this.predictedRate;
+    target.fallingRate = this.fallingRate;
+    target.risingRate = this.risingRate;
+  }
+
+  @Override
+  public String toString() {
+    int cycles = getCyclesToBreach();
+    return cycles == NO_BREACH ? "no breach predicted" : "predicted breach in " + cycles
+        + " cycles";
+  }
+}
@@ -0,0 +1,119 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * This is the table of every message the controller sends, built once per
+ * compiled configuration. The messages are immutable, so the same instances
+ * are sent by every controller sharing the configuration, cycle after cycle:
+ * sending a message costs an array load instead of an allocation, and two
+ * messages taken from the table are equal exactly when they are the same
+ * instance.
+ */
+final class MessageTable {
+  /**
+   * These are the kinds of message sent without a parameter.
+   */
+  private static final MessageKind[] SIGNALS = { MessageKind.PROGRAM_READY, MessageKind.VALVE,
+      MessageKind.LEVEL_FAILURE_DETECTION, MessageKind.STEAM_FAILURE_DETECTION,
+      MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT, MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT };
+  /**
+   * These are the kinds of message sent with a pump parameter.
+   */
+  private static final MessageKind[] PUMP_SIGNALS = { MessageKind.OPEN_PUMP_n,
+      MessageKind.CLOSE_PUMP_n, MessageKind.PUMP_FAILURE_DETECTION_n,
+      MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n, MessageKind.PUMP_REPAIRED_ACKNOWLEDGEMENT_n,
+      MessageKind.PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n };
+
+  /**
+   * This stores the MODE_m message of each mode, by ordinal.
+   */
+  private final Message[] modes;
+  /**
+   * This stores the message of each kind in SIGNALS, by kind ordinal.
+   */
+  private final Message[] signals;
+  /**
+   * This stores the messages of each kind in PUMP_SIGNALS for each pump, by
+   * kind ordinal and then by pump.
+   */
+  private final Message[][] pumps;
+
+  /**
+   * Construct the table of messages for a given number of pumps.
+   *
+   * @param numberOfPumps
+   *          the number of pumps
+   */
+  MessageTable(int numberOfPumps) {
+    Mailbox.Mode[] allModes = Mailbox.Mode.values();
+    this.modes = new Message[allModes.length];
+    for (int m = 0; m < allModes.length; m++) {
+      Mailbox.Mode mode = allModes[m];
+      assert (mode != null);
+      this.modes[m] = new Message(MessageKind.MODE_m, mode);
+    }
+    int kinds = MessageKind.values().length;
+    this.signals = new Message[kinds];
+    for (MessageKind kind : SIGNALS) {
+      assert (kind != null);
+      this.signals[kind.ordinal()] = new Message(kind);
+    }
+    this.pumps = new Message[kinds][];
+    for (MessageKind kind : PUMP_SIGNALS) {
+      assert (kind != null);
+      Message[] messages = new Message[numberOfPumps];
+      for (int i = 0; i < numberOfPumps; i++) {
+        messages[i] = new Message(kind, i);
+      }
+      this.pumps[kind.ordinal()] = messages;
+    }
+  }
+
+  /**
+   * This returns the MODE_m message for a mode.
+   *
+   * @param mode
+   *          the mode
+   * @return the message
+   */
+  Message mode(Mailbox.Mode mode) {
+    Message message = this.modes[mode.ordinal()];
+    assert (message != null);
+    return message;
+  }
+
+  /**
+   * This returns the message of a kind sent without a parameter.
+   *
+   * @param kind
+   *          the kind, one of PROGRAM_READY, VALVE, the level and steam failure
+   *          detections and the level and steam repair acknowledgements
+   * @return the message
+   */
+  Message signal(MessageKind kind) {
+    Message message = this.signals[kind.ordinal()];
+    assert (message != null);
+    return message;
+  }
+
+  /**
+   * This returns the message of a kind sent with a pump parameter.
+   *
+   * @param kind
+   *          the kind, one of opening and closing a pump, the pump and pump
+   *          controller failure detections and their repair acknowledgements
+   * @param pump
+   *          the pump
+   * @return the message
+   */
+  Message pump(MessageKind kind, int pump) {
+    Message[] messages = this.pumps[kind.ordinal()];
+    assert (messages != null);
+    Message message = messages[pump];
+    assert (message != null);
+    return message;
+  }
+}
@@ -0,0 +1,181 @@
+package steam.boiler.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * The published state of a controller is written once per cycle by the thread
+ * clocking it and read by any number of monitoring threads, using a sequence
+ * lock. The writer makes the sequence odd, writes the record and makes the
+ * sequence even again; a reader copies the record between two reads of the
+ * sequence and starts over if they differ or are odd. So the writer never
+ * waits for a reader, and a reader never sees half of one cycle and half of
+ * another.
+ *
+ * <p>The record is a flat array of longs. The sequence is written with a
+ * volatile store when it becomes odd, so no part of the record can be seen
+ * before it, and every other store is an ordered store, which costs no fence.
+ * This keeps a write down to a single fence however many pumps there are.
+ */
+final class PublishedState {
+  /**
+   * This is the slot of the cycle.
+   */
+  private static final int CYCLE = 0;
+  /**
+   * This is the slot of the mode, the valve and the number of pumps on.
+   */
+  private static final int FLAGS = 1;
+  /**
+   * This is the slot of the water level.
+   */
+  private static final int LEVEL = 2;
+  /**
+   * This is the slot of the steam rate.
+   */
+  private static final int STEAM = 3;
+  /**
+   * This is the first slot of the bitmaps.
+   */
+  private static final int BITMAPS = 4;
+  /**
+   * This is how many failed attempts a reader makes before yielding.
+   */
+  private static final int SPINS = 64;
+  /**
+   * These are the modes, by ordinal.
+   */
+  private static final Mailbox.Mode[] MODES = Mailbox.Mode.values();
+
+  /**
+   * This is the sequence, which is odd while a write is in progress.
+   */
+  private final AtomicLong sequence = new AtomicLong();
+  /**
+   * This is the record.
+   */
+  private final AtomicLongArray record;
+  /**
+   * This is the number of words in each bitmap.
+   */
+  private final int words;
+
+  /**
+   * Construct the published state of a controller with a given number of
+   * pumps.
+   *
+   * @param numberOfPumps
+   *          the number of pumps
+   */
+  PublishedState(int numberOfPumps) {
+    this.words = wordsFor(numberOfPumps);
+    this.record = new AtomicLongArray(BITMAPS + 3 * this.words);
+  }
+
+  /**
+   * This returns the number of words in a bitmap of pumps.
+   *
+   * @param numberOfPumps
+   *          the number of pumps
+   * @return the number of words
+   */
+  static int wordsFor(int numberOfPumps) {
+    return (numberOfPumps + 63) >>> 6;
+  }
+
+  /**
+   * This publishes the state of a cycle. It must only be called by the thread
+   * clocking the controller.
+   *
+   * @param cycle
+   *          the cycle
+   * @param mode
+   *          the mode
+   * @param level
+   *          the water level read
+   * @param steam
+   *          the steam rate read
+   * @param valveOpen
+   *          whether the valve is open
+   * @param pumpsOn
+   *          the number of pumps on
+   * @param pumps
+   *          the state of each pump
+   * @param pumpFailures
+   *          the failures of each pump, -1 for a working pump
+   * @param controllerFailures
+   *          the failures of each pump controller, -1 for a working one
+   */
+  void write(long cycle, Mailbox.Mode mode, double level, double steam, boolean valveOpen,
+      int pumpsOn, boolean[] pumps, int[] pumpFailures, int[] controllerFailures) {
+    long s = this.sequence.get();
+    this.sequence.set(s + 1);
+    AtomicLongArray r = this.record;
+    r.lazySet(CYCLE, cycle);
+    r.lazySet(FLAGS, ((long) pumpsOn << 16) | (valveOpen ? 0x100 : 0) | mode.ordinal());
+    r.lazySet(LEVEL, Double.doubleToRawLongBits(level));
+    r.lazySet(STEAM, Double.doubleToRawLongBits(steam));
+    for (int w = 0; w < this.words; w++) {
+      long open = 0;
+      long failed = 0;
+      long failedControllers = 0;
+      int end = Math.min(pumps.length, (w + 1) << 6);
+      for (int i = w << 6; i < end; i++) {
+        long bit = 1L << i;
+        if (pumps[i]) {
+          open |= bit;
+        }
+        if (pumpFailures[i] != -1) {
+          failed |= bit;
+        }
+        if (controllerFailures[i] != -1) {
+          failedControllers |= bit;
+        }
+      }
+      r.lazySet(BITMAPS + w, open);
+      r.lazySet(BITMAPS + this.words + w, failed);
+      r.lazySet(BITMAPS + 2 * this.words + w, failedControllers);
+    }
+    this.sequence.lazySet(s + 2);
+  }
+
+  /**
+   * This copies the latest state published into a snapshot, trying again for
+   * as long as a write gets in the way.
+   *
+   * @param snapshot
+   *          the snapshot to fill, for the same number of pumps
+   * @return the number of attempts which had to be thrown away
+   */
+  int read(StateSnapshot snapshot) {
+    assert (snapshot.pumps.length == this.words);
+    AtomicLongArray r = this.record;
+    for (int retries = 0;; retries++) {
+      long before = this.sequence.get();
+      if ((before & 1) == 0) {
+        long flags = r.get(FLAGS);
+        snapshot.cycle = r.get(CYCLE);
+        snapshot.level = Double.longBitsToDouble(r.get(LEVEL));
+        snapshot.steam = Double.longBitsToDouble(r.get(STEAM));
+        for (int w = 0; w < this.words; w++) {
+          snapshot.pumps[w] = r.get(BITMAPS + w);
+          snapshot.failedPumps[w] = r.get(BITMAPS + this.words + w);
+          snapshot.failedControllers[w] = r.get(BITMAPS + 2 * this.words + w);
+        }
+        if (this.sequence.get() == before) {
+          Mailbox.Mode mode = MODES[(int) (flags & 0xFF)];
+          assert (mode != null);
+          snapshot.mode = mode;
+          snapshot.valveOpen = (flags & 0x100) != 0;
+          snapshot.pumpsOn = (int) (flags >>> 16);
+          return retries;
+        }
+      }
+      if (retries >= SPINS) {
+        Thread.yield();
+      }
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This is a precomputed table of the total capacities that can be reached by
+ * opening a subset of the pumps. Pumps with the same capacity are
+ * interchangeable, so they are grouped into capacity classes and a subset is
+ * described by how many pumps of each class it opens. Pumps without any capacity
+ * never help and are left out. The entries are sorted by total capacity, and
+ * entries with the same capacity by the number of pumps they open, so that a
+ * {@link PumpSelection} can keep the entry with the fewest pumps for each
+ * capacity the working pumps can reach.
+ */
+final class PumpCombinations {
+  /**
+   * This is the largest number of entries the table is allowed to have. Plants
+   * with more distinct pump capacities than this supports choose their pumps with
+   * {@link #fillGreedy(double, int[], boolean[])} instead.
+   */
+  static final int MAX_ENTRIES = 4096;
+  /**
+   * This is the tolerance used when comparing capacities.
+   */
+  private static final double EPSILON = 1e-9;
+
+  /**
+   * This is the capacity of each class, in ascending order.
+   */
+  private final double[] classCapacity;
+  /**
+   * This stores the pump ids in each class, in ascending order.
+   */
+  private final int[][] classMembers;
+  /**
+   * This maps each pump id to its class.
+   */
+  private final int[] pumpClass;
+  /**
+   * This is the total capacity of each entry, in ascending order.
+   */
+  private final double[] entryCapacity;
+  /**
+   * This is the number of pumps each entry opens.
+   */
+  private final int[] entryPumps;
+  /**
+   * This stores how many pumps of each class an entry opens. The counts for entry
+   * e start at e * number of classes.
+   */
+  private final int[] entryCounts;
+  /**
+   * This is true when the table could be built within MAX_ENTRIES.
+   */
+  private final boolean complete;
+
+  /**
+   * Construct the pump combination table for a given set of characteristics.
+   *
+   * @param configuration
+   *          The boiler characteristics to be used.
+   */
+  PumpCombinations(SteamBoilerCharacteristics configuration) {
+    int pumps = configuration.getNumberOfPumps();
+    double[] capacities = new double[pumps];
+    for (int i = 0; i < pumps; i++) {
+      capacities[i] = configuration.getPumpCapacity(i);
+    }
+    // group the pumps into classes of equal capacity
+    double[] sorted = capacities.clone();
+    Arrays.sort(sorted);
+    int classes = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] - sorted[i - 1] > EPSILON) {
+        sorted[classes++] = sorted[i];
+      }
+    }
+    this.classCapacity = Arrays.copyOf(sorted, classes);
+    this.pumpClass = new int[pumps];
+    int[] classSize = new int[classes];
+    for (int i = 0; i < pumps; i++) {
+      this.pumpClass[i] = classOf(capacities[i]);
+      classSize[this.pumpClass[i]]++;
+    }
+    this.classMembers = new int[classes][];
+    for (int c = 0; c < classes; c++) {
+      this.classMembers[c] = new int[classSize[c]];
+      classSize[c] = 0;
+    }
+    for (int i = 0; i < pumps; i++) {
+      int c = this.pumpClass[i];
+      this.classMembers[c][classSize[c]++] = i;
+    }
+
+    // pumps without any capacity never help, so they are dominated
+    int firstUseful = 0;
+    while (firstUseful < classes && this.classCapacity[firstUseful] <= EPSILON) {
+      firstUseful++;
+    }
+    long entries = 1;
+    for (int c = firstUseful; c < classes && entries <= MAX_ENTRIES; c++) {
+      entries *= this.classMembers[c].length + 1;
+    }
+    this.complete = entries <= MAX_ENTRIES;
+    if (!this.complete) {
+      this.entryCapacity = new double[0];
+      this.entryPumps = new int[0];
+      this.entryCounts = new int[0];
+      return;
+    }
+
+    // enumerate every count vector as a mixed radix number
+    int size = (int) entries;
+    double[] capacity = new double[size];
+    int[] opened = new int[size];
+    int[] counts = new int[size * classes];
+    int[] digits = new int[classes];
+    for (int e = 0; e < size; e++) {
+      double total = 0;
+      for (int c = firstUseful; c < classes; c++) {
+        counts[e * classes + c] = digits[c];
+        total += digits[c] * this.classCapacity[c];
+        opened[e] += digits[c];
+      }
+      capacity[e] = total;
+      for (int c = firstUseful; c < classes; c++) {
+        if (digits[c] < this.classMembers[c].length) {
+          digits[c]++;
+          break;
+        }
+        digits[c] = 0;
+      }
+    }
+
+    // sort the entries by capacity, then by the number of pumps opened
+    Integer[] order = new Integer[size];
+    for (int e = 0; e < size; e++) {
+      order[e] = Integer.valueOf(e);
+    }
+    Arrays.sort(order, (a, b) -> {
+      int byCapacity = Double.compare(capacity[a.intValue()], capacity[b.intValue()]);
+      return byCapacity != 0 ? byCapacity
+          : Integer.compare(opened[a.intValue()], opened[b.intValue()]);
+    });
+    this.entryCapacity = new double[size];
+    this.entryPumps = new int[size];
+    this.entryCounts = new int[size * classes];
+    for (int e = 0; e < size; e++) {
+      int from = order[e].intValue();
+      this.entryCapacity[e] = capacity[from];
+      this.entryPumps[e] = opened[from];
+      System.arraycopy(counts, from * classes, this.entryCounts, e * classes, classes);
+    }
+  }
+
+  /**
+   * This is a helper method which returns the class of a given capacity.
+   *
+   * @param capacity
+   *          the capacity of a pump
+   * @return the class of the pump
+   */
+  private int classOf(double capacity) {
+    int low = 0;
+    int high = this.classCapacity.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (this.classCapacity[mid] < capacity - EPSILON) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * This returns true if every pump has the same capacity, in which case opening
+   * pumps in index order is already optimal.
+   *
+   * @return true if all the pumps have the same capacity
+   */
+  boolean isUniform() {
+    return this.classCapacity.length <= 1;
+  }
+
+  /**
+   * This returns true if the table covers every subset of the pumps.
+   *
+   * @return true if the table could be built
+   */
+  boolean isComplete() {
+    return this.complete;
+  }
+
+  /**
+   * This returns the number of capacity classes.
+   *
+   * @return the number of capacity classes
+   */
+  int getNumberOfClasses() {
+    return this.classCapacity.length;
+  }
+
+  /**
+   * This counts the pumps of each class that are not broken.
+   *
+   * @param pumpFailures
+   *          the failure array of the controller, -1 for a working pump
+   * @param available
+   *          the number of working pumps of each class is written here
+   */
+  void countAvailable(int[] pumpFailures, int[] available) {
+    Arrays.fill(available, 0);
+    for (int i = 0; i < pumpFailures.length; i++) {
+      if (pumpFailures[i] == -1) {
+        available[this.pumpClass[i]]++;
+      }
+    }
+  }
+
+  /**
+   * This returns the number of entries in the table.
+   *
+   * @return the number of entries, zero if the table is not complete
+   */
+  int getNumberOfEntries() {
+    return this.entryCapacity.length;
+  }
+
+  /**
+   * This checks whether an entry only uses working pumps.
+   *
+   * @param entry
+   *          the entry to check
+   * @param available
+   *          the number of working pumps of each class
+   * @return true if the entry can be opened
+   */
+  boolean fits(int entry, int[] available) {
+    int classes = this.classCapacity.length;
+    for (int c = 0; c < classes; c++) {
+      if (this.entryCounts[entry * classes + c] > available[c]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * This returns true if two entries have the same total capacity.
+   *
+   * @param first
+   *          the first entry
+   * @param second
+   *          the second entry
+   * @return true if the capacities are equal
+   */
+  boolean isSameCapacity(int first, int second) {
+    return Math.abs(this.entryCapacity[first] - this.entryCapacity[second]) <= EPSILON;
+  }
+
+  /**
+   * This returns the number of pumps an entry opens.
+   *
+   * @param entry
+   *          the entry
+   * @return the number of pumps opened
+   */
+  int getPumps(int entry) {
+    return this.entryPumps[entry];
+  }
+
+  /**
+   * This returns the total capacity of an entry.
+   *
+   * @param entry
+   *          the entry
+   * @return the total capacity of the entry
+   */
+  double getCapacity(int entry) {
+    return this.entryCapacity[entry];
+  }
+
+  /**
+   * This marks the pumps that an entry opens. Within each class the working pumps
+   * with the lowest ids are chosen.
+   *
+   * @param entry
+   *          the entry to open
+   * @param pumpFailures
+   *          the failure array of the controller, -1 for a working pump
+   * @param selected
+   *          set to true for every pump that should be open
+   */
+  void fill(int entry, int[] pumpFailures, boolean[] selected) {
+    Arrays.fill(selected, false);
+    int classes = this.classCapacity.length;
+    for (int c = 0; c < classes; c++) {
+      int wanted = this.entryCounts[entry * classes + c];
+      int[] members = this.classMembers[c];
+      for (int m = 0; m < members.length && wanted > 0; m++) {
+        if (pumpFailures[members[m]] == -1) {
+          selected[members[m]] = true;
+          wanted--;
+        }
+      }
+    }
+  }
+
+  /**
+   * This marks the pumps to open on plants whose table is not complete. Working
+   * pumps are taken from the largest class down as long as they do not go past
+   * the target, and then the smallest working pump left is added if that brings
+   * the total closer to the target. This is not always the closest subset, but
+   * it takes time linear in the number of pumps.
+   *
+   * @param target
+   *          the inflow that is wanted
+   * @param pumpFailures
+   *          the failure array of the controller, -1 for a working pump
+   * @param selected
+   *          set to true for every pump that should be open
+   * @return the total capacity of the pumps selected
+   */
+  double fillGreedy(double target, int[] pumpFailures, boolean[] selected) {
+    Arrays.fill(selected, false);
+    double total = 0;
+    int smallest = -1;
+    for (int c = this.classCapacity.length - 1; c >= 0; c--) {
+      double capacity = this.classCapacity[c];
+      if (capacity <= EPSILON) {
+        break;
+      }
+      for (int member : this.classMembers[c]) {
+        if (pumpFailures[member] != -1) {
+          continue;
+        }
+        if (total + capacity <= target + EPSILON) {
+          selected[member] = true;
+          total += capacity;
+        } else {
+          smallest = member;
+        }
+      }
+    }
+    if (smallest != -1) {
+      double capacity = this.classCapacity[this.pumpClass[smallest]];
+      if (total + capacity - target < target - total) {
+        selected[smallest] = true;
+        total += capacity;
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,146 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+/**
+ * This chooses the subset of working pumps whose capacity is closest to a
+ * target inflow. It keeps the entries of a {@link PumpCombinations} table that
+ * the working pumps can open, one for each capacity they can reach, namely the
+ * one opening the fewest pumps. Each choice is then a binary search over that
+ * filtered table. The filtered table only has to be rebuilt when the number of
+ * working pumps in some capacity class changes, that is when a pump fails or is
+ * repaired.
+ *
+ * <p>The combination table is shared by every controller of a configuration,
+ * but a selection belongs to a single controller.
+ */
+final class PumpSelection {
+  /**
+   * This is the table the entries are taken from.
+   */
+  private final PumpCombinations combinations;
+  /**
+   * This is the number of working pumps of each class the filtered table was
+   * built for.
+   */
+  private final int[] available;
+  /**
+   * This is used to count the working pumps of each class in the current cycle.
+   */
+  private final int[] counted;
+  /**
+   * This stores the filtered entries, in ascending order of capacity.
+   */
+  private final int[] entries;
+  /**
+   * This is the number of filtered entries.
+   */
+  private int size;
+  /**
+   * This is true once the filtered table has been built.
+   */
+  private boolean built;
+
+  /**
+   * Construct a selection from a given combination table.
+   *
+   * @param combinations
+   *          the table of pump subsets
+   */
+  PumpSelection(PumpCombinations combinations) {
+    this.combinations = combinations;
+    this.available = new int[combinations.getNumberOfClasses()];
+    this.counted = new int[combinations.getNumberOfClasses()];
+    this.entries = new int[combinations.getNumberOfEntries()];
+  }
+
+  /**
+   * This returns the table the entries are taken from.
+   *
+   * @return the table of pump subsets
+   */
+  PumpCombinations getCombinations() {
+    return this.combinations;
+  }
+
+  /**
+   * This marks the working pumps to open so that their total capacity is as close
+   * as possible to the target inflow. On plants whose table is not complete the
+   * pumps are chosen greedily instead.
+   *
+   * @param target
+   *          the inflow that is wanted
+   * @param pumpFailures
+   *          the failure array of the controller, -1 for a working pump
+   * @param selected
+   *          set to true for every pump that should be open
+   * @return the total capacity of the pumps selected
+   */
+  double select(double target, int[] pumpFailures, boolean[] selected) {
+    PumpCombinations combinations1 = this.combinations;
+    if (!combinations1.isComplete()) {
+      return combinations1.fillGreedy(target, pumpFailures, selected);
+    }
+    combinations1.countAvailable(pumpFailures, this.counted);
+    if (!this.built || !Arrays.equals(this.counted, this.available)) {
+      rebuild();
+    }
+    int entry = this.entries[nearest(target)];
+    combinations1.fill(entry, pumpFailures, selected);
+    return combinations1.getCapacity(entry);
+  }
+
+  /**
+   * This is a helper method which rebuilds the filtered table for the working
+   * pumps just counted. Since the table is sorted by capacity and then by the
+   * number of pumps, the first entry that fits for each capacity opens the fewest
+   * pumps.
+   */
+  private void rebuild() {
+    PumpCombinations combinations1 = this.combinations;
+    System.arraycopy(this.counted, 0, this.available, 0, this.counted.length);
+    int count = 0;
+    for (int e = 0; e < combinations1.getNumberOfEntries(); e++) {
+      if (!combinations1.fits(e, this.available)) {
+        continue;
+      }
+      if (count > 0 && combinations1.isSameCapacity(this.entries[count - 1], e)) {
+        if (combinations1.getPumps(e) < combinations1.getPumps(this.entries[count - 1])) {
+          this.entries[count - 1] = e;
+        }
+        continue;
+      }
+      this.entries[count++] = e;
+    }
+    this.size = count;
+    this.built = true;
+  }
+
+  /**
+   * This is a helper method which finds the filtered entry whose capacity is
+   * closest to the target by binary search.
+   *
+   * @param target
+   *          the inflow that is wanted
+   * @return the position of the entry in the filtered table
+   */
+  private int nearest(double target) {
+    // the empty subset always fits, so the filtered table is never empty
+    assert (this.size > 0);
+    int low = 0;
+    int high = this.size - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (this.combinations.getCapacity(this.entries[mid]) < target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (low > 0 && target - this.combinations.getCapacity(this.entries[low - 1])
+        < this.combinations.getCapacity(this.entries[low]) - target) {
+      return low - 1;
+    }
+    return low;
+  }
+}
@@ -0,0 +1,405 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A reading history remembers the readings and commands of the last few cycles
+ * of a controller in a fixed-size ring of primitive arrays. The rolling mean
+ * and least-squares slope of the level and steam, and the minimum and maximum
+ * level, are kept up to date as each cycle is recorded, so reading them costs
+ * O(1) and recording a cycle costs amortised O(1). Nothing is allocated after
+ * construction.
+ *
+ * <p>A history belongs to the thread clocking its controller.
+ */
+public final class ReadingHistory {
+  /**
+   * This is the number of cycles remembered.
+   */
+  private final int capacity;
+  /**
+   * This stores the water levels.
+   */
+  private final double[] levels;
+  /**
+   * This stores the steam outputs.
+   */
+  private final double[] steams;
+  /**
+   * This stores the number of pumps commanded open.
+   */
+  private final int[] pumps;
+  /**
+   * This stores the ordinals of the modes.
+   */
+  private final byte[] modes;
+  /**
+   * This is the number of cycles recorded since construction.
+   */
+  private long recorded;
+  /**
+   * This is the sum of the levels in the window.
+   */
+  private double levelSum;
+  /**
+   * This is the sum of the levels in the window weighted by their position,
+   * where the oldest is at position zero.
+   */
+  private double levelMoment;
+  /**
+   * This is the sum of the steam outputs in the window.
+   */
+  private double steamSum;
+  /**
+   * This is the sum of the steam outputs in the window weighted by their
+   * position.
+   */
+  private double steamMoment;
+  /**
+   * This is a ring of cycle numbers whose levels increase from head to tail,
+   * so the head is the minimum of the window.
+   */
+  private final long[] minimums;
+  /**
+   * This is a ring of cycle numbers whose levels decrease from head to tail,
+   * so the head is the maximum of the window.
+   */
+  private final long[] maximums;
+  /**
+   * This is the position of the head of the minimum ring.
+   */
+  private int minHead;
+  /**
+   * This is the position after the tail of the minimum ring.
+   */
+  private int minTail;
+  /**
+   * This is the position of the head of the maximum ring.
+   */
+  private int maxHead;
+  /**
+   * This is the position after the tail of the maximum ring.
+   */
+  private int maxTail;
+
+  /**
+   * Construct an empty history.
+   *
+   * @param capacity
+   *          the number of cycles to remember
+   */
+  public ReadingHistory(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.levels = new double[capacity];
+    this.steams = new double[capacity];
+    this.pumps = new int[capacity];
+    this.modes = new byte[capacity];
+    // one spare slot tells a full ring from an empty one
+    this.minimums = new long[capacity + 1];
+    this.maximums = new long[capacity + 1];
+  }
+
+  /**
+   * This records a cycle, replacing the oldest one if the history is full.
+   *
+   * @param level
+   *          the water level
+   * @param steam
+   *          the steam output
+   * @param pumpsOn
+   *          the number of pumps commanded open
+   * @param mode
+   *          the mode at the end of the cycle
+   */
+  public void record(double level, double steam, int pumpsOn, Mailbox.Mode mode) {
+    int n = size();
+    int slot = (int) (this.recorded % this.capacity);
+    if (n == this.capacity) {
+      // the oldest reading is at position zero, so it has no weight, and every
+      // other reading moves down one position
+      this.levelSum -= this.levels[slot];
+      this.levelMoment -= this.levelSum;
+      this.steamSum -= this.steams[slot];
+      this.steamMoment -= this.steamSum;
+      n--;
+    }
+    this.levels[slot] = level;
+    this.steams[slot] = steam;
+    this.pumps[slot] = pumpsOn;
+    this.modes[slot] = (byte) mode.ordinal();
+    this.levelSum += level;
+    this.levelMoment += n * level;
+    this.steamSum += steam;
+    this.steamMoment += n * steam;
+    updateExtremes(level);
+    this.recorded++;
+    if (slot == this.capacity - 1) {
+      resynchronise();
+    }
+  }
+
+  /**
+   * This is a helper method which adds the latest level to the rings of
+   * minimums and maximums, dropping cycles which have left the window or can
+   * no longer be an extreme.
+   *
+   * @param level
+   *          the latest level
+   */
+  private void updateExtremes(double level) {
+    long oldest = this.recorded - this.capacity + 1;
+    if (this.minHead != this.minTail && this.minimums[this.minHead] < oldest) {
+      this.minHead = next(this.minHead);
+    }
+    while (this.minHead != this.minTail
+        && levelOf(this.minimums[previous(this.minTail)]) >= level) {
+      this.minTail = previous(this.minTail);
+    }
+    this.minimums[this.minTail] = this.recorded;
+    this.minTail = next(this.minTail);
+    if (this.maxHead != this.maxTail && this.maximums[this.maxHead] < oldest) {
+      this.maxHead = next(this.maxHead);
+    }
+    while (this.maxHead != this.maxTail
+        && levelOf(this.maximums[previous(this.maxTail)]) <= level) {
+      this.maxTail = previous(this.maxTail);
+    }
+    this.maximums[this.maxTail] = this.recorded;
+    this.maxTail = next(this.maxTail);
+  }
+
+  /**
+   * This is a helper method which recomputes the running sums from the stored
+   * readings, so that rounding errors cannot build up. It is called once every
+   * time the ring wraps round.
+   */
+  private void resynchronise() {
+    this.levelSum = 0;
+    this.levelMoment = 0;
+    this.steamSum = 0;
+    this.steamMoment = 0;
+    for (int i = 0; i < this.capacity; i++) {
+      // the ring is full and has just wrapped, so slot i is at position i
+      this.levelSum += this.levels[i];
+      this.levelMoment += i * this.levels[i];
+      this.steamSum += this.steams[i];
+      this.steamMoment += i * this.steams[i];
+    }
+  }
+
+  /**
+   * This is a helper method which moves forward one place in a ring of cycle
+   * numbers.
+   *
+   * @param index
+   *          the position
+   * @return the next position
+   */
+  private int next(int index) {
+    return index == this.capacity ? 0 : index + 1;
+  }
+
+  /**
+   * This is a helper method which moves back one place in a ring of cycle
+   * numbers.
+   *
+   * @param index
+   *          the position
+   * @return the previous position
+   */
+  private int previous(int index) {
+    return index == 0 ? this.capacity : index - 1;
+  }
+
+  /**
+   * This is a helper method which returns the level of a cycle in the window.
+   *
+   * @param cycle
+   *          the cycle number
+   * @return the level
+   */
+  private double levelOf(long cycle) {
+    return this.levels[(int) (cycle % this.capacity)];
+  }
+
+  /**
+   * This returns the number of cycles the history can hold.
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return this.capacity;
+  }
+
+  /**
+   * This returns the number of cycles in the history.
+   *
+   * @return the number of cycles, at most the capacity
+   */
+  public int size() {
+    return (int) Math.min(this.recorded, this.capacity);
+  }
+
+  /**
+   * This is a helper method which finds the slot of a cycle by its age.
+   *
+   * @param age
+   *          0 for the latest cycle, 1 for the one before and so on
+   * @return the slot
+   */
+  private int slotOf(int age) {
+    if (age < 0 || age >= size()) {
+      throw new IndexOutOfBoundsException("age " + age + " of " + size());
+    }
+    return (int) ((this.recorded - 1 - age) % this.capacity);
+  }
+
+  /**
+   * This returns the level of a recent cycle.
+   *
+   * @param age
+   *          0 for the latest cycle, 1 for the one before and so on
+   * @return the water level
+   */
+  public double getLevel(int age) {
+    return this.levels[slotOf(age)];
+  }
+
+  /**
+   * This returns the steam output of a recent cycle.
+   *
+   * @param age
+   *          0 for the latest cycle, 1 for the one before and so on
+   * @return the steam output
+   */
+  public double getSteam(int age) {
+    return this.steams[slotOf(age)];
+  }
+
+  /**
+   * This returns the number of pumps commanded open in a recent cycle.
+   *
+   * @param age
+   *          0 for the latest cycle, 1 for the one before and so on
+   * @return the number of pumps
+   */
+  public int getPumpsOn(int age) {
+    return this.pumps[slotOf(age)];
+  }
+
+  /**
+   * This returns the mode at the end of a recent cycle.
+   *
+   * @param age
+   *          0 for the latest cycle, 1 for the one before and so on
+   * @return the mode
+   */
+  public Mailbox.Mode getMode(int age) {
+    Mailbox.Mode mode = Mailbox.Mode.values()[this.modes[slotOf(age)]];
+    assert (mode != null);
+    return mode;
+  }
+
+  /**
+   * This returns the mean level over the window.
+   *
+   * @return the mean, or NaN if the history is empty
+   */
+  public double getMeanLevel() {
+    return this.levelSum / size();
+  }
+
+  /**
+   * This returns the mean steam output over the window.
+   *
+   * @return the mean, or NaN if the history is empty
+   */
+  public double getMeanSteam() {
+    return this.steamSum / size();
+  }
+
+  /**
+   * This returns the least-squares slope of the level over the window.
+   *
+   * @return the change in level per cycle, or zero with fewer than two cycles
+   */
+  public double getLevelSlope() {
+    return slope(this.levelSum, this.levelMoment);
+  }
+
+  /**
+   * This returns the least-squares slope of the steam output over the window.
+   *
+   * @return the change in steam output per cycle, or zero with fewer than two
+   *         cycles
+   */
+  public double getSteamSlope() {
+    return slope(this.steamSum, this.steamMoment);
+  }
+
+  /**
+   * This is a helper method which computes a least-squares slope, where the
+   * positions of the readings are 0 to n-1.
+   *
+   * @param sum
+   *          the sum of the readings
+   * @param moment
+   *          the sum of the readings weighted by position
+   * @return the slope
+   */
+  private double slope(double sum, double moment) {
+    double n = size();
+    if (n < 2) {
+      return 0;
+    }
+    double sumX = n * (n - 1) / 2;
+    double sumXx = (n - 1) * n * (2 * n - 1) / 6;
+    return (n * moment - sumX * sum) / (n * sumXx - sumX * sumX);
+  }
+
+  /**
+   * This returns the lowest level in the window.
+   *
+   * @return the lowest level, or NaN if the history is empty
+   */
+  public double getMinLevel() {
+    return size() == 0 ? Double.NaN : levelOf(this.minimums[this.minHead]);
+  }
+
+  /**
+   * This returns the highest level in the window.
+   *
+   * @return the highest level, or NaN if the history is empty
+   */
+  public double getMaxLevel() {
+    return size() == 0 ? Double.NaN : levelOf(this.maximums[this.maxHead]);
+  }
+
+  /**
+   * This copies this history into another of the same capacity.
+   *
+   * @param target
+   *          the history to copy into
+   */
+  public void copyTo(ReadingHistory target) {
+    assert (target.capacity == this.capacity);
+    System.arraycopy(this.levels, 0, target.levels, 0, this.capacity);
+    System.arraycopy(this.steams, 0, target.steams, 0, this.capacity);
+    System.arraycopy(this.pumps, 0, target.pumps, 0, this.capacity);
+    System.arraycopy(this.modes, 0, target.modes, 0, this.capacity);
+    System.arraycopy(this.minimums, 0, target.minimums, 0, this.minimums.length);
+    System.arraycopy(this.maximums, 0, target.maximums, 0, this.maximums.length);
+    target.recorded = this.recorded;
+    target.levelSum = this.levelSum;
+    target.levelMoment = this.levelMoment;
+    target.steamSum = this.steamSum;
+    target.steamMoment = this.steamMoment;
+    target.minHead = this.minHead;
+    target.minTail = this.minTail;
+    target.maxHead = this.maxHead;
+    target.maxTail = this.maxTail;
+  }
+}
@@ -1,11 +1,34 @@
 package steam.boiler.core;
 
 //import steam.boiler.model.PhysicalUnits;
+import java.util.Arrays;
+
+import steam.boiler.simulation.HeadlessSimulation;
 import steam.boiler.simulator.SimulationCharacteristicsDialog;
 
 public class Simulation {
 	
-  public static void main(String[] args) {
+  /**
+   * Start the simulation. With <code>--headless</code> as the first argument the
+   * simulation runs without the Swing simulator, see {@link HeadlessSimulation}
+   * for the remaining arguments.
+   *
+   * @param args the command line arguments
+   * @throws Exception if the headless simulation fails
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--headless")) {
+      HeadlessSimulation.main(Arrays.copyOfRange(args, 1, args.length));
+    } else {
+      openDialog();
+    }
+  }
+
+  /**
+   * This opens the Swing simulator. It is kept in its own method so that the
+   * Swing classes are only loaded when the dialog is wanted.
+   */
+  private static void openDialog() {
     new SimulationCharacteristicsDialog();
   }
 }
@@ -0,0 +1,323 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A state key packs the state of a controller into a single long, so that
+ * states can be stored and compared cheaply. The key holds the mode, the valve,
+ * the number of pumps, the rounded water level and, for up to
+ * {@link #MAX_PUMPS} pumps, which pumps are open and which pumps and pump
+ * controllers have failed.
+ *
+ * <p>The rest of the state which drives the controller is packed into a second
+ * long, the detail: the previous and predicted water levels and the number of
+ * pumps on, exactly as far as the levels are rounded to the litre, and the
+ * reading history, which is quantised. The history only acts through the limit
+ * forecast, which is worked out afresh from the readings and the history every
+ * cycle, and the forecast only uses the last change in level, which is the
+ * difference of the two levels in the detail, and the slope of the level over
+ * the window. So the detail keeps whether there is a slope yet and the slope
+ * rounded to a litre per cycle. Two states which differ only in histories with
+ * the same rounded slope share a key and a detail, although their slopes may
+ * differ later.
+ */
+public final class StateKey {
+  /**
+   * This is the largest number of pumps a key can describe exactly.
+   */
+  public static final int MAX_PUMPS = 12;
+  /**
+   * This is the position of the valve bit.
+   */
+  private static final int VALVE_SHIFT = 3;
+  /**
+   * This is the position of the number of pumps.
+   */
+  private static final int NUMBER_SHIFT = 4;
+  /**
+   * This is the position of the water level.
+   */
+  private static final int LEVEL_SHIFT = 10;
+  /**
+   * This is the position of the open pump bitmap.
+   */
+  private static final int OPEN_SHIFT = 26;
+  /**
+   * This is the position of the pump failure bitmap.
+   */
+  private static final int PUMP_FAILURE_SHIFT = 38;
+  /**
+   * This is the position of the pump controller failure bitmap.
+   */
+  private static final int CONTROLLER_FAILURE_SHIFT = 50;
+  /**
+   * This is the position of the predicted water level in the detail.
+   */
+  private static final int PREDICTED_SHIFT = 16;
+  /**
+   * This is the position of the number of pumps on in the detail, which is
+   * offset by {@link #PUMPS_ON_OFFSET}.
+   */
+  private static final int PUMPS_ON_SHIFT = 32;
+  /**
+   * This is added to the number of pumps on in the detail.
+   */
+  private static final int PUMPS_ON_OFFSET = 32;
+  /**
+   * This is the position of the level slope in the detail, which is offset by
+   * {@link #SLOPE_OFFSET}.
+   */
+  private static final int SLOPE_SHIFT = 38;
+  /**
+   * This is added to the level slope in the detail.
+   */
+  private static final int SLOPE_OFFSET = 2048;
+  /**
+   * This is the position of the bit set in the detail once the history has a
+   * slope.
+   */
+  private static final int TREND_SHIFT = 50;
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private StateKey() {
+  }
+
+  /**
+   * This packs the state of a controller into a key.
+   *
+   * @param mode
+   *          the mode of the controller
+   * @param valveOpen
+   *          true if the valve is open
+   * @param numberOfPumps
+   *          the number of pumps the controller is using
+   * @param waterLevel
+   *          the water level
+   * @param pumpOpen
+   *          which pumps are open
+   * @param pumpFailures
+   *          the failed pumps, -1 for a working pump
+   * @param controllerFailures
+   *          the failed pump controllers, -1 for a working controller
+   * @return the key of the state
+   */
+  static long encode(Mailbox.Mode mode, boolean valveOpen, int numberOfPumps,
+      double waterLevel, boolean[] pumpOpen, int[] pumpFailures, int[] controllerFailures) {
+    long level = level(waterLevel);
+    long key = mode.ordinal()
+        | (valveOpen ? 1L << VALVE_SHIFT : 0)
+        | ((long) Math.max(0, Math.min(63, numberOfPumps)) << NUMBER_SHIFT)
+        | (level << LEVEL_SHIFT);
+    int pumps = Math.min(MAX_PUMPS, pumpOpen.length);
+    for (int i = 0; i < pumps; i++) {
+      if (pumpOpen[i]) {
+        key |= 1L << (OPEN_SHIFT + i);
+      }
+      if (pumpFailures[i] != -1) {
+        key |= 1L << (PUMP_FAILURE_SHIFT + i);
+      }
+      if (controllerFailures[i] != -1) {
+        key |= 1L << (CONTROLLER_FAILURE_SHIFT + i);
+      }
+    }
+    return key;
+  }
+
+  /**
+   * This packs the rest of the state of a controller into a detail.
+   *
+   * @param prevWaterLevel
+   *          the water level of the previous cycle
+   * @param predictedWaterLevel
+   *          the predicted water level
+   * @param numPumpsOn
+   *          the number of pumps on
+   * @param history
+   *          the reading history
+   * @return the detail of the state
+   */
+  static long encodeDetail(double prevWaterLevel, double predictedWaterLevel, int numPumpsOn,
+      ReadingHistory history) {
+    long detail = level(prevWaterLevel)
+        | (level(predictedWaterLevel) << PREDICTED_SHIFT)
+        | ((long) Math.max(0, Math.min(63, numPumpsOn + PUMPS_ON_OFFSET)) << PUMPS_ON_SHIFT);
+    if (history.size() >= 2) {
+      long slope = Math.max(1 - SLOPE_OFFSET,
+          Math.min(SLOPE_OFFSET - 1, Math.round(history.getLevelSlope())));
+      detail |= ((slope + SLOPE_OFFSET) << SLOPE_SHIFT) | (1L << TREND_SHIFT);
+    }
+    return detail;
+  }
+
+  /**
+   * This is a helper method which packs a water level into 16 bits, rounded to
+   * the litre.
+   *
+   * @param waterLevel
+   *          the water level
+   * @return the packed level
+   */
+  private static long level(double waterLevel) {
+    return Math.max(0, Math.min(0xFFFF, Math.round(waterLevel) + 1));
+  }
+
+  /**
+   * This returns the mode of a key.
+   *
+   * @param key
+   *          the key
+   * @return the mode
+   */
+  public static Mailbox.Mode getMode(long key) {
+    Mailbox.Mode mode = Mailbox.Mode.values()[(int) (key & 7)];
+    assert (mode != null);
+    return mode;
+  }
+
+  /**
+   * This returns true if the valve of a key is open.
+   *
+   * @param key
+   *          the key
+   * @return true if the valve is open
+   */
+  public static boolean isValveOpen(long key) {
+    return (key & (1L << VALVE_SHIFT)) != 0;
+  }
+
+  /**
+   * This returns the number of pumps the controller of a key is using.
+   *
+   * @param key
+   *          the key
+   * @return the number of pumps
+   */
+  public static int getNumberOfPumps(long key) {
+    return (int) ((key >>> NUMBER_SHIFT) & 63);
+  }
+
+  /**
+   * This returns the rounded water level of a key.
+   *
+   * @param key
+   *          the key
+   * @return the water level
+   */
+  public static int getWaterLevel(long key) {
+    return (int) ((key >>> LEVEL_SHIFT) & 0xFFFF) - 1;
+  }
+
+  /**
+   * This returns true if a pump of a key is open.
+   *
+   * @param key
+   *          the key
+   * @param pump
+   *          the pump
+   * @return true if the pump is open
+   */
+  public static boolean isPumpOpen(long key, int pump) {
+    return (key & (1L << (OPEN_SHIFT + pump))) != 0;
+  }
+
+  /**
+   * This returns the bitmap of failed pumps of a key.
+   *
+   * @param key
+   *          the key
+   * @return the failed pumps
+   */
+  public static int getPumpFailures(long key) {
+    return (int) ((key >>> PUMP_FAILURE_SHIFT) & 0xFFF);
+  }
+
+  /**
+   * This returns the bitmap of failed pump controllers of a key.
+   *
+   * @param key
+   *          the key
+   * @return the failed pump controllers
+   */
+  public static int getControllerFailures(long key) {
+    return (int) ((key >>> CONTROLLER_FAILURE_SHIFT) & 0xFFF);
+  }
+
+  /**
+   * This returns the rounded water level of the previous cycle of a detail.
+   *
+   * @param detail
+   *          the detail
+   * @return the previous water level
+   */
+  public static int getPreviousWaterLevel(long detail) {
+    return (int) (detail & 0xFFFF) - 1;
+  }
+
+  /**
+   * This returns the rounded predicted water level of a detail.
+   *
+   * @param detail
+   *          the detail
+   * @return the predicted water level
+   */
+  public static int getPredictedWaterLevel(long detail) {
+    return (int) ((detail >>> PREDICTED_SHIFT) & 0xFFFF) - 1;
+  }
+
+  /**
+   * This returns the number of pumps on of a detail.
+   *
+   * @param detail
+   *          the detail
+   * @return the number of pumps on
+   */
+  public static int getPumpsOn(long detail) {
+    return (int) ((detail >>> PUMPS_ON_SHIFT) & 63) - PUMPS_ON_OFFSET;
+  }
+
+  /**
+   * This returns the rounded level slope of the history of a detail.
+   *
+   * @param detail
+   *          the detail
+   * @return the level slope, or zero if the history has no slope yet
+   */
+  public static int getLevelSlope(long detail) {
+    if ((detail & (1L << TREND_SHIFT)) == 0) {
+      return 0;
+    }
+    return (int) ((detail >>> SLOPE_SHIFT) & 0xFFF) - SLOPE_OFFSET;
+  }
+
+  /**
+   * This describes a key and its detail.
+   *
+   * @param key
+   *          the key
+   * @param detail
+   *          the detail
+   * @return a description of the state
+   */
+  public static String toString(long key, long detail) {
+    return toString(key) + " previous=" + getPreviousWaterLevel(detail) + " predicted="
+        + getPredictedWaterLevel(detail) + " on=" + getPumpsOn(detail) + " slope="
+        + getLevelSlope(detail);
+  }
+
+  /**
+   * This describes a key.
+   *
+   * @param key
+   *          the key
+   * @return a description of the key
+   */
+  public static String toString(long key) {
+    return getMode(key) + " level=" + getWaterLevel(key) + " valve="
+        + (isValveOpen(key) ? "open" : "closed") + " pumps=" + getNumberOfPumps(key)
+        + " open=" + Long.toBinaryString((key >>> OPEN_SHIFT) & 0xFFF) + " failed="
+        + Integer.toBinaryString(getPumpFailures(key)) + " controllersFailed="
+        + Integer.toBinaryString(getControllerFailures(key));
+  }
+}
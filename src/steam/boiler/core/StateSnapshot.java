@@ -0,0 +1,163 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A state snapshot is a consistent copy of the state a controller published at
+ * the end of a cycle: its mode, readings, valve, pumps and failed units. A
+ * reader owns its snapshot and refills it with
+ * {@link SteamBoilerController#readState(StateSnapshot)} as often as it likes,
+ * so sampling allocates nothing.
+ */
+public final class StateSnapshot {
+  /**
+   * This is the number of pumps.
+   */
+  private final int numberOfPumps;
+  /**
+   * This is the cycle the state was published at, zero before the first.
+   */
+  long cycle;
+  /**
+   * This is the mode of the controller.
+   */
+  Mailbox.Mode mode = Mailbox.Mode.INITIALISATION;
+  /**
+   * This is the water level read.
+   */
+  double level;
+  /**
+   * This is the steam rate read.
+   */
+  double steam;
+  /**
+   * This is true if the valve is open.
+   */
+  boolean valveOpen;
+  /**
+   * This is the number of pumps on.
+   */
+  int pumpsOn;
+  /**
+   * This is the bitmap of the pumps the controller has open.
+   */
+  final long[] pumps;
+  /**
+   * This is the bitmap of the pumps detected as failed.
+   */
+  final long[] failedPumps;
+  /**
+   * This is the bitmap of the pump controllers detected as failed.
+   */
+  final long[] failedControllers;
+
+  /**
+   * Construct an empty snapshot for a controller with a given number of pumps.
+   *
+   * @param numberOfPumps
+   *          the number of pumps
+   */
+  public StateSnapshot(int numberOfPumps) {
+    int words = PublishedState.wordsFor(numberOfPumps);
+    this.numberOfPumps = numberOfPumps;
+    this.pumps = new long[words];
+    this.failedPumps = new long[words];
+    this.failedControllers = new long[words];
+  }
+
+  /**
+   * This returns the number of pumps.
+   *
+   * @return the number of pumps
+   */
+  public int getNumberOfPumps() {
+    return this.numberOfPumps;
+  }
+
+  /**
+   * This returns the cycle the state was published at.
+   *
+   * @return the cycle, counting from one, or zero for the initial state
+   */
+  public long getCycle() {
+    return this.cycle;
+  }
+
+  /**
+   * This returns the mode of the controller.
+   *
+   * @return the mode
+   */
+  public Mailbox.Mode getMode() {
+    return this.mode;
+  }
+
+  /**
+   * This returns the water level read in the cycle.
+   *
+   * @return the water level
+   */
+  public double getLevel() {
+    return this.level;
+  }
+
+  /**
+   * This returns the steam rate read in the cycle.
+   *
+   * @return the steam rate
+   */
+  public double getSteam() {
+    return this.steam;
+  }
+
+  /**
+   * This checks whether the valve is open.
+   *
+   * @return true if the valve is open
+   */
+  public boolean isValveOpen() {
+    return this.valveOpen;
+  }
+
+  /**
+   * This returns the number of pumps on.
+   *
+   * @return the number of pumps on
+   */
+  public int getPumpsOn() {
+    return this.pumpsOn;
+  }
+
+  /**
+   * This checks whether the controller has a pump open.
+   *
+   * @param pump
+   *          the pump
+   * @return true if the pump is open
+   */
+  public boolean isPumpOpen(int pump) {
+    return (this.pumps[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * This checks whether a pump has been detected as failed.
+   *
+   * @param pump
+   *          the pump
+   * @return true if the pump has failed
+   */
+  public boolean isPumpFailed(int pump) {
+    return (this.failedPumps[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * This checks whether a pump controller has been detected as failed.
+   *
+   * @param pump
+   *          the pump of the controller
+   * @return true if the pump controller has failed
+   */
+  public boolean isPumpControllerFailed(int pump) {
+    return (this.failedControllers[pump >>> 6] & (1L << pump)) != 0;
+  }
+}
@@ -5,8 +5,13 @@
 
 package steam.boiler.core;
 
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+
 import org.eclipse.jdt.annotation.Nullable;
 
+import steam.boiler.events.ControllerEvent;
+import steam.boiler.events.EventPublisher;
 import steam.boiler.util.Mailbox;
 import steam.boiler.util.Mailbox.Message;
 import steam.boiler.util.Mailbox.MessageKind;
@@ -15,22 +20,37 @@ import steam.boiler.util.MemoryAnnotations.Initialisation;
 import steam.boiler.util.SteamBoilerCharacteristics;
 
 public class SteamBoilerController {
+  /**
+   * This is the number of cycles kept in the reading history.
+   */
+  public static final int HISTORY_CYCLES = 12;
+  /**
+   * This is how many cycles ahead a predicted limit breach makes the controller
+   * act early, unless it is set otherwise.
+   */
+  public static final int EARLY_WARNING_CYCLES = 2;
+  /**
+   * This is the margin in litres kept above N1 before pumps are closed, at the
+   * default period. It is scaled with the control period.
+   */
+  private static final double LEVEL_MARGIN = 3;
   /**
    * This is used to store the current state of the controller.
    */
   private Mailbox.Mode controllerMode = Mailbox.Mode.INITIALISATION;
   /**
-   * This is used store incoming message mailbox.
+   * This is used to store the incoming messages of the cycle, decoded once.
    */
-  private @Nullable Mailbox incomingMessage;
+  private final IncomingMessages input;
   /**
    * This is used store outgoing message mailbox.
    */
   private @Nullable Mailbox outgoingMessage;
   /**
-   * This is used to store the steam boiler configuration.
+   * This is used to store the compiled steam boiler configuration. It is only
+   * changed by the clock, when it applies a reload.
    */
-  private @Nullable SteamBoilerCharacteristics configuration;
+  private volatile CompiledConfiguration configuration;
   /**
    * This is used to store physical unit water level.
    */
@@ -72,6 +92,100 @@ public class SteamBoilerController {
    * This array is used to store the pump controllers that are failure.
    */
   private int[] pumpControllerFailures;
+  /**
+   * This array is used to store the pumps found to have failed in the current
+   * cycle, of which there are detectedPumpCount.
+   */
+  private final int[] detectedPumps;
+  /**
+   * This is used to store the number of pumps found to have failed in the
+   * current cycle.
+   */
+  private int detectedPumpCount;
+  /**
+   * This array is used to store the pump controllers found to have failed by
+   * the last check, of which there are detectedControllerCount.
+   */
+  private final int[] detectedControllers;
+  /**
+   * This is used to store the number of pump controllers found to have failed
+   * by the last check.
+   */
+  private int detectedControllerCount;
+  /**
+   * This is true once the pumps have been checked for failures in the current
+   * cycle, since the check is needed by several of the modes.
+   */
+  private boolean pumpsChecked;
+  /**
+   * This is used to store the number of pumps marked as failed.
+   */
+  private int failedPumpCount;
+  /**
+   * This is used to store the number of pump controllers marked as failed.
+   */
+  private int failedControllerCount;
+  /**
+   * This is how many failed attempts a copy of the state makes before yielding.
+   */
+  private static final int COPY_SPINS = 64;
+  /**
+   * This lock is write locked by the clock for the whole of a cycle, so that
+   * what-if queries can take a consistent copy of the state while the live clock
+   * is running. Copies only ever use optimistic reads, so the clock never waits
+   * for them.
+   */
+  private final StampedLock stateLock = new StampedLock();
+  /**
+   * This is the table of pump subsets used on plants with pumps of different
+   * capacities.
+   */
+  private PumpCombinations pumpCombinations;
+  /**
+   * This is the table of the messages the controller sends, taken from the
+   * configuration.
+   */
+  private MessageTable messages;
+  /**
+   * This is used to choose the pumps to open from the pump combination table.
+   */
+  private PumpSelection pumpSelection;
+  /**
+   * This is used to store the pumps chosen from the pump combination table.
+   */
+  private final boolean[] selectedPumps;
+  /**
+   * This is used to store the readings and commands of the last few cycles.
+   */
+  private final ReadingHistory history = new ReadingHistory(HISTORY_CYCLES);
+  /**
+   * This is used to store the forecast of when the water level reaches a limit.
+   */
+  private final LimitForecast forecast = new LimitForecast();
+  /**
+   * This is how many cycles ahead a predicted limit breach makes the controller
+   * act early, or zero if it should not act on the forecast.
+   */
+  private volatile int earlyWarningCycles = EARLY_WARNING_CYCLES;
+  /**
+   * This is used to publish mode changes, failure detections and readings.
+   */
+  private final EventPublisher events = new EventPublisher();
+  /**
+   * This is used to count the cycles clocked, for the events and the published
+   * state.
+   */
+  private long cycles;
+  /**
+   * This is used to publish the state of each cycle to monitoring threads.
+   */
+  private final PublishedState published;
+  /**
+   * This is used to hand a new configuration to the clock, which applies it at
+   * the start of its next cycle.
+   */
+  private final AtomicReference<@Nullable ConfigurationReload> pendingReload =
+      new AtomicReference<>();
 
   /**
    * Construct a steam boiler controller for a given set of characteristics.
@@ -80,18 +194,37 @@ public class SteamBoilerController {
    *          The boiler characteristics to be used.
    */
   public SteamBoilerController(SteamBoilerCharacteristics configuration) {
+    this(CompiledConfiguration.of(configuration));
+  }
+
+  /**
+   * Construct a steam boiler controller for a compiled configuration. Controllers
+   * for identical boilers can share the same compiled configuration.
+   *
+   * @param configuration
+   *          The compiled boiler configuration to be used.
+   */
+  public SteamBoilerController(CompiledConfiguration configuration) {
     this.configuration = configuration;
     this.isValveOpen = false;
-    this.predictedWaterLevel = configuration.getMinimalNormalLevel()
-        + ((configuration.getMaximalNormalLevel() - configuration.getMinimalNormalLevel()) / 2);
+    this.predictedWaterLevel = configuration.getNormalMidpoint();
     this.numPumpsOn = 0;
     this.pumpFailures = new int[configuration.getNumberOfPumps()];
     this.pumpControllerFailures = new int[configuration.getNumberOfPumps()];
     this.prevPumpState = new boolean[configuration.getNumberOfPumps()];
+    this.pumpCombinations = configuration.getPumpCombinations();
+    this.messages = configuration.getMessages();
+    this.pumpSelection = new PumpSelection(this.pumpCombinations);
+    this.selectedPumps = new boolean[configuration.getNumberOfPumps()];
+    this.detectedPumps = new int[configuration.getNumberOfPumps()];
+    this.detectedControllers = new int[configuration.getNumberOfPumps()];
+    this.input = new IncomingMessages(configuration.getNumberOfPumps());
     intialisePumpState();
     intialisePumpNumber();
     initialisePumpFailuresArray();
     initialisePumpControllerFailuresArray();
+    this.published = new PublishedState(configuration.getNumberOfPumps());
+    publishState();
   }
 
   /**
@@ -131,23 +264,12 @@ public class SteamBoilerController {
    */
   @Initialisation
   private void intialisePumpNumber() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
-    
-    double totalPumpCapsity = 0;
-    for (int i = 0; i < configuration1.getNumberOfPumps(); i++) {
-      if (totalPumpCapsity < configuration1.getMaximualSteamRate()) {
-        totalPumpCapsity = totalPumpCapsity + configuration1.getPumpCapacity(i);
-      }
-      if (totalPumpCapsity > configuration1.getMaximualSteamRate()) {
-        this.numberOfPumps = i; // cause it less then int he pump loop
-        break;
-      }
-    }
+    this.numberOfPumps = this.configuration.getInitialNumberOfPumps();
   }
 
   /**
-   * Process a clock signal which occurs every 5 seconds. This requires reading
+   * Process a clock signal which occurs every control period, five seconds unless
+   * the configuration says otherwise. This requires reading
    * the set of incoming messages from the physical units and producing a set of
    * output messages which are sent back to them.
    *
@@ -158,30 +280,55 @@ public class SteamBoilerController {
    *          written here.
    */
   public void clock(Mailbox incoming, Mailbox outgoing) {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    long stamp = this.stateLock.writeLock();
+    try {
+      if (this.pendingReload.get() != null) {
+        applyReload();
+      }
+      Mailbox.Mode before = this.controllerMode;
+      step(incoming, outgoing);
+      this.cycles++;
+      publishState();
+      if (this.events.hasSubscribers()) {
+        publishEvents(before, outgoing);
+      }
+    } finally {
+      this.stateLock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * This method performs a single cycle of the controller without taking the state
+   * lock. It is used by the live clock and by what-if queries on their own copy of
+   * the state.
+   *
+   * @param incoming
+   *          The set of incoming messages from the physical units.
+   * @param outgoing
+   *          Messages generated during this cycle are written here.
+   */
+  void step(Mailbox incoming, Mailbox outgoing) {
     assert (incoming != null);
     assert (outgoing != null);
     
     this.outgoingMessage = outgoing;
-    this.incomingMessage = incoming;
-    if (isTransmissionFailure()) {
+    this.input.decode(incoming);
+    this.pumpsChecked = false;
+    if (!this.input.isComplete()) {
       // A transmission failure puts the program into the mode emergency
       // stop.
       this.controllerMode = Mailbox.Mode.EMERGENCY_STOP;
-      outgoing.send(new Message(MessageKind.MODE_m, Mailbox.Mode.EMERGENCY_STOP));
+      outgoing.send(this.messages.mode(Mailbox.Mode.EMERGENCY_STOP));
       return;
     }
 
-    this.waterLevel = incoming.read(configuration1.getNumberOfPumps() * 2).getDoubleParameter();
-    this.waterLevel = Math.round(this.waterLevel);
-    this.steamLevel = incoming.read((configuration1.getNumberOfPumps() * 2) + 1)
-          .getDoubleParameter();
+    this.waterLevel = Math.round(this.input.getLevel());
+    this.steamLevel = this.input.getSteam();
 
     if (this.controllerMode == Mailbox.Mode.INITIALISATION) {
       initialisationMode();
-      if (!incoming.contains(new Message(MessageKind.PHYSICAL_UNITS_READY))) {
-        outgoing.send(new Message(MessageKind.MODE_m, Mailbox.Mode.INITIALISATION));
+      if (!this.input.has(MessageKind.PHYSICAL_UNITS_READY)) {
+        outgoing.send(this.messages.mode(Mailbox.Mode.INITIALISATION));
       }
     } else if (this.controllerMode == Mailbox.Mode.NORMAL) {
       normalMode();
@@ -190,7 +337,73 @@ public class SteamBoilerController {
     } else if (this.controllerMode == Mailbox.Mode.RESCUE) {
       rescueMode();
     }
+    this.history.record(this.waterLevel, this.steamLevel, this.numPumpsOn, this.controllerMode);
+    updateForecast();
+  }
+
+  /**
+   * This switches to the configuration of the pending reload, keeping the state
+   * of the controller. A controller still in initialisation also takes the
+   * initial number of pumps of the new configuration, since it has not yet
+   * started to control the level.
+   */
+  private void applyReload() {
+    ConfigurationReload reload = this.pendingReload.getAndSet(null);
+    if (reload == null) {
+      return;
+    }
+    CompiledConfiguration next = reload.configuration;
+    this.configuration = next;
+    this.pumpCombinations = next.getPumpCombinations();
+    this.messages = next.getMessages();
+    this.pumpSelection = reload.pumpSelection;
+    if (this.controllerMode == Mailbox.Mode.INITIALISATION) {
+      this.numberOfPumps = next.getInitialNumberOfPumps();
+      this.predictedWaterLevel = next.getNormalMidpoint();
+    }
+  }
+
+  /**
+   * This publishes the state at the end of the cycle just clocked for
+   * {@link #readState(StateSnapshot)}.
+   */
+  private void publishState() {
+    this.published.write(this.cycles, this.controllerMode, this.waterLevel, this.steamLevel,
+        this.isValveOpen, this.numPumpsOn, this.prevPumpState, this.pumpFailures,
+        this.pumpControllerFailures);
+  }
 
+  /**
+   * This publishes the events of the cycle just clocked: a change of mode if
+   * there was one, a failure for each failure detection sent, and the readings
+   * of the cycle.
+   *
+   * @param before
+   *          the mode before the cycle
+   * @param outgoing
+   *          the messages sent in the cycle
+   */
+  private void publishEvents(Mailbox.Mode before, Mailbox outgoing) {
+    int source = this.events.getSource();
+    if (before != this.controllerMode) {
+      this.events.publish(
+          ControllerEvent.modeChange(source, this.cycles, before, this.controllerMode));
+    }
+    for (int i = 0; i < outgoing.size(); i++) {
+      Message message = outgoing.read(i);
+      MessageKind kind = message.getKind();
+      if (kind == MessageKind.PUMP_FAILURE_DETECTION_n
+          || kind == MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n) {
+        this.events.publish(ControllerEvent.failure(source, this.cycles, this.controllerMode,
+            kind, message.getIntegerParameter()));
+      } else if (kind == MessageKind.LEVEL_FAILURE_DETECTION
+          || kind == MessageKind.STEAM_FAILURE_DETECTION) {
+        this.events.publish(
+            ControllerEvent.failure(source, this.cycles, this.controllerMode, kind, -1));
+      }
+    }
+    this.events.publish(ControllerEvent.telemetry(source, this.cycles, this.controllerMode,
+        this.waterLevel, this.steamLevel, this.numPumpsOn));
   }
 
   /**
@@ -208,6 +421,273 @@ public class SteamBoilerController {
     return controllerState;
   }
 
+  /**
+   * This returns the current mode of the controller.
+   *
+   * @return the current mode of the controller
+   */
+  public Mailbox.Mode getMode() {
+    return this.controllerMode;
+  }
+
+  /**
+   * This returns the compiled configuration the controller runs with. After a
+   * reload it is the new configuration from the first cycle which used it.
+   *
+   * @return the configuration of the controller
+   */
+  public CompiledConfiguration getConfiguration() {
+    return this.configuration;
+  }
+
+  /**
+   * This replaces the characteristics of the boiler, keeping the state of the
+   * controller and its control period. The new configuration is compiled on the
+   * calling thread and takes effect at the start of the next cycle, so a reload
+   * never holds up the clock. A reload which has not yet taken effect is
+   * replaced by a later one.
+   *
+   * @param characteristics
+   *          the new characteristics of the boiler
+   * @throws IllegalArgumentException
+   *           if the new characteristics have a different number of pumps
+   */
+  public void reload(SteamBoilerCharacteristics characteristics) {
+    reload(CompiledConfiguration.of(characteristics, this.configuration.getPeriodMillis()));
+  }
+
+  /**
+   * This replaces the configuration of the controller, keeping its state. The
+   * new configuration takes effect at the start of the next cycle.
+   *
+   * @param next
+   *          the new configuration, which may have a different control period
+   * @throws IllegalArgumentException
+   *           if the new configuration has a different number of pumps
+   */
+  public void reload(CompiledConfiguration next) {
+    if (next.getNumberOfPumps() != this.prevPumpState.length) {
+      throw new IllegalArgumentException("cannot reload " + this.prevPumpState.length
+          + " pumps with " + next.getNumberOfPumps());
+    }
+    this.pendingReload.set(new ConfigurationReload(next));
+  }
+
+  /**
+   * This checks whether a reload is waiting for the next cycle.
+   *
+   * @return true if a reload has not yet taken effect
+   */
+  public boolean isReloadPending() {
+    return this.pendingReload.get() != null;
+  }
+
+  /**
+   * This copies the state published at the end of the latest cycle into a
+   * snapshot. It can be called from any thread, as often as wanted, while the
+   * controller is being clocked: it never takes the state lock, and it never
+   * holds up the clock, retrying instead if a cycle ends while it is copying.
+   *
+   * @param snapshot
+   *          the snapshot to fill, made by {@link #newStateSnapshot()}
+   */
+  public void readState(StateSnapshot snapshot) {
+    this.published.read(snapshot);
+  }
+
+  /**
+   * This creates an empty snapshot for {@link #readState(StateSnapshot)}. Each
+   * reading thread should create its own and reuse it.
+   *
+   * @return a new snapshot
+   */
+  public StateSnapshot newStateSnapshot() {
+    return new StateSnapshot(this.configuration.getNumberOfPumps());
+  }
+
+  /**
+   * This returns the publisher of the events of this controller: its changes of
+   * mode, the failures it detects and the readings of every cycle. Subscribers
+   * are served without ever holding up the clock, and while there are none no
+   * event is even built.
+   *
+   * @return the event publisher of the controller
+   */
+  public EventPublisher getPublisher() {
+    return this.events;
+  }
+
+  /**
+   * This returns the readings and commands of the last {@link #HISTORY_CYCLES}
+   * cycles, with their rolling statistics. The history is updated by the clock,
+   * so it should be read on the thread clocking the controller.
+   *
+   * @return the reading history of the controller
+   */
+  public ReadingHistory getHistory() {
+    return this.history;
+  }
+
+  /**
+   * This returns the forecast of how many cycles remain before the water level
+   * crosses a limit level, as of the end of the last cycle.
+   *
+   * @return the limit forecast of the controller
+   */
+  public LimitForecast getLimitForecast() {
+    return this.forecast;
+  }
+
+  /**
+   * This returns how many cycles ahead a predicted limit breach makes the
+   * controller act early.
+   *
+   * @return the number of cycles, or zero if the forecast is not acted on
+   */
+  public int getEarlyWarningCycles() {
+    return this.earlyWarningCycles;
+  }
+
+  /**
+   * This sets how many cycles ahead a predicted limit breach makes the
+   * controller act early. Setting it to zero leaves the pumps to the level
+   * alone, which is how the gain from the forecast is measured.
+   *
+   * @param cycles
+   *          the number of cycles, or zero to not act on the forecast
+   */
+  public void setEarlyWarningCycles(int cycles) {
+    if (cycles < 0) {
+      throw new IllegalArgumentException("negative early warning: " + cycles);
+    }
+    this.earlyWarningCycles = cycles;
+  }
+
+  /**
+   * This creates a new what-if query for this controller. A query owns its own
+   * scratch copy of the controller, so each thread asking what-if questions should
+   * create its own query and reuse it.
+   *
+   * @return a new what-if query bound to this controller
+   */
+  public WhatIfQuery newWhatIfQuery() {
+    return new WhatIfQuery(this, new SteamBoilerController(this.configuration));
+  }
+
+  /**
+   * This returns the current state of the controller packed into a key, see
+   * {@link StateKey}. Like {@link #copyStateTo(SteamBoilerController)} it never
+   * holds up the clock.
+   *
+   * @return the key of the current state
+   */
+  public long getStateKey() {
+    for (int retries = 0;; retries++) {
+      long stamp = this.stateLock.tryOptimisticRead();
+      if (stamp != 0) {
+        long key = StateKey.encode(this.controllerMode, this.isValveOpen, this.numberOfPumps,
+            this.waterLevel, this.prevPumpState, this.pumpFailures, this.pumpControllerFailures);
+        if (this.stateLock.validate(stamp)) {
+          return key;
+        }
+      }
+      if (retries >= COPY_SPINS) {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * This returns the rest of the state of the controller which drives it,
+   * packed into the detail of its key, see {@link StateKey}. Like
+   * {@link #getStateKey()} it never holds up the clock.
+   *
+   * @return the detail of the current state
+   */
+  public long getStateDetail() {
+    for (int retries = 0;; retries++) {
+      long stamp = this.stateLock.tryOptimisticRead();
+      if (stamp != 0) {
+        long detail = StateKey.encodeDetail(this.prevWaterLevel, this.predictedWaterLevel,
+            this.numPumpsOn, this.history);
+        if (this.stateLock.validate(stamp)) {
+          return detail;
+        }
+      }
+      if (retries >= COPY_SPINS) {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * This copies the runtime state of this controller into the given controller.
+   * The copy is an optimistic read of the state lock: it is thrown away and taken
+   * again if a cycle runs while it is being taken, so it never sees a half
+   * finished cycle and it never holds up the clock. It costs O(pumps) plus the
+   * length of the history per attempt, with no allocation unless this controller
+   * has been reloaded since the last copy. Since a cycle holds the lock for a few
+   * microseconds once per control period, a copy rarely needs a second attempt,
+   * and after a few dozen attempts it yields between attempts rather than
+   * spin while the clock is descheduled.
+   *
+   * @param target
+   *          the controller to copy the state into, it must have the same
+   *          number of pumps as this controller, and it takes on the
+   *          configuration of this controller
+   */
+  public void copyStateTo(SteamBoilerController target) {
+    assert (target.pumpFailures.length == this.pumpFailures.length);
+
+    for (int retries = 0;; retries++) {
+      long stamp = this.stateLock.tryOptimisticRead();
+      if (stamp != 0) {
+        copyFieldsTo(target);
+        if (this.stateLock.validate(stamp)) {
+          return;
+        }
+      }
+      if (retries >= COPY_SPINS) {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * This copies the fields of the runtime state into the given controller,
+   * without any synchronisation. Every array copied has the same length in both
+   * controllers, so a copy torn by a concurrent cycle is merely wrong, and
+   * copyStateTo throws it away.
+   *
+   * @param target
+   *          the controller to copy the state into
+   */
+  private void copyFieldsTo(SteamBoilerController target) {
+    target.configuration = this.configuration;
+    target.pumpCombinations = this.pumpCombinations;
+    target.messages = this.messages;
+    if (target.pumpSelection.getCombinations() != this.pumpCombinations) {
+      target.pumpSelection = new PumpSelection(this.pumpCombinations);
+    }
+    target.controllerMode = this.controllerMode;
+    target.waterLevel = this.waterLevel;
+    target.steamLevel = this.steamLevel;
+    target.isValveOpen = this.isValveOpen;
+    target.prevWaterLevel = this.prevWaterLevel;
+    target.numberOfPumps = this.numberOfPumps;
+    target.numPumpsOn = this.numPumpsOn;
+    target.predictedWaterLevel = this.predictedWaterLevel;
+    System.arraycopy(this.prevPumpState, 0, target.prevPumpState, 0, this.prevPumpState.length);
+    System.arraycopy(this.pumpFailures, 0, target.pumpFailures, 0, this.pumpFailures.length);
+    System.arraycopy(this.pumpControllerFailures, 0, target.pumpControllerFailures, 0,
+        this.pumpControllerFailures.length);
+    target.failedPumpCount = this.failedPumpCount;
+    target.failedControllerCount = this.failedControllerCount;
+    target.earlyWarningCycles = this.earlyWarningCycles;
+    this.history.copyTo(target.history);
+    this.forecast.copyTo(target.forecast);
+  }
+
   /**
    * This method is used to handle the initial mode.
    */
@@ -218,32 +698,30 @@ public class SteamBoilerController {
     // and so i could assert them.
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
     if (checkWaterLevelMeasuringFailure()) {
       this.controllerMode = Mailbox.Mode.EMERGENCY_STOP;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.EMERGENCY_STOP));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.EMERGENCY_STOP));
       return;
     }
 
     // The program enters a state in which it waits for the message
     // STEAM-BOILER-WAITING to come from the physical units.
-    if (incomingMessage1.contains(new Message(MessageKind.STEAM_BOILER_WAITING))) {
+    if (this.input.has(MessageKind.STEAM_BOILER_WAITING)) {
       // that is, when v is not equal to zero: v = the quantity of steam
       // exiting the boiler.
       // the program enters the emergency stop mode
       if (this.steamLevel != 0) {
         this.controllerMode = Mailbox.Mode.EMERGENCY_STOP;
-        outgoingMessage1.send(new Message(MessageKind.STEAM_FAILURE_DETECTION));
-        outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.EMERGENCY_STOP));
+        outgoingMessage1.send(this.messages.signal(MessageKind.STEAM_FAILURE_DETECTION));
+        outgoingMessage1.send(this.messages.mode(Mailbox.Mode.EMERGENCY_STOP));
         return;
       }
       fillBoiler();
-    } else if (incomingMessage1.contains(new Message(MessageKind.PHYSICAL_UNITS_READY))) {
+    } else if (this.input.has(MessageKind.PHYSICAL_UNITS_READY)) {
       // until it receives the signal PHYSICAL-UNITS-READY which must
       // necessarily be emitted by the physical units
-      if (isPumpControllerFailure() || isPumpFailure()) {
+      if (isPumpOrControllerFailure()) {
         // mode degraded if any physical unit is defective.
         degradedMode();
         return;
@@ -252,7 +730,7 @@ public class SteamBoilerController {
       // the program enters either the mode normal if all the physical
       // units operate correctly
       this.controllerMode = Mailbox.Mode.NORMAL;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.NORMAL));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.NORMAL));
       return;
 
     }
@@ -262,7 +740,7 @@ public class SteamBoilerController {
    * This method is used to handle normal mode.
    */
   private void normalMode() {
-    if (isMeasuringUnitFailure() || isPumpFailure() || isPumpControllerFailure()
+    if (isMeasuringUnitFailure() || isPumpOrControllerFailure()
         || isWaterLevelNotWithinLimit()) {
       // As soon as the program recognizes a failure of the water level
       // measuring unit it goes into rescue mode.
@@ -283,26 +761,22 @@ public class SteamBoilerController {
   private void degradedMode() {
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
     if (checkWaterLevelMeasuringFailure() && !checkSteamLevelMeasureFailure()) {
       this.controllerMode = Mailbox.Mode.RESCUE;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.RESCUE));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.RESCUE));
       this.predictedWaterLevel = this.prevWaterLevel;
       rescueMode();
       return;
-    } else if (incomingMessage1.contains(
-        new Message(MessageKind.STEAM_OUTCOME_FAILURE_ACKNOWLEDGEMENT))) {
+    } else if (this.input.has(MessageKind.STEAM_OUTCOME_FAILURE_ACKNOWLEDGEMENT)) {
 
       boolean waterLevelFailure = checkWaterLevelMeasuringFailure();
       if (waterLevelFailure) {
         this.controllerMode = Mailbox.Mode.EMERGENCY_STOP;
-        outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.EMERGENCY_STOP));
+        outgoingMessage1.send(this.messages.mode(Mailbox.Mode.EMERGENCY_STOP));
         return;
       }
-    } else if (incomingMessage1
-        .contains(new Message(MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n, checkPumpFailure()))) {
+    } else if (isPumpFailureAcknowledged()) {
 
       if (isWaterLevelNotWithinLimit()) {
         return;
@@ -314,7 +788,7 @@ public class SteamBoilerController {
       return;
     } else if (isSensorsRepairedNormal()) {
       this.controllerMode = Mailbox.Mode.NORMAL;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.NORMAL));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.NORMAL));
     }
 
   }
@@ -325,26 +799,25 @@ public class SteamBoilerController {
   private void rescueMode() {
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
     int pumpContollerFailure = checkPumpControllerFailure();
     if (checkSteamLevelMeasureFailure() || pumpContollerFailure != -1) {
       this.controllerMode = Mailbox.Mode.EMERGENCY_STOP;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.EMERGENCY_STOP));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.EMERGENCY_STOP));
+      sendControllerDetections();
       return;
 
     } else if (isSensorsRepairedDegrade()) {
       this.controllerMode = Mode.DEGRADED;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.DEGRADED));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.DEGRADED));
       return;
     } else if (isSensorsRepairedNormal()) {
       this.controllerMode = Mode.NORMAL;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.NORMAL));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.NORMAL));
       return;
     }
 
-    if (incomingMessage1.contains(new Message(MessageKind.LEVEL_FAILURE_ACKNOWLEDGEMENT))) {
+    if (this.input.has(MessageKind.LEVEL_FAILURE_ACKNOWLEDGEMENT)) {
       maintainRescueWaterLevel();
     }
 
@@ -362,16 +835,14 @@ public class SteamBoilerController {
   private boolean isSensorsRepairedNormal() {
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
     if (checkPumpRepaired() != -1) {
       if (checkPumpControllerRepaired() != -1) {
-        if (incomingMessage1.contains(new Message(Mailbox.MessageKind.STEAM_REPAIRED))) {
+        if (this.input.has(MessageKind.STEAM_REPAIRED)) {
           // case where pump controller and steam sensors are all fixed and there are no
           // more broken units.
           if (isAllPumpsFixed() && isAllControllersFixed()) {
-            outgoingMessage1.send(new Message(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
+            outgoingMessage1.send(this.messages.signal(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
             return true;
           }
         } else if (!checkSteamLevelMeasureFailure()) {
@@ -381,11 +852,11 @@ public class SteamBoilerController {
             return true;
           }
         }
-      } else if (incomingMessage1.contains(new Message(Mailbox.MessageKind.STEAM_REPAIRED))
+      } else if (this.input.has(MessageKind.STEAM_REPAIRED)
           && isAllControllersFixed()) {
         // case where only pump and sensor failure and all units are fixed;
         if (isAllPumpsFixed()) {
-          outgoingMessage1.send(new Message(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
+          outgoingMessage1.send(this.messages.signal(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
           return true;
         }
       } else if (isAllControllersFixed() && !checkSteamLevelMeasureFailure()) {
@@ -394,20 +865,18 @@ public class SteamBoilerController {
         if (isAllPumpsFixed()) {
           return true;
         }
-      } else if (isAllPumpsFixed() && incomingMessage1.contains(
-          new Message(Mailbox.MessageKind.LEVEL_REPAIRED))) {
+      } else if (isAllPumpsFixed() && this.input.has(MessageKind.LEVEL_REPAIRED)) {
         // case used in rescue mode where if a pump is fixed then check that all pumps
         // are fixed else it should go to degrade mode
-        outgoingMessage1.send(new Message(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
+        outgoingMessage1.send(this.messages.signal(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
         return true;
       }
     } else if (checkPumpControllerRepaired() != -1) {
-      if (incomingMessage1.contains(
-          new Message(Mailbox.MessageKind.STEAM_REPAIRED)) && isAllPumpsFixed()) {
+      if (this.input.has(MessageKind.STEAM_REPAIRED) && isAllPumpsFixed()) {
         // case where only the steam sensor and controller are repaired pump are all
         // working.
         if (isAllControllersFixed()) {
-          outgoingMessage1.send(new Message(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
+          outgoingMessage1.send(this.messages.signal(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
           return true;
         }
       } else if (isAllPumpsFixed() && !checkSteamLevelMeasureFailure()) {
@@ -416,19 +885,17 @@ public class SteamBoilerController {
           return true;
         }
       }
-    } else if (incomingMessage1.contains(
-        new Message(Mailbox.MessageKind.STEAM_REPAIRED)) && isAllControllersFixed()
+    } else if (this.input.has(MessageKind.STEAM_REPAIRED) && isAllControllersFixed()
         && isAllPumpsFixed()) {
       // case were only the steam sensor was broken and pump controller and pump units
       // are all working
-      outgoingMessage1.send(new Message(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
+      outgoingMessage1.send(this.messages.signal(MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT));
       return true;
 
-    } else if (incomingMessage1.contains(
-        new Message(Mailbox.MessageKind.LEVEL_REPAIRED)) && isAllPumpsFixed()) {
+    } else if (this.input.has(MessageKind.LEVEL_REPAIRED) && isAllPumpsFixed()) {
       // case where only the level sensor is broken and pumps are all working
       // correctly only used in rescue mode
-      outgoingMessage1.send(new Message(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
+      outgoingMessage1.send(this.messages.signal(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
       return true;
     }
     return false;
@@ -444,70 +911,66 @@ public class SteamBoilerController {
   private boolean isSensorsRepairedDegrade() {
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
-    if (incomingMessage1.contains(
-        new Message(Mailbox.MessageKind.LEVEL_REPAIRED)) && incomingMessage1
-        .contains(new Message(Mailbox.MessageKind.PUMP_FAILURE_DETECTION_n, checkPumpFailure()))) {
-      outgoingMessage1.send(new Message(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
+    if (this.input.has(MessageKind.LEVEL_REPAIRED)
+        && this.input.has(MessageKind.PUMP_FAILURE_DETECTION_n, checkPumpFailure())) {
+      outgoingMessage1.send(this.messages.signal(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
       return true;
-    } else if (checkPumpFailure() != -1 && incomingMessage1.contains(
-        new Message(MessageKind.LEVEL_REPAIRED))) {
-      outgoingMessage1.send(new Message(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
+    } else if (checkPumpFailure() != -1 && this.input.has(MessageKind.LEVEL_REPAIRED)) {
+      outgoingMessage1.send(this.messages.signal(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
       return true;
-    } else if (!isAllPumpsFixed() && incomingMessage1.contains(
-        new Message(MessageKind.LEVEL_REPAIRED))) {
-      outgoingMessage1.send(new Message(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
+    } else if (!isAllPumpsFixed() && this.input.has(MessageKind.LEVEL_REPAIRED)) {
+      outgoingMessage1.send(this.messages.signal(MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT));
       return true;
     }
     return false;
   }
 
   /**
-   * Helper method to check for the pump controller that was repaired. Return the
-   * id of the repaired pump controller else return -1.
+   * Helper method to check for the pump controllers that were repaired. Every
+   * repair in the mailbox is acknowledged in the same cycle. Return the id of the
+   * first repaired pump controller else return -1.
    * 
-   * @return the id of the repaired pump controller else -1.
+   * @return the id of the first repaired pump controller else -1.
    */
   private int checkPumpControllerRepaired() {
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
-    for (int i = 0; i < incomingMessage1.size(); i++) {
-      if (incomingMessage1.read(i).getKind().equals(MessageKind.PUMP_CONTROL_REPAIRED_n)) {
-        outgoingMessage1.send(new Message(MessageKind.PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n,
-            incomingMessage1.read(i).getIntegerParameter()));
-        this.pumpControllerFailures[incomingMessage1.read(i).getIntegerParameter()] = -1;
-        return incomingMessage1.read(i).getIntegerParameter();
+    int repairs = this.input.count(MessageKind.PUMP_CONTROL_REPAIRED_n);
+    for (int i = 0; i < repairs; i++) {
+      int pump = this.input.getPump(MessageKind.PUMP_CONTROL_REPAIRED_n, i);
+      outgoingMessage1.send(this.messages.pump(MessageKind.PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n,
+          pump));
+      if (this.pumpControllerFailures[pump] != -1) {
+        this.pumpControllerFailures[pump] = -1;
+        this.failedControllerCount--;
       }
     }
-    return -1;
+    return repairs == 0 ? -1 : this.input.getPump(MessageKind.PUMP_CONTROL_REPAIRED_n, 0);
   }
 
   /**
-   * Helper method to check for the pump controller that was repaired. Return the
-   * id of the repaired pump else return -1.
+   * Helper method to check for the pumps that were repaired. Every repair in the
+   * mailbox is acknowledged in the same cycle. Return the id of the first
+   * repaired pump else return -1.
    * 
-   * @return the id of the repaired pump else -1.
+   * @return the id of the first repaired pump else -1.
    */
   private int checkPumpRepaired() {
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
-    for (int i = 0; i < incomingMessage1.size(); i++) {
-      if (incomingMessage1.read(i).getKind().equals(MessageKind.PUMP_REPAIRED_n)) {
-        outgoingMessage1.send(new Message(MessageKind.PUMP_REPAIRED_ACKNOWLEDGEMENT_n,
-            incomingMessage1.read(i).getIntegerParameter()));
-        this.pumpFailures[incomingMessage1.read(i).getIntegerParameter()] = -1;
-        return incomingMessage1.read(i).getIntegerParameter();
+    int repairs = this.input.count(MessageKind.PUMP_REPAIRED_n);
+    for (int i = 0; i < repairs; i++) {
+      int pump = this.input.getPump(MessageKind.PUMP_REPAIRED_n, i);
+      outgoingMessage1.send(this.messages.pump(MessageKind.PUMP_REPAIRED_ACKNOWLEDGEMENT_n, pump));
+      if (this.pumpFailures[pump] != -1) {
+        this.pumpFailures[pump] = -1;
+        this.failedPumpCount--;
       }
     }
-    return -1;
+    return repairs == 0 ? -1 : this.input.getPump(MessageKind.PUMP_REPAIRED_n, 0);
   }
   
   /**
@@ -517,12 +980,7 @@ public class SteamBoilerController {
    * @return return false if a pump is broken else true
    */
   private boolean isAllPumpsFixed() {
-    for (int i = 0; i < this.pumpFailures.length; i++) {
-      if (this.pumpFailures[i] != -1) {
-        return false;
-      }
-    }
-    return true;
+    return this.failedPumpCount == 0;
   }
 
   /**
@@ -532,12 +990,7 @@ public class SteamBoilerController {
    * @return return false if a pump controller is broken else true
    */
   private boolean isAllControllersFixed() {
-    for (int i = 0; i < this.pumpControllerFailures.length; i++) {
-      if (this.pumpControllerFailures[i] != -1) {
-        return false;
-      }
-    }
-    return true;
+    return this.failedControllerCount == 0;
   }
 
   /**
@@ -545,12 +998,9 @@ public class SteamBoilerController {
    * level of water and then send the program ready message.
    */
   private void fillBoiler() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
     boolean pumpStatus = getPumpStatus();
     if (this.waterLevel >= configuration1.getMaximalNormalLevel()) {
@@ -558,7 +1008,7 @@ public class SteamBoilerController {
       // program activates the valve of the steam-boiler in order to empty
       // it.
       if (this.isValveOpen == false) {
-        outgoingMessage1.send(new Message(MessageKind.VALVE));
+        outgoingMessage1.send(this.messages.signal(MessageKind.VALVE));
         this.isValveOpen = true;
       }
       closePumps(configuration1.getNumberOfPumps());
@@ -566,7 +1016,7 @@ public class SteamBoilerController {
       // If the quantity of water in the steam boiler is below N1 then
       // the program activates a pump to fill the steam-boiler.
       if (this.isValveOpen == true) {
-        outgoingMessage1.send(new Message(MessageKind.VALVE));
+        outgoingMessage1.send(this.messages.signal(MessageKind.VALVE));
         this.isValveOpen = false;
       }
       openPumps(configuration1.getNumberOfPumps());
@@ -574,45 +1024,69 @@ public class SteamBoilerController {
         && this.waterLevel >= configuration1.getMinimalNormalLevel()) {
       if (pumpStatus) {
         if (this.isValveOpen == true) {
-          outgoingMessage1.send(new Message(MessageKind.VALVE));
+          outgoingMessage1.send(this.messages.signal(MessageKind.VALVE));
           this.isValveOpen = false;
         }
         closePumps(configuration1.getNumberOfPumps());
       } else {
         // as a level of water between NI and N2 has been reached the
         // program can send continuously the signal PROGRAM-READY
-        outgoingMessage1.send(new Message(MessageKind.PROGRAM_READY));
+        outgoingMessage1.send(this.messages.signal(MessageKind.PROGRAM_READY));
       }
     }
   }
 
   /**
-   * This is a helper method used to maintain water level between N1 and N2.
+   * This is a helper method used to maintain water level between N1 and N2. If a
+   * limit is forecast to be crossed within the early warning cycles, the
+   * decision leans towards the other limit by one more pump opened or closed
+   * than the level alone would call for, so that each pump is still sent at
+   * most one command.
    */
   private void maintainWaterLevel() {
     // maintain the water level in the steam-boiler between NI and N2 with
     // all physical units operating correctly.
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
+
+    // the forecast uses the current level, and the trend up to the last cycle
+    updateForecast();
+    int warning = this.earlyWarningCycles;
+    boolean fill = warning > 0 && this.forecast.getCyclesToLowerLimit() <= warning;
+    boolean drain = warning > 0 && this.forecast.getCyclesToUpperLimit() <= warning;
+    if (fill && drain) {
+      // the forecast cannot tell which way the level is going
+      fill = false;
+      drain = false;
+    }
+
+    if (!this.pumpCombinations.isUniform()) {
+      // with pumps of different capacities the lowest pumps are not always the
+      // best choice, so pick the subset from the combination table instead.
+      maintainWaterLevelByCombination(fill, drain);
+      return;
+    }
    
-    double maxSteamRate = configuration1.getMaximualSteamRate() * 5;
-    double totalPumpCapacity = totalPumpsCapacity(configuration1.getNumberOfPumps());
+    double maxSteamRate = configuration1.getCycleSteamVolume();
+    // the pump thresholds were tuned at five seconds, where the capacity in
+    // litres per second was compared with the level as it is
+    double totalPumpCapacity = configuration1.scaleToPeriod(
+        totalPumpsCapacity(configuration1.getNumberOfPumps()));
     assert (totalPumpCapacity >= 0);
+    double margin = configuration1.scaleToPeriod(LEVEL_MARGIN);
     // As soon as the water level is below NI or above N2 the level can be
     // adjusted by the program by switching the pumps on or off.
 
-    if (this.waterLevel + totalPumpCapacity <= configuration1.getMaximalNormalLevel()
-        && (this.waterLevel - maxSteamRate - 3) >= configuration1.getMinimalNormalLevel()) {
+    if (!fill && !drain
+        && this.waterLevel + totalPumpCapacity <= configuration1.getMaximalNormalLevel()
+        && (this.waterLevel - maxSteamRate - margin) >= configuration1.getMinimalNormalLevel()) {
       if (this.isValveOpen == true) {
-        outgoingMessage1.send(new Message(MessageKind.VALVE));
+        outgoingMessage1.send(this.messages.signal(MessageKind.VALVE));
         this.isValveOpen = false;
       }
 
-      decrementPumpNumber();
+      decrementPumpNumber(false);
       assert (this.numberOfPumps != this.numberOfPumps + 1);
       if (this.numberOfPumps == 0) {
         if (this.pumpFailures[0] == -1) {
@@ -620,40 +1094,42 @@ public class SteamBoilerController {
           Integer index = Integer.valueOf(0);
           assert (index != null);
           this.prevPumpState[0] = false;
-          outgoingMessage1.send(new Message(MessageKind.CLOSE_PUMP_n, 0));
+          outgoingMessage1.send(this.messages.pump(MessageKind.CLOSE_PUMP_n, 0));
         }
       }
       closePumps(this.numberOfPumps);
-    } else if (this.waterLevel + totalPumpCapacity >= configuration1.getMaximalNormalLevel()) {
-      decrementPumpNumber();
+    } else if (!fill && (drain
+        || this.waterLevel + totalPumpCapacity >= configuration1.getMaximalNormalLevel())) {
+      decrementPumpNumber(drain);
       assert (this.numberOfPumps != this.numberOfPumps + 1);
       // this was put cause it won't enter the loop if the pump id is 0
       // need to find a better way but this works for now
       if (this.isValveOpen == false) {
-        outgoingMessage1.send(new Message(MessageKind.VALVE));
+        outgoingMessage1.send(this.messages.signal(MessageKind.VALVE));
         this.isValveOpen = true;
       }
       if (this.numberOfPumps == 0) {
         if (this.pumpFailures[0] == -1) {
           this.numPumpsOn--;
           this.prevPumpState[0] = false;
-          outgoingMessage1.send(new Message(MessageKind.CLOSE_PUMP_n, 0));
+          outgoingMessage1.send(this.messages.pump(MessageKind.CLOSE_PUMP_n, 0));
         }
       }
       closePumps(this.numberOfPumps);
-    } else if ((this.waterLevel - maxSteamRate - 3) <= configuration1.getMinimalNormalLevel()) {
+    } else if (fill
+        || (this.waterLevel - maxSteamRate - margin) <= configuration1.getMinimalNormalLevel()) {
       if (this.isValveOpen == true) {
-        outgoingMessage1.send(new Message(MessageKind.VALVE));
+        outgoingMessage1.send(this.messages.signal(MessageKind.VALVE));
         this.isValveOpen = false;
       }
-      increamentPumpNumber();
+      increamentPumpNumber(fill);
       assert (this.numberOfPumps != this.numberOfPumps - 1);
       if (this.numberOfPumps == 0) {
         if (this.pumpFailures[0] == -1
-            || (this.pumpFailures[0] != -1 && incomingMessage1.read(0).getBooleanParameter())) {
+            || (this.pumpFailures[0] != -1 && this.input.isPumpOn(0))) {
           this.numPumpsOn++;
           this.prevPumpState[0] = true;
-          outgoingMessage1.send(new Message(MessageKind.OPEN_PUMP_n, 0));
+          outgoingMessage1.send(this.messages.pump(MessageKind.OPEN_PUMP_n, 0));
         }
       }
       openPumps(this.numberOfPumps);
@@ -661,20 +1137,101 @@ public class SteamBoilerController {
     this.prevWaterLevel = this.waterLevel;
   }
 
+  /**
+   * This is a helper method which updates the limit forecast from the current
+   * level and the pumps commanded open. In rescue mode the level readings cannot
+   * be trusted, so the predicted level is used without the reading history.
+   */
+  private void updateForecast() {
+    CompiledConfiguration configuration1 = this.configuration;
+    int pumpsOn = Math.max(0, Math.min(this.numPumpsOn, configuration1.getNumberOfPumps()));
+    double predicted = configuration1.toCycleVolume(totalPumpsCapacity(pumpsOn) - this.steamLevel);
+    if (this.controllerMode == Mailbox.Mode.RESCUE) {
+      this.forecast.update(this.predictedWaterLevel, configuration1.getMinimalLimitLevel(),
+          configuration1.getMaximalLimitLevel(), predicted);
+    } else {
+      this.forecast.update(this.waterLevel, configuration1.getMinimalLimitLevel(),
+          configuration1.getMaximalLimitLevel(), predicted, this.history);
+    }
+  }
+
+  /**
+   * This is a helper method used to maintain the water level between N1 and N2 on
+   * plants with pumps of different capacities. It aims for the middle of the
+   * normal band by the next cycle, and opens the subset of working pumps whose
+   * capacity is closest to the inflow needed for that. If the level is above N2
+   * and even no pumps at all would let in too much water the valve is opened.
+   * If a limit is forecast to be crossed, the inflow also makes up for the
+   * difference between the trend seen in the readings and the predicted rate.
+   *
+   * @param fill
+   *          true if the level is forecast to fall below M1
+   * @param drain
+   *          true if the level is forecast to rise above M2
+   */
+  private void maintainWaterLevelByCombination(boolean fill, boolean drain) {
+    CompiledConfiguration configuration1 = this.configuration;
+    Mailbox outgoingMessage1 = this.outgoingMessage;
+    assert (outgoingMessage1 != null);
+
+    double target = this.steamLevel
+        + configuration1.toRate(configuration1.getNormalMidpoint() - this.waterLevel);
+    // broken pumps which are stuck open still pump water in
+    for (int i = 0; i < configuration1.getNumberOfPumps(); i++) {
+      if (this.pumpFailures[i] != -1 && this.input.isPumpOn(i)) {
+        target -= configuration1.getPumpCapacity(i);
+      }
+    }
+    if (fill) {
+      target += configuration1.toRate(this.forecast.getPredictedRate()
+          - this.forecast.getFallingRate());
+    } else if (drain) {
+      target -= configuration1.toRate(this.forecast.getRisingRate()
+          - this.forecast.getPredictedRate());
+    }
+    boolean valve = target < 0
+        && (drain || this.waterLevel > configuration1.getMaximalNormalLevel());
+    if (this.isValveOpen != valve) {
+      outgoingMessage1.send(this.messages.signal(MessageKind.VALVE));
+      this.isValveOpen = valve;
+    }
+    this.pumpSelection.select(Math.max(0, target), this.pumpFailures, this.selectedPumps);
+
+    this.numPumpsOn = 0;
+    for (int i = 0; i < configuration1.getNumberOfPumps(); i++) {
+      if (this.pumpFailures[i] != -1) {
+        continue;
+      }
+      if (this.selectedPumps[i]) {
+        this.numPumpsOn++;
+        if (!this.prevPumpState[i]) {
+          this.prevPumpState[i] = true;
+          outgoingMessage1.send(this.messages.pump(MessageKind.OPEN_PUMP_n, i));
+        }
+      } else if (this.prevPumpState[i]) {
+        this.prevPumpState[i] = false;
+        outgoingMessage1.send(this.messages.pump(MessageKind.CLOSE_PUMP_n, i));
+      }
+    }
+    // rescue mode carries on from the number of pumps open
+    this.numberOfPumps = this.numPumpsOn;
+    this.prevWaterLevel = this.waterLevel;
+  }
+
   /**
    * This is a helper method that will maintain the water level for rescue mode
    * based on a predicated water value.
    */
   private void maintainRescueWaterLevel() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
-    double maxSteamRate = this.steamLevel * 5;
-    double totalPumpCapacity = totalPumpsCapacity(configuration1.getNumberOfPumps());
+    double maxSteamRate = configuration1.toCycleVolume(this.steamLevel);
+    // the pump thresholds were tuned at five seconds, where the capacity in
+    // litres per second was compared with the level as it is
+    double totalPumpCapacity = configuration1.scaleToPeriod(
+        totalPumpsCapacity(configuration1.getNumberOfPumps()));
     assert (totalPumpCapacity >= 0);
     if (this.predictedWaterLevel - maxSteamRate < configuration1.getMinimalNormalLevel()) {
       if (this.numberOfPumps < configuration1.getNumberOfPumps()) {
@@ -682,14 +1239,14 @@ public class SteamBoilerController {
       }
       if (this.numberOfPumps == 0) {
         if (this.pumpFailures[0] == -1
-            || (this.pumpFailures[0] != -1 && incomingMessage1.read(0).getBooleanParameter())) {
+            || (this.pumpFailures[0] != -1 && this.input.isPumpOn(0))) {
           this.numPumpsOn++;
           this.prevPumpState[0] = true;
-          outgoingMessage1.send(new Message(MessageKind.OPEN_PUMP_n, 0));
+          outgoingMessage1.send(this.messages.pump(MessageKind.OPEN_PUMP_n, 0));
         }
       }
       openPumps(this.numberOfPumps);
-    } else if (this.predictedWaterLevel + totalPumpCapacity 
+    } else if (this.predictedWaterLevel + totalPumpCapacity
         > configuration1.getMaximalNormalLevel()) {
       if (this.numberOfPumps >= 1) {
         this.numberOfPumps--;
@@ -698,33 +1255,39 @@ public class SteamBoilerController {
         if (this.pumpFailures[0] == -1) {
           this.numPumpsOn--;
           this.prevPumpState[0] = false;
-          outgoingMessage1.send(new Message(MessageKind.CLOSE_PUMP_n, 0));
+          outgoingMessage1.send(this.messages.pump(MessageKind.CLOSE_PUMP_n, 0));
         }
       }
       closePumps(this.numberOfPumps);
     }
     this.predictedWaterLevel = this.predictedWaterLevel - (maxSteamRate);
-    this.predictedWaterLevel = this.predictedWaterLevel + totalPumpsCapacity(this.numPumpsOn) * 5;
+    this.predictedWaterLevel = this.predictedWaterLevel
+        + configuration1.toCycleVolume(totalPumpsCapacity(this.numPumpsOn));
   }
 
   /**
    * This is a helper method thats used to increment the pump number.
+   *
+   * @param early true if the level is forecast to fall below M1, in which case
+   *        the number is incremented even if the level did not fall
    */
-  private void increamentPumpNumber() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+  private void increamentPumpNumber(boolean early) {
+    CompiledConfiguration configuration1 = this.configuration;
     
-    if (this.waterLevel < this.prevWaterLevel 
-        && this.numberOfPumps <= configuration1.getNumberOfPumps()) {
+    if ((early || this.waterLevel < this.prevWaterLevel)
+        && this.numberOfPumps < configuration1.getNumberOfPumps()) {
       this.numberOfPumps++;
     }
   }
 
   /**
    * This is a helper method thats used to decrement pump numbers.
+   *
+   * @param early true if the level is forecast to rise above M2, in which case
+   *        the number is decremented even if the level did not rise
    */
-  private void decrementPumpNumber() {
-    if (this.waterLevel > this.prevWaterLevel && this.numberOfPumps >= 1) {
+  private void decrementPumpNumber(boolean early) {
+    if ((early || this.waterLevel > this.prevWaterLevel) && this.numberOfPumps >= 1) {
       this.numberOfPumps--;
     }
   }
@@ -735,24 +1298,21 @@ public class SteamBoilerController {
    * @param numPumps is the number of pump that need to be opened
    */
   private void openPumps(int numPumps) {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
     
 
     assert (numPumps >= 0 && numPumps <= configuration1.getNumberOfPumps());
     this.numPumpsOn = 0;
     for (int i = 0; i < numPumps; i++) {
       if (this.pumpFailures[i] == -1
-          || (this.pumpFailures[i] != -1 && incomingMessage1.read(i).getBooleanParameter())) {
+          || (this.pumpFailures[i] != -1 && this.input.isPumpOn(i))) {
         this.numPumpsOn++;
         Integer index = Integer.valueOf(i);
         assert (index != null);
         this.prevPumpState[i] = true;
-        outgoingMessage1.send(new Message(MessageKind.OPEN_PUMP_n, i));
+        outgoingMessage1.send(this.messages.pump(MessageKind.OPEN_PUMP_n, i));
       }
     }
   }
@@ -763,8 +1323,7 @@ public class SteamBoilerController {
    * @param numPumps is the number of pumps that need to be closed
    */
   private void closePumps(int numPumps) {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     assert (numPumps >= 0 && numPumps <= configuration1.getNumberOfPumps());
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
@@ -777,7 +1336,7 @@ public class SteamBoilerController {
           Integer index = Integer.valueOf(i);
           assert (index != null);
           this.prevPumpState[i] = false;
-          outgoingMessage1.send(new Message(MessageKind.CLOSE_PUMP_n, i));
+          outgoingMessage1.send(this.messages.pump(MessageKind.CLOSE_PUMP_n, i));
           tempNumPumps--;
         }
       }
@@ -791,17 +1350,7 @@ public class SteamBoilerController {
    * @return true if a pumps is on else false
    */
   private boolean getPumpStatus() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
-    
-    for (int i = 0; i < configuration1.getNumberOfPumps(); i++) {
-      if (incomingMessage1.read(i).getBooleanParameter()) {
-        return true;
-      }
-    }
-    return false;
+    return this.input.isAnyPumpOn();
   }
 
   /**
@@ -811,8 +1360,6 @@ public class SteamBoilerController {
    * @return
    */
   public boolean isMeasuringUnitFailure() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
     
@@ -823,25 +1370,25 @@ public class SteamBoilerController {
         || (waterLevelFailure && steamSenorFailure)) {
 
       this.controllerMode = Mode.EMERGENCY_STOP;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.EMERGENCY_STOP));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.EMERGENCY_STOP));
       return true;
     } else if (steamSenorFailure && this.controllerMode != Mailbox.Mode.INITIALISATION
         && isWaterLevelNotWithinLimit()) {
       // could dump this into the degrade mode like before
       this.controllerMode = Mode.EMERGENCY_STOP;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.EMERGENCY_STOP));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.EMERGENCY_STOP));
       return true;
     } else if (steamSenorFailure && this.controllerMode != Mailbox.Mode.INITIALISATION) {
       // Failure of any other physical unit puts the program into degraded
       // mode. - normal mode
       this.controllerMode = Mode.DEGRADED;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.DEGRADED));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.DEGRADED));
       return true;
     } else if (waterLevelFailure && this.controllerMode == Mailbox.Mode.NORMAL) {
       // As soon as the program recognizes a failure of the water level
       // measuring unit it goes into rescue mode.
       this.controllerMode = Mailbox.Mode.RESCUE;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.RESCUE));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.RESCUE));
       this.predictedWaterLevel = this.prevWaterLevel;
       rescueMode();
       return true;
@@ -856,13 +1403,12 @@ public class SteamBoilerController {
    * @return true if there is a failure else false
    */
   private boolean checkWaterLevelMeasuringFailure() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
     
     if (this.waterLevel < 0 || this.waterLevel >= configuration1.getCapacity()) {
-      outgoingMessage1.send(new Message(MessageKind.LEVEL_FAILURE_DETECTION));
+      outgoingMessage1.send(this.messages.signal(MessageKind.LEVEL_FAILURE_DETECTION));
       return true;
     }
     return false;
@@ -875,124 +1421,137 @@ public class SteamBoilerController {
    * @return true if there is a failure else false
    */
   private boolean checkSteamLevelMeasureFailure() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    if (this.steamLevel < 0 || this.steamLevel > configuration1.getMaximualSteamRate()) {
-      outgoingMessage1.send(new Message(MessageKind.STEAM_FAILURE_DETECTION));
+    if (this.steamLevel < 0 || this.steamLevel > configuration1.getMaximalSteamRate()) {
+      outgoingMessage1.send(this.messages.signal(MessageKind.STEAM_FAILURE_DETECTION));
       return true;
     }
     return false;
   }
 
   /**
-   * This is a helper method that will respond accordingly if a pumps is to fail.
-   * in this cause it will also return true else if all the pumps are working
-   * correctly it will return false.
+   * This is a helper method that will respond accordingly if any pump or pump
+   * controller is to fail. Both are checked, so that a pump and a different
+   * pump controller failing in the same cycle are reported together. It will
+   * return true if there is a failure else false.
    * 
-   * @return true if there is a pump failure else false
+   * @return true if there is a pump or pump controller failure else false
    */
-  private boolean isPumpFailure() {
+  private boolean isPumpOrControllerFailure() {
     // Failure of any other physical unit puts the program into degraded
     // mode. - for normal mode
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    int pumpFailure = checkPumpFailure();
-    if (pumpFailure != -1) {
-      this.controllerMode = Mode.DEGRADED;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.DEGRADED));
-      outgoingMessage1.send(new Message(MessageKind.PUMP_FAILURE_DETECTION_n, pumpFailure));
-      return true;
+    boolean pumpFailure = checkPumpFailure() != -1;
+    boolean controllerFailure = checkPumpControllerFailure() != -1;
+    if (!pumpFailure && !controllerFailure) {
+      return false;
     }
-    return false;
+    this.controllerMode = Mode.DEGRADED;
+    outgoingMessage1.send(this.messages.mode(Mailbox.Mode.DEGRADED));
+    // report every pump and pump controller found broken in this cycle, not
+    // just the first, after the mode as in every other detection
+    for (int i = 0; i < this.detectedPumpCount; i++) {
+      outgoingMessage1.send(this.messages.pump(MessageKind.PUMP_FAILURE_DETECTION_n,
+          this.detectedPumps[i]));
+    }
+    sendControllerDetections();
+    return true;
   }
 
   /**
-   * This helper method will check if there is a pump failure if there is a pump
-   * failure then it will return the number of the pump that failed else it will
-   * return -1 if all pumps are working correctly.
-   * 
-   * @return -1 if all pumps are working correctly else the broken pump number
+   * This is a helper method which reports every pump controller found broken by
+   * the last check.
    */
-  private int checkPumpFailure() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+  private void sendControllerDetections() {
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
+    for (int i = 0; i < this.detectedControllerCount; i++) {
+      outgoingMessage1.send(this.messages.pump(MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n,
+          this.detectedControllers[i]));
+    }
+  }
 
-    for (int i = 0; i < configuration1.getNumberOfPumps(); i++) {
-      // tried to close it but is still open
-      if (!this.prevPumpState[i]) {
-        if (incomingMessage1.read(i).getBooleanParameter() != false) {
-          this.pumpFailures[i] = i;
-          return i;
-        }
-      } else {
-        // tried to open it but is still closed
-        if (this.prevPumpState[i]) {
-          if (incomingMessage1.read(i).getBooleanParameter() != true) {
-            this.pumpFailures[i] = i;
-            return i;
-          }
-        }
+  /**
+   * This is a helper method which checks whether the physical units have
+   * acknowledged the failure of any pump marked as failed, including those
+   * found broken in this cycle.
+   * 
+   * @return true if a pump failure was acknowledged else false
+   */
+  private boolean isPumpFailureAcknowledged() {
+    checkPumpFailure();
+    int acknowledgements = this.input.count(MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n);
+    for (int i = 0; i < acknowledgements; i++) {
+      int pump = this.input.getPump(MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n, i);
+      if (this.pumpFailures[pump] != -1) {
+        return true;
       }
     }
-    return -1;
+    return false;
   }
 
   /**
-   * This is a helper method that will respond accordingly to a pump controller
-   * failure. in the cause that there where a pump controller failure is found it
-   * will return true else it will false.
+   * This helper method will check every pump for a failure, marking all the
+   * pumps whose state differs from the one last commanded as failed and
+   * recording them in detectedPumps. It will return the number of the first pump
+   * that failed else it will return -1 if all pumps are working correctly.
    * 
-   * @return true if there is a pump controller failure else false
+   * @return -1 if all pumps are working correctly else the first broken pump
+   *         number
    */
-  private boolean isPumpControllerFailure() {
-    // Failure of any other physical unit puts the program into degraded
-    // mode. - for Normal Mode
-    Mailbox outgoingMessage1 = this.outgoingMessage;
-    assert (outgoingMessage1 != null);
-    int checkControllerFailure = checkPumpControllerFailure();
-    if (checkControllerFailure != -1) {
-      this.controllerMode = Mode.DEGRADED;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.DEGRADED));
-      return true;
+  private int checkPumpFailure() {
+    CompiledConfiguration configuration1 = this.configuration;
+
+    if (!this.pumpsChecked) {
+      int count = 0;
+      for (int i = 0; i < configuration1.getNumberOfPumps(); i++) {
+        // tried to close it but is still open, or tried to open it but is still
+        // closed
+        if (this.input.isPumpOn(i) != this.prevPumpState[i]) {
+          if (this.pumpFailures[i] == -1) {
+            this.failedPumpCount++;
+          }
+          this.pumpFailures[i] = i;
+          this.detectedPumps[count++] = i;
+        }
+      }
+      this.detectedPumpCount = count;
+      this.pumpsChecked = true;
     }
-    return false;
+    return this.detectedPumpCount == 0 ? -1 : this.detectedPumps[0];
   }
 
   /**
-   * this is a helper method that will check if there is failure with one of the
-   * pump controllers, if there is a failure with one of the pump controllers then
-   * it will return the pump controllers number else if will return -1.
+   * this is a helper method that will check every pump controller for a failure,
+   * marking all the pump controllers which disagree with their pump in the same
+   * cycle and recording them in detectedControllers, for the caller to report
+   * after any change of mode. If there is a failure it will return the number of
+   * the first broken pump controller else it will return -1.
    * 
-   * @return -1 if all pumps controllers are working correctly else the broken
-   *         pump controller number
+   * @return -1 if all pumps controllers are working correctly else the first
+   *         broken pump controller number
    */
   private int checkPumpControllerFailure() {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
-    Mailbox outgoingMessage1 = this.outgoingMessage;
-    assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     
-    for (int i = 0; i < configuration1.getNumberOfPumps(); i++) {
-      boolean tempPump = incomingMessage1.read(i).getBooleanParameter();
-      boolean tempController = incomingMessage1.read(configuration1.getNumberOfPumps() + i)
-          .getBooleanParameter();
+    int n = configuration1.getNumberOfPumps();
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      boolean tempPump = this.input.isPumpOn(i);
+      boolean tempController = this.input.isPumpControllerOn(i);
       if (tempPump != tempController) {
-        outgoingMessage1.send(new Message(MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n, i));
+        if (this.pumpControllerFailures[i] == -1) {
+          this.failedControllerCount++;
+        }
         this.pumpControllerFailures[i] = i;
-        return i;
+        this.detectedControllers[count++] = i;
       }
     }
-    return -1;
+    this.detectedControllerCount = count;
+    return count == 0 ? -1 : this.detectedControllers[0];
   }
 
   /**
@@ -1004,85 +1563,18 @@ public class SteamBoilerController {
   private boolean isWaterLevelNotWithinLimit() {
     // If the water level is risking reaching one of the limit values Ml
     // or M2 the program enters the mode emergency stop. - for Normal Mode
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
+    CompiledConfiguration configuration1 = this.configuration;
     Mailbox outgoingMessage1 = this.outgoingMessage;
     assert (outgoingMessage1 != null);
     if (this.waterLevel < configuration1.getMinimalLimitLevel()
         || this.waterLevel > configuration1.getMaximalLimitLevel()) {
       this.controllerMode = Mailbox.Mode.EMERGENCY_STOP;
-      outgoingMessage1.send(new Message(MessageKind.MODE_m, Mailbox.Mode.EMERGENCY_STOP));
+      outgoingMessage1.send(this.messages.mode(Mailbox.Mode.EMERGENCY_STOP));
       return true;
     }
     return false;
   }
 
-  /**
-   * This method will check if there is a transmission error given a message kind,
-   * it will return true if there is a transmission error else false.
-   * 
-   * @param messageKind is the message type that needs to be checked for transmission failure
-   * @return true if a transmission failure is detected else false.
-   */
-  private boolean checkTransmissionFailure(MessageKind messageKind) {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
-    Mailbox outgoingMessage1 = this.outgoingMessage;
-    assert (outgoingMessage1 != null);
-    Mailbox incomingMessage1 = this.incomingMessage;
-    assert (incomingMessage1 != null);
-    
-    int correctPumpNumber = 0;
-    int correctPumpControllerNumber = 0;
-    for (int i = 0; i < incomingMessage1.size(); i++) {
-      if (incomingMessage1.read(i).getKind() == messageKind 
-          && messageKind != Mailbox.MessageKind.PUMP_STATE_n_b
-          && messageKind != Mailbox.MessageKind.PUMP_CONTROL_STATE_n_b) {
-        return false;
-      } else if (messageKind == Mailbox.MessageKind.PUMP_STATE_n_b) {
-        if (incomingMessage1.read(i).getKind() == messageKind) {
-          correctPumpNumber++;
-        }
-      } else if (messageKind == Mailbox.MessageKind.PUMP_CONTROL_STATE_n_b) {
-        if (incomingMessage1.read(i).getKind() == messageKind) {
-          correctPumpControllerNumber++;
-        }
-      }
-    }
-    if ((configuration1.getNumberOfPumps() != correctPumpNumber
-        && messageKind == Mailbox.MessageKind.PUMP_STATE_n_b)
-        || (configuration1.getNumberOfPumps() != correctPumpControllerNumber
-            && messageKind == Mailbox.MessageKind.PUMP_CONTROL_STATE_n_b)) {
-      return true;
-    } else if ((configuration1.getNumberOfPumps() == correctPumpNumber
-        && messageKind == Mailbox.MessageKind.PUMP_STATE_n_b)
-        || (configuration1.getNumberOfPumps() == correctPumpControllerNumber
-            && messageKind == Mailbox.MessageKind.PUMP_CONTROL_STATE_n_b)) {
-      return false;
-    }
-    return true;
-  }
-
-  /**
-   * This is a helper method that will return true if there is a transmission
-   * failure, else false.
-   * 
-   * @return true if there is a transmission failure else false
-   */
-  private boolean isTransmissionFailure() {
-    // A transmission failure puts the program into the mode emergency stop.
-    if (checkTransmissionFailure(MessageKind.LEVEL_v)) {
-      return true;
-    } else if (checkTransmissionFailure(MessageKind.STEAM_v)) {
-      return true;
-    } else if (checkTransmissionFailure(MessageKind.PUMP_STATE_n_b)) {
-      return true;
-    } else if (checkTransmissionFailure(MessageKind.PUMP_CONTROL_STATE_n_b)) {
-      return true;
-    }
-    return false;
-  }
-  
   /**
    * This is a helper method to calculates the total capacity for a give number of
    * pumps.
@@ -1090,14 +1582,9 @@ public class SteamBoilerController {
    * @return the total capacity for a given number of pumps
    */
   private double totalPumpsCapacity(int numPumps) {
-    SteamBoilerCharacteristics configuration1 = this.configuration;
-    assert (configuration1 != null);
-    assert (numPumps >= 0 && numPumps <= configuration1.getNumberOfPumps());
+    assert (numPumps >= 0 && numPumps <= this.configuration.getNumberOfPumps());
 
-    double totalCapacity = 0;
-    for (int i = 0; i < numPumps; i++) {
-      totalCapacity += configuration1.getPumpCapacity(i);
-    }
+    double totalCapacity = this.configuration.getTotalCapacity(numPumps);
     assert (totalCapacity >= 0);
     return totalCapacity;
   }
@@ -0,0 +1,56 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A what-if query evaluates a hypothetical set of incoming messages against the
+ * current state of a live controller, without changing the live controller. The
+ * query keeps a scratch controller which is overwritten with the live state
+ * before every evaluation, so the cost of a query is one copy of the state plus
+ * one controller cycle and no state is allocated per query.
+ *
+ * <p>A query is not thread safe, however it can be used concurrently with the
+ * live clock, which never waits for it: a copy overlapping a live cycle is
+ * simply taken again. Each thread should use its own query.
+ */
+public final class WhatIfQuery {
+  /**
+   * This is the live controller which the questions are asked about.
+   */
+  private final SteamBoilerController live;
+  /**
+   * This is the scratch controller which the hypothetical cycle is run on.
+   */
+  private final SteamBoilerController scratch;
+
+  /**
+   * Construct a what-if query for a given live controller.
+   *
+   * @param live
+   *          The live controller.
+   * @param scratch
+   *          A controller with the same configuration which is used as scratch
+   *          space.
+   */
+  WhatIfQuery(SteamBoilerController live, SteamBoilerController scratch) {
+    this.live = live;
+    this.scratch = scratch;
+  }
+
+  /**
+   * Evaluate what the controller would do if it received the given messages
+   * now. The commands the controller would send are written to the outgoing
+   * mailbox.
+   *
+   * @param incoming
+   *          The hypothetical set of incoming messages from the physical units.
+   * @param outgoing
+   *          The commands the controller would send are written here.
+   * @return the mode the controller would be in after the cycle
+   */
+  public Mailbox.Mode evaluate(Mailbox incoming, Mailbox outgoing) {
+    this.live.copyStateTo(this.scratch);
+    this.scratch.step(incoming, outgoing);
+    return this.scratch.getMode();
+  }
+}
@@ -0,0 +1,377 @@
+package steam.boiler.events;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * A conflating subscription delivers events to one subscriber on an executor,
+ * no faster than the subscriber asks for them. Publishing never waits:
+ * telemetry replaces any telemetry from the same controller not yet
+ * delivered, so a slow subscriber always gets the latest readings of each
+ * controller. Mode changes and failures go into a bounded queue, and are never
+ * lost. Once the queue is full they are conflated instead, until the
+ * subscriber catches up: a failure of the same unit detected the same way is
+ * kept only once, with the cycle it was first detected in, and the mode
+ * changes of a controller become one change from the mode before the first to
+ * the mode after the last. Pending mode changes and failures are delivered
+ * before telemetry.
+ *
+ * <p>Any number of threads may publish at once, provided the events of each
+ * controller come from one thread at a time. Delivery is serialised by a
+ * work-in-progress counter, so the subscriber is never called concurrently.
+ */
+final class ConflatingSubscription implements Flow.Subscription, Runnable {
+  /**
+   * This is the number of mode changes and failures held for a subscriber.
+   */
+  static final int CAPACITY = 256;
+  /**
+   * This is the number of bits of a source which select a slot within a chunk.
+   */
+  private static final int CHUNK_BITS = 10;
+  /**
+   * This is the largest number of sources, which is 2^20.
+   */
+  static final int MAX_SOURCES = 1 << (2 * CHUNK_BITS);
+
+  /**
+   * This is the publisher subscribed to.
+   */
+  private final EventPublisher publisher;
+  /**
+   * This is the subscriber.
+   */
+  private final Flow.Subscriber<? super ControllerEvent> subscriber;
+  /**
+   * This runs the deliveries.
+   */
+  private final Executor executor;
+  /**
+   * This holds the mode changes and failures not yet delivered.
+   */
+  private final ConcurrentLinkedQueue<ControllerEvent> events = new ConcurrentLinkedQueue<>();
+  /**
+   * This is the number of events in the queue.
+   */
+  private final AtomicInteger queued = new AtomicInteger();
+  /**
+   * This holds the mode changes and failures which did not fit in the queue,
+   * conflated by controller, detection and unit.
+   */
+  private final ConcurrentHashMap<Long, ControllerEvent> overflow = new ConcurrentHashMap<>();
+  /**
+   * This holds the keys of the overflow in the order they were added.
+   */
+  private final ConcurrentLinkedQueue<Long> overflowed = new ConcurrentLinkedQueue<>();
+  /**
+   * This is the number of events in the overflow.
+   */
+  private final AtomicInteger overflowing = new AtomicInteger();
+  /**
+   * This holds, in chunks allocated as sources appear, the latest telemetry of
+   * each source not yet delivered.
+   */
+  private final AtomicReferenceArray<@Nullable AtomicReferenceArray<@Nullable ControllerEvent>>
+      telemetry = new AtomicReferenceArray<>(1 << CHUNK_BITS);
+  /**
+   * This holds the first telemetry of each source put in an empty slot, which
+   * marks the slots to deliver in the order they were filled.
+   */
+  private final ConcurrentLinkedQueue<ControllerEvent> filled = new ConcurrentLinkedQueue<>();
+  /**
+   * This is the number of events requested and not yet delivered.
+   */
+  private final AtomicLong demand = new AtomicLong();
+  /**
+   * This is the number of events replaced or conflated before delivery.
+   */
+  private final AtomicLong dropped = new AtomicLong();
+  /**
+   * This counts the signals not yet handled by a delivery run.
+   */
+  private final AtomicInteger wip = new AtomicInteger();
+  /**
+   * This is set once the subscription is cancelled or has ended.
+   */
+  private volatile boolean cancelled;
+  /**
+   * This is set once the publisher has closed.
+   */
+  private volatile boolean completed;
+  /**
+   * This is the error to give the subscriber, if any.
+   */
+  private volatile @Nullable Throwable error;
+
+  /**
+   * Construct a subscription.
+   *
+   * @param publisher
+   *          the publisher subscribed to
+   * @param subscriber
+   *          the subscriber
+   * @param executor
+   *          the executor to deliver on
+   */
+  ConflatingSubscription(EventPublisher publisher,
+      Flow.Subscriber<? super ControllerEvent> subscriber, Executor executor) {
+    this.publisher = publisher;
+    this.subscriber = subscriber;
+    this.executor = executor;
+  }
+
+  /**
+   * This hands an event to the subscription, without waiting.
+   *
+   * @param event
+   *          the event
+   */
+  void offer(ControllerEvent event) {
+    if (this.cancelled) {
+      return;
+    }
+    if (event.getKind() == ControllerEvent.Kind.TELEMETRY) {
+      AtomicReferenceArray<@Nullable ControllerEvent> chunk = chunkOf(event.getSource());
+      int slot = event.getSource() & ((1 << CHUNK_BITS) - 1);
+      if (chunk.getAndSet(slot, event) == null) {
+        this.filled.offer(event);
+      } else {
+        this.dropped.incrementAndGet();
+      }
+    } else if (this.overflowing.get() != 0) {
+      // Events go to the overflow until it is empty, so none overtakes another
+      conflate(event);
+    } else if (this.queued.incrementAndGet() <= CAPACITY) {
+      this.events.offer(event);
+    } else {
+      this.queued.decrementAndGet();
+      conflate(event);
+    }
+    signal();
+  }
+
+  /**
+   * This is a helper method which adds a mode change or failure to the
+   * overflow, conflating it with any event there of the same key.
+   *
+   * @param event
+   *          the event
+   */
+  private void conflate(ControllerEvent event) {
+    Long key = Long.valueOf(keyOf(event));
+    boolean[] added = new boolean[1];
+    this.overflow.compute(key, (k, pending) -> {
+      if (pending == null) {
+        added[0] = true;
+        return event;
+      } else if (event.getKind() == ControllerEvent.Kind.MODE_CHANGE) {
+        return ControllerEvent.modeChange(event.getSource(), event.getCycle(),
+            pending.getPreviousMode(), event.getMode());
+      } else {
+        return pending;
+      }
+    });
+    if (added[0]) {
+      this.overflowing.incrementAndGet();
+      this.overflowed.offer(key);
+    } else {
+      this.dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * This is a helper method which gives the key a mode change or failure is
+   * conflated by: its source, its detection and its unit.
+   *
+   * @param event
+   *          the event
+   * @return the key
+   */
+  private static long keyOf(ControllerEvent event) {
+    MessageKind detection = event.getDetection();
+    long kind = detection == null ? 0 : detection.ordinal() + 1;
+    return ((long) event.getSource() << 32) | (kind << 16) | ((event.getUnit() + 1) & 0xFFFF);
+  }
+
+  /**
+   * This is a helper method which finds the telemetry slots of a source,
+   * allocating them the first time it is seen.
+   *
+   * @param source
+   *          the source
+   * @return the chunk of slots holding the source
+   */
+  private AtomicReferenceArray<@Nullable ControllerEvent> chunkOf(int source) {
+    int index = source >>> CHUNK_BITS;
+    AtomicReferenceArray<@Nullable ControllerEvent> chunk = this.telemetry.get(index);
+    if (chunk == null) {
+      this.telemetry.compareAndSet(index, null, new AtomicReferenceArray<>(1 << CHUNK_BITS));
+      chunk = this.telemetry.get(index);
+      assert (chunk != null);
+    }
+    return chunk;
+  }
+
+  /**
+   * This tells the subscription the publisher has closed. The subscriber is
+   * completed once the events already offered have been delivered.
+   */
+  void complete() {
+    this.completed = true;
+    signal();
+  }
+
+  /**
+   * This returns the number of events replaced or conflated before delivery.
+   *
+   * @return the number of events dropped
+   */
+  long getDropped() {
+    return this.dropped.get();
+  }
+
+  @Override
+  public void request(long n) {
+    if (n <= 0) {
+      this.error = new IllegalArgumentException("non-positive request: " + n);
+    } else {
+      long current;
+      long next;
+      do {
+        current = this.demand.get();
+        next = current + n < 0 ? Long.MAX_VALUE : current + n;
+      } while (!this.demand.compareAndSet(current, next));
+    }
+    signal();
+  }
+
+  @Override
+  public void cancel() {
+    if (!this.cancelled) {
+      this.cancelled = true;
+      this.publisher.remove(this);
+    }
+  }
+
+  /**
+   * This is a helper method which starts a delivery run unless one is already
+   * going, in which case that run goes round again.
+   */
+  void signal() {
+    if (this.wip.getAndIncrement() == 0) {
+      this.executor.execute(this);
+    }
+  }
+
+  @Override
+  public void run() {
+    int missed = 1;
+    do {
+      if (!this.cancelled) {
+        drain();
+      }
+      missed = this.wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  /**
+   * This is a helper method which delivers as many events as the subscriber
+   * has asked for, and then ends the subscription if there is nothing more to
+   * deliver.
+   */
+  private void drain() {
+    Throwable failure = this.error;
+    if (failure != null) {
+      cancel();
+      this.subscriber.onError(failure);
+      return;
+    }
+    long requested = this.demand.get();
+    long delivered = 0;
+    while (delivered != requested && !this.cancelled) {
+      ControllerEvent next = this.events.poll();
+      if (next != null) {
+        this.queued.decrementAndGet();
+      } else if ((next = pollOverflow()) == null) {
+        next = pollTelemetry();
+        if (next == null) {
+          break;
+        }
+      }
+      try {
+        this.subscriber.onNext(next);
+      } catch (RuntimeException e) {
+        cancel();
+        this.subscriber.onError(e);
+        return;
+      }
+      delivered++;
+    }
+    if (delivered != 0 && requested != Long.MAX_VALUE) {
+      this.demand.addAndGet(-delivered);
+    }
+    if (this.completed && !this.cancelled && this.events.isEmpty() && this.overflowed.isEmpty()
+        && this.filled.isEmpty()) {
+      cancel();
+      this.subscriber.onComplete();
+    }
+  }
+
+  /**
+   * This is a helper method which takes the mode change or failure added to
+   * the overflow first.
+   *
+   * @return the event, or null if there is none
+   */
+  private @Nullable ControllerEvent pollOverflow() {
+    Long key = this.overflowed.poll();
+    if (key == null) {
+      return null;
+    }
+    ControllerEvent pending = this.overflow.remove(key);
+    assert (pending != null);
+    this.overflowing.decrementAndGet();
+    return pending;
+  }
+
+  /**
+   * This is a helper method which takes the latest telemetry of the source
+   * whose slot was filled first.
+   *
+   * @return the telemetry, or null if there is none
+   */
+  private @Nullable ControllerEvent pollTelemetry() {
+    ControllerEvent marker;
+    while ((marker = this.filled.poll()) != null) {
+      int source = marker.getSource();
+      AtomicReferenceArray<@Nullable ControllerEvent> chunk =
+          this.telemetry.get(source >>> CHUNK_BITS);
+      assert (chunk != null);
+      ControllerEvent latest = chunk.getAndSet(source & ((1 << CHUNK_BITS) - 1), null);
+      if (latest != null) {
+        return latest;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * This calls onSubscribe on the subscriber.
+   */
+  void start() {
+    try {
+      this.subscriber.onSubscribe(this);
+    } catch (RuntimeException e) {
+      cancel();
+      this.subscriber.onError(e);
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package steam.boiler.events;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * A controller event is one thing a controller did in a cycle: a change of
+ * mode, the detection of a failure, or the readings and commands of the cycle
+ * itself. Events are immutable, so one event is shared by every subscriber.
+ */
+public final class ControllerEvent {
+  /**
+   * The kinds of event.
+   */
+  public enum Kind {
+    /**
+     * The controller changed mode.
+     */
+    MODE_CHANGE,
+    /**
+     * The controller detected a failure of a unit.
+     */
+    FAILURE,
+    /**
+     * The readings and commands of one cycle. A subscriber which falls behind
+     * only receives the latest of these for each controller.
+     */
+    TELEMETRY
+  }
+
+  /**
+   * This identifies the controller within its fleet.
+   */
+  private final int source;
+  /**
+   * This is the kind of event.
+   */
+  private final Kind kind;
+  /**
+   * This is the cycle of the controller the event happened in.
+   */
+  private final long cycle;
+  /**
+   * This is the mode of the controller at the end of the cycle.
+   */
+  private final Mailbox.Mode mode;
+  /**
+   * This is the mode before a mode change, or the mode at the end of the cycle.
+   */
+  private final Mailbox.Mode previousMode;
+  /**
+   * This is the failure detection message sent, for a failure.
+   */
+  private final @Nullable MessageKind detection;
+  /**
+   * This is the pump or pump controller which failed, or -1.
+   */
+  private final int unit;
+  /**
+   * This is the water level read in the cycle.
+   */
+  private final double level;
+  /**
+   * This is the steam rate read in the cycle.
+   */
+  private final double steam;
+  /**
+   * This is the number of pumps the controller had on at the end of the cycle.
+   */
+  private final int pumpsOn;
+
+  /**
+   * Construct an event.
+   *
+   * @param source
+   *          the controller within its fleet
+   * @param kind
+   *          the kind of event
+   * @param cycle
+   *          the cycle of the event
+   * @param mode
+   *          the mode at the end of the cycle
+   * @param previousMode
+   *          the mode before the cycle
+   * @param detection
+   *          the failure detection message, or null
+   * @param unit
+   *          the unit which failed, or -1
+   * @param level
+   *          the water level
+   * @param steam
+   *          the steam rate
+   * @param pumpsOn
+   *          the number of pumps on
+   */
+  private ControllerEvent(int source, Kind kind, long cycle, Mailbox.Mode mode,
+      Mailbox.Mode previousMode, @Nullable MessageKind detection, int unit, double level,
+      double steam, int pumpsOn) {
+    this.source = source;
+    this.kind = kind;
+    this.cycle = cycle;
+    this.mode = mode;
+    this.previousMode = previousMode;
+    this.detection = detection;
+    this.unit = unit;
+    this.level = level;
+    this.steam = steam;
+    this.pumpsOn = pumpsOn;
+  }
+
+  /**
+   * This creates the event for a change of mode.
+   *
+   * @param source
+   *          the controller within its fleet
+   * @param cycle
+   *          the cycle of the change
+   * @param from
+   *          the mode before the change
+   * @param to
+   *          the mode after the change
+   * @return the event
+   */
+  public static ControllerEvent modeChange(int source, long cycle, Mailbox.Mode from,
+      Mailbox.Mode to) {
+    return new ControllerEvent(source, Kind.MODE_CHANGE, cycle, to, from, null, -1, 0, 0, 0);
+  }
+
+  /**
+   * This creates the event for the detection of a failure.
+   *
+   * @param source
+   *          the controller within its fleet
+   * @param cycle
+   *          the cycle of the detection
+   * @param mode
+   *          the mode at the end of the cycle
+   * @param detection
+   *          the failure detection message sent
+   * @param unit
+   *          the pump or pump controller which failed, or -1 for the level or
+   *          steam sensor
+   * @return the event
+   */
+  public static ControllerEvent failure(int source, long cycle, Mailbox.Mode mode,
+      MessageKind detection, int unit) {
+    return new ControllerEvent(source, Kind.FAILURE, cycle, mode, mode, detection, unit, 0, 0, 0);
+  }
+
+  /**
+   * This creates the event for the readings and commands of a cycle.
+   *
+   * @param source
+   *          the controller within its fleet
+   * @param cycle
+   *          the cycle
+   * @param mode
+   *          the mode at the end of the cycle
+   * @param level
+   *          the water level read
+   * @param steam
+   *          the steam rate read
+   * @param pumpsOn
+   *          the number of pumps on at the end of the cycle
+   * @return the event
+   */
+  public static ControllerEvent telemetry(int source, long cycle, Mailbox.Mode mode,
+      double level, double steam, int pumpsOn) {
+    return new ControllerEvent(source, Kind.TELEMETRY, cycle, mode, mode, null, -1, level, steam,
+        pumpsOn);
+  }
+
+  /**
+   * This returns the controller within its fleet, which is zero for a
+   * controller outside any fleet.
+   *
+   * @return the source of the event
+   */
+  public int getSource() {
+    return this.source;
+  }
+
+  /**
+   * This returns the kind of event.
+   *
+   * @return the kind
+   */
+  public Kind getKind() {
+    return this.kind;
+  }
+
+  /**
+   * This returns the cycle of the controller the event happened in, counting
+   * from one.
+   *
+   * @return the cycle
+   */
+  public long getCycle() {
+    return this.cycle;
+  }
+
+  /**
+   * This returns the mode of the controller at the end of the cycle.
+   *
+   * @return the mode
+   */
+  public Mailbox.Mode getMode() {
+    return this.mode;
+  }
+
+  /**
+   * This returns the mode before a change of mode. For other events it is the
+   * same as {@link #getMode()}.
+   *
+   * @return the previous mode
+   */
+  public Mailbox.Mode getPreviousMode() {
+    return this.previousMode;
+  }
+
+  /**
+   * This returns the failure detection message sent, for a failure.
+   *
+   * @return the kind of detection, or null for other events
+   */
+  public @Nullable MessageKind getDetection() {
+    return this.detection;
+  }
+
+  /**
+   * This returns the pump or pump controller which failed, for a failure.
+   *
+   * @return the unit, or -1
+   */
+  public int getUnit() {
+    return this.unit;
+  }
+
+  /**
+   * This returns the water level read, for telemetry.
+   *
+   * @return the water level
+   */
+  public double getLevel() {
+    return this.level;
+  }
+
+  /**
+   * This returns the steam rate read, for telemetry.
+   *
+   * @return the steam rate
+   */
+  public double getSteam() {
+    return this.steam;
+  }
+
+  /**
+   * This returns the number of pumps on at the end of the cycle, for telemetry.
+   *
+   * @return the number of pumps on
+   */
+  public int getPumpsOn() {
+    return this.pumpsOn;
+  }
+
+  @Override
+  public String toString() {
+    switch (this.kind) {
+      case MODE_CHANGE:
+        return this.source + "@" + this.cycle + " " + this.previousMode + "->" + this.mode;
+      case FAILURE:
+        return this.source + "@" + this.cycle + " " + this.detection
+            + (this.unit < 0 ? "" : "(" + this.unit + ")");
+      default:
+        return this.source + "@" + this.cycle + " " + this.mode + " level=" + this.level
+            + " steam=" + this.steam + " pumps=" + this.pumpsOn;
+    }
+  }
+}
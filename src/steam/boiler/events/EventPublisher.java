@@ -0,0 +1,229 @@
+package steam.boiler.events;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * An event publisher hands the events of a controller, or of a fleet of them,
+ * to any number of subscribers. Each subscriber is served by a
+ * {@link ConflatingSubscription} on an executor, with backpressure from its own
+ * demand, so publishing never waits for a subscriber however slow it is.
+ *
+ * <p>The publisher of a controller can be attached to the publisher of a
+ * fleet, which then receives the events of every controller in the fleet,
+ * each tagged with the source number the controller was given when it was
+ * attached.
+ *
+ * <p>Controllers ask {@link #hasSubscribers()} before building any event, and
+ * it is a single volatile read when nobody has subscribed, so publishing costs
+ * nothing until it is used.
+ */
+public final class EventPublisher implements Flow.Publisher<ControllerEvent> {
+  /**
+   * This is the subscriptions when there are none.
+   */
+  private static final ConflatingSubscription[] NONE = new ConflatingSubscription[0];
+  /**
+   * This updates the subscriptions.
+   */
+  private static final AtomicReferenceFieldUpdater<EventPublisher, ConflatingSubscription[]>
+      SUBSCRIPTIONS = AtomicReferenceFieldUpdater.newUpdater(EventPublisher.class,
+          ConflatingSubscription[].class, "subscriptions");
+
+  /**
+   * This runs deliveries for subscribers without an executor of their own.
+   */
+  private final Executor executor;
+  /**
+   * This is the current subscriptions, which is replaced rather than changed.
+   */
+  private volatile ConflatingSubscription[] subscriptions = NONE;
+  /**
+   * This is the fleet publisher this publisher is attached to, if any.
+   */
+  private volatile @Nullable EventPublisher fleet;
+  /**
+   * This is the source number of the events of this publisher.
+   */
+  private volatile int source;
+  /**
+   * This hands out source numbers to the publishers attached to this one.
+   */
+  private final AtomicInteger sources = new AtomicInteger();
+  /**
+   * This is set once the publisher is closed.
+   */
+  private volatile boolean closed;
+
+  /**
+   * Construct a publisher which delivers on the common fork-join pool.
+   */
+  public EventPublisher() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Construct a publisher which delivers on a given executor.
+   *
+   * @param executor
+   *          the executor, which must not run tasks on the publishing thread
+   *          if publishing is to never wait
+   */
+  public EventPublisher(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ControllerEvent> subscriber) {
+    subscribe(subscriber, this.executor);
+  }
+
+  /**
+   * This adds a subscriber whose events are delivered on a given executor.
+   *
+   * @param subscriber
+   *          the subscriber
+   * @param deliveries
+   *          the executor to deliver on
+   */
+  public void subscribe(Flow.Subscriber<? super ControllerEvent> subscriber,
+      Executor deliveries) {
+    ConflatingSubscription subscription = new ConflatingSubscription(this, subscriber, deliveries);
+    ConflatingSubscription[] current;
+    ConflatingSubscription[] next;
+    do {
+      current = this.subscriptions;
+      next = new ConflatingSubscription[current.length + 1];
+      System.arraycopy(current, 0, next, 0, current.length);
+      next[current.length] = subscription;
+    } while (!SUBSCRIPTIONS.compareAndSet(this, current, next));
+    subscription.start();
+    if (this.closed) {
+      subscription.complete();
+    }
+  }
+
+  /**
+   * This removes a subscription, once it is cancelled.
+   *
+   * @param subscription
+   *          the subscription
+   */
+  void remove(ConflatingSubscription subscription) {
+    ConflatingSubscription[] current;
+    ConflatingSubscription[] next;
+    do {
+      current = this.subscriptions;
+      int index = -1;
+      for (int i = 0; i < current.length; i++) {
+        if (current[i] == subscription) {
+          index = i;
+        }
+      }
+      if (index < 0) {
+        return;
+      }
+      next = current.length == 1 ? NONE : new ConflatingSubscription[current.length - 1];
+      System.arraycopy(current, 0, next, 0, index);
+      System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+    } while (!SUBSCRIPTIONS.compareAndSet(this, current, next));
+  }
+
+  /**
+   * This attaches this publisher to the publisher of a fleet, which from then
+   * on also receives its events.
+   *
+   * @param parent
+   *          the publisher of the fleet
+   * @return the source number given to this publisher
+   * @throws IllegalStateException
+   *           if the fleet is full
+   */
+  public int attachTo(EventPublisher parent) {
+    int number = parent.sources.getAndIncrement();
+    if (number >= ConflatingSubscription.MAX_SOURCES) {
+      throw new IllegalStateException("too many sources in fleet");
+    }
+    this.source = number;
+    this.fleet = parent;
+    return number;
+  }
+
+  /**
+   * This checks whether anyone would receive an event published now, either
+   * from this publisher or from the fleet it is attached to.
+   *
+   * @return true if there are subscribers
+   */
+  public boolean hasSubscribers() {
+    if (this.subscriptions.length != 0) {
+      return true;
+    }
+    EventPublisher parent = this.fleet;
+    return parent != null && parent.hasSubscribers();
+  }
+
+  /**
+   * This returns the number of subscribers to this publisher itself.
+   *
+   * @return the number of subscribers
+   */
+  public int getSubscriberCount() {
+    return this.subscriptions.length;
+  }
+
+  /**
+   * This returns the source number of events of this publisher.
+   *
+   * @return the source number, which is zero until it is attached to a fleet
+   */
+  public int getSource() {
+    return this.source;
+  }
+
+  /**
+   * This returns the number of events replaced or conflated before delivery,
+   * over the current subscribers.
+   *
+   * @return the number of events dropped
+   */
+  public long getDropped() {
+    long total = 0;
+    for (ConflatingSubscription s : this.subscriptions) {
+      total += s.getDropped();
+    }
+    return total;
+  }
+
+  /**
+   * This hands an event to every subscriber, and to the fleet if attached. It
+   * never waits.
+   *
+   * @param event
+   *          the event
+   */
+  public void publish(ControllerEvent event) {
+    for (ConflatingSubscription s : this.subscriptions) {
+      s.offer(event);
+    }
+    EventPublisher parent = this.fleet;
+    if (parent != null) {
+      parent.publish(event);
+    }
+  }
+
+  /**
+   * This completes every subscriber once it has received the events already
+   * published. Later subscribers are completed straight away.
+   */
+  public void close() {
+    this.closed = true;
+    for (ConflatingSubscription s : this.subscriptions) {
+      s.complete();
+    }
+  }
+}
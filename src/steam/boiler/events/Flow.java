@@ -0,0 +1,94 @@
+package steam.boiler.events;
+
+/**
+ * These are the interfaces of reactive streams, with the same methods and
+ * rules as java.util.concurrent.Flow, which is not available on Java 8. Once
+ * the tree moves to Java 9 they can be replaced by that class without any
+ * other change.
+ */
+public final class Flow {
+  /**
+   * A publisher produces items for any number of subscribers, each of which
+   * receives them through its own subscription.
+   *
+   * @param <T>
+   *          the type of item published
+   */
+  @FunctionalInterface
+  public interface Publisher<T> {
+    /**
+     * This adds a subscriber, which is then given its subscription through
+     * {@link Subscriber#onSubscribe}.
+     *
+     * @param subscriber
+     *          the subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * A subscriber receives items from a publisher. The methods of a subscriber
+   * are called one at a time, and it receives no more items than it has
+   * requested.
+   *
+   * @param <T>
+   *          the type of item received
+   */
+  public interface Subscriber<T> {
+    /**
+     * This is called once, before any other method.
+     *
+     * @param subscription
+     *          the subscription, through which items are requested
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * This is called with each item.
+     *
+     * @param item
+     *          the item
+     */
+    void onNext(T item);
+
+    /**
+     * This is called if the subscription fails, after which nothing else is
+     * called.
+     *
+     * @param throwable
+     *          the failure
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * This is called when there will be no more items, after which nothing else
+     * is called.
+     */
+    void onComplete();
+  }
+
+  /**
+   * A subscription links one subscriber to one publisher.
+   */
+  public interface Subscription {
+    /**
+     * This adds to the number of items the subscriber is ready to receive.
+     *
+     * @param n
+     *          the number of items, which must be positive
+     */
+    void request(long n);
+
+    /**
+     * This stops the subscriber from receiving any more items, possibly after
+     * some which are already on their way.
+     */
+    void cancel();
+  }
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private Flow() {
+  }
+}
@@ -0,0 +1,6 @@
+/**
+ * Publishing what controllers do, such as mode changes, failure detections and
+ * readings, to subscribers such as dashboards, historians and alarm systems.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+package steam.boiler.events;
@@ -0,0 +1,358 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.events.EventPublisher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * A boiler runtime gives each controller a thread of its own, which reads a
+ * frame from its gateway, clocks the controller and writes the commands back,
+ * blocking as long as the gateway needs. On a JVM with virtual threads each
+ * controller gets a virtual thread, so a site can run hundreds of thousands of
+ * boilers this way; on older JVMs each gets a platform thread, which limits a
+ * runtime to a few thousand boilers.
+ *
+ * <p>Physical units which push frames on threads of their own are connected
+ * through a {@link MailboxExchange} instead. The control loop then ticks once
+ * per period of the controller, on deadlines counted from its start, with the
+ * latest frame the units have published, and never waits for them. A period in
+ * which no frame arrives still clocks the controller, with no messages, so a
+ * link which dies is seen as a transmission failure.
+ *
+ * <p>Nothing on the path of a control loop holds a monitor. Each loop only
+ * touches its own controller, gateway and counters; the controller guards its
+ * state with a StampedLock, which is not reentrant and parks waiting threads
+ * rather than blocking on a monitor, and the counters are volatile fields
+ * written by that loop alone. So a loop waiting in its gateway never pins a
+ * carrier thread, provided the gateway itself does not wait inside a
+ * synchronized block.
+ */
+public final class BoilerRuntime implements AutoCloseable {
+  /**
+   * A boiler is the control loop of one controller.
+   */
+  public static final class Boiler implements Runnable {
+    /**
+     * This is the controller.
+     */
+    private final SteamBoilerController controller;
+    /**
+     * This is the gateway to the physical units, or null if they are connected
+     * through an exchange.
+     */
+    private final @Nullable Gateway gateway;
+    /**
+     * This is the exchange with the physical units, or null if they are
+     * connected through a gateway.
+     */
+    private final @Nullable MailboxExchange exchange;
+    /**
+     * This is the source of time for the ticks of an exchange.
+     */
+    private final TimeSource time;
+    /**
+     * This is the number of cycles completed. It is only written by the loop.
+     */
+    private volatile long cycles;
+    /**
+     * This is what stopped the loop, if it failed.
+     */
+    private volatile @Nullable Exception failure;
+    /**
+     * This is set once the loop has ended.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Construct the control loop of a controller.
+     *
+     * @param controller
+     *          the controller
+     * @param gateway
+     *          the gateway to its physical units
+     */
+    Boiler(SteamBoilerController controller, Gateway gateway) {
+      this.controller = controller;
+      this.gateway = gateway;
+      this.exchange = null;
+      this.time = TimeSource.SYSTEM;
+    }
+
+    /**
+     * Construct the control loop of a controller connected through an
+     * exchange.
+     *
+     * @param controller
+     *          the controller
+     * @param exchange
+     *          the exchange with its physical units
+     * @param time
+     *          the source of time for the ticks
+     */
+    Boiler(SteamBoilerController controller, MailboxExchange exchange, TimeSource time) {
+      this.controller = controller;
+      this.gateway = null;
+      this.exchange = exchange;
+      this.time = time;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Gateway gateway1 = this.gateway;
+        MailboxExchange exchange1 = this.exchange;
+        if (gateway1 != null) {
+          runGateway(gateway1);
+        } else {
+          assert (exchange1 != null);
+          runExchange(exchange1);
+        }
+      } catch (InterruptedException e) {
+        // the runtime is closing
+      } catch (IOException | RuntimeException e) {
+        this.failure = e;
+      } finally {
+        this.stopped = true;
+      }
+    }
+
+    /**
+     * This is a helper method which clocks the controller with each frame read
+     * from a gateway.
+     *
+     * @param gateway1
+     *          the gateway
+     * @throws IOException
+     *           if the gateway fails
+     * @throws InterruptedException
+     *           if the runtime is closing
+     */
+    private void runGateway(Gateway gateway1) throws IOException, InterruptedException {
+      while (!Thread.currentThread().isInterrupted()) {
+        Mailbox incoming = gateway1.read();
+        Mailbox outgoing = new UnboundedMailbox(incoming.size() + 8);
+        this.controller.clock(incoming, outgoing);
+        gateway1.write(outgoing);
+        this.cycles = this.cycles + 1;
+      }
+    }
+
+    /**
+     * This is a helper method which ticks an exchange once per period of the
+     * controller. The period is read again each tick, so a reload which
+     * changes it takes effect from the next deadline.
+     *
+     * @param exchange1
+     *          the exchange
+     * @throws InterruptedException
+     *           if the runtime is closing
+     */
+    private void runExchange(MailboxExchange exchange1) throws InterruptedException {
+      long deadline = this.time.nanoTime();
+      while (!Thread.currentThread().isInterrupted()) {
+        deadline += TimeUnit.MILLISECONDS.toNanos(
+            this.controller.getConfiguration().getPeriodMillis());
+        this.time.sleepUntil(deadline);
+        // a tick without a new frame still clocks the controller, which treats
+        // the lost frame as a transmission failure
+        exchange1.tick(this.controller);
+        this.cycles = this.cycles + 1;
+      }
+    }
+
+    /**
+     * This returns the controller.
+     *
+     * @return the controller
+     */
+    public SteamBoilerController getController() {
+      return this.controller;
+    }
+
+    /**
+     * This returns the number of cycles completed so far.
+     *
+     * @return the number of cycles
+     */
+    public long getCycles() {
+      return this.cycles;
+    }
+
+    /**
+     * This returns what stopped the loop, if it failed. A controller whose
+     * gateway fails is no longer clocked, so the physical units see no
+     * commands and must treat it as a transmission failure.
+     *
+     * @return the failure, or null if the loop has not failed
+     */
+    public @Nullable Exception getFailure() {
+      return this.failure;
+    }
+
+    /**
+     * This checks whether the loop has ended, either because it failed or
+     * because the runtime was closed.
+     *
+     * @return true if the loop has ended
+     */
+    public boolean isStopped() {
+      return this.stopped;
+    }
+  }
+
+  /**
+   * This runs the control loops.
+   */
+  private final ExecutorService executor;
+  /**
+   * This is true if the control loops run on virtual threads.
+   */
+  private final boolean virtual;
+  /**
+   * This publishes the events of every controller in the runtime.
+   */
+  private final EventPublisher events = new EventPublisher();
+
+  /**
+   * Construct a runtime which gives each controller a virtual thread if the
+   * JVM has them, or a platform thread otherwise.
+   */
+  public BoilerRuntime() {
+    ExecutorService threads = newVirtualThreadExecutor();
+    this.virtual = threads != null;
+    this.executor = threads != null ? threads : Executors.newCachedThreadPool(task -> {
+      Thread thread = new Thread(task, "boiler");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * This is a helper method which creates an executor running each task on a
+   * new virtual thread. It is looked up reflectively so that the runtime still
+   * builds and runs on JVMs without virtual threads.
+   *
+   * @return the executor, or null if the JVM has no virtual threads
+   */
+  private static @Nullable ExecutorService newVirtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      // before Java 21, or a preview which is not enabled
+      return null;
+    }
+  }
+
+  /**
+   * This starts the control loop of a controller.
+   *
+   * @param controller
+   *          the controller, which must not be clocked by anything else
+   * @param gateway
+   *          the gateway to its physical units
+   * @return the control loop, whose events carry the source number of the
+   *         controller's publisher
+   * @throws IllegalStateException
+   *           if the runtime has been closed
+   */
+  public Boiler start(SteamBoilerController controller, Gateway gateway) {
+    controller.getPublisher().attachTo(this.events);
+    Boiler boiler = new Boiler(controller, gateway);
+    try {
+      this.executor.execute(boiler);
+    } catch (RejectedExecutionException e) {
+      throw new IllegalStateException("runtime is closed", e);
+    }
+    return boiler;
+  }
+
+  /**
+   * This starts the control loop of a controller whose physical units publish
+   * frames through an exchange. The loop ticks the exchange once per period of
+   * the controller, and the cycles of the loop count only the ticks which found
+   * a new frame.
+   *
+   * @param controller
+   *          the controller, which must not be clocked by anything else
+   * @param exchange
+   *          the exchange with its physical units, which must not be ticked by
+   *          anything else
+   * @param time
+   *          the source of time for the ticks
+   * @return the control loop
+   * @throws IllegalStateException
+   *           if the runtime has been closed
+   */
+  public Boiler start(SteamBoilerController controller, MailboxExchange exchange,
+      TimeSource time) {
+    controller.getPublisher().attachTo(this.events);
+    Boiler boiler = new Boiler(controller, exchange, time);
+    try {
+      this.executor.execute(boiler);
+    } catch (RejectedExecutionException e) {
+      throw new IllegalStateException("runtime is closed", e);
+    }
+    return boiler;
+  }
+
+  /**
+   * This returns the publisher of the events of every controller started in
+   * the runtime, each tagged with the source number its controller was given.
+   *
+   * @return the event publisher of the fleet
+   */
+  public EventPublisher getPublisher() {
+    return this.events;
+  }
+
+  /**
+   * This checks whether the control loops run on virtual threads.
+   *
+   * @return true for virtual threads, false for platform threads
+   */
+  public boolean isVirtual() {
+    return this.virtual;
+  }
+
+  /**
+   * This stops every control loop by interrupting it, waits for them to end,
+   * and then completes the subscribers of the fleet. A loop blocked in a
+   * gateway which ignores interrupts only ends when the gateway returns.
+   *
+   * @param timeout
+   *          how long to wait, in milliseconds
+   * @return true if every loop has ended
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting
+   */
+  public boolean close(long timeout) throws InterruptedException {
+    this.executor.shutdownNow();
+    boolean ended = this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    this.events.close();
+    return ended;
+  }
+
+  /**
+   * This stops every control loop by interrupting it, waiting up to ten seconds
+   * for them to end.
+   */
+  @Override
+  public void close() {
+    try {
+      close(10_000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
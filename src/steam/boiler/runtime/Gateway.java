@@ -0,0 +1,41 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A gateway connects one controller to the physical units of its boiler. Both
+ * calls block, which lets the control loop of a {@link BoilerRuntime} be
+ * written as straight-line code.
+ *
+ * <p>A gateway is used by a single thread. When that is a virtual thread, the
+ * gateway should wait with the blocking calls of java.util.concurrent or
+ * java.nio rather than inside a synchronized block or method, which would pin
+ * the carrier thread for as long as it waits.
+ */
+public interface Gateway {
+  /**
+   * This waits for the next complete frame from the physical units.
+   *
+   * @return the messages from the physical units, which are not changed
+   *         afterwards
+   * @throws IOException
+   *           if the connection to the physical units fails
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting
+   */
+  Mailbox read() throws IOException, InterruptedException;
+
+  /**
+   * This sends the messages of one cycle to the physical units.
+   *
+   * @param mailbox
+   *          the messages for the physical units
+   * @throws IOException
+   *           if the connection to the physical units fails
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting
+   */
+  void write(Mailbox mailbox) throws IOException, InterruptedException;
+}
@@ -0,0 +1,174 @@
+package steam.boiler.runtime;
+
+import java.util.Arrays;
+
+/**
+ * A jitter histogram records how late things happen, in nanoseconds, with a
+ * relative error of at most one eighth. Values below eight have a bucket each,
+ * and every power of two above that is split into eight buckets, so any long
+ * fits in under five hundred buckets and recording a value never allocates.
+ *
+ * <p>A histogram is not thread safe. Each scheduler thread keeps its own, and
+ * they can be combined with {@link #add(JitterHistogram)}.
+ */
+public final class JitterHistogram {
+  /**
+   * This is the number of bits of each value kept below its leading bit.
+   */
+  private static final int SUB_BITS = 3;
+  /**
+   * This is the number of buckets per power of two.
+   */
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  /**
+   * This is the number of buckets needed for any non-negative long.
+   */
+  private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+  /**
+   * This stores the number of values in each bucket.
+   */
+  private final long[] counts = new long[BUCKETS];
+  /**
+   * This is the number of values recorded.
+   */
+  private long count;
+  /**
+   * This is the sum of the values recorded.
+   */
+  private long sum;
+  /**
+   * This is the largest value recorded.
+   */
+  private long max;
+
+  /**
+   * This records a value. Negative values, which mean something happened
+   * early, are recorded as zero.
+   *
+   * @param nanos
+   *          the value to record
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    this.counts[bucketOf(value)]++;
+    this.count++;
+    this.sum += value;
+    if (value > this.max) {
+      this.max = value;
+    }
+  }
+
+  /**
+   * This adds the values recorded in another histogram to this histogram.
+   *
+   * @param other
+   *          the histogram to add
+   */
+  public void add(JitterHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.counts[i] += other.counts[i];
+    }
+    this.count += other.count;
+    this.sum += other.sum;
+    this.max = Math.max(this.max, other.max);
+  }
+
+  /**
+   * This forgets all values recorded.
+   */
+  public void reset() {
+    Arrays.fill(this.counts, 0);
+    this.count = 0;
+    this.sum = 0;
+    this.max = 0;
+  }
+
+  /**
+   * This returns the number of values recorded.
+   *
+   * @return the number of values
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * This returns the largest value recorded.
+   *
+   * @return the largest value, or zero if there are none
+   */
+  public long getMaximum() {
+    return this.max;
+  }
+
+  /**
+   * This returns the mean of the values recorded.
+   *
+   * @return the mean, or zero if there are none
+   */
+  public double getMean() {
+    return this.count == 0 ? 0 : (double) this.sum / this.count;
+  }
+
+  /**
+   * This returns an upper bound on a percentile of the values recorded, which
+   * is within one eighth of the true value and never above the maximum.
+   *
+   * @param fraction
+   *          the percentile as a fraction, from 0 to 1
+   * @return the percentile, or zero if there are no values
+   */
+  public long getPercentile(double fraction) {
+    if (this.count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * this.count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(this.max, highestOf(i));
+      }
+    }
+    return this.max;
+  }
+
+  /**
+   * This is a helper method which finds the bucket of a value.
+   *
+   * @param value
+   *          the value, which must not be negative
+   * @return the bucket
+   */
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * This is a helper method which finds the largest value in a bucket.
+   *
+   * @param bucket
+   *          the bucket
+   * @return the largest value
+   */
+  private static long highestOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return low + (1L << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+        this.count, getMean() / 1000, getPercentile(0.5) / 1000.0, getPercentile(0.99) / 1000.0,
+        getPercentile(0.999) / 1000.0, this.max / 1000.0);
+  }
+}
@@ -0,0 +1,156 @@
+package steam.boiler.runtime;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Padding before the value of a {@link LatestSlot}, so that it does not share a
+ * cache line with whatever is allocated before it.
+ */
+abstract class LatestSlotPadding {
+  // These fields only take up space.
+  long p01;
+  long p02;
+  long p03;
+  long p04;
+  long p05;
+  long p06;
+  long p07;
+}
+
+/**
+ * The value of a {@link LatestSlot}.
+ */
+abstract class LatestSlotValue extends LatestSlotPadding {
+  /**
+   * This is the latest value not yet taken, or null.
+   */
+  volatile @Nullable Object value;
+}
+
+/**
+ * Padding between the value of a {@link LatestSlot} and the counters of its
+ * producer.
+ */
+abstract class LatestSlotMiddlePadding extends LatestSlotValue {
+  // These fields only take up space.
+  long p11;
+  long p12;
+  long p13;
+  long p14;
+  long p15;
+  long p16;
+  long p17;
+}
+
+/**
+ * The counters of a {@link LatestSlot}, which only its producer writes.
+ */
+abstract class LatestSlotCounters extends LatestSlotMiddlePadding {
+  /**
+   * This is the number of values offered.
+   */
+  volatile long offered;
+  /**
+   * This is the number of values replaced before they were taken.
+   */
+  volatile long overwritten;
+}
+
+/**
+ * A latest slot hands the latest value from one producer thread to one
+ * consumer thread. The producer replaces whatever value is waiting and the
+ * consumer takes it, each with a single atomic exchange, so neither side ever
+ * waits for the other however busy it is. Values the consumer did not get to
+ * in time are dropped, which is what a control loop wants: only the most recent
+ * complete frame matters.
+ *
+ * <p>The value and the producer's counters sit on cache lines of their own, so
+ * the two threads only share the line holding the value.
+ *
+ * @param <T>
+ *          the type of value handed over
+ */
+public final class LatestSlot<T> extends LatestSlotCounters {
+  /**
+   * This exchanges the value.
+   */
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<LatestSlotValue, Object> VALUE =
+      AtomicReferenceFieldUpdater.newUpdater(LatestSlotValue.class, Object.class, "value");
+  /**
+   * This writes the number of values offered.
+   */
+  private static final AtomicLongFieldUpdater<LatestSlotCounters> OFFERED =
+      AtomicLongFieldUpdater.newUpdater(LatestSlotCounters.class, "offered");
+  /**
+   * This writes the number of values replaced.
+   */
+  private static final AtomicLongFieldUpdater<LatestSlotCounters> OVERWRITTEN =
+      AtomicLongFieldUpdater.newUpdater(LatestSlotCounters.class, "overwritten");
+  // These fields only take up space.
+  long p21;
+  long p22;
+  long p23;
+  long p24;
+  long p25;
+  long p26;
+  long p27;
+
+  /**
+   * This hands over a value, replacing any value not yet taken. It must only be
+   * called by the producer.
+   *
+   * @param item
+   *          the value
+   * @return the value replaced, or null if the last value was taken
+   */
+  @SuppressWarnings("unchecked")
+  public @Nullable T offer(T item) {
+    Object previous = VALUE.getAndSet(this, item);
+    // only the producer writes the counters, so an ordered write is enough
+    OFFERED.lazySet(this, this.offered + 1);
+    if (previous != null) {
+      OVERWRITTEN.lazySet(this, this.overwritten + 1);
+    }
+    return (T) previous;
+  }
+
+  /**
+   * This takes the latest value. It must only be called by the consumer, or by
+   * the producer to take back a value the consumer has not taken, in which case
+   * whichever thread gets to it first has it.
+   *
+   * @return the latest value, or null if there has been none since the last
+   *         one taken
+   */
+  @SuppressWarnings("unchecked")
+  public @Nullable T poll() {
+    if (this.value == null) {
+      // avoid the exchange, and so taking the cache line, when there is nothing
+      return null;
+    }
+    return (T) VALUE.getAndSet(this, null);
+  }
+
+  /**
+   * This returns the number of values offered so far.
+   *
+   * @return the number of values offered
+   */
+  public long getOffered() {
+    return this.offered;
+  }
+
+  /**
+   * This returns the number of values which were replaced before the consumer
+   * took them.
+   *
+   * @return the number of values dropped
+   */
+  public long getOverwritten() {
+    return this.overwritten;
+  }
+}
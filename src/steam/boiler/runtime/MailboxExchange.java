@@ -0,0 +1,166 @@
+package steam.boiler.runtime;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * A mailbox exchange connects a controller ticking on one thread with a gateway
+ * talking to the physical units on others. The gateway publishes each complete
+ * incoming mailbox as it arrives and the tick takes the latest one, and the
+ * outgoing mailbox of each tick is handed back the same way. Both directions
+ * use a {@link LatestSlot}, so neither the gateway nor the tick ever waits for
+ * the other. A {@link BoilerRuntime} ticks an exchange once per period of its
+ * controller. An exchange may also have a {@link SensorAggregator}, in which
+ * case the level and steam readings of each incoming mailbox are replaced by
+ * the statistics of the readings reported since the last tick.
+ *
+ * <p>Only the latest incoming mailbox matters, so older ones are dropped. The
+ * outgoing messages are another matter: mode changes, failure detections and
+ * acknowledgements are only sent once, so an outgoing mailbox the gateway has
+ * not taken by the next tick is taken back and sent along with that tick's
+ * messages, in the order they were sent.
+ *
+ * <p>There is one producer and one consumer in each direction: a single
+ * thread may publish incoming mailboxes, a single thread may tick, and a single
+ * thread may take outgoing mailboxes.
+ */
+public final class MailboxExchange {
+  /**
+   * This hands incoming mailboxes from the gateway to the tick.
+   */
+  private final LatestSlot<Mailbox> incoming = new LatestSlot<>();
+  /**
+   * This hands outgoing mailboxes from the tick to the gateway.
+   */
+  private final LatestSlot<Mailbox> outgoing = new LatestSlot<>();
+  /**
+   * This is the number of ticks which found no new incoming mailbox. It is only
+   * written by the ticking thread.
+   */
+  private volatile long missed;
+  /**
+   * This is the number of outgoing mailboxes taken back because the gateway
+   * had not taken them by the next tick. It is only written by the ticking
+   * thread.
+   */
+  private volatile long merged;
+  /**
+   * This reduces the high-rate sensor readings of each cycle, if there are any.
+   */
+  private final @Nullable SensorAggregator aggregator;
+
+  /**
+   * Construct an exchange which passes incoming mailboxes on unchanged.
+   */
+  public MailboxExchange() {
+    this.aggregator = null;
+  }
+
+  /**
+   * Construct an exchange which aggregates the sensor readings of each cycle
+   * into the incoming mailbox before the controller is clocked.
+   *
+   * @param aggregator
+   *          the aggregator the sensors report to
+   */
+  public MailboxExchange(SensorAggregator aggregator) {
+    this.aggregator = aggregator;
+  }
+
+  /**
+   * This publishes a complete incoming mailbox. The mailbox must not be
+   * changed afterwards. It is called by the gateway.
+   *
+   * @param mailbox
+   *          the messages from the physical units
+   */
+  public void publishIncoming(Mailbox mailbox) {
+    this.incoming.offer(mailbox);
+  }
+
+  /**
+   * This takes the outgoing mailbox of the latest tick. It is called by the
+   * gateway.
+   *
+   * @return the messages for the physical units, or null if there has been no
+   *         tick since the last call
+   */
+  public @Nullable Mailbox takeOutgoing() {
+    return this.outgoing.poll();
+  }
+
+  /**
+   * This clocks a controller with the latest incoming mailbox and publishes
+   * what it sends. If no mailbox has arrived since the last tick the controller
+   * is clocked with an empty one, so that it sees the lost frame as a
+   * transmission failure. In that case the readings of any aggregator are
+   * kept, and reduced together with those of the next cycle.
+   *
+   * @param controller
+   *          the controller to clock
+   * @return true if a new incoming mailbox had arrived
+   */
+  public boolean tick(SteamBoilerController controller) {
+    Mailbox in = this.incoming.poll();
+    boolean arrived = in != null;
+    if (in == null) {
+      this.missed = this.missed + 1;
+      in = new UnboundedMailbox(0);
+    } else {
+      SensorAggregator aggregator1 = this.aggregator;
+      if (aggregator1 != null) {
+        in = aggregator1.aggregate(in);
+      }
+    }
+    Mailbox out = new UnboundedMailbox(in.size() + 8);
+    controller.clock(in, out);
+    // only this thread offers, so once taken back the mailbox cannot reach the
+    // gateway any more
+    Mailbox undelivered = this.outgoing.poll();
+    if (undelivered != null) {
+      Mailbox both = new UnboundedMailbox(undelivered.size() + out.size());
+      for (int i = 0; i < undelivered.size(); i++) {
+        both.send(undelivered.read(i));
+      }
+      for (int i = 0; i < out.size(); i++) {
+        both.send(out.read(i));
+      }
+      out = both;
+      this.merged = this.merged + 1;
+    }
+    this.outgoing.offer(out);
+    return arrived;
+  }
+
+  /**
+   * This returns the number of ticks which found no new incoming mailbox.
+   *
+   * @return the number of missed ticks
+   */
+  public long getMissedTicks() {
+    return this.missed;
+  }
+
+  /**
+   * This returns the number of incoming mailboxes replaced by a newer one
+   * before a tick took them.
+   *
+   * @return the number of incoming mailboxes dropped
+   */
+  public long getDroppedIncoming() {
+    return this.incoming.getOverwritten();
+  }
+
+  /**
+   * This returns the number of outgoing mailboxes the gateway had not taken by
+   * the next tick, whose messages were sent along with that tick's.
+   *
+   * @return the number of outgoing mailboxes merged
+   */
+  public long getMergedOutgoing() {
+    return this.merged;
+  }
+}
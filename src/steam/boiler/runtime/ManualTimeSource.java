@@ -0,0 +1,68 @@
+package steam.boiler.runtime;
+
+/**
+ * A manual time source only moves when it is told to. Sleeping jumps straight
+ * to the deadline, plus a configurable wake-up latency to model a late timer,
+ * and work done by a tick can be modelled by advancing the time from within
+ * the tick. This makes schedules reproducible in tests however loaded the
+ * machine running them is.
+ */
+public final class ManualTimeSource implements TimeSource {
+  /**
+   * This is the current time.
+   */
+  private long now;
+  /**
+   * This is how late each sleep wakes up.
+   */
+  private long latency;
+
+  /**
+   * Construct a manual time source starting at a given time.
+   *
+   * @param start
+   *          the time to start at, in nanoseconds
+   */
+  public ManualTimeSource(long start) {
+    this.now = start;
+  }
+
+  @Override
+  public long nanoTime() {
+    return this.now;
+  }
+
+  @Override
+  public void sleepUntil(long deadline) {
+    if (deadline > this.now) {
+      this.now = deadline;
+    }
+    this.now += this.latency;
+  }
+
+  /**
+   * This moves the time forward.
+   *
+   * @param nanos
+   *          the time to move forward by, which must not be negative
+   */
+  public void advance(long nanos) {
+    if (nanos < 0) {
+      throw new IllegalArgumentException("time cannot go backwards");
+    }
+    this.now += nanos;
+  }
+
+  /**
+   * This sets how late each following sleep wakes up.
+   *
+   * @param nanos
+   *          the wake-up latency, which must not be negative
+   */
+  public void setWakeLatency(long nanos) {
+    if (nanos < 0) {
+      throw new IllegalArgumentException("latency cannot be negative");
+    }
+    this.latency = nanos;
+  }
+}
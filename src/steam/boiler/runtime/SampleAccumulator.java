@@ -0,0 +1,218 @@
+package steam.boiler.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sample accumulator collects the readings one sensor reports between two
+ * controller cycles and reduces them to their latest, median, minimum and
+ * maximum. The sensor thread adds readings to a ring and publishes each with an
+ * ordered write of the sequence number, and the tick thread reduces whatever
+ * has arrived since the last cycle, so neither side takes a lock and nothing is
+ * allocated after construction.
+ *
+ * <p>There must be one thread adding readings and one thread reducing them. If
+ * more readings arrive in one cycle than the accumulator keeps, only the most
+ * recent are kept. The ring has one slot more than it keeps, since the sensor
+ * thread may be writing the slot after the newest reading at any time.
+ */
+public final class SampleAccumulator {
+  /**
+   * This stores the readings as raw bits, in a ring.
+   */
+  private final long[] ring;
+  /**
+   * This is used to wrap positions into the ring.
+   */
+  private final int mask;
+  /**
+   * This is the number of readings added, published after each reading is
+   * written.
+   */
+  private final AtomicLong written = new AtomicLong();
+  /**
+   * This is the number of readings the reducer has consumed.
+   */
+  private long read;
+  /**
+   * This is used by the reducer to sort the readings of a cycle.
+   */
+  private final double[] scratch;
+  /**
+   * This is the number of readings in the last cycle.
+   */
+  private int count;
+  /**
+   * This is the last reading of the last cycle.
+   */
+  private double latest = Double.NaN;
+  /**
+   * This is the median reading of the last cycle.
+   */
+  private double median = Double.NaN;
+  /**
+   * This is the lowest reading of the last cycle.
+   */
+  private double minimum = Double.NaN;
+  /**
+   * This is the highest reading of the last cycle.
+   */
+  private double maximum = Double.NaN;
+
+  /**
+   * Construct an accumulator.
+   *
+   * @param capacity
+   *          the most readings kept per cycle, rounded up to one less than a
+   *          power of two
+   */
+  public SampleAccumulator(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity) * 2 + 1);
+    this.ring = new long[size];
+    this.mask = size - 1;
+    this.scratch = new double[size];
+  }
+
+  /**
+   * This adds a reading. It must only be called by the sensor thread.
+   *
+   * @param value
+   *          the reading
+   */
+  public void add(double value) {
+    long position = this.written.get();
+    this.ring[(int) position & this.mask] = Double.doubleToRawLongBits(value);
+    this.written.lazySet(position + 1);
+  }
+
+  /**
+   * This reduces the readings added since the last call. It must only be
+   * called by the tick thread.
+   *
+   * @return the number of readings reduced, which may be zero
+   */
+  public int reduce() {
+    long end = this.written.get();
+    long start = Math.max(this.read, end - this.ring.length + 1);
+    int n = 0;
+    for (long i = start; i < end; i++) {
+      this.scratch[n++] = Double.longBitsToDouble(this.ring[(int) i & this.mask]);
+    }
+    // the sensor thread may have lapped the oldest readings while they were
+    // copied, in which case they are dropped; a reading is unsafe as soon as
+    // the one a whole ring after it is being written, before it is published
+    long overwritten = this.written.get() - this.ring.length + 1 - start;
+    int skip = (int) Math.max(0, Math.min(n, overwritten));
+    this.read = end;
+    this.count = n - skip;
+    if (this.count == 0) {
+      this.latest = Double.NaN;
+      this.median = Double.NaN;
+      this.minimum = Double.NaN;
+      this.maximum = Double.NaN;
+      return 0;
+    }
+    this.latest = this.scratch[n - 1];
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = skip; i < n; i++) {
+      min = Math.min(min, this.scratch[i]);
+      max = Math.max(max, this.scratch[i]);
+    }
+    this.minimum = min;
+    this.maximum = max;
+    this.median = select(skip, n - 1, skip + (this.count - 1) / 2);
+    return this.count;
+  }
+
+  /**
+   * This is a helper method which finds the k-th smallest reading in part of
+   * the scratch array, reordering it in the process.
+   *
+   * @param from
+   *          the first index of the part
+   * @param to
+   *          the last index of the part
+   * @param k
+   *          the index the reading would have if the part were sorted
+   * @return the reading
+   */
+  private double select(int from, int to, int k) {
+    double[] a = this.scratch;
+    int low = from;
+    int high = to;
+    while (low < high) {
+      double pivot = a[(low + high) >>> 1];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (a[i] < pivot) {
+          i++;
+        }
+        while (a[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          double t = a[i];
+          a[i] = a[j];
+          a[j] = t;
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        high = j;
+      } else if (k >= i) {
+        low = i;
+      } else {
+        break;
+      }
+    }
+    return a[k];
+  }
+
+  /**
+   * This returns the number of readings in the last cycle.
+   *
+   * @return the number of readings
+   */
+  public int getCount() {
+    return this.count;
+  }
+
+  /**
+   * This returns the last reading of the last cycle.
+   *
+   * @return the reading, or NaN if there were none
+   */
+  public double getLatest() {
+    return this.latest;
+  }
+
+  /**
+   * This returns the median reading of the last cycle. With an even number of
+   * readings it is the lower of the two middle ones.
+   *
+   * @return the reading, or NaN if there were none
+   */
+  public double getMedian() {
+    return this.median;
+  }
+
+  /**
+   * This returns the lowest reading of the last cycle.
+   *
+   * @return the reading, or NaN if there were none
+   */
+  public double getMinimum() {
+    return this.minimum;
+  }
+
+  /**
+   * This returns the highest reading of the last cycle.
+   *
+   * @return the reading, or NaN if there were none
+   */
+  public double getMaximum() {
+    return this.maximum;
+  }
+}
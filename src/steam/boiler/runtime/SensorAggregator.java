@@ -0,0 +1,163 @@
+package steam.boiler.runtime;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * A sensor aggregator lets the level and steam sensors report far more often
+ * than the controller cycles. Readings are added to a {@link SampleAccumulator}
+ * per sensor as they arrive, and once per cycle they are reduced and the chosen
+ * statistic replaces the single level and steam reading of the incoming
+ * mailbox, so the controller sees an ordinary frame and costs no more than
+ * before.
+ */
+public final class SensorAggregator {
+  /**
+   * A statistic is the value a cycle of readings is reduced to.
+   */
+  public enum Statistic {
+    /**
+     * The last reading of the cycle.
+     */
+    LATEST,
+    /**
+     * The median reading of the cycle, which ignores isolated outliers.
+     */
+    MEDIAN,
+    /**
+     * The lowest reading of the cycle.
+     */
+    MINIMUM,
+    /**
+     * The highest reading of the cycle.
+     */
+    MAXIMUM
+  }
+
+  /**
+   * This collects the level readings.
+   */
+  private final SampleAccumulator level;
+  /**
+   * This collects the steam readings.
+   */
+  private final SampleAccumulator steam;
+  /**
+   * This is the statistic the level is reduced to.
+   */
+  private final Statistic levelStatistic;
+  /**
+   * This is the statistic the steam is reduced to.
+   */
+  private final Statistic steamStatistic;
+
+  /**
+   * Construct an aggregator.
+   *
+   * @param samplesPerCycle
+   *          the most readings per sensor kept in one cycle
+   * @param levelStatistic
+   *          the statistic the level is reduced to
+   * @param steamStatistic
+   *          the statistic the steam is reduced to
+   */
+  public SensorAggregator(int samplesPerCycle, Statistic levelStatistic,
+      Statistic steamStatistic) {
+    this.level = new SampleAccumulator(samplesPerCycle);
+    this.steam = new SampleAccumulator(samplesPerCycle);
+    this.levelStatistic = levelStatistic;
+    this.steamStatistic = steamStatistic;
+  }
+
+  /**
+   * This adds a level reading. It must only be called by the level sensor
+   * thread.
+   *
+   * @param value
+   *          the reading
+   */
+  public void addLevel(double value) {
+    this.level.add(value);
+  }
+
+  /**
+   * This adds a steam reading. It must only be called by the steam sensor
+   * thread.
+   *
+   * @param value
+   *          the reading
+   */
+  public void addSteam(double value) {
+    this.steam.add(value);
+  }
+
+  /**
+   * This reduces the readings of the cycle and returns a copy of an incoming
+   * mailbox in which the level and steam readings are replaced by their
+   * statistics. A sensor which reported nothing during the cycle keeps the
+   * reading in the mailbox, and a reading missing from the mailbox stays
+   * missing, so transmission failures are still detected. It must only be
+   * called by the tick thread.
+   *
+   * @param incoming
+   *          the mailbox for the cycle
+   * @return the mailbox with the aggregated readings
+   */
+  public Mailbox aggregate(Mailbox incoming) {
+    this.level.reduce();
+    this.steam.reduce();
+    Mailbox result = new UnboundedMailbox(incoming.size());
+    for (int i = 0; i < incoming.size(); i++) {
+      Message message = incoming.read(i);
+      if (message.getKind() == MessageKind.LEVEL_v && this.level.getCount() > 0) {
+        message = new Message(MessageKind.LEVEL_v, valueOf(this.level, this.levelStatistic));
+      } else if (message.getKind() == MessageKind.STEAM_v && this.steam.getCount() > 0) {
+        message = new Message(MessageKind.STEAM_v, valueOf(this.steam, this.steamStatistic));
+      }
+      result.send(message);
+    }
+    return result;
+  }
+
+  /**
+   * This is a helper method which returns a statistic of an accumulator.
+   *
+   * @param accumulator
+   *          the accumulator
+   * @param statistic
+   *          the statistic
+   * @return the value of the statistic
+   */
+  private static double valueOf(SampleAccumulator accumulator, Statistic statistic) {
+    switch (statistic) {
+      case LATEST:
+        return accumulator.getLatest();
+      case MEDIAN:
+        return accumulator.getMedian();
+      case MINIMUM:
+        return accumulator.getMinimum();
+      default:
+        return accumulator.getMaximum();
+    }
+  }
+
+  /**
+   * This returns the level readings of the last cycle.
+   *
+   * @return the level accumulator
+   */
+  public SampleAccumulator getLevel() {
+    return this.level;
+  }
+
+  /**
+   * This returns the steam readings of the last cycle.
+   *
+   * @return the steam accumulator
+   */
+  public SampleAccumulator getSteam() {
+    return this.steam;
+  }
+}
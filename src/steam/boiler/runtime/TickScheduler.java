@@ -0,0 +1,420 @@
+package steam.boiler.runtime;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A tick scheduler fires the ticks of any number of controllers from one
+ * thread, each once per period. Every deadline is computed from the start time
+ * and the tick number rather than from when the last tick happened, so a late
+ * wake-up or a slow tick never pushes the following ticks back: there is jitter
+ * but no drift.
+ *
+ * <p>A tick which finishes after its next deadline is an overrun. When a tick
+ * is so late that one or more whole periods have gone by, the ticks for those
+ * periods are missed rather than fired back to back, and the tick fires for the
+ * latest deadline which has passed. How late each tick fires is recorded in a
+ * {@link JitterHistogram}.
+ *
+ * <p>Each task has a phase within the period. By default the phases of
+ * successive tasks follow a van der Corput sequence (0, 1/2, 1/4, 3/4, 1/8,
+ * ...), which keeps the ticks spread evenly across the period however many
+ * tasks there are, so that a large fleet does not wake all at once.
+ *
+ * <p>A scheduler is driven by a single thread. Tasks are added and the
+ * statistics read from that thread, or before it starts and after it stops.
+ */
+public final class TickScheduler {
+  /**
+   * A listener is told about overruns and missed ticks as they happen, on the
+   * scheduling thread.
+   */
+  public interface Listener {
+    /**
+     * This is called when a tick finishes after the next deadline of its task.
+     *
+     * @param task
+     *          the task
+     * @param nanos
+     *          how long after the next deadline the tick finished
+     */
+    void overrun(int task, long nanos);
+
+    /**
+     * This is called when the ticks of a task for one or more periods are
+     * skipped.
+     *
+     * @param task
+     *          the task
+     * @param ticks
+     *          the number of ticks skipped
+     */
+    void missed(int task, long ticks);
+  }
+
+  /**
+   * This is the source of time.
+   */
+  private final TimeSource time;
+  /**
+   * This is the period in nanoseconds.
+   */
+  private final long period;
+  /**
+   * This is the time from which all deadlines are counted.
+   */
+  private final long start;
+  /**
+   * This stores the tasks.
+   */
+  private Runnable[] tasks = new Runnable[16];
+  /**
+   * This stores the next deadline of each task.
+   */
+  private long[] deadlines = new long[16];
+  /**
+   * This stores the number of overruns of each task.
+   */
+  private long[] overruns = new long[16];
+  /**
+   * This stores the number of missed ticks of each task.
+   */
+  private long[] missed = new long[16];
+  /**
+   * This is a binary min-heap of tasks ordered by their next deadline.
+   */
+  private int[] heap = new int[16];
+  /**
+   * This is the number of tasks.
+   */
+  private int size;
+  /**
+   * This records how late each tick fired.
+   */
+  private final JitterHistogram jitter = new JitterHistogram();
+  /**
+   * This is the number of ticks fired.
+   */
+  private long fired;
+  /**
+   * This is told about overruns and missed ticks, if set.
+   */
+  private @Nullable Listener listener;
+  /**
+   * This is set to stop the scheduler.
+   */
+  private volatile boolean stopped;
+
+  /**
+   * Construct a scheduler whose deadlines are counted from the current time.
+   *
+   * @param time
+   *          the source of time
+   * @param periodNanos
+   *          the period in nanoseconds, which must be positive
+   */
+  public TickScheduler(TimeSource time, long periodNanos) {
+    if (periodNanos <= 0) {
+      throw new IllegalArgumentException("period must be positive");
+    }
+    this.time = time;
+    this.period = periodNanos;
+    this.start = time.nanoTime();
+  }
+
+  /**
+   * This sets the listener told about overruns and missed ticks.
+   *
+   * @param listener
+   *          the listener, or null for none
+   */
+  public void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * This adds a task at the next phase of the stagger sequence.
+   *
+   * @param task
+   *          the tick to fire each period
+   * @return the number of the task
+   */
+  public int add(Runnable task) {
+    double fraction = (Integer.reverse(this.size) >>> 1) / (double) (1L << 31);
+    return add(task, (long) (fraction * this.period));
+  }
+
+  /**
+   * This adds a task at a given phase. Its first tick is at the first deadline
+   * with that phase which has not yet passed.
+   *
+   * @param task
+   *          the tick to fire each period
+   * @param phaseNanos
+   *          the offset of its deadlines from the start of each period, from
+   *          zero up to the period
+   * @return the number of the task
+   */
+  public int add(Runnable task, long phaseNanos) {
+    if (phaseNanos < 0 || phaseNanos >= this.period) {
+      throw new IllegalArgumentException("phase outside period: " + phaseNanos);
+    }
+    if (this.size == this.tasks.length) {
+      int capacity = this.size * 2;
+      this.tasks = Arrays.copyOf(this.tasks, capacity);
+      this.deadlines = Arrays.copyOf(this.deadlines, capacity);
+      this.overruns = Arrays.copyOf(this.overruns, capacity);
+      this.missed = Arrays.copyOf(this.missed, capacity);
+      this.heap = Arrays.copyOf(this.heap, capacity);
+    }
+    int id = this.size++;
+    long deadline = this.start + phaseNanos;
+    long behind = this.time.nanoTime() - deadline;
+    if (behind > 0) {
+      deadline += ((behind + this.period - 1) / this.period) * this.period;
+    }
+    this.tasks[id] = task;
+    this.deadlines[id] = deadline;
+    this.heap[id] = id;
+    siftUp(id);
+    return id;
+  }
+
+  /**
+   * This fires every tick whose deadline has passed.
+   *
+   * @return the earliest deadline still to come, or Long.MAX_VALUE if there are
+   *         no tasks
+   */
+  public long runOnce() {
+    long now = this.time.nanoTime();
+    while (this.size > 0 && this.deadlines[this.heap[0]] - now <= 0) {
+      fire(this.heap[0], now);
+      now = this.time.nanoTime();
+    }
+    return this.size == 0 ? Long.MAX_VALUE : this.deadlines[this.heap[0]];
+  }
+
+  /**
+   * This fires ticks until a given time or until the scheduler is stopped,
+   * sleeping between them.
+   *
+   * @param end
+   *          the time to stop at, in nanoseconds
+   * @throws InterruptedException
+   *           if the thread is interrupted while sleeping
+   */
+  public void runUntil(long end) throws InterruptedException {
+    this.stopped = false;
+    while (!this.stopped) {
+      long next = runOnce();
+      if (next - end >= 0) {
+        return;
+      }
+      this.time.sleepUntil(next);
+    }
+  }
+
+  /**
+   * This fires ticks until the scheduler is stopped.
+   *
+   * @throws InterruptedException
+   *           if the thread is interrupted while sleeping
+   */
+  public void run() throws InterruptedException {
+    this.stopped = false;
+    while (!this.stopped) {
+      this.time.sleepUntil(runOnce());
+    }
+  }
+
+  /**
+   * This stops the scheduler after the tick in progress, if any. It can be
+   * called from any thread, though a scheduler sleeping until its next
+   * deadline only notices when it wakes.
+   */
+  public void stop() {
+    this.stopped = true;
+  }
+
+  /**
+   * This is a helper method which fires the tick of a task and moves its
+   * deadline on to the next period.
+   *
+   * @param id
+   *          the task
+   * @param now
+   *          the current time
+   */
+  private void fire(int id, long now) {
+    long deadline = this.deadlines[id];
+    long late = now - deadline;
+    if (late >= this.period) {
+      long skipped = late / this.period;
+      deadline += skipped * this.period;
+      late -= skipped * this.period;
+      this.missed[id] += skipped;
+      Listener l = this.listener;
+      if (l != null) {
+        l.missed(id, skipped);
+      }
+    }
+    this.jitter.record(late);
+    this.fired++;
+    this.tasks[id].run();
+    long next = deadline + this.period;
+    long over = this.time.nanoTime() - next;
+    if (over > 0) {
+      this.overruns[id]++;
+      Listener l = this.listener;
+      if (l != null) {
+        l.overrun(id, over);
+      }
+    }
+    this.deadlines[id] = next;
+    siftDown(0);
+  }
+
+  /**
+   * This is a helper method which moves an entry of the heap up to its place.
+   *
+   * @param index
+   *          the entry
+   */
+  private void siftUp(int index) {
+    int[] h = this.heap;
+    int id = h[index];
+    long deadline = this.deadlines[id];
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (this.deadlines[h[parent]] - deadline <= 0) {
+        break;
+      }
+      h[index] = h[parent];
+      index = parent;
+    }
+    h[index] = id;
+  }
+
+  /**
+   * This is a helper method which moves an entry of the heap down to its place.
+   *
+   * @param index
+   *          the entry
+   */
+  private void siftDown(int index) {
+    int[] h = this.heap;
+    int id = h[index];
+    long deadline = this.deadlines[id];
+    int half = this.size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if (right < this.size && this.deadlines[h[right]] - this.deadlines[h[child]] < 0) {
+        child = right;
+      }
+      if (deadline - this.deadlines[h[child]] <= 0) {
+        break;
+      }
+      h[index] = h[child];
+      index = child;
+    }
+    h[index] = id;
+  }
+
+  /**
+   * This returns the period.
+   *
+   * @return the period in nanoseconds
+   */
+  public long getPeriod() {
+    return this.period;
+  }
+
+  /**
+   * This returns the number of tasks.
+   *
+   * @return the number of tasks
+   */
+  public int getTaskCount() {
+    return this.size;
+  }
+
+  /**
+   * This returns the next deadline of a task.
+   *
+   * @param task
+   *          the task
+   * @return the deadline in nanoseconds
+   */
+  public long getDeadline(int task) {
+    return this.deadlines[task];
+  }
+
+  /**
+   * This returns the number of ticks fired.
+   *
+   * @return the number of ticks
+   */
+  public long getFiredTicks() {
+    return this.fired;
+  }
+
+  /**
+   * This returns the number of overruns of a task.
+   *
+   * @param task
+   *          the task
+   * @return the number of overruns
+   */
+  public long getOverruns(int task) {
+    return this.overruns[task];
+  }
+
+  /**
+   * This returns the number of missed ticks of a task.
+   *
+   * @param task
+   *          the task
+   * @return the number of missed ticks
+   */
+  public long getMissedTicks(int task) {
+    return this.missed[task];
+  }
+
+  /**
+   * This returns the number of overruns of all tasks.
+   *
+   * @return the number of overruns
+   */
+  public long getTotalOverruns() {
+    long total = 0;
+    for (int i = 0; i < this.size; i++) {
+      total += this.overruns[i];
+    }
+    return total;
+  }
+
+  /**
+   * This returns the number of missed ticks of all tasks.
+   *
+   * @return the number of missed ticks
+   */
+  public long getTotalMissedTicks() {
+    long total = 0;
+    for (int i = 0; i < this.size; i++) {
+      total += this.missed[i];
+    }
+    return total;
+  }
+
+  /**
+   * This returns the histogram of how late each tick fired.
+   *
+   * @return the jitter histogram
+   */
+  public JitterHistogram getJitter() {
+    return this.jitter;
+  }
+}
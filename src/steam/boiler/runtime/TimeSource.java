@@ -0,0 +1,61 @@
+package steam.boiler.runtime;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A time source gives a monotonic time in nanoseconds and a way to wait until
+ * a given time. The scheduler only uses time through this interface, so that
+ * tests can drive it with a {@link ManualTimeSource} instead of the system
+ * clock.
+ */
+public interface TimeSource {
+  /**
+   * This is the system time source. It parks until shortly before each
+   * deadline and spins for the rest, because parking alone typically wakes
+   * tens of microseconds late.
+   */
+  TimeSource SYSTEM = new TimeSource() {
+    /**
+     * This is how long before a deadline to stop parking and start spinning.
+     */
+    private static final long SPIN_NANOS = 100_000;
+
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+
+    @Override
+    public void sleepUntil(long deadline) throws InterruptedException {
+      long remaining = deadline - System.nanoTime();
+      while (remaining > 0) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (remaining > SPIN_NANOS) {
+          LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+        remaining = deadline - System.nanoTime();
+      }
+    }
+  };
+
+  /**
+   * This returns the current time. Only differences between times are
+   * meaningful.
+   *
+   * @return the time in nanoseconds
+   */
+  long nanoTime();
+
+  /**
+   * This waits until the time is at or after a deadline, returning at once if
+   * it has already passed.
+   *
+   * @param deadline
+   *          the time to wait for, in nanoseconds
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting
+   */
+  void sleepUntil(long deadline) throws InterruptedException;
+}
@@ -0,0 +1,6 @@
+/**
+ * Support for running controllers against real gateways: handing frames
+ * between threads, scheduling ticks and publishing what the controllers do.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+package steam.boiler.runtime;
@@ -0,0 +1,298 @@
+package steam.boiler.simulation;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This runs a file of boiler scenarios headlessly and writes the outcome of each
+ * scenario as soon as it finishes. The scenario file is read one line at a time
+ * and nothing is kept between scenarios, so memory stays the same however many
+ * scenarios there are.
+ *
+ * <p>Each line of the scenario file describes one scenario as semicolon
+ * separated fields: <code>id;pumps;pumpCapacity;initialLevel;seconds;faults</code>
+ * where faults is a {@link FaultSchedule} and may be empty. Blank lines and lines
+ * starting with <code>#</code> are skipped.
+ *
+ * <p>Outcomes are written either as CSV or, with <code>--binary</code>, as
+ * fixed-size binary records, see {@link BinaryOutcomeWriter}.
+ */
+public final class BatchScenarioRunner {
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private BatchScenarioRunner() {
+  }
+
+  /**
+   * Run a scenario file.
+   *
+   * @param args
+   *          the scenario file, the outcome file and optionally
+   *          <code>--binary</code>
+   * @throws IOException
+   *           if a file cannot be read or written
+   * @throws InterruptedException
+   *           if the run is interrupted
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.err.println("usage: BatchScenarioRunner scenarios outcomes [--binary]");
+      return;
+    }
+    boolean binary = args.length > 2 && args[2].equals("--binary");
+    try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8);
+        OutcomeWriter out = binary
+            ? new BinaryOutcomeWriter(new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(Paths.get(args[1])))))
+            : new CsvOutcomeWriter(new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(Paths.get(args[1])), StandardCharsets.UTF_8)))) {
+      int count = run(in, out);
+      System.out.println(count + " scenarios run");
+    }
+  }
+
+  /**
+   * This runs every scenario read from a reader and writes the outcomes.
+   *
+   * @param in
+   *          the scenarios
+   * @param out
+   *          where the outcomes are written
+   * @return the number of scenarios run
+   * @throws IOException
+   *           if a scenario cannot be read or an outcome cannot be written
+   * @throws InterruptedException
+   *           if the run is interrupted
+   */
+  public static int run(BufferedReader in, OutcomeWriter out)
+      throws IOException, InterruptedException {
+    int count = 0;
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split(";", -1);
+      if (fields.length != 6) {
+        throw new IOException("invalid scenario: " + line);
+      }
+      SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+      config = config.setNumberOfPumps(Integer.parseInt(fields[1].trim()),
+          Double.parseDouble(fields[2].trim()));
+      SimulationRun run = new SimulationRun(config, Double.parseDouble(fields[3].trim()),
+          FaultSchedule.parse(fields[5]));
+      run.run(Integer.parseInt(fields[4].trim()), 0);
+      out.write(fields[0].trim(), run);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * An outcome writer streams the outcome of each scenario to disk.
+   */
+  public interface OutcomeWriter extends Closeable {
+    /**
+     * This writes the outcome of a finished scenario.
+     *
+     * @param id
+     *          the id of the scenario
+     * @param run
+     *          the finished run
+     * @throws IOException
+     *           if the outcome cannot be written
+     */
+    void write(String id, SimulationRun run) throws IOException;
+  }
+
+  /**
+   * This writes outcomes as CSV, with a header line. Times are in seconds, and
+   * -1 means the event did not happen.
+   */
+  public static final class CsvOutcomeWriter implements OutcomeWriter {
+    /**
+     * This is where the CSV is written.
+     */
+    private final Writer out;
+
+    /**
+     * Construct a CSV outcome writer.
+     *
+     * @param out
+     *          where the CSV is written
+     * @throws IOException
+     *           if the header cannot be written
+     */
+    public CsvOutcomeWriter(Writer out) throws IOException {
+      this.out = out;
+      out.write("id,time_to_normal,emergency_stop,cause,min_level,max_level,commands\n");
+    }
+
+    @Override
+    public void write(String id, SimulationRun run) throws IOException {
+      String cause = run.getEmergencyStopCause();
+      this.out.write(escape(id) + "," + seconds(run.getTimeToNormal()) + ","
+          + seconds(run.getEmergencyStopTime()) + "," + (cause == null ? "" : cause) + ","
+          + run.getMinLevel() + "," + run.getMaxLevel() + "," + run.getCommands() + "\n");
+      this.out.flush();
+    }
+
+    /**
+     * This is a helper method which quotes a field if it holds a comma, a quote
+     * or a line break, doubling any quotes in it.
+     *
+     * @param field
+     *          the field
+     * @return the field as it is written in the CSV
+     */
+    private static String escape(String field) {
+      for (int i = 0; i < field.length(); i++) {
+        char c = field.charAt(i);
+        if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+          return '"' + field.replace("\"", "\"\"") + '"';
+        }
+      }
+      return field;
+    }
+
+    /**
+     * This is a helper method which converts a time to seconds, keeping -1.
+     *
+     * @param millis
+     *          the time in milliseconds or -1
+     * @return the time in seconds or -1
+     */
+    private static double seconds(int millis) {
+      return millis == -1 ? -1 : millis / 1000.0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.out.close();
+    }
+  }
+
+  /**
+   * This writes outcomes as binary records which all have the same layout, of
+   * {@link #RECORD_BYTES} bytes in big-endian order, so the outcome of the n-th
+   * scenario starts at n times the record size:
+   *
+   * <ul>
+   * <li>the id, as {@link #ID_BYTES} bytes of UTF-8 padded with zeros;</li>
+   * <li>the time to normal and the emergency stop time as ints in milliseconds,
+   * -1 when they did not happen;</li>
+   * <li>the causes of the emergency stop as an int, with bit i set for the i-th
+   * of {@link #CAUSES}, and 0 when there was no stop;</li>
+   * <li>the minimum and maximum levels as doubles;</li>
+   * <li>the number of commands as a long.</li>
+   * </ul>
+   */
+  public static final class BinaryOutcomeWriter implements OutcomeWriter {
+    /**
+     * This is the room for the id of a scenario in each record.
+     */
+    public static final int ID_BYTES = 32;
+    /**
+     * This is the size of each record.
+     */
+    public static final int RECORD_BYTES = ID_BYTES + 4 + 4 + 4 + 8 + 8 + 8;
+    /**
+     * These are the causes of an emergency stop, in the order of their bits.
+     */
+    private static final String[] CAUSES = { "LEVEL_FAILURE_DETECTION",
+        "STEAM_FAILURE_DETECTION", "PUMP_FAILURE_DETECTION_n", "PUMP_CONTROL_FAILURE_DETECTION_n",
+        "LEVEL_LIMIT", "TRANSMISSION_FAILURE" };
+
+    /**
+     * This is where the records are written.
+     */
+    private final DataOutputStream out;
+    /**
+     * This is used to pad the id of each record.
+     */
+    private final byte[] padded = new byte[ID_BYTES];
+
+    /**
+     * Construct a binary outcome writer.
+     *
+     * @param out
+     *          where the records are written
+     */
+    public BinaryOutcomeWriter(DataOutputStream out) {
+      this.out = out;
+    }
+
+    /**
+     * This returns the cause of an emergency stop with a given bit.
+     *
+     * @param bit
+     *          the bit of the cause
+     * @return the cause, as returned by {@link SimulationRun#getEmergencyStopCause()}
+     */
+    public static String getCause(int bit) {
+      return CAUSES[bit];
+    }
+
+    @Override
+    public void write(String id, SimulationRun run) throws IOException {
+      byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > ID_BYTES) {
+        throw new IOException("scenario id longer than " + ID_BYTES + " bytes: " + id);
+      }
+      Arrays.fill(this.padded, (byte) 0);
+      System.arraycopy(bytes, 0, this.padded, 0, bytes.length);
+      this.out.write(this.padded);
+      this.out.writeInt(run.getTimeToNormal());
+      this.out.writeInt(run.getEmergencyStopTime());
+      this.out.writeInt(causes(run.getEmergencyStopCause()));
+      this.out.writeDouble(run.getMinLevel());
+      this.out.writeDouble(run.getMaxLevel());
+      this.out.writeLong(run.getCommands());
+      this.out.flush();
+    }
+
+    /**
+     * This is a helper method which turns the cause of an emergency stop into its
+     * bits.
+     *
+     * @param cause
+     *          the causes joined with +, or null if there was no stop
+     * @return the bits of the causes
+     */
+    private static int causes(@Nullable String cause) {
+      int bits = 0;
+      if (cause != null) {
+        for (String part : cause.split("\\+")) {
+          for (int i = 0; i < CAUSES.length; i++) {
+            if (CAUSES[i].equals(part)) {
+              bits |= 1 << i;
+            }
+          }
+        }
+      }
+      return bits;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.out.close();
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package steam.boiler.simulation;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * Campaign statistics accumulate the outcomes of many simulation runs. Each
+ * worker thread keeps its own statistics, and they are merged once the workers
+ * have finished, so no state is shared while the campaign is running.
+ */
+public final class CampaignStatistics {
+  /**
+   * This is the number of runs.
+   */
+  private long runs;
+  /**
+   * This is the total simulated time in milliseconds.
+   */
+  private long simulatedMillis;
+  /**
+   * This is the total number of controller cycles.
+   */
+  private long cycles;
+  /**
+   * This is the number of cycles spent in each mode.
+   */
+  private final long[] modeCycles = new long[Mailbox.Mode.values().length];
+  /**
+   * This is the number of runs which ended in an emergency stop.
+   */
+  private long emergencyStops;
+  /**
+   * This counts the emergency stops by cause.
+   */
+  private final Map<String, Long> stopCauses = new TreeMap<>();
+  /**
+   * This is the number of runs where the level left the limit band before an
+   * emergency stop.
+   */
+  private long violationRuns;
+  /**
+   * This is the number of runs which threw an exception.
+   */
+  private long crashes;
+
+  /**
+   * This adds the outcome of a finished run.
+   *
+   * @param run
+   *          the finished run
+   */
+  public void add(SimulationRun run) {
+    this.runs++;
+    this.simulatedMillis += run.getElapsed();
+    this.cycles += run.getCycles();
+    for (Mailbox.Mode mode : Mailbox.Mode.values()) {
+      this.modeCycles[mode.ordinal()] += run.getModeCycles(mode);
+    }
+    String cause = run.getEmergencyStopCause();
+    if (cause != null) {
+      this.emergencyStops++;
+      addCause(cause, 1);
+    }
+    if (run.getLimitViolations() > 0) {
+      this.violationRuns++;
+    }
+  }
+
+  /**
+   * This records a run which threw an exception.
+   */
+  public void addCrash() {
+    this.runs++;
+    this.crashes++;
+  }
+
+  /**
+   * This is a helper method which adds to the count of a stop cause.
+   *
+   * @param cause
+   *          the cause of the stop
+   * @param count
+   *          how many stops to add
+   */
+  private void addCause(String cause, long count) {
+    Long previous = this.stopCauses.get(cause);
+    this.stopCauses.put(cause, Long.valueOf(count + (previous == null ? 0 : previous.longValue())));
+  }
+
+  /**
+   * This merges the statistics of another worker into these statistics.
+   *
+   * @param other
+   *          the statistics to merge
+   */
+  public void merge(CampaignStatistics other) {
+    this.runs += other.runs;
+    this.simulatedMillis += other.simulatedMillis;
+    this.cycles += other.cycles;
+    for (int i = 0; i < this.modeCycles.length; i++) {
+      this.modeCycles[i] += other.modeCycles[i];
+    }
+    this.emergencyStops += other.emergencyStops;
+    for (Map.Entry<String, Long> entry : other.stopCauses.entrySet()) {
+      String cause = entry.getKey();
+      Long count = entry.getValue();
+      assert (cause != null && count != null);
+      addCause(cause, count.longValue());
+    }
+    this.violationRuns += other.violationRuns;
+    this.crashes += other.crashes;
+  }
+
+  /**
+   * This returns the number of runs.
+   *
+   * @return the number of runs
+   */
+  public long getRuns() {
+    return this.runs;
+  }
+
+  /**
+   * This returns the total simulated time in hours.
+   *
+   * @return the simulated boiler hours
+   */
+  public double getBoilerHours() {
+    return this.simulatedMillis / 3_600_000.0;
+  }
+
+  /**
+   * This returns the fraction of runs which ended in an emergency stop.
+   *
+   * @return the emergency stop rate
+   */
+  public double getEmergencyStopRate() {
+    return this.runs == 0 ? 0 : (double) this.emergencyStops / this.runs;
+  }
+
+  /**
+   * This returns the fraction of cycles spent in a mode.
+   *
+   * @param mode
+   *          the mode
+   * @return the fraction of cycles in the mode
+   */
+  public double getModeFraction(Mailbox.Mode mode) {
+    return this.cycles == 0 ? 0 : (double) this.modeCycles[mode.ordinal()] / this.cycles;
+  }
+
+  /**
+   * This returns the number of runs where the level left the limit band before an
+   * emergency stop.
+   *
+   * @return the number of runs with a safety violation
+   */
+  public long getViolationRuns() {
+    return this.violationRuns;
+  }
+
+  /**
+   * This returns the number of runs which threw an exception.
+   *
+   * @return the number of crashed runs
+   */
+  public long getCrashes() {
+    return this.crashes;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder r = new StringBuilder();
+    r.append("runs:               ").append(this.runs).append('\n');
+    r.append("boiler hours:       ").append(getBoilerHours()).append('\n');
+    r.append("emergency stops:    ").append(this.emergencyStops).append(" (rate ")
+        .append(getEmergencyStopRate()).append(")\n");
+    for (Map.Entry<String, Long> entry : this.stopCauses.entrySet()) {
+      r.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+    }
+    r.append("time in DEGRADED:   ").append(getModeFraction(Mailbox.Mode.DEGRADED)).append('\n');
+    r.append("time in RESCUE:     ").append(getModeFraction(Mailbox.Mode.RESCUE)).append('\n');
+    r.append("safety violations:  ").append(this.violationRuns).append('\n');
+    r.append("crashes:            ").append(this.crashes).append('\n');
+    return r.toString();
+  }
+}
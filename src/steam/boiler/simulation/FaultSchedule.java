@@ -0,0 +1,317 @@
+package steam.boiler.simulation;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpControllerModels;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamBoilerModels;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A fault schedule is a list of faults which are injected into the physical
+ * units at given times. Faults are kept sorted by time. A schedule can be
+ * written as text, with one fault per entry in the form
+ * <code>time:kind[:unit]</code>, where time is in seconds and unit is the pump
+ * or pump controller the fault applies to. For example
+ * <code>60:pump-stuck-closed:1,120:level-tx</code>.
+ */
+public final class FaultSchedule {
+  /**
+   * The kinds of fault that can be injected.
+   */
+  public enum Kind {
+    /**
+     * A pump which stays closed.
+     */
+    PUMP_STUCK_CLOSED,
+    /**
+     * A pump which stays open.
+     */
+    PUMP_STUCK_OPEN,
+    /**
+     * A pump whose state messages are lost.
+     */
+    PUMP_TX,
+    /**
+     * A pump controller which always reports the pump is off.
+     */
+    CONTROLLER_STUCK_OFF,
+    /**
+     * A pump controller whose state messages are lost.
+     */
+    CONTROLLER_TX,
+    /**
+     * A level sensor which reads -1.
+     */
+    LEVEL_NEGATIVE,
+    /**
+     * A level sensor which reads the capacity of the boiler.
+     */
+    LEVEL_STUCK,
+    /**
+     * A level sensor whose messages are lost.
+     */
+    LEVEL_TX,
+    /**
+     * A steam sensor which reads -1.
+     */
+    STEAM_NEGATIVE,
+    /**
+     * A steam sensor which reads the capacity of the boiler.
+     */
+    STEAM_STUCK,
+    /**
+     * A steam sensor whose messages are lost.
+     */
+    STEAM_TX,
+    /**
+     * A valve which is stuck open.
+     */
+    VALVE_STUCK;
+
+    /**
+     * This returns true if the fault applies to a pump or pump controller.
+     *
+     * @return true if the fault needs a unit number
+     */
+    public boolean hasUnit() {
+      return ordinal() <= CONTROLLER_TX.ordinal();
+    }
+
+    /**
+     * This returns the name of the kind as it is written in a schedule.
+     *
+     * @return the name of the kind
+     */
+    public String label() {
+      return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    /**
+     * This returns the kind with a given label.
+     *
+     * @param label
+     *          the label of the kind
+     * @return the kind with the given label
+     */
+    public static Kind fromLabel(String label) {
+      return valueOf(label.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+  }
+
+  /**
+   * This is used to store the time of each fault in milliseconds.
+   */
+  private int[] times = new int[4];
+  /**
+   * This is used to store the kind of each fault.
+   */
+  private Kind[] kinds = new Kind[4];
+  /**
+   * This is used to store the unit of each fault.
+   */
+  private int[] units = new int[4];
+  /**
+   * This is the number of faults.
+   */
+  private int size;
+
+  /**
+   * This parses a fault schedule written as comma or whitespace separated
+   * entries.
+   *
+   * @param spec
+   *          the schedule as text
+   * @return the parsed schedule
+   * @throws IllegalArgumentException
+   *           if an entry is not valid
+   */
+  public static FaultSchedule parse(String spec) {
+    FaultSchedule schedule = new FaultSchedule();
+    schedule.addAll(spec);
+    return schedule;
+  }
+
+  /**
+   * This adds every entry of a schedule written as text.
+   *
+   * @param spec
+   *          the schedule as text
+   * @throws IllegalArgumentException
+   *           if an entry is not valid
+   */
+  public void addAll(String spec) {
+    for (String entry : spec.split("[,\\s]+")) {
+      if (entry.isEmpty()) {
+        continue;
+      }
+      String[] parts = entry.split(":");
+      if (parts.length < 2 || parts.length > 3) {
+        throw new IllegalArgumentException("invalid fault: " + entry);
+      }
+      Kind kind = Kind.fromLabel(parts[1]);
+      if (kind.hasUnit() != (parts.length == 3)) {
+        throw new IllegalArgumentException("invalid fault: " + entry);
+      }
+      int unit = parts.length == 3 ? Integer.parseInt(parts[2]) : -1;
+      add((int) (Double.parseDouble(parts[0]) * 1000), kind, unit);
+    }
+  }
+
+  /**
+   * This adds a fault to the schedule.
+   *
+   * @param time
+   *          the time of the fault in milliseconds
+   * @param kind
+   *          the kind of fault
+   * @param unit
+   *          the pump or pump controller, or -1 if the fault has no unit
+   */
+  public void add(int time, Kind kind, int unit) {
+    if (this.size == this.times.length) {
+      this.times = Arrays.copyOf(this.times, this.size * 2);
+      this.kinds = Arrays.copyOf(this.kinds, this.size * 2);
+      this.units = Arrays.copyOf(this.units, this.size * 2);
+    }
+    // keep the faults sorted by time
+    int i = this.size;
+    while (i > 0 && this.times[i - 1] > time) {
+      this.times[i] = this.times[i - 1];
+      this.kinds[i] = this.kinds[i - 1];
+      this.units[i] = this.units[i - 1];
+      i--;
+    }
+    this.times[i] = time;
+    this.kinds[i] = kind;
+    this.units[i] = unit;
+    this.size++;
+  }
+
+  /**
+   * This returns the number of faults.
+   *
+   * @return the number of faults
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * This returns the time of a fault.
+   *
+   * @param i
+   *          the index of the fault
+   * @return the time of the fault in milliseconds
+   */
+  public int getTime(int i) {
+    return this.times[i];
+  }
+
+  /**
+   * This returns the kind of a fault.
+   *
+   * @param i
+   *          the index of the fault
+   * @return the kind of the fault
+   */
+  public Kind getKind(int i) {
+    Kind kind = this.kinds[i];
+    assert (kind != null);
+    return kind;
+  }
+
+  /**
+   * This returns the unit of a fault.
+   *
+   * @param i
+   *          the index of the fault
+   * @return the unit of the fault or -1
+   */
+  public int getUnit(int i) {
+    return this.units[i];
+  }
+
+  /**
+   * This injects a fault into the physical units.
+   *
+   * @param i
+   *          the index of the fault
+   * @param model
+   *          the physical units
+   * @param config
+   *          the characteristics of the boiler
+   */
+  public void apply(int i, PhysicalUnits model, SteamBoilerCharacteristics config) {
+    int unit = this.units[i];
+    switch (getKind(i)) {
+      case PUMP_STUCK_CLOSED:
+        model.setPump(unit, new PumpModels.StuckClosed(unit, 0.0, model));
+        break;
+      case PUMP_STUCK_OPEN:
+        model.setPump(unit, new PumpModels.SticksOpen(unit, config.getPumpCapacity(unit), model));
+        model.getPump(unit).open();
+        break;
+      case PUMP_TX:
+        model.setPump(unit, new PumpModels.TxFailureAll(unit, 0.0, model));
+        break;
+      case CONTROLLER_STUCK_OFF:
+        model.setPumpController(unit, new PumpControllerModels.StuckOff(unit, model));
+        break;
+      case CONTROLLER_TX:
+        model.setPumpController(unit, new PumpControllerModels.TxFailure(unit, model));
+        break;
+      case LEVEL_NEGATIVE:
+        model.setLevelSensor(new LevelSensorModels.StuckNegativeOne(model));
+        break;
+      case LEVEL_STUCK:
+        model.setLevelSensor(new LevelSensorModels.Stuck(config.getCapacity()));
+        break;
+      case LEVEL_TX:
+        model.setLevelSensor(new LevelSensorModels.TxFailure(model));
+        break;
+      case STEAM_NEGATIVE:
+        model.setSteamSensor(new SteamSensorModels.StuckNegativeOne(model));
+        break;
+      case STEAM_STUCK:
+        model.setSteamSensor(new SteamSensorModels.Stuck(config.getCapacity()));
+        break;
+      case STEAM_TX:
+        model.setSteamSensor(new SteamSensorModels.TxFailure(model));
+        break;
+      case VALVE_STUCK: {
+        // the boiler is replaced by one whose valve is stuck, so carry over the
+        // water in it and carry on the steam from the time of the fault
+        double maxSteamRate = config.getMaximualSteamRate();
+        int start = this.times[i];
+        SteamBoilerModels boiler = new SteamBoilerModels.ValveStuck(true, config.getCapacity(),
+            20.0, (Integer elapsed) -> Double.valueOf(SteamBoilerModels
+                .linearSteamConversionModel(start + elapsed.intValue(), 60000, maxSteamRate)));
+        boiler.pumpInWater(model.getBoiler().getWaterLevel());
+        model.setBoiler(boiler);
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("invalid fault kind");
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder r = new StringBuilder();
+    for (int i = 0; i < this.size; i++) {
+      if (i != 0) {
+        r.append(',');
+      }
+      r.append(this.times[i] / 1000.0).append(':').append(getKind(i).label());
+      if (this.units[i] != -1) {
+        r.append(':').append(this.units[i]);
+      }
+    }
+    return r.toString();
+  }
+}
@@ -0,0 +1,168 @@
+package steam.boiler.simulation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * This runs the controller against the simulated physical units without the
+ * Swing simulator, and prints summary statistics. It never touches AWT or Swing,
+ * so it can run on servers and in batch jobs. The options are:
+ *
+ * <ul>
+ * <li><code>--pumps n:capacity</code> the number of pumps and their capacity.</li>
+ * <li><code>--pump i:capacity</code> the capacity of a single pump.</li>
+ * <li><code>--level litres</code> the initial water level.</li>
+ * <li><code>--time seconds</code> how long to simulate for.</li>
+ * <li><code>--period milliseconds</code> the control period, five seconds by
+ * default.</li>
+ * <li><code>--speed factor</code> how much faster than real time to run, or
+ * <code>max</code> to run as fast as possible.</li>
+ * <li><code>--faults schedule</code> faults to inject, see {@link FaultSchedule}.</li>
+ * <li><code>--faults-file path</code> a file of faults to inject.</li>
+ * <li><code>@path</code> read further options from a file.</li>
+ * </ul>
+ */
+public final class HeadlessSimulation {
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private HeadlessSimulation() {
+  }
+
+  /**
+   * Run a headless simulation.
+   *
+   * @param args
+   *          the options of the simulation
+   * @throws IOException
+   *           if an options or faults file cannot be read
+   * @throws InterruptedException
+   *           if the simulation is interrupted
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    List<String> options = expand(args);
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    FaultSchedule schedule = new FaultSchedule();
+    double level = 0;
+    int time = 600;
+    double speed = 0;
+    int period = SimulationRun.CYCLE;
+    for (int i = 0; i < options.size(); i++) {
+      String option = options.get(i);
+      if (i + 1 == options.size()) {
+        throw new IllegalArgumentException("missing value for " + option);
+      }
+      String value = options.get(++i);
+      switch (option) {
+        case "--pumps": {
+          String[] parts = value.split(":");
+          config = config.setNumberOfPumps(Integer.parseInt(parts[0]),
+              parts.length > 1 ? Double.parseDouble(parts[1]) : config.getPumpCapacity(0));
+          break;
+        }
+        case "--pump": {
+          String[] parts = value.split(":");
+          config = config.setPumpCapacity(Integer.parseInt(parts[0]),
+              Double.parseDouble(parts[1]));
+          break;
+        }
+        case "--level":
+          level = Double.parseDouble(value);
+          break;
+        case "--time":
+          time = Integer.parseInt(value);
+          break;
+        case "--period":
+          period = Integer.parseInt(value);
+          break;
+        case "--speed":
+          speed = value.equals("max") ? 0 : Double.parseDouble(value);
+          break;
+        case "--faults":
+          schedule.addAll(value);
+          break;
+        case "--faults-file":
+          schedule.addAll(new String(Files.readAllBytes(Paths.get(value)),
+              StandardCharsets.UTF_8));
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + option);
+      }
+    }
+
+    SimulationRun run = new SimulationRun(config, level, schedule, period);
+    long start = System.nanoTime();
+    run.run(time, speed);
+    long wall = System.nanoTime() - start;
+    print(run, schedule, wall);
+  }
+
+  /**
+   * This is a helper method which expands <code>@path</code> options into the
+   * options in the file.
+   *
+   * @param args
+   *          the options given on the command line
+   * @return the expanded options
+   * @throws IOException
+   *           if an options file cannot be read
+   */
+  private static List<String> expand(String[] args) throws IOException {
+    List<String> options = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("@")) {
+        String text = new String(Files.readAllBytes(Paths.get(arg.substring(1))),
+            StandardCharsets.UTF_8);
+        for (String word : text.trim().split("\\s+")) {
+          if (!word.isEmpty()) {
+            options.add(word);
+          }
+        }
+      } else {
+        options.add(arg);
+      }
+    }
+    return options;
+  }
+
+  /**
+   * This is a helper method which prints the summary of a run.
+   *
+   * @param run
+   *          the finished run
+   * @param schedule
+   *          the faults that were injected
+   * @param wall
+   *          the wall clock time of the run in nanoseconds
+   */
+  private static void print(SimulationRun run, FaultSchedule schedule, long wall) {
+    System.out.println("faults:          " + schedule);
+    System.out.println("simulated time:  " + (run.getElapsed() / 1000.0) + "s");
+    System.out.println("cycles:          " + run.getCycles());
+    System.out.println("time to normal:  "
+        + (run.getTimeToNormal() == -1 ? "never" : (run.getTimeToNormal() / 1000.0) + "s"));
+    if (run.getEmergencyStopTime() == -1) {
+      System.out.println("emergency stop:  none");
+    } else {
+      System.out.println("emergency stop:  " + (run.getEmergencyStopTime() / 1000.0) + "s ("
+          + run.getEmergencyStopCause() + ")");
+    }
+    System.out.println("water level:     " + run.getMinLevel() + " .. " + run.getMaxLevel());
+    System.out.println("limit violations: " + run.getLimitViolations());
+    System.out.println("commands:        " + run.getCommands());
+    for (Mailbox.Mode mode : Mailbox.Mode.values()) {
+      System.out.println("cycles in " + mode + ": " + run.getModeCycles(mode));
+    }
+    double seconds = wall / 1e9;
+    System.out.println("wall time:       " + seconds + "s ("
+        + (seconds > 0 ? (run.getElapsed() / 1000.0) / seconds : 0) + "x real time)");
+  }
+}
@@ -0,0 +1,263 @@
+package steam.boiler.simulation;
+
+import java.util.Arrays;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * An input frame describes one set of incoming messages for the controller
+ * without building the messages, so that it can be generated or mutated
+ * cheaply. It is written to a mailbox in the order the physical units use:
+ * the pump states, the pump controller states, the level and the steam,
+ * followed by any other messages.
+ */
+public final class InputFrame {
+  /**
+   * These are the messages without a parameter which a frame can carry.
+   */
+  static final MessageKind[] SIGNALS = { MessageKind.PHYSICAL_UNITS_READY,
+      MessageKind.STEAM_BOILER_WAITING, MessageKind.LEVEL_REPAIRED, MessageKind.STEAM_REPAIRED,
+      MessageKind.LEVEL_FAILURE_ACKNOWLEDGEMENT,
+      MessageKind.STEAM_OUTCOME_FAILURE_ACKNOWLEDGEMENT, MessageKind.STOP };
+  /**
+   * These are the messages with a pump parameter which a frame can carry.
+   */
+  static final MessageKind[] PUMP_SIGNALS = { MessageKind.PUMP_REPAIRED_n,
+      MessageKind.PUMP_CONTROL_REPAIRED_n, MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n,
+      MessageKind.PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n };
+  /**
+   * This is the bit in the omit mask for the level message.
+   */
+  static final int OMIT_LEVEL = 1;
+  /**
+   * This is the bit in the omit mask for the steam message.
+   */
+  static final int OMIT_STEAM = 2;
+  /**
+   * This is the bit in the omit mask for the first pump state message.
+   */
+  static final int OMIT_PUMP = 4;
+  /**
+   * This is the bit in the omit mask for the first pump controller state message.
+   */
+  static final int OMIT_CONTROLLER = 8;
+
+  /**
+   * This is the level reading.
+   */
+  double level;
+  /**
+   * This is the steam reading.
+   */
+  double steam;
+  /**
+   * This stores the state reported for each pump.
+   */
+  final boolean[] pumps;
+  /**
+   * This stores the state reported for each pump controller.
+   */
+  final boolean[] controllers;
+  /**
+   * This is a bitmap over SIGNALS of the signals in the frame.
+   */
+  int signals;
+  /**
+   * This stores, for each kind in PUMP_SIGNALS, the pump it applies to or -1.
+   */
+  final int[] pumpSignals = new int[PUMP_SIGNALS.length];
+  /**
+   * This is a bitmap of the messages left out of the frame, to model
+   * transmission failures.
+   */
+  int omit;
+
+  /**
+   * Construct an empty frame for a given number of pumps.
+   *
+   * @param numberOfPumps
+   *          the number of pumps
+   */
+  public InputFrame(int numberOfPumps) {
+    this.pumps = new boolean[numberOfPumps];
+    this.controllers = new boolean[numberOfPumps];
+    Arrays.fill(this.pumpSignals, -1);
+  }
+
+  /**
+   * This copies another frame into this frame.
+   *
+   * @param other
+   *          the frame to copy, with the same number of pumps
+   */
+  public void copyFrom(InputFrame other) {
+    this.level = other.level;
+    this.steam = other.steam;
+    System.arraycopy(other.pumps, 0, this.pumps, 0, this.pumps.length);
+    System.arraycopy(other.controllers, 0, this.controllers, 0, this.controllers.length);
+    this.signals = other.signals;
+    System.arraycopy(other.pumpSignals, 0, this.pumpSignals, 0, this.pumpSignals.length);
+    this.omit = other.omit;
+  }
+
+  /**
+   * This resets the frame to a healthy reading with no signals.
+   *
+   * @param level
+   *          the level reading
+   * @param steam
+   *          the steam reading
+   */
+  public void reset(double level, double steam) {
+    this.level = level;
+    this.steam = steam;
+    Arrays.fill(this.pumps, false);
+    Arrays.fill(this.controllers, false);
+    this.signals = 0;
+    Arrays.fill(this.pumpSignals, -1);
+    this.omit = 0;
+  }
+
+  /**
+   * This writes the messages of the frame to a mailbox.
+   *
+   * @param mailbox
+   *          the mailbox to write to
+   */
+  public void writeTo(Mailbox mailbox) {
+    for (int i = 0; i < this.pumps.length; i++) {
+      if ((this.omit & OMIT_PUMP) == 0 || i != 0) {
+        mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, i, this.pumps[i]));
+      }
+    }
+    for (int i = 0; i < this.controllers.length; i++) {
+      if ((this.omit & OMIT_CONTROLLER) == 0 || i != 0) {
+        mailbox.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, this.controllers[i]));
+      }
+    }
+    if ((this.omit & OMIT_LEVEL) == 0) {
+      mailbox.send(new Message(MessageKind.LEVEL_v, this.level));
+    }
+    if ((this.omit & OMIT_STEAM) == 0) {
+      mailbox.send(new Message(MessageKind.STEAM_v, this.steam));
+    }
+    for (int i = 0; i < SIGNALS.length; i++) {
+      if ((this.signals & (1 << i)) != 0) {
+        MessageKind kind = SIGNALS[i];
+        assert (kind != null);
+        mailbox.send(new Message(kind));
+      }
+    }
+    for (int i = 0; i < PUMP_SIGNALS.length; i++) {
+      if (this.pumpSignals[i] != -1) {
+        MessageKind kind = PUMP_SIGNALS[i];
+        assert (kind != null);
+        mailbox.send(new Message(kind, this.pumpSignals[i]));
+      }
+    }
+  }
+
+  /**
+   * This returns a bitmap of the signals, pump signals and omissions in the
+   * frame, leaving out the readings.
+   *
+   * @return the events of the frame
+   */
+  int getEvents() {
+    int events = this.signals | (this.omit << (SIGNALS.length + PUMP_SIGNALS.length));
+    for (int i = 0; i < PUMP_SIGNALS.length; i++) {
+      if (this.pumpSignals[i] != -1) {
+        events |= 1 << (SIGNALS.length + i);
+      }
+    }
+    return events;
+  }
+
+  /**
+   * This writes the frame as a single line of text which {@link #decode} can
+   * read back.
+   *
+   * @return the frame as text
+   */
+  public String encode() {
+    StringBuilder r = new StringBuilder();
+    r.append(this.level).append(' ').append(this.steam).append(' ');
+    for (int i = 0; i < this.pumps.length; i++) {
+      r.append(this.pumps[i] ? '1' : '0');
+    }
+    r.append(' ');
+    for (int i = 0; i < this.controllers.length; i++) {
+      r.append(this.controllers[i] ? '1' : '0');
+    }
+    r.append(' ').append(this.signals);
+    for (int i = 0; i < this.pumpSignals.length; i++) {
+      r.append(' ').append(this.pumpSignals[i]);
+    }
+    r.append(' ').append(this.omit);
+    return r.toString();
+  }
+
+  /**
+   * This reads a frame written by {@link #encode} into this frame.
+   *
+   * @param text
+   *          the frame as text
+   * @throws IllegalArgumentException
+   *           if the text is not a frame with the same number of pumps, in
+   *           which case this frame is left unchanged
+   */
+  public void decode(String text) {
+    String[] fields = text.trim().split("\\s+");
+    if (fields.length != 6 + this.pumpSignals.length
+        || fields[2].length() != this.pumps.length || fields[3].length() != this.pumps.length) {
+      throw new IllegalArgumentException("invalid frame: " + text);
+    }
+    double level1 = Double.parseDouble(fields[0]);
+    double steam1 = Double.parseDouble(fields[1]);
+    int signals1 = Integer.parseInt(fields[4]);
+    int[] pumpSignals1 = new int[this.pumpSignals.length];
+    for (int i = 0; i < pumpSignals1.length; i++) {
+      pumpSignals1[i] = Integer.parseInt(fields[5 + i]);
+      if (pumpSignals1[i] < -1 || pumpSignals1[i] >= this.pumps.length) {
+        throw new IllegalArgumentException("invalid pump in frame: " + text);
+      }
+    }
+    int omit1 = Integer.parseInt(fields[5 + this.pumpSignals.length]);
+    if (signals1 < 0 || signals1 >= 1 << SIGNALS.length || omit1 < 0 || omit1 > 15) {
+      throw new IllegalArgumentException("invalid frame: " + text);
+    }
+    this.level = level1;
+    this.steam = steam1;
+    for (int i = 0; i < this.pumps.length; i++) {
+      this.pumps[i] = fields[2].charAt(i) == '1';
+      this.controllers[i] = fields[3].charAt(i) == '1';
+    }
+    this.signals = signals1;
+    System.arraycopy(pumpSignals1, 0, this.pumpSignals, 0, pumpSignals1.length);
+    this.omit = omit1;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder r = new StringBuilder();
+    r.append("level=").append(this.level).append(" steam=").append(this.steam);
+    r.append(" pumps=").append(Arrays.toString(this.pumps));
+    r.append(" controllers=").append(Arrays.toString(this.controllers));
+    for (int i = 0; i < SIGNALS.length; i++) {
+      if ((this.signals & (1 << i)) != 0) {
+        r.append(' ').append(SIGNALS[i]);
+      }
+    }
+    for (int i = 0; i < PUMP_SIGNALS.length; i++) {
+      if (this.pumpSignals[i] != -1) {
+        r.append(' ').append(PUMP_SIGNALS[i]).append('(').append(this.pumpSignals[i]).append(')');
+      }
+    }
+    if (this.omit != 0) {
+      r.append(" omit=").append(Integer.toBinaryString(this.omit));
+    }
+    return r.toString();
+  }
+}
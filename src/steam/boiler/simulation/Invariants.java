@@ -0,0 +1,46 @@
+package steam.boiler.simulation;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.StateKey;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These are the safety invariants that the exploration and fuzzing tools check
+ * after every controller cycle.
+ */
+final class Invariants {
+
+  /**
+   * This class is not meant to be constructed.
+   */
+  private Invariants() {
+  }
+
+  /**
+   * This checks the invariants on a state reached by an input.
+   *
+   * @param config
+   *          the characteristics of the boiler
+   * @param key
+   *          the key of the state that was reached
+   * @param frame
+   *          the input that reached it
+   * @return a description of the violated invariant, or null
+   */
+  static @Nullable String check(SteamBoilerCharacteristics config, long key, InputFrame frame) {
+    Mailbox.Mode mode = StateKey.getMode(key);
+    if (mode == Mailbox.Mode.NORMAL
+        && (StateKey.getPumpFailures(key) != 0 || StateKey.getControllerFailures(key) != 0)) {
+      return "NORMAL mode with failed units";
+    }
+    boolean validLevel = frame.omit == 0 && frame.level >= 0 && frame.level < config.getCapacity();
+    if ((mode == Mailbox.Mode.NORMAL || mode == Mailbox.Mode.DEGRADED) && validLevel
+        && (frame.level < config.getMinimalLimitLevel()
+            || frame.level > config.getMaximalLimitLevel())) {
+      return mode + " mode with level outside the limits";
+    }
+    return null;
+  }
+}
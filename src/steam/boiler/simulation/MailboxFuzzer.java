@@ -0,0 +1,535 @@
+package steam.boiler.simulation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.StateKey;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * The mailbox fuzzer mutates sequences of incoming frames and runs them through
+ * a controller in the same process, looking for exceptions and invariant
+ * violations. Each cycle is reduced to a transition signature made of the mode
+ * before, the mode after, whether any pumps or pump controllers had failed, the
+ * signals, repairs and acknowledgements received and the kinds of message the
+ * controller sent, combined with the signature of the previous cycle. The
+ * failures and the events received pick out which repair case the controller
+ * took, even when they send the same messages. The signatures are hashed into a
+ * coverage map, and sequences which reach a new entry are minimised and kept in
+ * the corpus, which is also written to disk so that a later run can resume from
+ * it. Each file is named after a hash of its frames, so a run never overwrites a
+ * different sequence, whether kept or crashing, written by an earlier run.
+ *
+ * <p>The controller is reset between executions by copying the state of a
+ * fresh controller into it, so no process or controller is created per case.
+ */
+public final class MailboxFuzzer {
+  /**
+   * This is the number of entries in the coverage map.
+   */
+  private static final int MAP_SIZE = 1 << 16;
+  /**
+   * This is the longest sequence of frames that is tried.
+   */
+  private static final int MAX_LENGTH = 32;
+
+  /**
+   * This is the characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+  /**
+   * This is the number of pumps.
+   */
+  private final int pumps;
+  /**
+   * This is where the corpus and the crashes are written.
+   */
+  private final Path directory;
+  /**
+   * This is the source of randomness.
+   */
+  private final SplittableRandom random;
+  /**
+   * This is a controller in its initial state, used to reset the scratch
+   * controller.
+   */
+  private final SteamBoilerController initial;
+  /**
+   * This is the controller the sequences are run on.
+   */
+  private final SteamBoilerController scratch;
+  /**
+   * This records which entries of the coverage map have been reached.
+   */
+  private final boolean[] covered = new boolean[MAP_SIZE];
+  /**
+   * This stores the coverage entries reached by the last execution.
+   */
+  private final int[] trace = new int[MAX_LENGTH];
+  /**
+   * This is the number of cycles run by the last execution.
+   */
+  private int traceLength;
+  /**
+   * This stores the sequences in the corpus.
+   */
+  private final List<InputFrame[]> corpus = new ArrayList<>();
+  /**
+   * This is the sequence being mutated.
+   */
+  private final InputFrame[] work = new InputFrame[MAX_LENGTH];
+  /**
+   * This is the number of frames in the sequence being mutated.
+   */
+  private int workLength;
+  /**
+   * This is the problem found by the last execution, or null.
+   */
+  private @Nullable String problem;
+  /**
+   * This is the number of executions.
+   */
+  private long executions;
+  /**
+   * This is the number of problems found.
+   */
+  private long problems;
+  /**
+   * This is the number of coverage entries reached.
+   */
+  private int coverage;
+
+  /**
+   * Construct a fuzzer.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param directory
+   *          The directory the corpus and crashes are written to.
+   * @param seed
+   *          The seed of the random mutations.
+   */
+  public MailboxFuzzer(SteamBoilerCharacteristics config, Path directory, long seed) {
+    this.config = config;
+    this.pumps = config.getNumberOfPumps();
+    this.directory = directory;
+    this.random = new SplittableRandom(seed);
+    this.initial = new SteamBoilerController(config);
+    this.scratch = new SteamBoilerController(config);
+    for (int i = 0; i < MAX_LENGTH; i++) {
+      this.work[i] = new InputFrame(this.pumps);
+    }
+  }
+
+  /**
+   * This loads the corpus from disk, or seeds it with a healthy start-up
+   * sequence if there is none. Files which do not hold valid frames are skipped.
+   *
+   * @throws IOException
+   *           if the corpus cannot be read or written
+   */
+  public void load() throws IOException {
+    Files.createDirectories(this.directory);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "id-*.txt")) {
+      for (Path file : files) {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        this.workLength = 0;
+        try {
+          for (String line : lines) {
+            if (!line.startsWith("#") && this.workLength < MAX_LENGTH) {
+              this.work[this.workLength].decode(line);
+              this.workLength++;
+            }
+          }
+        } catch (IllegalArgumentException e) {
+          continue;
+        }
+        if (this.workLength > 0) {
+          keepIfNew(false);
+        }
+      }
+    }
+    if (this.corpus.isEmpty()) {
+      double middle = (this.config.getMinimalNormalLevel() + this.config.getMaximalNormalLevel())
+          / 2;
+      this.workLength = 8;
+      for (int i = 0; i < this.workLength; i++) {
+        this.work[i].reset(middle, i < 2 ? 0 : this.config.getMaximualSteamRate() / 2);
+      }
+      this.work[0].signals = 1 << 1; // STEAM_BOILER_WAITING
+      this.work[1].signals = 1; // PHYSICAL_UNITS_READY
+      keepIfNew(true);
+    }
+  }
+
+  /**
+   * This runs the work sequence and records its coverage.
+   */
+  private void execute() {
+    this.executions++;
+    this.problem = null;
+    this.traceLength = 0;
+    this.initial.copyStateTo(this.scratch);
+    int previous = 0;
+    for (int i = 0; i < this.workLength; i++) {
+      InputFrame frame = this.work[i];
+      Mailbox incoming = new UnboundedMailbox(100);
+      Mailbox outgoing = new UnboundedMailbox(100);
+      frame.writeTo(incoming);
+      Mailbox.Mode before = this.scratch.getMode();
+      long key = this.scratch.getStateKey();
+      int failed = (StateKey.getPumpFailures(key) > 0 ? 1 : 0)
+          | (StateKey.getControllerFailures(key) > 0 ? 2 : 0);
+      try {
+        this.scratch.clock(incoming, outgoing);
+      } catch (RuntimeException | AssertionError e) {
+        this.problem = "exception at frame " + i + ": " + e;
+        return;
+      }
+      long kinds = 0;
+      for (int m = 0; m < outgoing.size(); m++) {
+        kinds |= 1L << outgoing.read(m).getKind().ordinal();
+      }
+      long h = (kinds * 31 + before.ordinal()) * 31 + this.scratch.getMode().ordinal();
+      h = ((h * 31 + failed) * 31 + frame.getEvents()) * 0x9E3779B97F4A7C15L;
+      int signature = (int) (h ^ (h >>> 32));
+      this.trace[this.traceLength++] = (signature ^ (previous >>> 1)) & (MAP_SIZE - 1);
+      previous = signature;
+      String violation = Invariants.check(this.config, this.scratch.getStateKey(), frame);
+      if (violation != null) {
+        this.problem = violation + " at frame " + i;
+        return;
+      }
+      if (this.scratch.getMode() == Mailbox.Mode.EMERGENCY_STOP) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * This runs the work sequence, and keeps it if it reaches new coverage.
+   *
+   * @param minimise
+   *          true if a new sequence should be minimised and written to disk
+   * @return true if the sequence reached new coverage
+   * @throws IOException
+   *           if the sequence cannot be written
+   */
+  private boolean keepIfNew(boolean minimise) throws IOException {
+    execute();
+    if (this.problem != null) {
+      this.problems++;
+      save("crash-", "# " + this.problem);
+      return false;
+    }
+    int[] fresh = new int[this.traceLength];
+    int count = 0;
+    for (int i = 0; i < this.traceLength; i++) {
+      if (!this.covered[this.trace[i]]) {
+        fresh[count++] = this.trace[i];
+      }
+    }
+    if (count == 0) {
+      return false;
+    }
+    if (minimise) {
+      minimise(fresh, count);
+    }
+    for (int i = 0; i < count; i++) {
+      if (!this.covered[fresh[i]]) {
+        this.covered[fresh[i]] = true;
+        this.coverage++;
+      }
+    }
+    InputFrame[] kept = new InputFrame[this.workLength];
+    for (int i = 0; i < this.workLength; i++) {
+      kept[i] = new InputFrame(this.pumps);
+      kept[i].copyFrom(this.work[i]);
+    }
+    this.corpus.add(kept);
+    if (minimise) {
+      save("id-", "# coverage " + this.coverage);
+    }
+    return true;
+  }
+
+  /**
+   * This removes frames from the work sequence as long as it still reaches all
+   * of the given coverage entries without a problem.
+   *
+   * @param fresh
+   *          the coverage entries to keep
+   * @param count
+   *          the number of entries
+   */
+  private void minimise(int[] fresh, int count) {
+    InputFrame removed = new InputFrame(this.pumps);
+    for (int i = this.workLength - 1; i >= 0 && this.workLength > 1; i--) {
+      removed.copyFrom(this.work[i]);
+      remove(i);
+      execute();
+      if (this.problem != null || !reaches(fresh, count)) {
+        insert(i, removed);
+      }
+    }
+  }
+
+  /**
+   * This is a helper method which checks that the last execution reached every
+   * given coverage entry.
+   *
+   * @param fresh
+   *          the coverage entries
+   * @param count
+   *          the number of entries
+   * @return true if all were reached
+   */
+  private boolean reaches(int[] fresh, int count) {
+    for (int i = 0; i < count; i++) {
+      boolean found = false;
+      for (int j = 0; j < this.traceLength && !found; j++) {
+        found = this.trace[j] == fresh[i];
+      }
+      if (!found) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * This is a helper method which removes a frame from the work sequence.
+   *
+   * @param index
+   *          the frame to remove
+   */
+  private void remove(int index) {
+    InputFrame frame = this.work[index];
+    System.arraycopy(this.work, index + 1, this.work, index, this.workLength - index - 1);
+    this.work[--this.workLength] = frame;
+  }
+
+  /**
+   * This is a helper method which inserts a copy of a frame into the work
+   * sequence.
+   *
+   * @param index
+   *          where to insert the frame
+   * @param frame
+   *          the frame to copy
+   */
+  private void insert(int index, InputFrame frame) {
+    InputFrame spare = this.work[this.workLength];
+    System.arraycopy(this.work, index, this.work, index + 1, this.workLength - index);
+    spare.copyFrom(frame);
+    this.work[index] = spare;
+    this.workLength++;
+  }
+
+  /**
+   * This applies one random mutation to the work sequence.
+   */
+  private void mutate() {
+    InputFrame frame = this.work[this.random.nextInt(this.workLength)];
+    switch (this.random.nextInt(10)) {
+      case 0:
+        frame.level = this.random.nextInt(4) == 0 ? -1
+            : this.random.nextDouble(-10, this.config.getCapacity() + 10);
+        break;
+      case 1:
+        frame.steam = this.random.nextDouble(-1, this.config.getMaximualSteamRate() + 1);
+        break;
+      case 2:
+        int pump = this.random.nextInt(this.pumps);
+        frame.pumps[pump] = !frame.pumps[pump];
+        break;
+      case 3:
+        int controller = this.random.nextInt(this.pumps);
+        frame.controllers[controller] = !frame.controllers[controller];
+        break;
+      case 4:
+        frame.signals ^= 1 << this.random.nextInt(InputFrame.SIGNALS.length);
+        break;
+      case 5:
+        frame.pumpSignals[this.random.nextInt(InputFrame.PUMP_SIGNALS.length)] =
+            this.random.nextInt(this.pumps + 1) - 1;
+        break;
+      case 6:
+        frame.omit ^= 1 << this.random.nextInt(4);
+        break;
+      case 7:
+        if (this.workLength < MAX_LENGTH) {
+          insert(this.random.nextInt(this.workLength + 1), frame);
+        }
+        break;
+      case 8:
+        if (this.workLength > 1) {
+          remove(this.random.nextInt(this.workLength));
+        }
+        break;
+      default:
+        // splice in the tail of another sequence
+        InputFrame[] other = this.corpus.get(this.random.nextInt(this.corpus.size()));
+        int from = this.random.nextInt(other.length);
+        int at = this.random.nextInt(this.workLength);
+        this.workLength = Math.min(MAX_LENGTH, at + other.length - from);
+        for (int i = at; i < this.workLength; i++) {
+          this.work[i].copyFrom(other[from + i - at]);
+        }
+        break;
+    }
+  }
+
+  /**
+   * This fuzzes for a given number of executions.
+   *
+   * @param iterations
+   *          the number of mutated sequences to try
+   * @throws IOException
+   *           if the corpus cannot be written
+   */
+  public void fuzz(long iterations) throws IOException {
+    for (long n = 0; n < iterations; n++) {
+      InputFrame[] parent = this.corpus.get(this.random.nextInt(this.corpus.size()));
+      this.workLength = parent.length;
+      for (int i = 0; i < parent.length; i++) {
+        this.work[i].copyFrom(parent[i]);
+      }
+      int mutations = 1 + this.random.nextInt(4);
+      for (int i = 0; i < mutations; i++) {
+        mutate();
+      }
+      keepIfNew(true);
+    }
+  }
+
+  /**
+   * This is a helper method which writes the work sequence to a file named after
+   * a hash of its frames, so that only the same sequence can overwrite it.
+   *
+   * @param prefix
+   *          the start of the name of the file
+   * @param header
+   *          a comment written at the top of the file
+   * @throws IOException
+   *           if the file cannot be written
+   */
+  private void save(String prefix, String header) throws IOException {
+    String[] lines = new String[this.workLength];
+    long hash = 0xCBF29CE484222325L;
+    for (int i = 0; i < this.workLength; i++) {
+      lines[i] = this.work[i].encode();
+      for (int c = 0; c < lines[i].length(); c++) {
+        hash = (hash ^ lines[i].charAt(c)) * 0x100000001B3L;
+      }
+      hash = (hash ^ '\n') * 0x100000001B3L;
+    }
+    String name = String.format("%s%016x.txt", prefix, Long.valueOf(hash));
+    Path file = this.directory.resolve(name);
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      out.write(header);
+      out.newLine();
+      for (String line : lines) {
+        out.write(line);
+        out.newLine();
+      }
+    }
+  }
+
+  /**
+   * This runs a sequence and adds it to the corpus if it reaches new coverage,
+   * without minimising it or writing it to disk.
+   *
+   * @param sequence
+   *          the frames to run, at most 32
+   * @return true if the sequence reached new coverage
+   * @throws IOException
+   *           if a crash cannot be written
+   */
+  public boolean add(InputFrame[] sequence) throws IOException {
+    if (sequence.length == 0 || sequence.length > MAX_LENGTH) {
+      throw new IllegalArgumentException("invalid length: " + sequence.length);
+    }
+    this.workLength = sequence.length;
+    for (int i = 0; i < sequence.length; i++) {
+      this.work[i].copyFrom(sequence[i]);
+    }
+    return keepIfNew(false);
+  }
+
+  /**
+   * This returns the number of sequences in the corpus.
+   *
+   * @return the size of the corpus
+   */
+  public int getCorpusSize() {
+    return this.corpus.size();
+  }
+
+  /**
+   * This returns the number of coverage entries reached.
+   *
+   * @return the coverage
+   */
+  public int getCoverage() {
+    return this.coverage;
+  }
+
+  /**
+   * This returns the number of problems found.
+   *
+   * @return the number of problems
+   */
+  public long getProblems() {
+    return this.problems;
+  }
+
+  @Override
+  public String toString() {
+    return "executions: " + this.executions + ", corpus: " + this.corpus.size() + ", coverage: "
+        + this.coverage + ", problems: " + this.problems;
+  }
+
+  /**
+   * Fuzz the controller and print progress.
+   *
+   * @param args
+   *          the corpus directory, the number of executions, the number of pumps
+   *          and the seed; all are optional
+   * @throws IOException
+   *           if the corpus cannot be read or written
+   */
+  public static void main(String[] args) throws IOException {
+    Path directory = Paths.get(args.length > 0 ? args[0] : "fuzz-corpus");
+    long iterations = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+    int pumps = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(pumps, config.getPumpCapacity(0));
+    MailboxFuzzer fuzzer = new MailboxFuzzer(config, directory, seed);
+    fuzzer.load();
+    long start = System.nanoTime();
+    long done = 0;
+    while (done < iterations) {
+      long batch = Math.min(100_000, iterations - done);
+      fuzzer.fuzz(batch);
+      done += batch;
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(fuzzer + " (" + (long) (fuzzer.executions / seconds * 60)
+          + " executions/minute)");
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package steam.boiler.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A Monte Carlo campaign runs many simulations with random fault schedules and
+ * aggregates the outcomes. Run i always uses the seed <code>seed + i</code>, so
+ * any run can be reproduced on its own. The runs are split statically across
+ * the worker threads, each worker keeps its own statistics, and they are merged
+ * at the end, so the workers share nothing while they run.
+ */
+public final class MonteCarloCampaign {
+  /**
+   * This is the characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+  /**
+   * This is the simulated time of each run in seconds.
+   */
+  private final int seconds;
+  /**
+   * This is the most faults injected into a run.
+   */
+  private final int maxFaults;
+  /**
+   * This is the seed of the first run.
+   */
+  private final long seed;
+
+  /**
+   * Construct a campaign.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param seconds
+   *          The simulated time of each run in seconds.
+   * @param maxFaults
+   *          The most faults injected into a run.
+   * @param seed
+   *          The seed of the first run.
+   */
+  public MonteCarloCampaign(SteamBoilerCharacteristics config, int seconds, int maxFaults,
+      long seed) {
+    this.config = config;
+    this.seconds = seconds;
+    this.maxFaults = maxFaults;
+    this.seed = seed;
+  }
+
+  /**
+   * This samples the fault schedule of a run.
+   *
+   * @param run
+   *          the index of the run
+   * @return the fault schedule of the run
+   */
+  public FaultSchedule sample(long run) {
+    SplittableRandom random = new SplittableRandom(this.seed + run);
+    FaultSchedule schedule = new FaultSchedule();
+    FaultSchedule.Kind[] kinds = FaultSchedule.Kind.values();
+    int faults = random.nextInt(this.maxFaults + 1);
+    for (int i = 0; i < faults; i++) {
+      FaultSchedule.Kind kind = kinds[random.nextInt(kinds.length)];
+      assert (kind != null);
+      int time = random.nextInt(this.seconds) * 1000;
+      int unit = kind.hasUnit() ? random.nextInt(this.config.getNumberOfPumps()) : -1;
+      schedule.add(time, kind, unit);
+    }
+    return schedule;
+  }
+
+  /**
+   * This runs a range of runs on the calling thread.
+   *
+   * @param first
+   *          the index of the first run
+   * @param step
+   *          the distance between runs
+   * @param runs
+   *          the total number of runs in the campaign
+   * @return the statistics of the runs
+   * @throws InterruptedException
+   *           if the thread is interrupted
+   */
+  public CampaignStatistics runRange(long first, long step, long runs)
+      throws InterruptedException {
+    CampaignStatistics statistics = new CampaignStatistics();
+    for (long i = first; i < runs; i += step) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      SimulationRun run = new SimulationRun(this.config, 0, sample(i));
+      try {
+        run.run(this.seconds, 0);
+        statistics.add(run);
+      } catch (RuntimeException | AssertionError e) {
+        statistics.addCrash();
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * This runs the campaign across a number of threads.
+   *
+   * @param runs
+   *          the number of runs
+   * @param threads
+   *          the number of worker threads
+   * @return the merged statistics of all runs
+   * @throws InterruptedException
+   *           if the campaign is interrupted
+   * @throws ExecutionException
+   *           if a worker fails
+   */
+  public CampaignStatistics run(long runs, int threads)
+      throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<CampaignStatistics>> workers = new ArrayList<>();
+      for (int w = 0; w < threads; w++) {
+        long first = w;
+        workers.add(executor.submit(() -> runRange(first, threads, runs)));
+      }
+      CampaignStatistics total = new CampaignStatistics();
+      for (Future<CampaignStatistics> worker : workers) {
+        CampaignStatistics statistics = worker.get();
+        assert (statistics != null);
+        total.merge(statistics);
+      }
+      return total;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Run a campaign and print its statistics.
+   *
+   * @param args
+   *          the number of runs, the seconds per run, the most faults per run, the
+   *          seed and the number of threads; all are optional
+   * @throws Exception
+   *           if the campaign fails
+   */
+  public static void main(String[] args) throws Exception {
+    long runs = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3600;
+    int maxFaults = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+    int threads = args.length > 4 ? Integer.parseInt(args[4])
+        : Runtime.getRuntime().availableProcessors();
+    MonteCarloCampaign campaign = new MonteCarloCampaign(SteamBoilerCharacteristics.DEFAULT,
+        seconds, maxFaults, seed);
+    long start = System.nanoTime();
+    CampaignStatistics statistics = campaign.run(runs, threads);
+    double wall = (System.nanoTime() - start) / 1e9;
+    System.out.print(statistics);
+    System.out.println("wall time:          " + wall + "s ("
+        + (statistics.getBoilerHours() / wall) + " boiler hours/s)");
+  }
+}
@@ -0,0 +1,367 @@
+package steam.boiler.simulation;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * A simulation run clocks a controller against a model of the physical units,
+ * injecting faults from a schedule, and keeps summary statistics about the run.
+ * The physical units are clocked every 100ms and the controller once per control
+ * period, which is five seconds unless another period is given, in the same way
+ * as the tests do.
+ */
+public final class SimulationRun {
+  /**
+   * This is the time between clocks of the physical units in milliseconds.
+   */
+  public static final int GRANULARITY = 100;
+  /**
+   * This is the default time between clocks of the controller in milliseconds.
+   */
+  public static final int CYCLE = CompiledConfiguration.DEFAULT_PERIOD_MILLIS;
+
+  /**
+   * This is used to store the characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+  /**
+   * This is the time between clocks of the controller in milliseconds.
+   */
+  private final int period;
+  /**
+   * This is the controller under simulation.
+   */
+  private final SteamBoilerController controller;
+  /**
+   * This is the model of the physical units.
+   */
+  private final PhysicalUnits model;
+  /**
+   * This is the schedule of faults to inject.
+   */
+  private final FaultSchedule schedule;
+  /**
+   * This is the index of the next fault to inject.
+   */
+  private int nextFault;
+  /**
+   * This is the simulated time in milliseconds.
+   */
+  private int elapsed;
+  /**
+   * This is the number of controller cycles.
+   */
+  private int cycles;
+  /**
+   * This is the number of cycles spent in each mode.
+   */
+  private final int[] modeCycles = new int[Mailbox.Mode.values().length];
+  /**
+   * This is the time the controller first entered normal mode, or -1.
+   */
+  private int timeToNormal = -1;
+  /**
+   * This is the time of the emergency stop, or -1.
+   */
+  private int emergencyStopTime = -1;
+  /**
+   * This is the cause of the emergency stop.
+   */
+  private @Nullable String emergencyStopCause;
+  /**
+   * This is the lowest water level reached.
+   */
+  private double minLevel = Double.MAX_VALUE;
+  /**
+   * This is the highest water level reached.
+   */
+  private double maxLevel = -Double.MAX_VALUE;
+  /**
+   * This is the number of commands the controller sent to the pumps and the
+   * valve.
+   */
+  private long commands;
+  /**
+   * This is the number of physical clocks where the water level was outside the
+   * limit levels before an emergency stop.
+   */
+  private int limitViolations;
+
+  /**
+   * Construct a simulation run.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param initialLevel
+   *          The water level the boiler starts with.
+   * @param schedule
+   *          The faults to inject.
+   */
+  public SimulationRun(SteamBoilerCharacteristics config, double initialLevel,
+      FaultSchedule schedule) {
+    this(config, initialLevel, schedule, CYCLE);
+  }
+
+  /**
+   * Construct a simulation run with a given control period.
+   *
+   * @param config
+   *          The characteristics of the boiler.
+   * @param initialLevel
+   *          The water level the boiler starts with.
+   * @param schedule
+   *          The faults to inject.
+   * @param period
+   *          The time between clocks of the controller in milliseconds, a
+   *          multiple of {@link #GRANULARITY}.
+   */
+  public SimulationRun(SteamBoilerCharacteristics config, double initialLevel,
+      FaultSchedule schedule, int period) {
+    if (period % GRANULARITY != 0) {
+      throw new IllegalArgumentException("control period must be a multiple of " + GRANULARITY
+          + "ms");
+    }
+    this.config = config;
+    this.period = period;
+    this.controller = new SteamBoilerController(CompiledConfiguration.of(config, period));
+    this.model = new PhysicalUnits.Template(config).construct();
+    this.schedule = schedule;
+    if (initialLevel > 0) {
+      this.model.getBoiler().pumpInWater(initialLevel);
+    }
+    this.model.setMode(PhysicalUnits.Mode.WAITING);
+  }
+
+  /**
+   * This runs the simulation until the given time has passed or the controller
+   * makes an emergency stop.
+   *
+   * @param seconds
+   *          the simulated time to run for
+   * @param speed
+   *          how many times faster than real time to run, or 0 to run as fast as
+   *          possible
+   * @throws InterruptedException
+   *           if the thread is interrupted while pacing the simulation
+   */
+  public void run(int seconds, double speed) throws InterruptedException {
+    long start = System.nanoTime();
+    int end = seconds * 1000;
+    while (this.elapsed < end && step()) {
+      if (speed > 0) {
+        // sleep until the absolute deadline of this step, so no drift builds up
+        long deadline = start + (long) (this.elapsed * 1_000_000L / speed);
+        long delay = deadline - System.nanoTime();
+        if (delay > 0) {
+          Thread.sleep(delay / 1_000_000L, (int) (delay % 1_000_000L));
+        }
+      }
+    }
+  }
+
+  /**
+   * This advances the simulation by one clock of the physical units, and clocks
+   * the controller when a cycle is due.
+   *
+   * @return false if the controller has made an emergency stop
+   */
+  public boolean step() {
+    if (this.emergencyStopTime != -1) {
+      return false;
+    }
+    while (this.nextFault < this.schedule.size()
+        && this.schedule.getTime(this.nextFault) <= this.elapsed) {
+      this.schedule.apply(this.nextFault++, this.model, this.config);
+    }
+    this.model.clock(GRANULARITY);
+    double level = this.model.getBoiler().getWaterLevel();
+    this.minLevel = Math.min(this.minLevel, level);
+    this.maxLevel = Math.max(this.maxLevel, level);
+    if (level < this.config.getMinimalLimitLevel() || level > this.config.getMaximalLimitLevel()) {
+      this.limitViolations++;
+    }
+    if ((this.elapsed % this.period) == 0) {
+      Mailbox input = new UnboundedMailbox(100);
+      Mailbox output = new UnboundedMailbox(100);
+      this.model.transmit(input);
+      this.controller.clock(input, output);
+      this.model.receive(output);
+      this.cycles++;
+      this.commands += countCommands(output);
+      Mailbox.Mode mode = this.controller.getMode();
+      this.modeCycles[mode.ordinal()]++;
+      if (mode == Mailbox.Mode.NORMAL && this.timeToNormal == -1) {
+        this.timeToNormal = this.elapsed;
+      } else if (mode == Mailbox.Mode.EMERGENCY_STOP) {
+        this.emergencyStopTime = this.elapsed;
+        this.emergencyStopCause = causeOf(output, level);
+      }
+    }
+    this.elapsed += GRANULARITY;
+    return this.emergencyStopTime == -1;
+  }
+
+  /**
+   * This is a helper method which counts the commands to the pumps and the valve
+   * in the messages sent in a cycle. Mode changes, acknowledgements and failure
+   * detections are not commands to an actuator.
+   *
+   * @param output
+   *          the messages sent in a cycle
+   * @return the number of commands
+   */
+  private static int countCommands(Mailbox output) {
+    int count = 0;
+    for (int i = 0; i < output.size(); i++) {
+      MessageKind kind = output.read(i).getKind();
+      if (kind == MessageKind.OPEN_PUMP_n || kind == MessageKind.CLOSE_PUMP_n
+          || kind == MessageKind.VALVE) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * This is a helper method which works out why the controller stopped, from the
+   * failure detections it sent in the same cycle.
+   *
+   * @param output
+   *          the messages sent in the cycle of the emergency stop
+   * @param level
+   *          the water level at the emergency stop
+   * @return the cause of the emergency stop
+   */
+  private String causeOf(Mailbox output, double level) {
+    StringBuilder cause = new StringBuilder();
+    for (int i = 0; i < output.size(); i++) {
+      MessageKind kind = output.read(i).getKind();
+      if (kind == MessageKind.LEVEL_FAILURE_DETECTION
+          || kind == MessageKind.STEAM_FAILURE_DETECTION
+          || kind == MessageKind.PUMP_FAILURE_DETECTION_n
+          || kind == MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n) {
+        if (cause.length() != 0) {
+          cause.append('+');
+        }
+        cause.append(kind.name());
+      }
+    }
+    if (cause.length() != 0) {
+      return cause.toString();
+    } else if (level < this.config.getMinimalLimitLevel()
+        || level > this.config.getMaximalLimitLevel()) {
+      return "LEVEL_LIMIT";
+    }
+    return "TRANSMISSION_FAILURE";
+  }
+
+  /**
+   * This returns the simulated time in milliseconds.
+   *
+   * @return the simulated time
+   */
+  public int getElapsed() {
+    return this.elapsed;
+  }
+
+  /**
+   * This returns the number of controller cycles.
+   *
+   * @return the number of cycles
+   */
+  public int getCycles() {
+    return this.cycles;
+  }
+
+  /**
+   * This returns the number of cycles spent in a mode.
+   *
+   * @param mode
+   *          the mode
+   * @return the number of cycles in the mode
+   */
+  public int getModeCycles(Mailbox.Mode mode) {
+    return this.modeCycles[mode.ordinal()];
+  }
+
+  /**
+   * This returns the time the controller first entered normal mode.
+   *
+   * @return the time in milliseconds, or -1 if it never did
+   */
+  public int getTimeToNormal() {
+    return this.timeToNormal;
+  }
+
+  /**
+   * This returns the time of the emergency stop.
+   *
+   * @return the time in milliseconds, or -1 if there was none
+   */
+  public int getEmergencyStopTime() {
+    return this.emergencyStopTime;
+  }
+
+  /**
+   * This returns the cause of the emergency stop.
+   *
+   * @return the cause, or null if there was no emergency stop
+   */
+  public @Nullable String getEmergencyStopCause() {
+    return this.emergencyStopCause;
+  }
+
+  /**
+   * This returns the lowest water level reached.
+   *
+   * @return the lowest water level
+   */
+  public double getMinLevel() {
+    return this.minLevel;
+  }
+
+  /**
+   * This returns the highest water level reached.
+   *
+   * @return the highest water level
+   */
+  public double getMaxLevel() {
+    return this.maxLevel;
+  }
+
+  /**
+   * This returns the number of commands the controller sent to open or close a
+   * pump or to switch the valve.
+   *
+   * @return the number of commands
+   */
+  public long getCommands() {
+    return this.commands;
+  }
+
+  /**
+   * This returns the number of physical clocks where the water level was outside
+   * the limit levels before an emergency stop.
+   *
+   * @return the number of limit violations
+   */
+  public int getLimitViolations() {
+    return this.limitViolations;
+  }
+
+  /**
+   * This returns the controller under simulation.
+   *
+   * @return the controller
+   */
+  public SteamBoilerController getController() {
+    return this.controller;
+  }
+}
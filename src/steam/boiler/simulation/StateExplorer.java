@@ -0,0 +1,566 @@
+package steam.boiler.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.StateKey;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * The state explorer visits every controller state reachable from
+ * initialisation under a discretised set of inputs. Each input is a level
+ * reading, a steam reading and at most one event, such as a protocol signal, a
+ * repair, a pump or pump controller disagreeing with its command, or a lost
+ * message. States are identified by their {@link StateKey} and its detail, and
+ * are explored in parallel, breadth first, so the first violation of an
+ * invariant found comes with a shortest trace to it.
+ *
+ * <p>The detail quantises the reading history, so two states whose histories
+ * differ but have the same rounded level slope are explored once, and a trace is
+ * shortest among the quantised states. Every trace reported is therefore
+ * replayed on a fresh controller, and the report says whether the replay
+ * reaches the violation.
+ *
+ * <p>Each state in the frontier holds a whole controller, which is much more
+ * than its slot in the visited table, so the result reports the largest
+ * frontier and the heap used as well as the size of the table.
+ */
+public final class StateExplorer {
+  /**
+   * This is the number of inputs in a chunk claimed by a worker.
+   */
+  private static final int CHUNK = 64;
+
+  /**
+   * This is the characteristics of the boiler.
+   */
+  private final SteamBoilerCharacteristics config;
+  /**
+   * This is the number of pumps.
+   */
+  private final int pumps;
+  /**
+   * These are the level readings that are tried.
+   */
+  private final double[] levels;
+  /**
+   * These are the steam readings that are tried.
+   */
+  private final double[] steams;
+  /**
+   * This is the number of events that are tried.
+   */
+  private final int events;
+  /**
+   * This is the number of worker threads.
+   */
+  private final int threads;
+  /**
+   * This is the most states that will be visited.
+   */
+  private final int maxStates;
+  /**
+   * This is the most cycles from the initial state that will be explored.
+   */
+  private final int maxDepth;
+
+  /**
+   * Construct a state explorer.
+   *
+   * @param config
+   *          The characteristics of the boiler, with at most StateKey.MAX_PUMPS
+   *          pumps.
+   * @param threads
+   *          The number of worker threads.
+   * @param maxStates
+   *          The most states to visit.
+   */
+  public StateExplorer(SteamBoilerCharacteristics config, int threads, int maxStates) {
+    this(config, threads, maxStates, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Construct a state explorer which stops at a given depth. Since the detail of
+   * a state includes the water levels, the states of a boiler are rarely
+   * exhausted, but every state up to a given depth can be.
+   *
+   * @param config
+   *          The characteristics of the boiler, with at most StateKey.MAX_PUMPS
+   *          pumps.
+   * @param threads
+   *          The number of worker threads.
+   * @param maxStates
+   *          The most states to visit.
+   * @param maxDepth
+   *          The most cycles from the initial state to explore.
+   */
+  public StateExplorer(SteamBoilerCharacteristics config, int threads, int maxStates,
+      int maxDepth) {
+    if (config.getNumberOfPumps() > StateKey.MAX_PUMPS) {
+      throw new IllegalArgumentException("at most " + StateKey.MAX_PUMPS + " pumps");
+    }
+    this.config = config;
+    this.pumps = config.getNumberOfPumps();
+    this.threads = threads;
+    this.maxStates = maxStates;
+    this.maxDepth = maxDepth;
+    // the level readings sit on and around each threshold of the boiler
+    double[] candidates = { -1, 0, config.getMinimalLimitLevel() - 1,
+        config.getMinimalLimitLevel(), config.getMinimalNormalLevel(),
+        (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2,
+        config.getMaximalNormalLevel(), config.getMaximalLimitLevel(),
+        config.getMaximalLimitLevel() + 1, config.getCapacity() };
+    Arrays.sort(candidates);
+    int distinct = 0;
+    for (int i = 0; i < candidates.length; i++) {
+      if (i == 0 || candidates[i] != candidates[distinct - 1]) {
+        candidates[distinct++] = candidates[i];
+      }
+    }
+    this.levels = Arrays.copyOf(candidates, distinct);
+    double steam = config.getMaximualSteamRate();
+    this.steams = new double[] { -1, 0, steam / 2, steam, steam + 1 };
+    this.events = 1 + InputFrame.SIGNALS.length
+        + (InputFrame.PUMP_SIGNALS.length + 2) * this.pumps + 4;
+  }
+
+  /**
+   * This returns the number of inputs tried from each state.
+   *
+   * @return the number of inputs
+   */
+  public int getInputs() {
+    return this.levels.length * this.steams.length * this.events;
+  }
+
+  /**
+   * This builds the input frame for an input from a given state.
+   *
+   * @param key
+   *          the key of the state
+   * @param input
+   *          the input
+   * @param frame
+   *          the frame to build
+   */
+  void buildFrame(long key, int input, InputFrame frame) {
+    int event = input % this.events;
+    int rest = input / this.events;
+    frame.reset(this.levels[rest / this.steams.length], this.steams[rest % this.steams.length]);
+    for (int i = 0; i < this.pumps; i++) {
+      frame.pumps[i] = StateKey.isPumpOpen(key, i);
+      frame.controllers[i] = frame.pumps[i];
+    }
+    if (event == 0) {
+      return;
+    }
+    event--;
+    if (event < InputFrame.SIGNALS.length) {
+      frame.signals = 1 << event;
+      return;
+    }
+    event -= InputFrame.SIGNALS.length;
+    if (event < InputFrame.PUMP_SIGNALS.length * this.pumps) {
+      frame.pumpSignals[event / this.pumps] = event % this.pumps;
+      return;
+    }
+    event -= InputFrame.PUMP_SIGNALS.length * this.pumps;
+    if (event < this.pumps) {
+      // the pump disagrees with its command, and its controller follows it
+      frame.pumps[event] = !frame.pumps[event];
+      frame.controllers[event] = frame.pumps[event];
+      return;
+    }
+    event -= this.pumps;
+    if (event < this.pumps) {
+      // the pump controller disagrees with its pump
+      frame.controllers[event] = !frame.controllers[event];
+      return;
+    }
+    event -= this.pumps;
+    frame.omit = 1 << event;
+  }
+
+  /**
+   * This explores every state reachable within the most cycles allowed.
+   *
+   * @return the result of the exploration
+   * @throws InterruptedException
+   *           if the exploration is interrupted
+   * @throws ExecutionException
+   *           if a worker fails
+   */
+  public Result explore() throws InterruptedException, ExecutionException {
+    VisitedTable visited = new VisitedTable(this.maxStates);
+    Result result = new Result(visited);
+    SteamBoilerController root = new SteamBoilerController(this.config);
+    long rootKey = root.getStateKey();
+    int rootSlot = visited.add(rootKey, root.getStateDetail(), VisitedTable.ROOT, -1);
+    List<Node> frontier = new ArrayList<>();
+    frontier.add(new Node(rootKey, rootSlot, root));
+    Runtime runtime = Runtime.getRuntime();
+    long start = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+    try {
+      while (!frontier.isEmpty() && visited.size() < this.maxStates
+          && result.depth < this.maxDepth) {
+        List<Node> current = frontier;
+        AtomicInteger next = new AtomicInteger();
+        List<Future<List<Node>>> workers = new ArrayList<>();
+        for (int w = 0; w < this.threads; w++) {
+          workers.add(executor.submit(() -> expand(current, next, visited, result)));
+        }
+        frontier = new ArrayList<>();
+        for (Future<List<Node>> worker : workers) {
+          List<Node> found = worker.get();
+          assert (found != null);
+          frontier.addAll(found);
+        }
+        result.depth++;
+        result.peakFrontier = Math.max(result.peakFrontier, frontier.size());
+        result.peakHeap = Math.max(result.peakHeap, runtime.totalMemory() - runtime.freeMemory());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    // the states were only cut short if the table filled up
+    result.complete = visited.size() < this.maxStates;
+    result.nanos = System.nanoTime() - start;
+    return result;
+  }
+
+  /**
+   * This expands chunks of the frontier until none are left.
+   *
+   * @param frontier
+   *          the states at the current depth
+   * @param next
+   *          the index of the next unclaimed input
+   * @param visited
+   *          the visited states
+   * @param result
+   *          where violations are recorded
+   * @return the new states found by this worker
+   */
+  private List<Node> expand(List<Node> frontier, AtomicInteger next, VisitedTable visited,
+      Result result) {
+    List<Node> found = new ArrayList<>();
+    SteamBoilerController scratch = new SteamBoilerController(this.config);
+    InputFrame frame = new InputFrame(this.pumps);
+    int inputs = getInputs();
+    long total = (long) frontier.size() * inputs;
+    long transitions = 0;
+    for (long first = claim(next); first < total; first = claim(next)) {
+      long last = Math.min(total, first + CHUNK);
+      for (long i = first; i < last && visited.size() < this.maxStates; i++) {
+        Node node = frontier.get((int) (i / inputs));
+        int input = (int) (i % inputs);
+        buildFrame(node.key, input, frame);
+        node.state.copyStateTo(scratch);
+        Mailbox incoming = new UnboundedMailbox(100);
+        frame.writeTo(incoming);
+        transitions++;
+        long key;
+        @Nullable String violation;
+        try {
+          scratch.clock(incoming, new UnboundedMailbox(100));
+          key = scratch.getStateKey();
+          violation = Invariants.check(this.config, key, frame);
+        } catch (RuntimeException | AssertionError e) {
+          key = -1;
+          violation = "exception " + e;
+        }
+        if (violation != null) {
+          result.report(violation, node.slot, input, frame);
+          continue;
+        }
+        int slot = visited.add(key, scratch.getStateDetail(), node.slot, input);
+        if (slot != -1 && StateKey.getMode(key) != Mailbox.Mode.EMERGENCY_STOP) {
+          SteamBoilerController copy = new SteamBoilerController(this.config);
+          scratch.copyStateTo(copy);
+          found.add(new Node(key, slot, copy));
+        }
+      }
+    }
+    result.transitions.addAndGet(transitions);
+    return found;
+  }
+
+  /**
+   * This is a helper method which claims the next chunk of inputs.
+   *
+   * @param next
+   *          the index of the next unclaimed chunk, in chunks
+   * @return the first input of the claimed chunk
+   */
+  private static long claim(AtomicInteger next) {
+    return (long) next.getAndIncrement() * CHUNK;
+  }
+
+  /**
+   * This replays a sequence of inputs on a fresh controller, and checks whether
+   * the last input violates the given invariant.
+   *
+   * @param inputs
+   *          the inputs from the initial state
+   * @param violation
+   *          the invariant violated by the last input
+   * @return true if the replay violates the invariant
+   */
+  boolean replay(int[] inputs, String violation) {
+    SteamBoilerController controller = new SteamBoilerController(this.config);
+    InputFrame frame = new InputFrame(this.pumps);
+    for (int i = 0; i < inputs.length; i++) {
+      buildFrame(controller.getStateKey(), inputs[i], frame);
+      Mailbox incoming = new UnboundedMailbox(100);
+      frame.writeTo(incoming);
+      try {
+        controller.clock(incoming, new UnboundedMailbox(100));
+      } catch (RuntimeException | AssertionError e) {
+        return i == inputs.length - 1 && violation.equals("exception " + e);
+      }
+    }
+    return violation.equals(Invariants.check(this.config, controller.getStateKey(), frame));
+  }
+
+  /**
+   * This describes an input from a given state.
+   *
+   * @param key
+   *          the key of the state
+   * @param input
+   *          the input
+   * @return a description of the input
+   */
+  String describe(long key, int input) {
+    InputFrame frame = new InputFrame(this.pumps);
+    buildFrame(key, input, frame);
+    return frame.toString();
+  }
+
+  /**
+   * A node is a state in the frontier together with its key and its slot in the
+   * visited table.
+   */
+  private static final class Node {
+    /**
+     * This is the key of the state.
+     */
+    final long key;
+    /**
+     * This is the slot of the state in the visited table.
+     */
+    final int slot;
+    /**
+     * This is a controller in the state.
+     */
+    final SteamBoilerController state;
+
+    /**
+     * Construct a node.
+     *
+     * @param key
+     *          the key of the state
+     * @param slot
+     *          the slot of the state in the visited table
+     * @param state
+     *          a controller in the state
+     */
+    Node(long key, int slot, SteamBoilerController state) {
+      this.key = key;
+      this.slot = slot;
+      this.state = state;
+    }
+  }
+
+  /**
+   * The result of an exploration.
+   */
+  public final class Result {
+    /**
+     * These are the visited states.
+     */
+    private final VisitedTable visited;
+    /**
+     * This is the number of transitions taken.
+     */
+    final AtomicLong transitions = new AtomicLong();
+    /**
+     * This stores the first violation of each invariant with its trace.
+     */
+    private final List<String> violations = new ArrayList<>();
+    /**
+     * This stores which invariants have been violated.
+     */
+    private final List<String> violated = new ArrayList<>();
+    /**
+     * This is the depth the exploration reached.
+     */
+    int depth;
+    /**
+     * This is the time the exploration took in nanoseconds.
+     */
+    long nanos;
+    /**
+     * This is the most states there were in the frontier at once.
+     */
+    int peakFrontier;
+    /**
+     * This is the most heap in use at the end of a depth, in bytes.
+     */
+    long peakHeap;
+    /**
+     * This is true if every state reachable within the depth was visited.
+     */
+    boolean complete;
+
+    /**
+     * Construct an empty result.
+     *
+     * @param visited
+     *          the visited states
+     */
+    Result(VisitedTable visited) {
+      this.visited = visited;
+    }
+
+    /**
+     * This records a violation, keeping only the first of each kind. Since the
+     * states are explored breadth first, the first trace is a shortest one. The
+     * trace is replayed before it is recorded.
+     *
+     * @param violation
+     *          the invariant that was violated
+     * @param parent
+     *          the slot of the state the input was applied to
+     * @param input
+     *          the input
+     * @param frame
+     *          the frame of the input
+     */
+    synchronized void report(String violation, int parent, int input, InputFrame frame) {
+      String kind = violation.startsWith("exception") ? "exception" : violation;
+      if (this.violated.contains(kind)) {
+        return;
+      }
+      this.violated.add(kind);
+      List<String> trace = new ArrayList<>();
+      trace.add("  " + describeState(parent) + "\n    -> " + frame);
+      int length = 1;
+      for (int slot = parent; this.visited.getParent(slot) != VisitedTable.ROOT; length++) {
+        int from = this.visited.getParent(slot);
+        trace.add(0, "  " + describeState(from) + "\n    -> "
+            + describe(this.visited.getKey(from), this.visited.getInput(slot)));
+        slot = from;
+      }
+      int[] inputs = new int[length];
+      inputs[length - 1] = input;
+      for (int slot = parent, i = length - 2; i >= 0; slot = this.visited.getParent(slot), i--) {
+        inputs[i] = this.visited.getInput(slot);
+      }
+      StringBuilder r = new StringBuilder(violation);
+      if (replay(inputs, violation)) {
+        r.append(" (replays in ").append(length).append(" cycles)\n");
+      } else {
+        r.append(" (does not replay)\n");
+      }
+      for (String step : trace) {
+        r.append(step).append('\n');
+      }
+      this.violations.add(r.toString());
+    }
+
+    /**
+     * This is a helper method which describes the state in a slot.
+     *
+     * @param slot
+     *          the slot
+     * @return a description of the state
+     */
+    private String describeState(int slot) {
+      return StateKey.toString(this.visited.getKey(slot), this.visited.getDetail(slot));
+    }
+
+    /**
+     * This returns the number of states visited.
+     *
+     * @return the number of states
+     */
+    public int getStates() {
+      return this.visited.size();
+    }
+
+    /**
+     * This returns true if every state reachable within the most cycles allowed
+     * was visited, rather than the exploration stopping at the most states
+     * allowed.
+     *
+     * @return true if the exploration is complete
+     */
+    public boolean isComplete() {
+      return this.complete;
+    }
+
+    /**
+     * This returns the violations found, each with a shortest trace.
+     *
+     * @return the violations
+     */
+    public synchronized List<String> getViolations() {
+      return new ArrayList<>(this.violations);
+    }
+
+    @Override
+    public String toString() {
+      double seconds = this.nanos / 1e9;
+      StringBuilder r = new StringBuilder();
+      r.append("states:           ").append(getStates()).append('\n');
+      r.append("transitions:      ").append(this.transitions.get()).append('\n');
+      r.append("depth:            ").append(this.depth).append('\n');
+      r.append("states/second:    ").append(seconds > 0 ? getStates() / seconds : 0).append('\n');
+      r.append("complete:         ").append(this.complete).append('\n');
+      r.append("peak frontier:    ").append(this.peakFrontier).append('\n');
+      r.append("table bytes:      ").append(this.visited.bytes()).append(" (")
+          .append(getStates() == 0 ? 0 : this.visited.bytes() / getStates())
+          .append("/state)\n");
+      r.append("peak heap bytes:  ").append(this.peakHeap).append(" (")
+          .append(getStates() == 0 ? 0 : this.peakHeap / getStates()).append("/state)\n");
+      for (String violation : getViolations()) {
+        r.append("violation: ").append(violation);
+      }
+      return r.toString();
+    }
+  }
+
+  /**
+   * Explore the state space of a boiler and print the result.
+   *
+   * @param args
+   *          the number of pumps, the number of threads, the most states and the
+   *          most cycles; all are optional
+   * @throws Exception
+   *           if the exploration fails
+   */
+  public static void main(String[] args) throws Exception {
+    int pumps = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+    int threads = args.length > 1 ? Integer.parseInt(args[1])
+        : Runtime.getRuntime().availableProcessors();
+    int maxStates = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 20;
+    int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : Integer.MAX_VALUE;
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    config = config.setNumberOfPumps(pumps, config.getPumpCapacity(0));
+    System.out.print(new StateExplorer(config, threads, maxStates, maxDepth).explore());
+  }
+}
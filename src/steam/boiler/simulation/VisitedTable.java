@@ -0,0 +1,187 @@
+package steam.boiler.simulation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A visited table is a concurrent open-addressing hash set of states, each
+ * identified by a state key and its detail. For each state it also remembers
+ * the slot of the state it was reached from and the input that reached it, so
+ * that the shortest path to any state can be rebuilt. All of the data is kept in
+ * flat primitive arrays, which costs 24 bytes per slot and no object per state.
+ * States are claimed with a compare-and-set on their key, so any number of
+ * threads can add states at once.
+ */
+final class VisitedTable {
+  /**
+   * This is the parent slot of the initial state.
+   */
+  static final int ROOT = -1;
+
+  /**
+   * This stores the keys plus one, so that zero marks an empty slot.
+   */
+  private final AtomicLongArray keys;
+  /**
+   * This stores the details plus one. It is written once the rest of the slot
+   * has been, so zero marks a slot which is still being filled in.
+   */
+  private final AtomicLongArray details;
+  /**
+   * This stores the slot of the state each state was reached from.
+   */
+  private final AtomicIntegerArray parents;
+  /**
+   * This stores the input each state was reached with.
+   */
+  private final AtomicIntegerArray inputs;
+  /**
+   * This is used to wrap indices into the table.
+   */
+  private final int mask;
+  /**
+   * This is the number of states in the table.
+   */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * Construct a visited table with room for at least the given number of states.
+   *
+   * @param capacity
+   *          the number of states the table must hold
+   */
+  VisitedTable(int capacity) {
+    // keep the load factor at or below one half
+    int slots = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1) * 2;
+    this.keys = new AtomicLongArray(slots);
+    this.details = new AtomicLongArray(slots);
+    this.parents = new AtomicIntegerArray(slots);
+    this.inputs = new AtomicIntegerArray(slots);
+    this.mask = slots - 1;
+  }
+
+  /**
+   * This is a helper method which spreads the bits of a state.
+   *
+   * @param key
+   *          the key
+   * @param detail
+   *          the detail
+   * @return the first slot to probe for the state
+   */
+  private int slotOf(long key, long detail) {
+    long h = (key ^ (detail * 0xC2B2AE3D27D4EB4FL)) * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & this.mask;
+  }
+
+  /**
+   * This adds a state if it is not already in the table.
+   *
+   * @param key
+   *          the key of the state, which must not be negative
+   * @param detail
+   *          the detail of the state, which must not be negative
+   * @param parent
+   *          the slot of the state it was reached from, or ROOT
+   * @param input
+   *          the input that reached it
+   * @return the slot of the state if it was added, or -1 if it was already there
+   * @throws IllegalStateException
+   *           if the table is full
+   */
+  int add(long key, long detail, int parent, int input) {
+    assert (key >= 0 && detail >= 0);
+    long storedKey = key + 1;
+    long storedDetail = detail + 1;
+    int slot = slotOf(key, detail);
+    for (int probes = 0; probes <= this.mask; probes++) {
+      long current = this.keys.get(slot);
+      if (current == 0) {
+        if (this.keys.compareAndSet(slot, 0, storedKey)) {
+          this.parents.set(slot, parent);
+          this.inputs.set(slot, input);
+          this.details.set(slot, storedDetail);
+          this.size.incrementAndGet();
+          return slot;
+        }
+        current = this.keys.get(slot);
+      }
+      if (current == storedKey) {
+        long other = this.details.get(slot);
+        while (other == 0) {
+          // the slot was claimed an instant ago and is still being filled in
+          Thread.yield();
+          other = this.details.get(slot);
+        }
+        if (other == storedDetail) {
+          return -1;
+        }
+      }
+      slot = (slot + 1) & this.mask;
+    }
+    throw new IllegalStateException("visited table is full");
+  }
+
+  /**
+   * This returns the key of the state in a slot.
+   *
+   * @param slot
+   *          the slot
+   * @return the key
+   */
+  long getKey(int slot) {
+    return this.keys.get(slot) - 1;
+  }
+
+  /**
+   * This returns the detail of the state in a slot.
+   *
+   * @param slot
+   *          the slot
+   * @return the detail
+   */
+  long getDetail(int slot) {
+    return this.details.get(slot) - 1;
+  }
+
+  /**
+   * This returns the slot of the state the state in a slot was reached from.
+   *
+   * @param slot
+   *          the slot
+   * @return the parent slot, or ROOT for the initial state
+   */
+  int getParent(int slot) {
+    return this.parents.get(slot);
+  }
+
+  /**
+   * This returns the input the state in a slot was reached with.
+   *
+   * @param slot
+   *          the slot
+   * @return the input, or -1 for the initial state
+   */
+  int getInput(int slot) {
+    return this.inputs.get(slot);
+  }
+
+  /**
+   * This returns the number of states in the table.
+   *
+   * @return the number of states
+   */
+  int size() {
+    return this.size.get();
+  }
+
+  /**
+   * This returns the memory used by the table.
+   *
+   * @return the size of the arrays in bytes
+   */
+  long bytes() {
+    return (this.mask + 1L) * (8 + 8 + 4 + 4);
+  }
+}
@@ -0,0 +1,6 @@
+/**
+ * Headless tools which run the controller against the simulated physical units
+ * without the Swing simulator.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+package steam.boiler.simulation;
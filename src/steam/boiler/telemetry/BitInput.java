@@ -0,0 +1,63 @@
+package steam.boiler.telemetry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bit input reads values written by a {@link BitOutput} from a region of a
+ * buffer, without changing the position of the buffer.
+ */
+final class BitInput {
+  /**
+   * This is the buffer being read.
+   */
+  private final ByteBuffer buffer;
+  /**
+   * This is the position of the next bit, relative to the start of the buffer.
+   */
+  private long position;
+
+  /**
+   * Construct a bit input.
+   *
+   * @param buffer
+   *          the buffer to read
+   * @param offset
+   *          the index of the first byte to read
+   */
+  BitInput(ByteBuffer buffer, int offset) {
+    this.buffer = buffer;
+    this.position = (long) offset << 3;
+  }
+
+  /**
+   * This reads a value.
+   *
+   * @param bits
+   *          the number of bits to read, from 0 to 64
+   * @return the value, in the low bits
+   */
+  long read(int bits) {
+    long value = 0;
+    int remaining = bits;
+    while (remaining > 0) {
+      int index = (int) (this.position >>> 3);
+      int used = (int) (this.position & 7);
+      int take = Math.min(8 - used, remaining);
+      int b = this.buffer.get(index) & 0xFF;
+      long chunk = (b >>> (8 - used - take)) & ((1 << take) - 1);
+      value = (value << take) | chunk;
+      remaining -= take;
+      this.position += take;
+    }
+    return value;
+  }
+
+  /**
+   * This reads a single bit.
+   *
+   * @return true if the bit is set
+   */
+  boolean readBit() {
+    return read(1) != 0;
+  }
+}
@@ -0,0 +1,79 @@
+package steam.boiler.telemetry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A bit output appends values of any width up to 64 bits to a growing array of
+ * words, most significant bit first.
+ */
+final class BitOutput {
+  /**
+   * This stores the bits written so far.
+   */
+  private long[] words = new long[64];
+  /**
+   * This is the number of bits written so far.
+   */
+  private long size;
+
+  /**
+   * This appends the low bits of a value.
+   *
+   * @param value
+   *          the value
+   * @param bits
+   *          the number of low bits of the value to append, from 0 to 64
+   */
+  void write(long value, int bits) {
+    if (bits == 0) {
+      return;
+    }
+    int word = (int) (this.size >>> 6);
+    if (word + 1 >= this.words.length) {
+      this.words = Arrays.copyOf(this.words, this.words.length * 2);
+    }
+    long v = bits == 64 ? value : value & ((1L << bits) - 1);
+    int used = (int) (this.size & 63);
+    int free = 64 - used;
+    if (bits <= free) {
+      this.words[word] |= v << (free - bits);
+    } else {
+      this.words[word] |= v >>> (bits - free);
+      this.words[word + 1] |= v << (64 - bits + free);
+    }
+    this.size += bits;
+  }
+
+  /**
+   * This appends a single bit.
+   *
+   * @param bit
+   *          the bit
+   */
+  void writeBit(boolean bit) {
+    write(bit ? 1 : 0, 1);
+  }
+
+  /**
+   * This returns the number of bytes needed to hold the bits written so far.
+   *
+   * @return the number of bytes
+   */
+  int bytes() {
+    return (int) ((this.size + 7) >>> 3);
+  }
+
+  /**
+   * This copies the bits written so far to a buffer, padded to a whole byte.
+   *
+   * @param out
+   *          the buffer to write to
+   */
+  void copyTo(ByteBuffer out) {
+    int bytes = bytes();
+    for (int i = 0; i < bytes; i++) {
+      out.put((byte) (this.words[i >>> 3] >>> (56 - ((i & 7) << 3))));
+    }
+  }
+}
@@ -0,0 +1,309 @@
+package steam.boiler.telemetry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A block builder compresses records into the columns of a block as they are
+ * appended. Timestamps are stored as deltas of deltas, the level and steam as
+ * the XOR of each value with the one before, and the mode, valve and pumps as
+ * runs of equal values. The last run of each of these is kept in the header,
+ * so that a block can be written out at any point without closing the runs.
+ *
+ * <p>A block starts with a header of {@link #HEADER} bytes:
+ *
+ * <pre>
+ *  0  int   magic
+ *  4  int   number of records
+ *  8  long  time of the first record
+ * 16  long  time of the last record
+ * 24  int   mode of the last run, int length of the last run
+ * 32  int   valve of the last run, int length of the last run
+ * 40  long  pumps of the last run, int length of the last run
+ * 52  int[6] length in bytes of each column
+ * </pre>
+ *
+ * <p>which is followed by the time, level, steam, mode, valve and pump columns.
+ */
+final class BlockBuilder {
+  /**
+   * This marks the start of a block.
+   */
+  static final int MAGIC = 0x42544C4D;
+  /**
+   * This is the number of bytes in the header of a block.
+   */
+  static final int HEADER = 76;
+  /**
+   * This is the number of bits used for the length of a run.
+   */
+  static final int RUN_BITS = 32;
+  /**
+   * This is the number of bits used for a mode.
+   */
+  static final int MODE_BITS = 3;
+
+  /**
+   * This holds the timestamps.
+   */
+  private final BitOutput times = new BitOutput();
+  /**
+   * This holds the water levels.
+   */
+  private final BitOutput levels = new BitOutput();
+  /**
+   * This holds the steam outputs.
+   */
+  private final BitOutput steams = new BitOutput();
+  /**
+   * This holds the completed runs of modes.
+   */
+  private final BitOutput modes = new BitOutput();
+  /**
+   * This holds the completed runs of valve states.
+   */
+  private final BitOutput valves = new BitOutput();
+  /**
+   * This holds the completed runs of pump bitmaps.
+   */
+  private final BitOutput pumps = new BitOutput();
+  /**
+   * This compresses the water levels.
+   */
+  private final XorEncoder levelEncoder = new XorEncoder();
+  /**
+   * This compresses the steam outputs.
+   */
+  private final XorEncoder steamEncoder = new XorEncoder();
+  /**
+   * This is the number of records in the block.
+   */
+  private int count;
+  /**
+   * This is the time of the first record.
+   */
+  private long firstTime;
+  /**
+   * This is the time of the last record.
+   */
+  private long lastTime;
+  /**
+   * This is the difference between the last two timestamps.
+   */
+  private long lastDelta;
+  /**
+   * This is the mode of the current run.
+   */
+  private int mode;
+  /**
+   * This is the length of the current run of modes.
+   */
+  private int modeRun;
+  /**
+   * This is the valve state of the current run.
+   */
+  private boolean valve;
+  /**
+   * This is the length of the current run of valve states.
+   */
+  private int valveRun;
+  /**
+   * This is the pump bitmap of the current run.
+   */
+  private long pump;
+  /**
+   * This is the length of the current run of pump bitmaps.
+   */
+  private int pumpRun;
+
+  /**
+   * This appends a record. Timestamps must not decrease.
+   *
+   * @param time
+   *          the time in milliseconds
+   * @param level
+   *          the water level
+   * @param steam
+   *          the steam output
+   * @param modeOrdinal
+   *          the ordinal of the mode
+   * @param pumpBitmap
+   *          the pumps commanded open
+   * @param valveOpen
+   *          true if the valve was open
+   */
+  void append(long time, double level, double steam, int modeOrdinal, long pumpBitmap,
+      boolean valveOpen) {
+    if (this.count == 0) {
+      this.firstTime = time;
+      this.lastTime = time;
+    }
+    long delta = time - this.lastTime;
+    writeDeltaOfDelta(delta - this.lastDelta);
+    this.lastDelta = delta;
+    this.lastTime = time;
+    this.levelEncoder.write(this.levels, Double.doubleToRawLongBits(level));
+    this.steamEncoder.write(this.steams, Double.doubleToRawLongBits(steam));
+    if (this.modeRun > 0 && modeOrdinal != this.mode) {
+      this.modes.write(this.mode, MODE_BITS);
+      this.modes.write(this.modeRun, RUN_BITS);
+      this.modeRun = 0;
+    }
+    this.mode = modeOrdinal;
+    this.modeRun++;
+    if (this.valveRun > 0 && valveOpen != this.valve) {
+      this.valves.writeBit(this.valve);
+      this.valves.write(this.valveRun, RUN_BITS);
+      this.valveRun = 0;
+    }
+    this.valve = valveOpen;
+    this.valveRun++;
+    if (this.pumpRun > 0 && pumpBitmap != this.pump) {
+      this.pumps.write(this.pump, 64);
+      this.pumps.write(this.pumpRun, RUN_BITS);
+      this.pumpRun = 0;
+    }
+    this.pump = pumpBitmap;
+    this.pumpRun++;
+    this.count++;
+  }
+
+  /**
+   * This is a helper method which writes a delta of delta with a variable
+   * length prefix code.
+   *
+   * @param dod
+   *          the delta of delta
+   */
+  private void writeDeltaOfDelta(long dod) {
+    if (dod == 0) {
+      this.times.writeBit(false);
+    } else if (dod >= -63 && dod <= 64) {
+      this.times.write(0b10, 2);
+      this.times.write(dod + 63, 7);
+    } else if (dod >= -255 && dod <= 256) {
+      this.times.write(0b110, 3);
+      this.times.write(dod + 255, 9);
+    } else if (dod >= -2047 && dod <= 2048) {
+      this.times.write(0b1110, 4);
+      this.times.write(dod + 2047, 12);
+    } else {
+      this.times.write(0b1111, 4);
+      this.times.write(dod, 64);
+    }
+  }
+
+  /**
+   * This returns the number of records in the block.
+   *
+   * @return the number of records
+   */
+  int size() {
+    return this.count;
+  }
+
+  /**
+   * This returns the time of the first record.
+   *
+   * @return the time in milliseconds
+   */
+  long getFirstTime() {
+    return this.firstTime;
+  }
+
+  /**
+   * This returns the time of the last record.
+   *
+   * @return the time in milliseconds
+   */
+  long getLastTime() {
+    return this.lastTime;
+  }
+
+  /**
+   * This returns the number of bytes the block would take if written now.
+   *
+   * @return the number of bytes
+   */
+  int bytes() {
+    return HEADER + this.times.bytes() + this.levels.bytes() + this.steams.bytes()
+        + this.modes.bytes() + this.valves.bytes() + this.pumps.bytes();
+  }
+
+  /**
+   * This writes the block as it stands into a new buffer. The builder can carry
+   * on appending afterwards.
+   *
+   * @return the block, positioned at zero
+   */
+  ByteBuffer toBuffer() {
+    ByteBuffer out = ByteBuffer.allocate(bytes());
+    out.putInt(MAGIC).putInt(this.count).putLong(this.firstTime).putLong(this.lastTime);
+    out.putInt(this.mode).putInt(this.modeRun);
+    out.putInt(this.valve ? 1 : 0).putInt(this.valveRun);
+    out.putLong(this.pump).putInt(this.pumpRun);
+    BitOutput[] columns = { this.times, this.levels, this.steams, this.modes, this.valves,
+        this.pumps };
+    for (BitOutput column : columns) {
+      out.putInt(column.bytes());
+    }
+    for (BitOutput column : columns) {
+      column.copyTo(out);
+    }
+    out.flip();
+    return out;
+  }
+
+  /**
+   * An XOR encoder compresses a series of doubles by writing the bits which
+   * differ from the previous value. A value equal to the previous one takes a
+   * single bit, and a value whose differing bits fall within those of the
+   * previous difference takes two bits plus the differing bits.
+   */
+  static final class XorEncoder {
+    /**
+     * This is the previous value.
+     */
+    private long previous;
+    /**
+     * This is the number of leading zeros of the previous difference, or -1 if
+     * there is none.
+     */
+    private int leading = -1;
+    /**
+     * This is the number of trailing zeros of the previous difference.
+     */
+    private int trailing;
+
+    /**
+     * This writes a value.
+     *
+     * @param out
+     *          the column to write to
+     * @param bits
+     *          the bits of the value
+     */
+    void write(BitOutput out, long bits) {
+      long xor = bits ^ this.previous;
+      this.previous = bits;
+      if (xor == 0) {
+        out.writeBit(false);
+        return;
+      }
+      out.writeBit(true);
+      int lz = Math.min(31, Long.numberOfLeadingZeros(xor));
+      int tz = Long.numberOfTrailingZeros(xor);
+      if (this.leading != -1 && lz >= this.leading && tz >= this.trailing) {
+        out.writeBit(false);
+        out.write(xor >>> this.trailing, 64 - this.leading - this.trailing);
+      } else {
+        int length = 64 - lz - tz;
+        out.writeBit(true);
+        out.write(lz, 5);
+        out.write(length - 1, 6);
+        out.write(xor >>> tz, length);
+        this.leading = lz;
+        this.trailing = tz;
+      }
+    }
+  }
+}
@@ -0,0 +1,245 @@
+package steam.boiler.telemetry;
+
+import java.nio.ByteBuffer;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A telemetry block is a read-only view of a block written by a
+ * {@link BlockBuilder}. The buffer is usually a memory-mapped file, and is only
+ * read with absolute gets, so a block can be scanned by any number of threads at
+ * once.
+ */
+final class TelemetryBlock {
+  /**
+   * This is the block.
+   */
+  private final ByteBuffer buffer;
+  /**
+   * This is the number of records in the block.
+   */
+  private final int count;
+  /**
+   * This is the time of the first record.
+   */
+  private final long firstTime;
+  /**
+   * This is the time of the last record.
+   */
+  private final long lastTime;
+  /**
+   * This stores the offset of each column in the buffer.
+   */
+  private final int[] offsets = new int[6];
+
+  /**
+   * Construct a view of a block.
+   *
+   * @param buffer
+   *          the block
+   * @throws IllegalArgumentException
+   *           if the buffer does not hold a block
+   */
+  TelemetryBlock(ByteBuffer buffer) {
+    if (buffer.limit() < BlockBuilder.HEADER || buffer.getInt(0) != BlockBuilder.MAGIC) {
+      throw new IllegalArgumentException("not a telemetry block");
+    }
+    this.buffer = buffer;
+    this.count = buffer.getInt(4);
+    this.firstTime = buffer.getLong(8);
+    this.lastTime = buffer.getLong(16);
+    int offset = BlockBuilder.HEADER;
+    for (int i = 0; i < this.offsets.length; i++) {
+      this.offsets[i] = offset;
+      offset += buffer.getInt(52 + 4 * i);
+    }
+    if (offset > buffer.limit()) {
+      throw new IllegalArgumentException("truncated telemetry block");
+    }
+  }
+
+  /**
+   * This returns the number of records in the block.
+   *
+   * @return the number of records
+   */
+  int size() {
+    return this.count;
+  }
+
+  /**
+   * This returns the time of the first record.
+   *
+   * @return the time in milliseconds
+   */
+  long getFirstTime() {
+    return this.firstTime;
+  }
+
+  /**
+   * This returns the time of the last record.
+   *
+   * @return the time in milliseconds
+   */
+  long getLastTime() {
+    return this.lastTime;
+  }
+
+  /**
+   * This returns the number of bytes in the block.
+   *
+   * @return the number of bytes
+   */
+  int bytes() {
+    return this.buffer.limit();
+  }
+
+  /**
+   * This decodes the records of the block between two times, inclusive. The
+   * columns are decoded together from the start of the block and decoding
+   * stops at the first record after the range.
+   *
+   * @param from
+   *          the earliest time
+   * @param to
+   *          the latest time
+   * @param visitor
+   *          the visitor to call for each record in the range
+   * @return the number of records visited
+   */
+  int scan(long from, long to, TelemetryVisitor visitor) {
+    BitInput times = new BitInput(this.buffer, this.offsets[0]);
+    BitInput levels = new BitInput(this.buffer, this.offsets[1]);
+    BitInput steams = new BitInput(this.buffer, this.offsets[2]);
+    BitInput modes = new BitInput(this.buffer, this.offsets[3]);
+    BitInput valves = new BitInput(this.buffer, this.offsets[4]);
+    BitInput pumps = new BitInput(this.buffer, this.offsets[5]);
+    XorDecoder levelDecoder = new XorDecoder();
+    XorDecoder steamDecoder = new XorDecoder();
+    Mailbox.Mode[] allModes = Mailbox.Mode.values();
+    int lastModeRun = this.buffer.getInt(28);
+    int lastValveRun = this.buffer.getInt(36);
+    int lastPumpRun = this.buffer.getInt(48);
+    long time = this.firstTime;
+    long delta = 0;
+    int mode = 0;
+    int modeRun = 0;
+    boolean valve = false;
+    int valveRun = 0;
+    long pump = 0;
+    int pumpRun = 0;
+    int visited = 0;
+    for (int i = 0; i < this.count; i++) {
+      delta += readDeltaOfDelta(times);
+      time += delta;
+      double level = Double.longBitsToDouble(levelDecoder.read(levels));
+      double steam = Double.longBitsToDouble(steamDecoder.read(steams));
+      if (modeRun == 0) {
+        if (i >= this.count - lastModeRun) {
+          mode = this.buffer.getInt(24);
+          modeRun = lastModeRun;
+        } else {
+          mode = (int) modes.read(BlockBuilder.MODE_BITS);
+          modeRun = (int) modes.read(BlockBuilder.RUN_BITS);
+        }
+      }
+      modeRun--;
+      if (valveRun == 0) {
+        if (i >= this.count - lastValveRun) {
+          valve = this.buffer.getInt(32) != 0;
+          valveRun = lastValveRun;
+        } else {
+          valve = valves.readBit();
+          valveRun = (int) valves.read(BlockBuilder.RUN_BITS);
+        }
+      }
+      valveRun--;
+      if (pumpRun == 0) {
+        if (i >= this.count - lastPumpRun) {
+          pump = this.buffer.getLong(40);
+          pumpRun = lastPumpRun;
+        } else {
+          pump = pumps.read(64);
+          pumpRun = (int) pumps.read(BlockBuilder.RUN_BITS);
+        }
+      }
+      pumpRun--;
+      if (time > to) {
+        break;
+      } else if (time >= from) {
+        Mailbox.Mode m = allModes[mode];
+        assert (m != null);
+        visitor.visit(time, level, steam, m, pump, valve);
+        visited++;
+      }
+    }
+    return visited;
+  }
+
+  /**
+   * This is a helper method which reads a delta of delta written by a
+   * {@link BlockBuilder}.
+   *
+   * @param in
+   *          the time column
+   * @return the delta of delta
+   */
+  private static long readDeltaOfDelta(BitInput in) {
+    if (!in.readBit()) {
+      return 0;
+    } else if (!in.readBit()) {
+      return in.read(7) - 63;
+    } else if (!in.readBit()) {
+      return in.read(9) - 255;
+    } else if (!in.readBit()) {
+      return in.read(12) - 2047;
+    } else {
+      return in.read(64);
+    }
+  }
+
+  /**
+   * An XOR decoder reads the values written by a
+   * {@link BlockBuilder.XorEncoder}.
+   */
+  private static final class XorDecoder {
+    /**
+     * This is the previous value.
+     */
+    private long previous;
+    /**
+     * This is the number of leading zeros of the previous difference.
+     */
+    private int leading;
+    /**
+     * This is the number of trailing zeros of the previous difference.
+     */
+    private int trailing;
+
+    /**
+     * Construct a decoder.
+     */
+    XorDecoder() {
+    }
+
+    /**
+     * This reads a value.
+     *
+     * @param in
+     *          the column to read
+     * @return the bits of the value
+     */
+    long read(BitInput in) {
+      if (in.readBit()) {
+        if (in.readBit()) {
+          this.leading = (int) in.read(5);
+          int length = (int) in.read(6) + 1;
+          this.trailing = 64 - this.leading - length;
+        }
+        int length = 64 - this.leading - this.trailing;
+        this.previous ^= in.read(length) << this.trailing;
+      }
+      return this.previous;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package steam.boiler.telemetry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A telemetry store keeps the history of one boiler as a series of compressed
+ * column blocks in a directory. Records are appended to an open block in
+ * memory, and once it holds enough records it is written to its own file, which
+ * is never changed again, and mapped back into memory. The blocks are indexed
+ * by time so that a range scan only decodes the blocks that overlap the range.
+ *
+ * <p>Readings are rounded to a binary step no coarser than the resolution given
+ * when the store is opened. Full precision noise in the low bits of a reading
+ * cannot be compressed, so the resolution should be that of the sensors; a
+ * resolution of zero keeps the readings exactly.
+ *
+ * <p>A store is not thread safe, but the blocks it has written can be opened by
+ * another store in the same directory and scanned while this one appends.
+ */
+public final class TelemetryStore implements Closeable {
+  /**
+   * This is the size in bytes of an uncompressed record: the time, level and
+   * steam, the mode, the pump bitmap and the valve.
+   */
+  public static final int RAW_RECORD_BYTES = 8 + 8 + 8 + 1 + 8 + 1;
+  /**
+   * This is the extension of block files.
+   */
+  private static final String EXTENSION = ".tlm";
+
+  /**
+   * This is the directory holding the blocks.
+   */
+  private final Path directory;
+  /**
+   * This is the number of records in a full block.
+   */
+  private final int blockSize;
+  /**
+   * This is the step readings are rounded to, or zero.
+   */
+  private final double step;
+  /**
+   * This stores the written blocks in time order.
+   */
+  private final List<TelemetryBlock> blocks = new ArrayList<>();
+  /**
+   * This is the block being appended to.
+   */
+  private BlockBuilder open = new BlockBuilder();
+  /**
+   * This is a copy of the open block taken for scans, or null if it has changed
+   * since.
+   */
+  private @Nullable TelemetryBlock openView;
+  /**
+   * This is the time of the last record.
+   */
+  private long lastTime = Long.MIN_VALUE;
+
+  /**
+   * Open a store, creating the directory if needed and mapping any blocks
+   * already in it.
+   *
+   * @param directory
+   *          the directory holding the blocks
+   * @param blockSize
+   *          the number of records in a block
+   * @param resolution
+   *          the resolution of the readings, or zero to keep them exactly
+   * @throws IOException
+   *           if the directory or a block cannot be read
+   */
+  public TelemetryStore(Path directory, int blockSize, double resolution) throws IOException {
+    if (blockSize < 1 || resolution < 0) {
+      throw new IllegalArgumentException("invalid block size or resolution");
+    }
+    this.directory = directory;
+    this.blockSize = blockSize;
+    this.step = resolution == 0 ? 0 : Math.scalb(1.0, Math.getExponent(resolution));
+    Files.createDirectories(directory);
+    List<TelemetryBlock> loaded = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+      for (Path file : files) {
+        assert (file != null);
+        loaded.add(map(file));
+      }
+    }
+    Collections.sort(loaded, Comparator.comparingLong(TelemetryBlock::getFirstTime));
+    if (!loaded.isEmpty()) {
+      this.lastTime = loaded.get(loaded.size() - 1).getLastTime();
+    }
+    this.blocks.addAll(loaded);
+  }
+
+  /**
+   * This is a helper method which maps a block file.
+   *
+   * @param file
+   *          the file
+   * @return the block
+   * @throws IOException
+   *           if the file cannot be read
+   */
+  private static TelemetryBlock map(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      assert (buffer != null);
+      return new TelemetryBlock(buffer);
+    }
+  }
+
+  /**
+   * This appends a record. Records must be appended in time order.
+   *
+   * @param time
+   *          the time in milliseconds
+   * @param level
+   *          the water level
+   * @param steam
+   *          the steam output
+   * @param mode
+   *          the mode of the controller
+   * @param pumps
+   *          a bitmap of the pumps commanded open, for the first 64 pumps
+   * @param valveOpen
+   *          true if the valve was open
+   * @throws IOException
+   *           if a full block cannot be written
+   */
+  public void append(long time, double level, double steam, Mailbox.Mode mode, long pumps,
+      boolean valveOpen) throws IOException {
+    if (time < this.lastTime) {
+      throw new IllegalArgumentException("record at " + time + " is before " + this.lastTime);
+    }
+    this.lastTime = time;
+    this.open.append(time, round(level), round(steam), mode.ordinal(), pumps, valveOpen);
+    this.openView = null;
+    if (this.open.size() >= this.blockSize) {
+      flush();
+    }
+  }
+
+  /**
+   * This is a helper method which rounds a reading to the resolution of the
+   * store.
+   *
+   * @param value
+   *          the reading
+   * @return the rounded reading
+   */
+  private double round(double value) {
+    return this.step == 0 ? value : Math.rint(value / this.step) * this.step;
+  }
+
+  /**
+   * This writes the open block to its file, even if it is not full, and maps
+   * it.
+   *
+   * @throws IOException
+   *           if the block cannot be written
+   */
+  public void flush() throws IOException {
+    BlockBuilder full = this.open;
+    if (full.size() == 0) {
+      return;
+    }
+    String name = String.format("%016x-%08x", Long.valueOf(full.getFirstTime()),
+        Integer.valueOf(this.blocks.size()));
+    Path file = this.directory.resolve(name + EXTENSION);
+    Path temporary = this.directory.resolve(name + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = full.toBuffer();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    this.blocks.add(map(file));
+    this.open = new BlockBuilder();
+    this.openView = null;
+  }
+
+  /**
+   * This visits every record between two times, inclusive, in time order.
+   *
+   * @param from
+   *          the earliest time
+   * @param to
+   *          the latest time
+   * @param visitor
+   *          the visitor to call for each record
+   * @return the number of records visited
+   */
+  public int scan(long from, long to, TelemetryVisitor visitor) {
+    List<TelemetryBlock> current = this.blocks;
+    // find the first block which ends at or after the start of the range
+    int low = 0;
+    int high = current.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (current.get(middle).getLastTime() < from) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    int visited = 0;
+    for (int i = low; i < current.size() && current.get(i).getFirstTime() <= to; i++) {
+      visited += current.get(i).scan(from, to, visitor);
+    }
+    TelemetryBlock view = openView();
+    if (view != null && view.getLastTime() >= from && view.getFirstTime() <= to) {
+      visited += view.scan(from, to, visitor);
+    }
+    return visited;
+  }
+
+  /**
+   * This is a helper method which returns a view of the records not yet
+   * written to a file.
+   *
+   * @return the view, or null if there are no such records
+   */
+  private @Nullable TelemetryBlock openView() {
+    TelemetryBlock view = this.openView;
+    BlockBuilder builder = this.open;
+    if (view == null && builder.size() > 0) {
+      view = new TelemetryBlock(builder.toBuffer());
+      this.openView = view;
+    }
+    return view;
+  }
+
+  /**
+   * This returns the number of records in the store.
+   *
+   * @return the number of records
+   */
+  public long getRecordCount() {
+    long count = this.open.size();
+    for (TelemetryBlock block : this.blocks) {
+      count += block.size();
+    }
+    return count;
+  }
+
+  /**
+   * This returns the number of bytes the records take, including the open
+   * block.
+   *
+   * @return the number of bytes
+   */
+  public long getStoredBytes() {
+    long bytes = this.open.size() == 0 ? 0 : this.open.bytes();
+    for (TelemetryBlock block : this.blocks) {
+      bytes += block.bytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * This writes the open block, so that nothing is lost when the store is
+   * opened again.
+   *
+   * @throws IOException
+   *           if the block cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+}
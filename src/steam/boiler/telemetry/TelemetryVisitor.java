@@ -0,0 +1,27 @@
+package steam.boiler.telemetry;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A telemetry visitor receives the records of a range scan, in time order.
+ */
+public interface TelemetryVisitor {
+  /**
+   * This is called for each record in the range.
+   *
+   * @param time
+   *          the time of the record in milliseconds
+   * @param level
+   *          the water level
+   * @param steam
+   *          the steam output
+   * @param mode
+   *          the mode of the controller
+   * @param pumps
+   *          a bitmap of the pumps commanded open, for the first 64 pumps
+   * @param valveOpen
+   *          true if the valve was open
+   */
+  void visit(long time, double level, double steam, Mailbox.Mode mode, long pumps,
+      boolean valveOpen);
+}
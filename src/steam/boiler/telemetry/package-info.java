@@ -0,0 +1,6 @@
+/**
+ * A compressed, columnar history of the readings and commands of a controller,
+ * kept in immutable memory-mapped blocks.
+ */
+@org.eclipse.jdt.annotation.NonNullByDefault
+package steam.boiler.telemetry;
@@ -0,0 +1,183 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.ReadingHistory;
+import steam.boiler.core.StateSnapshot;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.simulation.InputFrame;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check the state a controller publishes for monitoring threads:
+ * that it matches the controller after each cycle, and that readers sampling
+ * flat out while the controller is clocked never see a torn state.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ConcurrencyTests {
+	/**
+	 * The number of cycles clocked by the stress test.
+	 */
+	private static final int CYCLES = 200_000;
+	/**
+	 * The number of reading threads in the stress test.
+	 */
+	private static final int READERS = 3;
+
+	/**
+	 * Check the published state follows the controller cycle by cycle.
+	 */
+	@Test
+	public void test_concurrency_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		StateSnapshot snapshot = controller.newStateSnapshot();
+		controller.readState(snapshot);
+		assertEquals(0, snapshot.getCycle());
+		assertEquals(Mailbox.Mode.INITIALISATION, snapshot.getMode());
+		InputFrame frame = new InputFrame(config.getNumberOfPumps());
+		for (int cycle = 1; cycle <= 10; ++cycle) {
+			clock(controller, frame, cycle);
+			controller.readState(snapshot);
+			assertEquals(cycle, snapshot.getCycle());
+			assertEquals(controller.getMode(), snapshot.getMode());
+			assertEquals(level(cycle), snapshot.getLevel(), 0);
+			assertEquals(steam(cycle), snapshot.getSteam(), 0);
+		}
+	}
+
+	/**
+	 * Check readers sampling the published state while it is written always see
+	 * the readings of exactly one cycle.
+	 */
+	@Test
+	public void test_concurrency_02() throws InterruptedException {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong reads = new AtomicLong();
+		AtomicReference<@Nullable String> torn = new AtomicReference<>();
+		Thread[] readers = new Thread[READERS];
+		for (int i = 0; i != READERS; ++i) {
+			readers[i] = new Thread(() -> {
+				StateSnapshot snapshot = controller.newStateSnapshot();
+				long last = 0;
+				long n = 0;
+				while (running.get()) {
+					controller.readState(snapshot);
+					long cycle = snapshot.getCycle();
+					if (cycle < last) {
+						torn.compareAndSet(null, "cycle went back from " + last + " to " + cycle);
+					} else if (cycle != 0 && (snapshot.getLevel() != level(cycle)
+							|| snapshot.getSteam() != steam(cycle))) {
+						torn.compareAndSet(null, "cycle " + cycle + " read level " + snapshot.getLevel()
+								+ " and steam " + snapshot.getSteam());
+					}
+					last = cycle;
+					n++;
+				}
+				reads.addAndGet(n);
+			});
+			readers[i].start();
+		}
+		InputFrame frame = new InputFrame(config.getNumberOfPumps());
+		for (int cycle = 1; cycle <= CYCLES; ++cycle) {
+			clock(controller, frame, cycle);
+		}
+		running.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertEquals(null, torn.get());
+		assertTrue(reads.get() > 0);
+	}
+
+	/**
+	 * Check threads copying the state for what-if queries while the controller
+	 * is clocked always copy the history of consecutive cycles, although the
+	 * clock never waits for them.
+	 */
+	@Test
+	public void test_concurrency_03() throws InterruptedException {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong copies = new AtomicLong();
+		AtomicReference<@Nullable String> torn = new AtomicReference<>();
+		Thread[] copiers = new Thread[READERS];
+		for (int i = 0; i != READERS; ++i) {
+			copiers[i] = new Thread(() -> {
+				SteamBoilerController scratch = new SteamBoilerController(config);
+				long n = 0;
+				while (running.get()) {
+					controller.copyStateTo(scratch);
+					ReadingHistory history = scratch.getHistory();
+					if (history.size() >= 2) {
+						double levels = history.getLevel(0) - history.getLevel(1);
+						double steams = history.getSteam(0) - history.getSteam(1);
+						if ((levels != 1 && levels != -700) || (steams != 7 && steams != -6)) {
+							torn.compareAndSet(null, "copied levels " + history.getLevel(1) + ", "
+									+ history.getLevel(0) + " and steams " + history.getSteam(1) + ", "
+									+ history.getSteam(0));
+						}
+					}
+					n++;
+				}
+				copies.addAndGet(n);
+			});
+			copiers[i].start();
+		}
+		InputFrame frame = new InputFrame(config.getNumberOfPumps());
+		for (int cycle = 1; cycle <= CYCLES; ++cycle) {
+			clock(controller, frame, cycle);
+		}
+		running.set(false);
+		for (Thread copier : copiers) {
+			copier.join();
+		}
+		assertEquals(null, torn.get());
+		assertTrue(copies.get() > 0);
+	}
+
+	// =====================================================================
+	// Helpers
+	// =====================================================================
+
+	/**
+	 * Clock a controller with a complete frame whose readings identify the
+	 * cycle.
+	 */
+	private static void clock(SteamBoilerController controller, InputFrame frame, int cycle) {
+		frame.reset(level(cycle), steam(cycle));
+		Mailbox incoming = new UnboundedMailbox(16);
+		frame.writeTo(incoming);
+		controller.clock(incoming, new UnboundedMailbox(16));
+	}
+
+	/**
+	 * The level read in a given cycle, which is a whole number since the
+	 * controller rounds it.
+	 */
+	private static double level(long cycle) {
+		return 100 + cycle % 701;
+	}
+
+	/**
+	 * The steam read in a given cycle.
+	 */
+	private static double steam(long cycle) {
+		return (cycle * 7) % 13;
+	}
+}
@@ -0,0 +1,251 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.MODE_initialisation;
+import static steam.boiler.tests.TestUtils.MODE_normal;
+import static steam.boiler.tests.TestUtils.PROGRAM_READY;
+import static steam.boiler.tests.TestUtils.clockOnceExpecting;
+import static steam.boiler.tests.TestUtils.exactly;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.events.ControllerEvent;
+import steam.boiler.events.EventPublisher;
+import steam.boiler.events.Flow;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the events published by controllers and fleets: that a
+ * controller publishes its mode changes and readings, that subscribers only
+ * receive what they ask for with telemetry conflated to the latest, that
+ * mode changes and failures are never lost, and that nothing is published
+ * while there are no subscribers.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EventTests {
+	/**
+	 * Deliver events on the publishing thread, so the tests are deterministic.
+	 */
+	private static final Executor DIRECT = Runnable::run;
+	/**
+	 * The number of failures published at once, which is more than are queued
+	 * for a subscriber.
+	 */
+	private static final int FAILURES = 300;
+
+	/**
+	 * Check a controller publishes its readings every cycle and its change of
+	 * mode when it enters normal mode.
+	 */
+	@Test
+	public void test_events_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+		double midpoint = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+		model.getBoiler().pumpInWater(midpoint);
+		Recorder recorder = new Recorder(Long.MAX_VALUE);
+		controller.getPublisher().subscribe(recorder, DIRECT);
+		// FIRST
+		model.setMode(PhysicalUnits.Mode.WAITING);
+		clockOnceExpecting(controller, model, exactly(MODE_initialisation, PROGRAM_READY));
+		assertEquals(1, recorder.events.size());
+		assertEquals(ControllerEvent.Kind.TELEMETRY, recorder.events.get(0).getKind());
+		assertEquals(Mailbox.Mode.INITIALISATION, recorder.events.get(0).getMode());
+		// SECOND
+		clockOnceExpecting(controller, model, exactly(MODE_normal));
+		assertEquals(3, recorder.events.size());
+		ControllerEvent change = recorder.events.get(1);
+		assertEquals(ControllerEvent.Kind.MODE_CHANGE, change.getKind());
+		assertEquals(2, change.getCycle());
+		assertEquals(Mailbox.Mode.INITIALISATION, change.getPreviousMode());
+		assertEquals(Mailbox.Mode.NORMAL, change.getMode());
+		assertEquals(ControllerEvent.Kind.TELEMETRY, recorder.events.get(2).getKind());
+		assertEquals(midpoint, recorder.events.get(2).getLevel(), 1.0);
+	}
+
+	/**
+	 * Check a subscriber receives no more events than it requests, gets mode
+	 * changes and failures before telemetry, and only the latest telemetry of
+	 * each controller.
+	 */
+	@Test
+	public void test_events_02() {
+		EventPublisher fleet = new EventPublisher(DIRECT);
+		EventPublisher first = new EventPublisher(DIRECT);
+		EventPublisher second = new EventPublisher(DIRECT);
+		assertEquals(0, first.attachTo(fleet));
+		assertEquals(1, second.attachTo(fleet));
+		Recorder recorder = new Recorder(0);
+		fleet.subscribe(recorder);
+		for (int cycle = 1; cycle <= 3; ++cycle) {
+			first.publish(ControllerEvent.telemetry(0, cycle, Mailbox.Mode.NORMAL, 500, 10, 2));
+			second.publish(ControllerEvent.telemetry(1, cycle, Mailbox.Mode.NORMAL, 400, 10, 3));
+		}
+		second.publish(ControllerEvent.modeChange(1, 3, Mailbox.Mode.NORMAL, Mailbox.Mode.DEGRADED));
+		second.publish(ControllerEvent.failure(1, 3, Mailbox.Mode.DEGRADED,
+				MessageKind.PUMP_FAILURE_DETECTION_n, 2));
+		assertTrue(recorder.events.isEmpty());
+		// Discrete events first, in order
+		recorder.request(2);
+		assertEquals(2, recorder.events.size());
+		assertEquals(ControllerEvent.Kind.MODE_CHANGE, recorder.events.get(0).getKind());
+		assertEquals(ControllerEvent.Kind.FAILURE, recorder.events.get(1).getKind());
+		assertEquals(2, recorder.events.get(1).getUnit());
+		// Then the latest telemetry of each controller
+		recorder.request(10);
+		assertEquals(4, recorder.events.size());
+		assertEquals(0, recorder.events.get(2).getSource());
+		assertEquals(3, recorder.events.get(2).getCycle());
+		assertEquals(1, recorder.events.get(3).getSource());
+		assertEquals(3, recorder.events.get(3).getCycle());
+		assertEquals(4, fleet.getDropped());
+		// Nothing more to deliver, and the remaining demand is kept
+		first.publish(ControllerEvent.telemetry(0, 4, Mailbox.Mode.NORMAL, 500, 10, 2));
+		assertEquals(5, recorder.events.size());
+	}
+
+	/**
+	 * Check publishers only report subscribers while someone is subscribed to
+	 * them or to their fleet, and that closing completes subscribers.
+	 */
+	@Test
+	public void test_events_03() {
+		EventPublisher fleet = new EventPublisher(DIRECT);
+		EventPublisher controller = new EventPublisher(DIRECT);
+		assertFalse(controller.hasSubscribers());
+		controller.attachTo(fleet);
+		assertFalse(controller.hasSubscribers());
+		Recorder recorder = new Recorder(Long.MAX_VALUE);
+		fleet.subscribe(recorder);
+		assertTrue(controller.hasSubscribers());
+		assertFalse(recorder.completed);
+		fleet.close();
+		assertTrue(recorder.completed);
+		assertFalse(controller.hasSubscribers());
+		// A cancelled subscriber receives nothing more
+		Recorder other = new Recorder(Long.MAX_VALUE);
+		controller.subscribe(other);
+		Flow.Subscription subscription = other.subscription;
+		assert (subscription != null);
+		subscription.cancel();
+		assertFalse(controller.hasSubscribers());
+		controller.publish(ControllerEvent.telemetry(0, 1, Mailbox.Mode.NORMAL, 500, 10, 2));
+		assertTrue(other.events.isEmpty());
+	}
+
+	/**
+	 * Check a subscriber which falls behind by more mode changes and failures
+	 * than are queued for it still receives every failure, in order, with
+	 * repeated detections of a unit conflated to the first and the mode changes
+	 * of a controller conflated to one.
+	 */
+	@Test
+	public void test_events_04() {
+		EventPublisher publisher = new EventPublisher(DIRECT);
+		Recorder recorder = new Recorder(0);
+		publisher.subscribe(recorder);
+		// More failures than the queue of a subscription holds, twice over
+		for (int cycle = 1; cycle <= 2; ++cycle) {
+			for (int unit = 0; unit != FAILURES; ++unit) {
+				publisher.publish(ControllerEvent.failure(0, cycle, Mailbox.Mode.DEGRADED,
+						MessageKind.PUMP_FAILURE_DETECTION_n, unit));
+			}
+		}
+		publisher.publish(ControllerEvent.modeChange(0, 3, Mailbox.Mode.NORMAL, Mailbox.Mode.DEGRADED));
+		publisher.publish(ControllerEvent.modeChange(0, 4, Mailbox.Mode.DEGRADED, Mailbox.Mode.RESCUE));
+		recorder.request(Long.MAX_VALUE);
+		// Every failure of the first cycle is delivered, in order
+		for (int unit = 0; unit != FAILURES; ++unit) {
+			ControllerEvent failure = recorder.events.get(unit);
+			assertEquals(ControllerEvent.Kind.FAILURE, failure.getKind());
+			assertEquals(unit, failure.getUnit());
+			assertEquals(1, failure.getCycle());
+		}
+		// Repeats of those still queued follow, but the others were conflated
+		int repeats = recorder.events.size() - FAILURES - 1;
+		assertTrue(repeats > 0 && repeats < FAILURES);
+		for (int i = 0; i != repeats; ++i) {
+			assertEquals(i, recorder.events.get(FAILURES + i).getUnit());
+			assertEquals(2, recorder.events.get(FAILURES + i).getCycle());
+		}
+		ControllerEvent change = recorder.events.get(recorder.events.size() - 1);
+		assertEquals(ControllerEvent.Kind.MODE_CHANGE, change.getKind());
+		assertEquals(4, change.getCycle());
+		assertEquals(Mailbox.Mode.NORMAL, change.getPreviousMode());
+		assertEquals(Mailbox.Mode.RESCUE, change.getMode());
+		assertEquals(FAILURES - repeats + 1, publisher.getDropped());
+	}
+
+	// =====================================================================
+	// Helpers
+	// =====================================================================
+
+	/**
+	 * A subscriber which records the events it receives.
+	 */
+	private static final class Recorder implements Flow.Subscriber<ControllerEvent> {
+		/**
+		 * The events received.
+		 */
+		final List<ControllerEvent> events = new ArrayList<>();
+		/**
+		 * The number of events to request when subscribed.
+		 */
+		private final long initial;
+		/**
+		 * The subscription, once subscribed.
+		 */
+		Flow.@Nullable Subscription subscription;
+		/**
+		 * Whether the subscriber has been completed.
+		 */
+		boolean completed;
+
+		Recorder(long initial) {
+			this.initial = initial;
+		}
+
+		void request(long n) {
+			Flow.Subscription s = this.subscription;
+			assert (s != null);
+			s.request(n);
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription s) {
+			this.subscription = s;
+			if (this.initial > 0) {
+				s.request(this.initial);
+			}
+		}
+
+		@Override
+		public void onNext(ControllerEvent item) {
+			this.events.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			throw new AssertionError(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			this.completed = true;
+		}
+	}
+}
@@ -0,0 +1,705 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.TestUtils.MODE_degraded;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.MODE_initialisation;
+import static steam.boiler.tests.TestUtils.MODE_normal;
+import static steam.boiler.tests.TestUtils.OpenPump;
+import static steam.boiler.tests.TestUtils.PROGRAM_READY;
+import static steam.boiler.tests.TestUtils.PUMP_CONTROL_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT;
+import static steam.boiler.tests.TestUtils.PUMP_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.PUMP_REPAIRED_ACKNOWLEDGEMENT;
+import static steam.boiler.tests.TestUtils.VALVE;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.exactly;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.StateSnapshot;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.tests.TestUtils.MessageMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check how the controller deals with several physical units
+ * failing or being repaired at the same time. The incoming messages are written
+ * directly rather than produced by a model, so the exact cycle in which the
+ * controller reacts can be checked.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FailureTests {
+	/**
+	 * The level reported in every cycle, in the middle of the normal band.
+	 */
+	private static final double LEVEL = 500;
+	/**
+	 * The numbers of pumps of the generated plants.
+	 */
+	private static final int[] PLANT_SIZES = { 8, 64, 256, 1024 };
+
+	// =====================================================================
+	// Detection
+	// =====================================================================
+
+	/**
+	 * Check that when several pumps fail at once in normal mode, all of them are
+	 * detected and reported in the same cycle.
+	 */
+	@Test
+	public void test_detection_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		config = config.setNumberOfPumps(6, config.getPumpCapacity(0));
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[6];
+		startUp(controller, pumps);
+		// Pumps 1, 2 and 4 come on although they were never opened
+		pumps[1] = pumps[2] = pumps[4] = true;
+		Mailbox outgoing = clock(controller, pumps, pumps);
+		assertTrue(outgoing.toString(), exactly(MODE_degraded, PUMP_FAILURE_DETECTION(1),
+				PUMP_FAILURE_DETECTION(2), PUMP_FAILURE_DETECTION(4)).matches(outgoing));
+		StateSnapshot snapshot = controller.newStateSnapshot();
+		controller.readState(snapshot);
+		for (int i = 0; i != pumps.length; ++i) {
+			assertEquals("pump " + i, pumps[i], snapshot.isPumpFailed(i));
+		}
+	}
+
+	/**
+	 * Check that when several pump controllers are found to disagree with their
+	 * pumps as the physical units become ready, all of them are reported in the
+	 * same cycle.
+	 */
+	@Test
+	public void test_detection_02() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		boolean[] controllers = new boolean[config.getNumberOfPumps()];
+		assertTrue(exactly(MODE_initialisation, PROGRAM_READY)
+				.matches(clock(controller, pumps, pumps, MessageKind.STEAM_BOILER_WAITING)));
+		controllers[0] = controllers[2] = true;
+		Mailbox outgoing = clock(controller, pumps, controllers, MessageKind.PHYSICAL_UNITS_READY);
+		assertTrue(outgoing.toString(), exactly(MODE_degraded, PUMP_CONTROL_FAILURE_DETECTION(0),
+				PUMP_CONTROL_FAILURE_DETECTION(2)).matches(outgoing));
+		StateSnapshot snapshot = controller.newStateSnapshot();
+		controller.readState(snapshot);
+		for (int i = 0; i != controllers.length; ++i) {
+			assertEquals("pump controller " + i, controllers[i], snapshot.isPumpControllerFailed(i));
+		}
+	}
+
+	/**
+	 * Check that when a pump and the controller of a different pump fail in the
+	 * same cycle, both are reported, in normal mode and as the physical units
+	 * become ready.
+	 */
+	@Test
+	public void test_detection_03() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		startUp(controller, pumps);
+		// Pump 1 comes on although it was never opened, and the controller of
+		// pump 3 reports it on although it is off
+		pumps[1] = true;
+		boolean[] controllers = pumps.clone();
+		controllers[3] = true;
+		Mailbox outgoing = clock(controller, pumps, controllers);
+		assertTrue(outgoing.toString(), exactly(MODE_degraded, PUMP_FAILURE_DETECTION(1),
+				PUMP_CONTROL_FAILURE_DETECTION(3)).matches(outgoing));
+		// The mode comes first, as in every other detection
+		assertEquals(MessageKind.MODE_m, outgoing.read(0).getKind());
+		StateSnapshot snapshot = controller.newStateSnapshot();
+		controller.readState(snapshot);
+		assertTrue(snapshot.isPumpFailed(1) && !snapshot.isPumpControllerFailed(1));
+		assertTrue(snapshot.isPumpControllerFailed(3) && !snapshot.isPumpFailed(3));
+		// Likewise as the physical units become ready
+		controller = new SteamBoilerController(config);
+		boolean[] off = new boolean[config.getNumberOfPumps()];
+		clock(controller, off, off, MessageKind.STEAM_BOILER_WAITING);
+		outgoing = clock(controller, pumps, controllers, MessageKind.PHYSICAL_UNITS_READY);
+		assertTrue(outgoing.toString(), exactly(MODE_degraded, PUMP_FAILURE_DETECTION(1),
+				PUMP_CONTROL_FAILURE_DETECTION(3)).matches(outgoing));
+	}
+
+	/**
+	 * Check that when several pumps have failed, the acknowledgement of any of
+	 * them lets the controller go on maintaining the level in degraded mode,
+	 * not only that of the first pump reported.
+	 */
+	@Test
+	public void test_detection_04() {
+		SteamBoilerCharacteristics config = mixedPlant(1, 2, 2, 4);
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		double level = midpoint(config);
+		startUp(controller, pumps);
+		assertTrue(exactly(OpenPump(3))
+				.matches(clock(controller, level, 4, pumps, pumps, new Message[0])));
+		// pump 3 never opened and pump 0 came on by itself
+		pumps[0] = true;
+		Mailbox outgoing = clock(controller, level, 4, pumps, pumps, new Message[0]);
+		assertTrue(outgoing.toString(), exactly(MODE_degraded, PUMP_FAILURE_DETECTION(0),
+				PUMP_FAILURE_DETECTION(3)).matches(outgoing));
+		outgoing = clock(controller, level, 4, pumps, pumps,
+				repairs(MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n, 3));
+		assertTrue(outgoing.toString(), exactly(OpenPump(1), OpenPump(2)).matches(outgoing));
+	}
+
+	// =====================================================================
+	// Repair
+	// =====================================================================
+
+	/**
+	 * Check that when several failed pumps are repaired at once, every repair is
+	 * acknowledged and the controller returns to normal mode in that same cycle.
+	 */
+	@Test
+	public void test_repair_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		config = config.setNumberOfPumps(6, config.getPumpCapacity(0));
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[6];
+		startUp(controller, pumps);
+		pumps[1] = pumps[2] = pumps[4] = true;
+		clock(controller, pumps, pumps);
+		assertEquals(Mailbox.Mode.DEGRADED, controller.getMode());
+		// The pumps are fixed and switched off again
+		pumps[1] = pumps[2] = pumps[4] = false;
+		Mailbox outgoing = clock(controller, pumps, pumps,
+				repairs(MessageKind.PUMP_REPAIRED_n, 1, 2, 4));
+		assertTrue(outgoing.toString(), exactly(MODE_normal, PUMP_REPAIRED_ACKNOWLEDGEMENT(1),
+				PUMP_REPAIRED_ACKNOWLEDGEMENT(2), PUMP_REPAIRED_ACKNOWLEDGEMENT(4)).matches(outgoing));
+	}
+
+	/**
+	 * Check the number of cycles taken to return to normal mode when several
+	 * pump controllers are repaired at once, with repairs repeated until they are
+	 * acknowledged as the physical units do.
+	 */
+	@Test
+	public void test_repair_02() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		boolean[] controllers = new boolean[config.getNumberOfPumps()];
+		clock(controller, pumps, pumps, MessageKind.STEAM_BOILER_WAITING);
+		controllers[0] = controllers[1] = controllers[3] = true;
+		clock(controller, pumps, controllers, MessageKind.PHYSICAL_UNITS_READY);
+		assertEquals(Mailbox.Mode.DEGRADED, controller.getMode());
+		assertEquals(1, recoveryLatency(controller, pumps, MessageKind.PUMP_CONTROL_REPAIRED_n,
+				MessageKind.PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n, 0, 1, 3));
+	}
+
+	/**
+	 * Check that when failed pumps are repaired over several cycles, the
+	 * controller stays in degraded mode until the cycle in which the last of them
+	 * is repaired, and returns to normal mode in that cycle.
+	 */
+	@Test
+	public void test_repair_03() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		config = config.setNumberOfPumps(6, config.getPumpCapacity(0));
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[6];
+		startUp(controller, pumps);
+		pumps[0] = pumps[3] = pumps[5] = true;
+		clock(controller, pumps, pumps);
+		pumps[0] = pumps[3] = pumps[5] = false;
+		Mailbox outgoing = clock(controller, pumps, pumps,
+				repairs(MessageKind.PUMP_REPAIRED_n, 3));
+		assertTrue(outgoing.toString(), exactly(PUMP_REPAIRED_ACKNOWLEDGEMENT(3)).matches(outgoing));
+		assertEquals(Mailbox.Mode.DEGRADED, controller.getMode());
+		assertEquals(1, recoveryLatency(controller, pumps, MessageKind.PUMP_REPAIRED_n,
+				MessageKind.PUMP_REPAIRED_ACKNOWLEDGEMENT_n, 0, 5));
+		// A controller repaired on its own also recovers at once
+		controller = new SteamBoilerController(config);
+		clock(controller, pumps, pumps, MessageKind.STEAM_BOILER_WAITING);
+		boolean[] controllers = pumps.clone();
+		controllers[2] = true;
+		clock(controller, pumps, controllers, MessageKind.PHYSICAL_UNITS_READY);
+		outgoing = clock(controller, pumps, pumps, repairs(MessageKind.PUMP_CONTROL_REPAIRED_n, 2));
+		assertTrue(outgoing.toString(),
+				exactly(MODE_normal, PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT(2)).matches(outgoing));
+	}
+
+	// =====================================================================
+	// Transmission
+	// =====================================================================
+
+	/**
+	 * Check a pump state reported twice is a transmission failure, even when it
+	 * stands in for a missing one so that the number of pump states is right.
+	 */
+	@Test
+	public void test_transmission_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		startUp(controller, pumps);
+		Message[] duplicate = { new Message(MessageKind.PUMP_STATE_n_b, 0, false) };
+		Mailbox outgoing = clock(controller, Arrays.copyOf(pumps, pumps.length - 1), pumps, duplicate);
+		assertTrue(outgoing.toString(), exactly(MODE_emergencystop).matches(outgoing));
+		// Likewise for the pump controllers
+		controller = new SteamBoilerController(config);
+		startUp(controller, pumps);
+		duplicate[0] = new Message(MessageKind.PUMP_CONTROL_STATE_n_b, 1, false);
+		outgoing = clock(controller, pumps, Arrays.copyOf(pumps, pumps.length - 1), duplicate);
+		assertTrue(outgoing.toString(), exactly(MODE_emergencystop).matches(outgoing));
+	}
+
+	/**
+	 * Check a message naming a pump which does not exist is a transmission
+	 * failure.
+	 */
+	@Test
+	public void test_transmission_02() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		int n = config.getNumberOfPumps();
+		Message[][] cases = { { new Message(MessageKind.PUMP_STATE_n_b, n, false) },
+				{ new Message(MessageKind.PUMP_STATE_n_b, -1, false) },
+				{ new Message(MessageKind.PUMP_REPAIRED_n, n) } };
+		for (Message[] extra : cases) {
+			SteamBoilerController controller = new SteamBoilerController(config);
+			boolean[] pumps = new boolean[n];
+			startUp(controller, pumps);
+			boolean[] reported = extra[0].getKind() == MessageKind.PUMP_STATE_n_b
+					? Arrays.copyOf(pumps, n - 1) : pumps;
+			Mailbox outgoing = clock(controller, reported, pumps, extra);
+			assertTrue(outgoing.toString(), exactly(MODE_emergencystop).matches(outgoing));
+		}
+	}
+
+	/**
+	 * Check a second level or steam reading in the same cycle is a transmission
+	 * failure.
+	 */
+	@Test
+	public void test_transmission_03() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		Message[] readings = { new Message(MessageKind.LEVEL_v, LEVEL),
+				new Message(MessageKind.STEAM_v, 0.0) };
+		for (Message reading : readings) {
+			SteamBoilerController controller = new SteamBoilerController(config);
+			boolean[] pumps = new boolean[config.getNumberOfPumps()];
+			startUp(controller, pumps);
+			Mailbox outgoing = clock(controller, pumps, pumps, new Message[] { reading });
+			assertTrue(outgoing.toString(), exactly(MODE_emergencystop).matches(outgoing));
+		}
+	}
+
+	// =====================================================================
+	// Large plants
+	// =====================================================================
+
+	/**
+	 * Check that on generated plants of up to 1024 pumps, a random set of failed
+	 * pumps is detected in one cycle and repaired in one cycle.
+	 */
+	@Test
+	public void test_large_01() {
+		Random random = new Random(1);
+		for (int numberOfPumps : PLANT_SIZES) {
+			SteamBoilerController controller = new SteamBoilerController(plant(numberOfPumps));
+			boolean[] pumps = new boolean[numberOfPumps];
+			startUp(controller, pumps);
+			int[] failed = sample(random, numberOfPumps, 1 + numberOfPumps / 8);
+			MessageMatcher[] detections = new MessageMatcher[failed.length + 1];
+			MessageMatcher[] acknowledgements = new MessageMatcher[failed.length + 1];
+			detections[0] = MODE_degraded;
+			acknowledgements[0] = MODE_normal;
+			for (int i = 0; i != failed.length; ++i) {
+				pumps[failed[i]] = true;
+				detections[i + 1] = PUMP_FAILURE_DETECTION(failed[i]);
+				acknowledgements[i + 1] = PUMP_REPAIRED_ACKNOWLEDGEMENT(failed[i]);
+			}
+			Mailbox outgoing = clock(controller, pumps, pumps);
+			assertTrue(numberOfPumps + " pumps", exactly(detections).matches(outgoing));
+			Arrays.fill(pumps, false);
+			outgoing = clock(controller, pumps, pumps, repairs(MessageKind.PUMP_REPAIRED_n, failed));
+			assertTrue(numberOfPumps + " pumps", exactly(acknowledgements).matches(outgoing));
+		}
+	}
+
+	/**
+	 * Check that on generated plants of up to 1024 pumps, a random set of pump
+	 * controllers failing as the physical units become ready is detected in one
+	 * cycle, and that a missing pump state is a transmission failure.
+	 */
+	@Test
+	public void test_large_02() {
+		Random random = new Random(2);
+		for (int numberOfPumps : PLANT_SIZES) {
+			SteamBoilerController controller = new SteamBoilerController(plant(numberOfPumps));
+			boolean[] pumps = new boolean[numberOfPumps];
+			boolean[] controllers = new boolean[numberOfPumps];
+			clock(controller, pumps, pumps, MessageKind.STEAM_BOILER_WAITING);
+			int[] failed = sample(random, numberOfPumps, 1 + numberOfPumps / 8);
+			MessageMatcher[] detections = new MessageMatcher[failed.length + 1];
+			detections[0] = MODE_degraded;
+			for (int i = 0; i != failed.length; ++i) {
+				controllers[failed[i]] = true;
+				detections[i + 1] = PUMP_CONTROL_FAILURE_DETECTION(failed[i]);
+			}
+			Mailbox outgoing = clock(controller, pumps, controllers, MessageKind.PHYSICAL_UNITS_READY);
+			assertTrue(numberOfPumps + " pumps", exactly(detections).matches(outgoing));
+			// Leave out the state of one pump
+			outgoing = clock(controller, Arrays.copyOf(pumps, numberOfPumps - 1), pumps);
+			assertTrue(numberOfPumps + " pumps", exactly(MODE_emergencystop).matches(outgoing));
+		}
+	}
+
+	// =====================================================================
+	// Messages sent
+	// =====================================================================
+
+	/**
+	 * Check two controllers of the same boiler, reacting to the same failures,
+	 * send the very same message instances, so no message is allocated per send.
+	 */
+	@Test
+	public void test_sent_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController first = new SteamBoilerController(config);
+		SteamBoilerController second = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		startUp(first, pumps);
+		startUp(second, pumps);
+		pumps[0] = true;
+		pumps[2] = true;
+		Mailbox expected = clock(first, pumps, pumps);
+		Mailbox actual = clock(second, pumps, pumps);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i != expected.size(); ++i) {
+			assertSame(expected.read(i), actual.read(i));
+		}
+	}
+
+	// =====================================================================
+	// Pump selection
+	// =====================================================================
+
+	/**
+	 * Check that on a plant with pumps of different capacities the controller
+	 * opens the subset of pumps whose capacity matches the inflow needed, and of
+	 * the subsets with that capacity the one with the fewest pumps.
+	 */
+	@Test
+	public void test_selection_01() {
+		SteamBoilerCharacteristics config = mixedPlant(1, 2, 2, 4);
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		startUp(controller, pumps);
+		// pump 3 alone and pumps 1 and 2 together both match
+		Mailbox outgoing = clock(controller, midpoint(config), 4, pumps, pumps, new Message[0]);
+		assertTrue(exactly(OpenPump(3)).matches(outgoing));
+	}
+
+	/**
+	 * Check that once a pump has failed, the subset is chosen from the working
+	 * pumps only.
+	 */
+	@Test
+	public void test_selection_02() {
+		SteamBoilerCharacteristics config = mixedPlant(1, 2, 2, 4);
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		double level = midpoint(config);
+		startUp(controller, pumps);
+		assertTrue(exactly(OpenPump(3))
+				.matches(clock(controller, level, 4, pumps, pumps, new Message[0])));
+		// pump 3 never opened
+		assertTrue(exactly(MODE_degraded, PUMP_FAILURE_DETECTION(3))
+				.matches(clock(controller, level, 4, pumps, pumps, new Message[0])));
+		Mailbox outgoing = clock(controller, level, 4, pumps, pumps,
+				repairs(MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n, 3));
+		assertTrue(exactly(OpenPump(1), OpenPump(2)).matches(outgoing));
+	}
+
+	/**
+	 * Check that on a plant with too many different pumps for the combination
+	 * table, the pumps are still chosen by capacity rather than in index order.
+	 */
+	@Test
+	public void test_selection_03() {
+		double[] capacities = new double[13];
+		for (int i = 0; i != capacities.length; ++i) {
+			capacities[i] = (i + 1) / 2.0;
+		}
+		SteamBoilerCharacteristics config = mixedPlant(capacities);
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		startUp(controller, pumps);
+		Mailbox outgoing = clock(controller, midpoint(config), 4, pumps, pumps, new Message[0]);
+		assertTrue(exactly(OpenPump(7)).matches(outgoing));
+	}
+
+	/**
+	 * Check that at the default period a level in the middle of the normal band
+	 * is held as it always was, without opening the valve, on a plant whose
+	 * pumps could raise the level past N2 in one cycle.
+	 */
+	@Test
+	public void test_selection_04() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		double band = config.getMaximalNormalLevel() - config.getMinimalNormalLevel();
+		config = config.setNumberOfPumps(4, band / 8);
+		SteamBoilerController controller = new SteamBoilerController(config);
+		boolean[] pumps = new boolean[config.getNumberOfPumps()];
+		startUp(controller, pumps);
+		for (int cycle = 0; cycle != 3; ++cycle) {
+			Mailbox outgoing = clock(controller, midpoint(config), 0, pumps, pumps, new Message[0]);
+			assertTrue(outgoing.toString(), !atleast(VALVE).matches(outgoing));
+			assertEquals(Mailbox.Mode.NORMAL, controller.getMode());
+		}
+	}
+
+	// =====================================================================
+	// Helpers
+	// =====================================================================
+
+	/**
+	 * Generate the characteristics of a plant with a given number of pumps,
+	 * whose pumps together have four times the capacity of the default pump.
+	 *
+	 * @param numberOfPumps
+	 *            The number of pumps.
+	 * @return The characteristics of the plant.
+	 */
+	private static SteamBoilerCharacteristics plant(int numberOfPumps) {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		return config.setNumberOfPumps(numberOfPumps, 4 * config.getPumpCapacity(0) / numberOfPumps);
+	}
+
+	/**
+	 * Generate the characteristics of a plant with pumps of the given capacities.
+	 *
+	 * @param capacities
+	 *            The capacity of each pump.
+	 * @return The characteristics of the plant.
+	 */
+	private static SteamBoilerCharacteristics mixedPlant(double... capacities) {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		config = config.setNumberOfPumps(capacities.length, capacities[0]);
+		for (int i = 0; i != capacities.length; ++i) {
+			config = config.setPumpCapacity(i, capacities[i]);
+		}
+		return config;
+	}
+
+	/**
+	 * Get the middle of the normal band of a plant, which is the level the
+	 * controller aims for.
+	 *
+	 * @param config
+	 *            The characteristics of the plant.
+	 * @return The middle of the normal band.
+	 */
+	private static double midpoint(SteamBoilerCharacteristics config) {
+		return config.getMinimalNormalLevel()
+				+ (config.getMaximalNormalLevel() - config.getMinimalNormalLevel()) / 2;
+	}
+
+	/**
+	 * Pick a number of distinct pumps at random, in ascending order.
+	 *
+	 * @param random
+	 *            The source of randomness.
+	 * @param numberOfPumps
+	 *            The number of pumps to pick from.
+	 * @param count
+	 *            The number of pumps to pick.
+	 * @return The pumps picked.
+	 */
+	private static int[] sample(Random random, int numberOfPumps, int count) {
+		boolean[] picked = new boolean[numberOfPumps];
+		for (int i = 0; i != count;) {
+			int pump = random.nextInt(numberOfPumps);
+			if (!picked[pump]) {
+				picked[pump] = true;
+				++i;
+			}
+		}
+		int[] pumps = new int[count];
+		for (int pump = 0, i = 0; pump != numberOfPumps; ++pump) {
+			if (picked[pump]) {
+				pumps[i++] = pump;
+			}
+		}
+		return pumps;
+	}
+
+	/**
+	 * Clock a controller with the pumps and pump controllers in agreement, sending
+	 * a repair for each of the given units until the controller acknowledges it,
+	 * as the physical units do, and count the cycles until the controller returns
+	 * to normal mode.
+	 *
+	 * @param controller
+	 *            The controller under test.
+	 * @param pumps
+	 *            The state reported by each pump and pump controller.
+	 * @param repaired
+	 *            The kind of the repair messages.
+	 * @param acknowledgement
+	 *            The kind of the acknowledgements.
+	 * @param units
+	 *            The units repaired.
+	 * @return The number of cycles taken to return to normal mode.
+	 */
+	private static int recoveryLatency(SteamBoilerController controller, boolean[] pumps,
+			MessageKind repaired, MessageKind acknowledgement, int... units) {
+		boolean[] acknowledged = new boolean[pumps.length];
+		for (int cycle = 1; cycle <= 10; ++cycle) {
+			int pending = 0;
+			int[] outstanding = new int[units.length];
+			for (int unit : units) {
+				if (!acknowledged[unit]) {
+					outstanding[pending++] = unit;
+				}
+			}
+			Mailbox outgoing = clock(controller, pumps, pumps,
+					repairs(repaired, Arrays.copyOf(outstanding, pending)));
+			for (int i = 0; i != outgoing.size(); ++i) {
+				Message message = outgoing.read(i);
+				if (message.getKind() == acknowledgement) {
+					acknowledged[message.getIntegerParameter()] = true;
+				}
+			}
+			if (controller.getMode() == Mailbox.Mode.NORMAL) {
+				for (int unit : units) {
+					assertTrue("unit " + unit + " not acknowledged", acknowledged[unit]);
+				}
+				return cycle;
+			}
+		}
+		fail("no return to normal mode");
+		return 0;
+	}
+
+	/**
+	 * Construct the repair messages for some units.
+	 *
+	 * @param kind
+	 *            The kind of the repair messages.
+	 * @param units
+	 *            The units repaired.
+	 * @return The repair messages.
+	 */
+	private static Message[] repairs(MessageKind kind, int... units) {
+		Message[] messages = new Message[units.length];
+		for (int i = 0; i != units.length; ++i) {
+			messages[i] = new Message(kind, units[i]);
+		}
+		return messages;
+	}
+
+	/**
+	 * Take a controller through initialisation into normal mode, with every pump
+	 * off.
+	 *
+	 * @param controller
+	 *            The controller under test.
+	 * @param pumps
+	 *            The state of the pumps, which must all be off.
+	 */
+	private static void startUp(SteamBoilerController controller, boolean[] pumps) {
+		assertTrue(exactly(MODE_initialisation, PROGRAM_READY)
+				.matches(clock(controller, pumps, pumps, MessageKind.STEAM_BOILER_WAITING)));
+		assertTrue(exactly(MODE_normal)
+				.matches(clock(controller, pumps, pumps, MessageKind.PHYSICAL_UNITS_READY)));
+	}
+
+	/**
+	 * Clock a controller once with the level at {@link #LEVEL} and no steam.
+	 *
+	 * @param controller
+	 *            The controller under test.
+	 * @param pumps
+	 *            The state reported by each pump.
+	 * @param controllers
+	 *            The state reported by each pump controller.
+	 * @param signals
+	 *            Any other messages to send, without parameters.
+	 * @return The messages sent by the controller.
+	 */
+	static Mailbox clock(SteamBoilerController controller, boolean[] pumps, boolean[] controllers,
+			MessageKind... signals) {
+		return clock(controller, pumps, controllers, new Message[0], signals);
+	}
+
+	/**
+	 * Clock a controller once with the level at {@link #LEVEL} and no steam.
+	 *
+	 * @param controller
+	 *            The controller under test.
+	 * @param pumps
+	 *            The state reported by each pump.
+	 * @param controllers
+	 *            The state reported by each pump controller.
+	 * @param extra
+	 *            Any other messages to send.
+	 * @param signals
+	 *            Any other messages to send, without parameters.
+	 * @return The messages sent by the controller.
+	 */
+	static Mailbox clock(SteamBoilerController controller, boolean[] pumps, boolean[] controllers,
+			Message[] extra, MessageKind... signals) {
+		return clock(controller, LEVEL, 0.0, pumps, controllers, extra, signals);
+	}
+
+	/**
+	 * Clock a controller once with a given level and steam.
+	 *
+	 * @param controller
+	 *            The controller under test.
+	 * @param level
+	 *            The level reported.
+	 * @param steam
+	 *            The steam reported.
+	 * @param pumps
+	 *            The state reported by each pump.
+	 * @param controllers
+	 *            The state reported by each pump controller.
+	 * @param extra
+	 *            Any other messages to send.
+	 * @param signals
+	 *            Any other messages to send, without parameters.
+	 * @return The messages sent by the controller.
+	 */
+	static Mailbox clock(SteamBoilerController controller, double level, double steam,
+			boolean[] pumps, boolean[] controllers, Message[] extra, MessageKind... signals) {
+		Mailbox incoming = new UnboundedMailbox(2 * pumps.length + 2 + extra.length + signals.length);
+		for (int i = 0; i != pumps.length; ++i) {
+			incoming.send(new Message(MessageKind.PUMP_STATE_n_b, i, pumps[i]));
+		}
+		for (int i = 0; i != controllers.length; ++i) {
+			incoming.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, controllers[i]));
+		}
+		incoming.send(new Message(MessageKind.LEVEL_v, level));
+		incoming.send(new Message(MessageKind.STEAM_v, steam));
+		for (Message message : extra) {
+			incoming.send(message);
+		}
+		for (MessageKind kind : signals) {
+			incoming.send(new Message(kind));
+		}
+		Mailbox outgoing = new UnboundedMailbox(16);
+		controller.clock(incoming, outgoing);
+		return outgoing;
+	}
+}
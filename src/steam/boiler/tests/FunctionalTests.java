@@ -1,5 +1,6 @@
 package steam.boiler.tests;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static steam.boiler.tests.TestUtils.LEVEL_FAILURE_DETECTION;
@@ -14,22 +15,30 @@ import static steam.boiler.tests.TestUtils.PUMP_CONTROL_FAILURE_DETECTION;
 import static steam.boiler.tests.TestUtils.PUMP_FAILURE_DETECTION;
 import static steam.boiler.tests.TestUtils.STEAM_FAILURE_DETECTION;
 import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clock;
 import static steam.boiler.tests.TestUtils.clockForWithout;
 import static steam.boiler.tests.TestUtils.clockOnceExpecting;
 import static steam.boiler.tests.TestUtils.clockUntil;
 import static steam.boiler.tests.TestUtils.exactly;
 
+import java.lang.ref.WeakReference;
+
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.ReadingHistory;
 import steam.boiler.core.SteamBoilerController;
+import steam.boiler.core.WhatIfQuery;
 import steam.boiler.model.LevelSensorModels;
 import steam.boiler.model.PhysicalUnits;
 import steam.boiler.model.PumpControllerModels;
 import steam.boiler.model.PumpModels;
 import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.Mailbox;
 import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
 
 /**
  * These tests are designed to test the functional requirements of the steam
@@ -220,6 +229,30 @@ public class FunctionalTests {
 		}
 	}
 
+	/**
+	 * Check the system can maintain the water level with pumps of different
+	 * capacities, where opening the lowest pumps first is not the best choice.
+	 */
+	@Test
+	public void test_normal_operation_05() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		config = config.setNumberOfPumps(4, config.getPumpCapacity(0));
+		config = config.setPumpCapacity(0, 1);
+		config = config.setPumpCapacity(1, 2);
+		config = config.setPumpCapacity(2, 5);
+		config = config.setPumpCapacity(3, 10);
+		SteamBoilerController controller = new SteamBoilerController(config);
+		PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+		model.setMode(PhysicalUnits.Mode.WAITING);
+		clockForWithout(560, controller, model, atleast(MODE_emergencystop));
+		if (model.getBoiler().getWaterLevel() > config.getMaximalNormalLevel()) {
+			fail("Water level above normal maximum with mixed pump capacities");
+		}
+		if (model.getBoiler().getWaterLevel() < config.getMinimalNormalLevel()) {
+			fail("Water level below normal minimum with mixed pump capacities");
+		}
+	}
+
 	/**
 	 * Operate the steam boiler system for a given amount of time, and with a given
 	 * number of pumps. Since the system it otherwise ideal, we're expecting the
@@ -739,6 +772,250 @@ public class FunctionalTests {
 	// amount of time to check
 	// that it manages to keep within the minimal/maximal limit levels, etc.
 
+	// =====================================================================
+	// What-if
+	// =====================================================================
+
+	/**
+	 * Check a what-if query reports rescue mode for a hypothetical level sensor
+	 * failure, without changing the mode of the live controller.
+	 */
+	@Test
+	public void test_whatif_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+		model.setMode(PhysicalUnits.Mode.WAITING);
+		clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+		assertEquals(Mailbox.Mode.NORMAL, controller.getMode());
+		// Build the hypothetical frame from a broken level sensor.
+		model.setLevelSensor(new LevelSensorModels.Stuck(config.getCapacity()));
+		Mailbox frame = new UnboundedMailbox(100);
+		model.transmit(frame);
+		model.setLevelSensor(new LevelSensorModels.Ideal(model));
+		// Ask the question more than once, the answer should not change.
+		WhatIfQuery query = controller.newWhatIfQuery();
+		for (int i = 0; i != 3; ++i) {
+			Mailbox commands = new UnboundedMailbox(100);
+			assertEquals(Mailbox.Mode.RESCUE, query.evaluate(frame, commands));
+			assertTrue(atleast(MODE_rescue, LEVEL_FAILURE_DETECTION).matches(commands));
+		}
+		// The live controller carries on as before.
+		assertEquals(Mailbox.Mode.NORMAL, controller.getMode());
+		clockForWithout(30, controller, model, atleast(MODE_emergencystop));
+	}
+
+	// =====================================================================
+	// History
+	// =====================================================================
+
+	/**
+	 * Check the reading history follows the controller through start up and into
+	 * normal mode, and that its statistics agree with the readings it holds.
+	 */
+	@Test
+	public void test_history_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+		model.setMode(PhysicalUnits.Mode.WAITING);
+		clockForWithout(120, controller, model, atleast(MODE_emergencystop));
+		ReadingHistory history = controller.getHistory();
+		assertEquals(SteamBoilerController.HISTORY_CYCLES, history.size());
+		assertEquals(Mailbox.Mode.NORMAL, history.getMode(0));
+		double total = 0;
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = 0; i != history.size(); ++i) {
+			total += history.getLevel(i);
+			min = Math.min(min, history.getLevel(i));
+			max = Math.max(max, history.getLevel(i));
+			assertTrue(history.getPumpsOn(i) <= config.getNumberOfPumps());
+		}
+		assertEquals(total / history.size(), history.getMeanLevel(), 1e-6);
+		assertEquals(min, history.getMinLevel(), 0);
+		assertEquals(max, history.getMaxLevel(), 0);
+	}
+
+	// =====================================================================
+	// Control period
+	// =====================================================================
+
+	/**
+	 * Check the control period is part of the compiled configuration and drives
+	 * the conversion from rates to volumes per cycle.
+	 */
+	@Test
+	public void test_period_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		CompiledConfiguration standard = CompiledConfiguration.of(config);
+		CompiledConfiguration fast = CompiledConfiguration.of(config, 500);
+		assertEquals(5000, standard.getPeriodMillis());
+		assertEquals(config.getMaximualSteamRate() * 5, standard.getCycleSteamVolume(), 1e-9);
+		assertEquals(config.getMaximualSteamRate() / 2, fast.getCycleSteamVolume(), 1e-9);
+		assertEquals(10, fast.toRate(5), 1e-9);
+		assertEquals(40, standard.scaleToPeriod(40), 1e-9);
+		assertEquals(4, fast.scaleToPeriod(40), 1e-9);
+		assertTrue(fast == CompiledConfiguration.of(config, 500));
+		assertTrue(fast != standard);
+		try {
+			CompiledConfiguration.of(config, 50);
+			fail("accepted a 50ms control period");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Check a controller clocked at sub-second periods, and at the default
+	 * period, keeps the water level between N1 and N2 once it reaches normal
+	 * mode.
+	 */
+	@Test
+	public void test_period_02() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		for (int period : new int[] { 100, 500, 5000 }) {
+			SteamBoilerController controller = new SteamBoilerController(
+					CompiledConfiguration.of(config, period));
+			PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+			model.getBoiler().pumpInWater(average(config.getMinimalNormalLevel(),
+					config.getMaximalNormalLevel()));
+			model.setMode(PhysicalUnits.Mode.WAITING);
+			boolean normal = false;
+			for (int elapsed = 0; elapsed <= 600_000; elapsed += 100) {
+				model.clock(100);
+				double level = model.getBoiler().getWaterLevel();
+				if (normal) {
+					String when = " (after " + elapsed + "ms at a " + period + "ms period)";
+					assertTrue("Water level below normal minimum" + when,
+							level >= config.getMinimalNormalLevel());
+					assertTrue("Water level above normal maximum" + when,
+							level <= config.getMaximalNormalLevel());
+				}
+				if ((elapsed % period) == 0) {
+					Mailbox input = new UnboundedMailbox(100);
+					Mailbox output = new UnboundedMailbox(100);
+					model.transmit(input);
+					controller.clock(input, output);
+					model.receive(output);
+					normal |= controller.getMode() == Mailbox.Mode.NORMAL;
+				}
+			}
+			assertEquals(Mailbox.Mode.NORMAL, controller.getMode());
+		}
+	}
+
+	// =====================================================================
+	// Compiled configuration
+	// =====================================================================
+
+	/**
+	 * Check equal characteristics give the same compiled configuration, even
+	 * when they are different objects, and that any difference in the
+	 * characteristics or the period gives a different one.
+	 */
+	@Test
+	public void test_compiled_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		int pumps = config.getNumberOfPumps();
+		SteamBoilerCharacteristics first = config.setNumberOfPumps(pumps, 3);
+		SteamBoilerCharacteristics second = config.setNumberOfPumps(pumps, 3);
+		CompiledConfiguration compiled = CompiledConfiguration.of(first);
+		assertTrue(compiled == CompiledConfiguration.of(second));
+		assertTrue(compiled != CompiledConfiguration.of(first, 1000));
+		assertTrue(compiled != CompiledConfiguration.of(first.setPumpCapacity(pumps - 1, 4)));
+	}
+
+	/**
+	 * Check the thresholds derived from the characteristics when the
+	 * configuration is compiled.
+	 */
+	@Test
+	public void test_compiled_02() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		double steam = config.getMaximualSteamRate();
+		// with pumps of 0.4 times the steam rate, two pumps fall short of it
+		config = config.setNumberOfPumps(4, 0.4 * steam);
+		config = config.setPumpCapacity(3, steam);
+		CompiledConfiguration compiled = CompiledConfiguration.of(config, 250);
+		assertEquals(average(config.getMinimalNormalLevel(), config.getMaximalNormalLevel()),
+				compiled.getNormalMidpoint(), 1e-9);
+		assertEquals(steam / 4, compiled.getCycleSteamVolume(), 1e-9);
+		assertEquals(0.25, compiled.getPeriodSeconds(), 1e-9);
+		assertEquals(2.5, compiled.toCycleVolume(10), 1e-9);
+		assertEquals(10, compiled.toRate(compiled.toCycleVolume(10)), 1e-9);
+		assertEquals(0, compiled.getTotalCapacity(0), 1e-9);
+		assertEquals(1.2 * steam, compiled.getTotalCapacity(3), 1e-9);
+		assertEquals(2.2 * steam, compiled.getTotalCapacity(4), 1e-9);
+		assertEquals(2, compiled.getInitialNumberOfPumps());
+	}
+
+	/**
+	 * Check a compiled configuration nothing uses any more is not kept alive by
+	 * the sharing of configurations.
+	 */
+	@Test
+	public void test_compiled_03() throws InterruptedException {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		WeakReference<CompiledConfiguration> compiled = new WeakReference<>(
+				CompiledConfiguration.of(config.setPumpCapacity(0, 1.25), 4321));
+		for (int i = 0; i != 100 && compiled.get() != null; ++i) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(compiled.get() == null);
+	}
+
+	// =====================================================================
+	// Reload
+	// =====================================================================
+
+	/**
+	 * Check a controller in normal mode takes on a new pump capacity at the start
+	 * of the next cycle, without losing its mode.
+	 */
+	@Test
+	public void test_reload_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+		double midpoint = average(config.getMinimalNormalLevel(), config.getMaximalNormalLevel());
+		model.getBoiler().pumpInWater(midpoint);
+		model.setMode(PhysicalUnits.Mode.WAITING);
+		clockOnceExpecting(controller, model, exactly(MODE_initialisation, PROGRAM_READY));
+		clockOnceExpecting(controller, model, exactly(MODE_normal));
+		CompiledConfiguration before = controller.getConfiguration();
+		controller.reload(config.setPumpCapacity(0, config.getPumpCapacity(0) + 1));
+		// Nothing changes until the next cycle
+		assertTrue(controller.isReloadPending());
+		assertTrue(before == controller.getConfiguration());
+		// A cycle in normal mode does not repeat the mode
+		Mailbox received = clock(0, 0, controller, model);
+		assertTrue(received != null && !atleast(MODE_emergencystop).matches(received));
+		assertTrue(!controller.isReloadPending());
+		assertEquals(config.getPumpCapacity(0) + 1, controller.getConfiguration().getPumpCapacity(0),
+				1e-9);
+		assertEquals(before.getPeriodMillis(), controller.getConfiguration().getPeriodMillis());
+		assertEquals(Mailbox.Mode.NORMAL, controller.getMode());
+	}
+
+	/**
+	 * Check a reload which changes the number of pumps is refused.
+	 */
+	@Test
+	public void test_reload_02() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		try {
+			int pumps = config.getNumberOfPumps() - 1;
+			controller.reload(config.setNumberOfPumps(pumps, config.getPumpCapacity(0)));
+			fail("reloaded with a different number of pumps");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertTrue(!controller.isReloadPending());
+	}
+
 	// =====================================================================
 	// Helpers
 	// =====================================================================
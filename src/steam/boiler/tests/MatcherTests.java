@@ -0,0 +1,263 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.TestUtils.ClosePump;
+import static steam.boiler.tests.TestUtils.MODE_degraded;
+import static steam.boiler.tests.TestUtils.MODE_normal;
+import static steam.boiler.tests.TestUtils.OpenPump;
+import static steam.boiler.tests.TestUtils.PUMP_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.VALVE;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.exactly;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.tests.TestUtils.MessageMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check the mailbox matchers used by the other tests. Matchers of
+ * concrete messages are compiled so that a mailbox is matched in a single pass,
+ * and the outcome must be the same as matching each matcher against the whole
+ * mailbox in turn. Wrapping a concrete matcher hides it from the compilation,
+ * so the wrapped matchers give the outcome of the original implementation.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MatcherTests {
+	/**
+	 * The number of random mailboxes matched by each test.
+	 */
+	private static final int MAILBOXES = 200_000;
+	/**
+	 * The number of pumps named by the random messages.
+	 */
+	private static final int PUMPS = 3;
+
+	// =====================================================================
+	// Compiled matchers
+	// =====================================================================
+
+	/**
+	 * Check compiled matchers agree with matching each matcher in turn on random
+	 * mailboxes of up to three messages, where messages and matchers often
+	 * clash and repeat.
+	 */
+	@Test
+	public void test_compiled_01() {
+		Random random = new Random(7);
+		int[] matched = new int[2];
+		for (int i = 0; i != MAILBOXES; ++i) {
+			MessageMatcher[] matchers = new MessageMatcher[random.nextInt(4)];
+			for (int j = 0; j != matchers.length; ++j) {
+				matchers[j] = matcher(random);
+			}
+			Mailbox mailbox = new UnboundedMailbox(4);
+			for (int size = random.nextInt(4); size != 0; --size) {
+				mailbox.send(message(random));
+			}
+			check(matchers, mailbox, matched);
+		}
+		// Both outcomes must have come up often enough to mean something
+		assertTrue(matched[0] > MAILBOXES / 100);
+		assertTrue(matched[1] > matched[0]);
+	}
+
+	/**
+	 * Check compiled matchers agree with matching each matcher in turn when
+	 * there are more than 64 of them, so the satisfied matchers no longer fit in
+	 * a single <code>long</code>. The matchers are made from the messages, in a
+	 * different order, with a few of them changed.
+	 */
+	@Test
+	public void test_compiled_02() {
+		Random random = new Random(8);
+		int[] matched = new int[2];
+		for (int i = 0; i != MAILBOXES / 100; ++i) {
+			int size = 60 + random.nextInt(20);
+			Mailbox mailbox = new UnboundedMailbox(size);
+			MessageMatcher[] matchers = new MessageMatcher[size - 1 + random.nextInt(3)];
+			for (int j = 0; j != size; ++j) {
+				Message message = random.nextInt(10) < 9 ? new Message(MessageKind.OPEN_PUMP_n, j)
+						: message(random);
+				mailbox.send(message);
+				if (j < matchers.length) {
+					matchers[j] = random.nextInt(40) == 0 ? matcher(random) : matcherOf(message);
+				}
+			}
+			for (int j = size; j < matchers.length; ++j) {
+				matchers[j] = matcher(random);
+			}
+			Collections.shuffle(Arrays.asList(matchers), random);
+			check(matchers, mailbox, matched);
+		}
+		assertTrue(matched[0] > 0);
+		assertTrue(matched[1] > matched[0]);
+		assertTrue(matched[1] < MAILBOXES / 100);
+	}
+
+	/**
+	 * Check a message is only taken by one matcher when every message must be
+	 * matched, but may satisfy several when only some must be.
+	 */
+	@Test
+	public void test_compiled_03() {
+		Mailbox mailbox = new UnboundedMailbox(2);
+		mailbox.send(new Message(MessageKind.VALVE));
+		mailbox.send(new Message(MessageKind.OPEN_PUMP_n, 1));
+		assertTrue(exactly(OpenPump(1), VALVE).matches(mailbox));
+		assertTrue(!exactly(VALVE, VALVE, OpenPump(1)).matches(mailbox));
+		assertTrue(atleast(VALVE, VALVE).matches(mailbox));
+		assertTrue(!exactly(VALVE).matches(mailbox));
+		assertTrue(!atleast(OpenPump(2)).matches(mailbox));
+	}
+
+	// =====================================================================
+	// Helpers
+	// =====================================================================
+
+	/**
+	 * Match a mailbox with both <code>exactly</code> and <code>atleast</code>,
+	 * once with the matchers as given and once with each of them wrapped, and
+	 * check the outcomes agree.
+	 *
+	 * @param matchers
+	 *            The matchers.
+	 * @param mailbox
+	 *            The mailbox.
+	 * @param matched
+	 *            The number of matches of <code>exactly</code> and of
+	 *            <code>atleast</code> so far, which are updated.
+	 */
+	private static void check(MessageMatcher[] matchers, Mailbox mailbox, int[] matched) {
+		MessageMatcher[] wrapped = new MessageMatcher[matchers.length];
+		for (int i = 0; i != matchers.length; ++i) {
+			wrapped[i] = wrap(matchers[i]);
+		}
+		boolean expected = exactly(wrapped).matches(mailbox);
+		if (expected != exactly(matchers).matches(mailbox)) {
+			fail("exactly " + Arrays.toString(matchers) + " on " + contents(mailbox));
+		}
+		matched[0] += expected ? 1 : 0;
+		expected = atleast(wrapped).matches(mailbox);
+		if (expected != atleast(matchers).matches(mailbox)) {
+			fail("atleast " + Arrays.toString(matchers) + " on " + contents(mailbox));
+		}
+		matched[1] += expected ? 1 : 0;
+	}
+
+	/**
+	 * Wrap a matcher so that it is matched by the original implementation rather
+	 * than compiled.
+	 *
+	 * @param matcher
+	 *            The matcher to wrap.
+	 * @return The wrapped matcher.
+	 */
+	private static MessageMatcher wrap(MessageMatcher matcher) {
+		return new MessageMatcher() {
+			@Override
+			public int match(Mailbox mailbox) {
+				return matcher.match(mailbox);
+			}
+		};
+	}
+
+	/**
+	 * Pick a random matcher of one of the kinds the random messages have.
+	 *
+	 * @param random
+	 *            The source of randomness.
+	 * @return The matcher.
+	 */
+	private static MessageMatcher matcher(Random random) {
+		switch (random.nextInt(6)) {
+		case 0:
+			return MODE_normal;
+		case 1:
+			return MODE_degraded;
+		case 2:
+			return OpenPump(random.nextInt(PUMPS));
+		case 3:
+			return ClosePump(random.nextInt(PUMPS));
+		case 4:
+			return VALVE;
+		default:
+			return PUMP_FAILURE_DETECTION(random.nextInt(PUMPS));
+		}
+	}
+
+	/**
+	 * Construct a matcher for a message of one of the kinds the random messages
+	 * have.
+	 *
+	 * @param message
+	 *            The message.
+	 * @return The matcher.
+	 */
+	private static MessageMatcher matcherOf(Message message) {
+		switch (message.getKind()) {
+		case MODE_m:
+			return message.getModeParameter() == Mailbox.Mode.NORMAL ? MODE_normal : MODE_degraded;
+		case OPEN_PUMP_n:
+			return OpenPump(message.getIntegerParameter());
+		case CLOSE_PUMP_n:
+			return ClosePump(message.getIntegerParameter());
+		case VALVE:
+			return VALVE;
+		default:
+			return PUMP_FAILURE_DETECTION(message.getIntegerParameter());
+		}
+	}
+
+	/**
+	 * Pick a random message.
+	 *
+	 * @param random
+	 *            The source of randomness.
+	 * @return The message.
+	 */
+	private static Message message(Random random) {
+		switch (random.nextInt(6)) {
+		case 0:
+			return new Message(MessageKind.MODE_m, Mailbox.Mode.NORMAL);
+		case 1:
+			return new Message(MessageKind.MODE_m, Mailbox.Mode.DEGRADED);
+		case 2:
+			return new Message(MessageKind.OPEN_PUMP_n, random.nextInt(PUMPS));
+		case 3:
+			return new Message(MessageKind.CLOSE_PUMP_n, random.nextInt(PUMPS));
+		case 4:
+			return new Message(MessageKind.VALVE);
+		default:
+			return new Message(MessageKind.PUMP_FAILURE_DETECTION_n, random.nextInt(PUMPS));
+		}
+	}
+
+	/**
+	 * Describe the messages in a mailbox.
+	 *
+	 * @param mailbox
+	 *            The mailbox.
+	 * @return The messages, one after the other.
+	 */
+	private static String contents(Mailbox mailbox) {
+		StringBuilder contents = new StringBuilder("[");
+		for (int i = 0; i != mailbox.size(); ++i) {
+			if (i != 0) {
+				contents.append(", ");
+			}
+			contents.append(mailbox.read(i));
+		}
+		return contents.append(']').toString();
+	}
+}
@@ -0,0 +1,393 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.MODE_initialisation;
+import static steam.boiler.tests.TestUtils.PROGRAM_READY;
+import static steam.boiler.tests.TestUtils.atleast;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.CompiledConfiguration;
+import steam.boiler.core.SteamBoilerController;
+import steam.boiler.runtime.BoilerRuntime;
+import steam.boiler.runtime.LatestSlot;
+import steam.boiler.runtime.MailboxExchange;
+import steam.boiler.runtime.SampleAccumulator;
+import steam.boiler.runtime.SensorAggregator;
+import steam.boiler.runtime.TimeSource;
+import steam.boiler.simulation.InputFrame;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check how frames are handed between the physical units and the
+ * controller: that a latest slot keeps only the newest value and counts every
+ * value it drops, that high-rate sensor readings are reduced once per cycle,
+ * and that a runtime ticks a controller through an exchange.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RuntimeTests {
+	/**
+	 * The number of values handed over by the stress test.
+	 */
+	private static final int VALUES = 1_000_000;
+	/**
+	 * The signals of a frame while the physical units wait for the program.
+	 */
+	private static final String WAITING = "2";
+	/**
+	 * The signals of a frame once the physical units are ready.
+	 */
+	private static final String READY = "1";
+
+	// =====================================================================
+	// Latest slot
+	// =====================================================================
+
+	/**
+	 * Check a value not yet taken is replaced and counted as dropped, and that
+	 * each value is taken at most once.
+	 */
+	@Test
+	public void test_slot_01() {
+		LatestSlot<String> slot = new LatestSlot<>();
+		assertEquals(null, slot.poll());
+		assertEquals(null, slot.offer("a"));
+		assertEquals("a", slot.offer("b"));
+		assertEquals("b", slot.offer("c"));
+		assertEquals("c", slot.poll());
+		assertEquals(null, slot.poll());
+		assertEquals(null, slot.offer("d"));
+		assertEquals("d", slot.poll());
+		assertEquals(4, slot.getOffered());
+		assertEquals(2, slot.getOverwritten());
+	}
+
+	/**
+	 * Check a consumer polling flat out while a producer offers never sees a
+	 * value older than one it has already taken, and that every value offered
+	 * is either taken or counted as dropped.
+	 */
+	@Test
+	public void test_slot_02() throws InterruptedException {
+		LatestSlot<Integer> slot = new LatestSlot<>();
+		AtomicReference<@Nullable String> error = new AtomicReference<>();
+		long[] taken = new long[1];
+		Thread consumer = new Thread(() -> {
+			int last = -1;
+			while (last != VALUES - 1) {
+				Integer value = slot.poll();
+				if (value != null) {
+					if (value.intValue() <= last) {
+						error.compareAndSet(null, "took " + value + " after " + last);
+					}
+					last = value.intValue();
+					taken[0]++;
+				}
+			}
+		});
+		consumer.start();
+		for (int i = 0; i != VALUES; ++i) {
+			slot.offer(Integer.valueOf(i));
+		}
+		consumer.join();
+		assertEquals(null, error.get());
+		assertEquals(VALUES, slot.getOffered());
+		assertEquals(VALUES, taken[0] + slot.getOverwritten());
+	}
+
+	// =====================================================================
+	// Sample accumulator
+	// =====================================================================
+
+	/**
+	 * Check a cycle of readings is reduced to its latest, median, minimum and
+	 * maximum, and that a cycle without readings reduces to nothing.
+	 */
+	@Test
+	public void test_accumulator_01() {
+		SampleAccumulator accumulator = new SampleAccumulator(8);
+		for (double value : new double[] { 5, 1, 4, 2, 3 }) {
+			accumulator.add(value);
+		}
+		assertEquals(5, accumulator.reduce());
+		assertEquals(5, accumulator.getCount());
+		assertEquals(3.0, accumulator.getLatest(), 0.0);
+		assertEquals(3.0, accumulator.getMedian(), 0.0);
+		assertEquals(1.0, accumulator.getMinimum(), 0.0);
+		assertEquals(5.0, accumulator.getMaximum(), 0.0);
+		// With an even number of readings the median is the lower middle one
+		for (double value : new double[] { 7, 9, 6, 8 }) {
+			accumulator.add(value);
+		}
+		assertEquals(4, accumulator.reduce());
+		assertEquals(8.0, accumulator.getLatest(), 0.0);
+		assertEquals(7.0, accumulator.getMedian(), 0.0);
+		assertEquals(6.0, accumulator.getMinimum(), 0.0);
+		assertEquals(9.0, accumulator.getMaximum(), 0.0);
+		assertEquals(0, accumulator.reduce());
+		assertEquals(0, accumulator.getCount());
+		assertTrue(Double.isNaN(accumulator.getLatest()));
+		assertTrue(Double.isNaN(accumulator.getMedian()));
+		assertTrue(Double.isNaN(accumulator.getMinimum()));
+		assertTrue(Double.isNaN(accumulator.getMaximum()));
+	}
+
+	/**
+	 * Check that when more readings arrive in a cycle than the accumulator
+	 * keeps, only the most recent are reduced.
+	 */
+	@Test
+	public void test_accumulator_02() {
+		SampleAccumulator accumulator = new SampleAccumulator(3);
+		for (int i = 1; i <= 10; ++i) {
+			accumulator.add(i);
+		}
+		assertEquals(3, accumulator.reduce());
+		assertEquals(10.0, accumulator.getLatest(), 0.0);
+		assertEquals(9.0, accumulator.getMedian(), 0.0);
+		assertEquals(8.0, accumulator.getMinimum(), 0.0);
+		assertEquals(10.0, accumulator.getMaximum(), 0.0);
+		accumulator.add(11);
+		assertEquals(1, accumulator.reduce());
+		assertEquals(11.0, accumulator.getMedian(), 0.0);
+	}
+
+	/**
+	 * Check a reducer running flat out while a sensor adds readings far faster
+	 * than a small ring holds never reduces a reading the sensor has lapped.
+	 * The readings count up, so each cycle must be a run of consecutive values
+	 * ending at its latest reading, and must follow the previous cycle.
+	 */
+	@Test
+	public void test_accumulator_03() throws InterruptedException {
+		SampleAccumulator accumulator = new SampleAccumulator(3);
+		Thread sensor = new Thread(() -> {
+			for (int i = 0; i != VALUES; ++i) {
+				accumulator.add(i);
+			}
+		});
+		sensor.start();
+		double last = -1;
+		long cycles = 0;
+		while (last != VALUES - 1) {
+			int count = accumulator.reduce();
+			if (count == 0) {
+				continue;
+			}
+			double latest = accumulator.getLatest();
+			String cycle = count + " readings ending at " + latest + " after " + last;
+			assertTrue(cycle, latest > last);
+			assertEquals(cycle, latest, accumulator.getMaximum(), 0.0);
+			assertEquals(cycle, latest - count + 1, accumulator.getMinimum(), 0.0);
+			assertEquals(cycle, latest - count / 2, accumulator.getMedian(), 0.0);
+			last = latest;
+			cycles++;
+		}
+		sensor.join();
+		assertTrue(cycles > 0);
+	}
+
+	// =====================================================================
+	// Mailbox exchange
+	// =====================================================================
+
+	/**
+	 * Check a tick clocks the controller with the latest incoming mailbox only,
+	 * that outgoing mailboxes the gateway has not taken are sent with the next,
+	 * and that a tick without a new mailbox is a transmission failure.
+	 */
+	@Test
+	public void test_exchange_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(config);
+		MailboxExchange exchange = new MailboxExchange();
+		// A transmission failure, replaced before the tick by a valid frame
+		exchange.publishIncoming(new UnboundedMailbox(1));
+		exchange.publishIncoming(frame(config, WAITING));
+		assertTrue(exchange.tick(controller));
+		assertEquals(1, exchange.getDroppedIncoming());
+		assertEquals(Mailbox.Mode.INITIALISATION, controller.getMode());
+		Mailbox outgoing = exchange.takeOutgoing();
+		assertTrue(outgoing != null && atleast(MODE_initialisation, PROGRAM_READY).matches(outgoing));
+		assertEquals(null, exchange.takeOutgoing());
+		// Two ticks without the gateway taking the first
+		exchange.publishIncoming(frame(config, WAITING));
+		assertTrue(exchange.tick(controller));
+		Mailbox first = exchange.takeOutgoing();
+		assertTrue(first != null);
+		exchange.publishIncoming(frame(config, WAITING));
+		assertTrue(exchange.tick(controller));
+		exchange.publishIncoming(frame(config, READY));
+		assertTrue(exchange.tick(controller));
+		assertEquals(1, exchange.getMergedOutgoing());
+		assertEquals(Mailbox.Mode.NORMAL, controller.getMode());
+		outgoing = exchange.takeOutgoing();
+		assertTrue(outgoing != null && first != null && outgoing.size() == first.size() + 1);
+		assertEquals(Mailbox.Mode.NORMAL, outgoing.read(outgoing.size() - 1).getModeParameter());
+		// No frame at all
+		assertEquals(0, exchange.getMissedTicks());
+		assertTrue(!exchange.tick(controller));
+		assertEquals(1, exchange.getMissedTicks());
+		assertEquals(Mailbox.Mode.EMERGENCY_STOP, controller.getMode());
+		outgoing = exchange.takeOutgoing();
+		assertTrue(outgoing != null && atleast(MODE_emergencystop).matches(outgoing));
+	}
+
+	/**
+	 * Check a runtime ticks a controller through an exchange, taking frames the
+	 * physical units publish on their own thread.
+	 */
+	@Test
+	public void test_exchange_02() throws InterruptedException {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(
+				CompiledConfiguration.of(config, 100));
+		MailboxExchange exchange = new MailboxExchange();
+		try (BoilerRuntime runtime = new BoilerRuntime()) {
+			BoilerRuntime.Boiler boiler = runtime.start(controller, exchange, TimeSource.SYSTEM);
+			long end = System.nanoTime() + 10_000_000_000L;
+			while (controller.getMode() != Mailbox.Mode.NORMAL) {
+				if (System.nanoTime() - end > 0) {
+					fail("still in " + controller.getMode() + " after " + boiler.getCycles() + " cycles");
+				}
+				exchange.publishIncoming(frame(config, boiler.getCycles() < 3 ? WAITING : READY));
+				exchange.takeOutgoing();
+				Thread.sleep(10);
+			}
+			assertTrue(boiler.getCycles() >= 4);
+			assertEquals(null, boiler.getFailure());
+		}
+	}
+
+	/**
+	 * Check an exchange with an aggregator replaces the level and steam readings
+	 * of the incoming mailbox with the statistics of the cycle, and leaves a
+	 * reading alone if its sensor reported nothing.
+	 */
+	@Test
+	public void test_exchange_03() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SensorAggregator aggregator = new SensorAggregator(16, SensorAggregator.Statistic.MEDIAN,
+				SensorAggregator.Statistic.MAXIMUM);
+		Mailbox incoming = frame(config, WAITING);
+		double midpoint = level(incoming);
+		aggregator.addLevel(midpoint - 10);
+		aggregator.addLevel(config.getCapacity());
+		aggregator.addLevel(midpoint + 10);
+		aggregator.addSteam(0);
+		aggregator.addSteam(1);
+		Mailbox aggregated = aggregator.aggregate(incoming);
+		assertEquals(incoming.size(), aggregated.size());
+		assertEquals(midpoint + 10, level(aggregated), 0.0);
+		assertEquals(1.0, reading(aggregated, MessageKind.STEAM_v), 0.0);
+		// Nothing reported, so the readings of the mailbox stand
+		aggregated = aggregator.aggregate(incoming);
+		assertEquals(midpoint, level(aggregated), 0.0);
+		assertEquals(0.0, reading(aggregated, MessageKind.STEAM_v), 0.0);
+		// The exchange reduces the readings once per tick
+		MailboxExchange exchange = new MailboxExchange(aggregator);
+		SteamBoilerController controller = new SteamBoilerController(config);
+		aggregator.addLevel(midpoint);
+		aggregator.addLevel(midpoint + 1);
+		exchange.publishIncoming(incoming);
+		assertTrue(exchange.tick(controller));
+		assertEquals(2, aggregator.getLevel().getCount());
+		assertEquals(0, aggregator.getSteam().getCount());
+		assertEquals(Mailbox.Mode.INITIALISATION, controller.getMode());
+	}
+
+	/**
+	 * Check a runtime stops a boiler whose physical units stop publishing
+	 * frames, rather than waiting for them for ever.
+	 */
+	@Test
+	public void test_exchange_04() throws InterruptedException {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		SteamBoilerController controller = new SteamBoilerController(
+				CompiledConfiguration.of(config, 100));
+		MailboxExchange exchange = new MailboxExchange();
+		exchange.publishIncoming(frame(config, WAITING));
+		try (BoilerRuntime runtime = new BoilerRuntime()) {
+			BoilerRuntime.Boiler boiler = runtime.start(controller, exchange, TimeSource.SYSTEM);
+			long end = System.nanoTime() + 10_000_000_000L;
+			while (controller.getMode() != Mailbox.Mode.EMERGENCY_STOP) {
+				if (System.nanoTime() - end > 0) {
+					fail("still in " + controller.getMode() + " after " + boiler.getCycles() + " cycles");
+				}
+				Thread.sleep(10);
+			}
+			assertTrue(exchange.getMissedTicks() > 0);
+		}
+	}
+
+	// =====================================================================
+	// Helpers
+	// =====================================================================
+
+	/**
+	 * Construct an incoming mailbox of a healthy boiler at its normal midpoint,
+	 * with no steam and every pump closed.
+	 *
+	 * @param config
+	 *            The characteristics of the boiler.
+	 * @param signals
+	 *            The signals in the frame, as a bitmap.
+	 * @return The mailbox.
+	 */
+	private static Mailbox frame(SteamBoilerCharacteristics config, String signals) {
+		int pumps = config.getNumberOfPumps();
+		StringBuilder closed = new StringBuilder();
+		for (int i = 0; i != pumps; ++i) {
+			closed.append('0');
+		}
+		double midpoint = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+		InputFrame frame = new InputFrame(pumps);
+		frame.decode(midpoint + " 0.0 " + closed + " " + closed + " " + signals + " -1 -1 -1 -1 0");
+		Mailbox mailbox = new UnboundedMailbox(2 * pumps + 4);
+		frame.writeTo(mailbox);
+		return mailbox;
+	}
+
+	/**
+	 * Find the level reading of a mailbox.
+	 *
+	 * @param mailbox
+	 *            The mailbox.
+	 * @return The reading.
+	 */
+	private static double level(Mailbox mailbox) {
+		return reading(mailbox, MessageKind.LEVEL_v);
+	}
+
+	/**
+	 * Find a reading of a mailbox.
+	 *
+	 * @param mailbox
+	 *            The mailbox.
+	 * @param kind
+	 *            The kind of the reading.
+	 * @return The reading.
+	 */
+	private static double reading(Mailbox mailbox, MessageKind kind) {
+		for (int i = 0; i != mailbox.size(); ++i) {
+			Message message = mailbox.read(i);
+			if (message.getKind() == kind) {
+				return message.getDoubleParameter();
+			}
+		}
+		fail("no " + kind + " in mailbox");
+		return Double.NaN;
+	}
+}
@@ -11,12 +11,16 @@ import steam.boiler.model.PumpControllerModels;
 import steam.boiler.model.PumpModels;
 import steam.boiler.model.SteamBoilerModels;
 import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.Mailbox;
 import steam.boiler.util.SteamBoilerCharacteristics;
 import steam.boiler.util.UnboundedMailbox;
 import steam.boiler.util.Mailbox.*;
 
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static steam.boiler.tests.TestUtils.*;
 
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -392,4 +396,107 @@ public class SafetyTests {
 		// We should now immediately enter emergency stop!
 		clockUntil(120,controller, model, atleast(MODE_emergencystop, PUMP_CONTROL_FAILURE_DETECTION(0)));
 	}
+
+	// ======================================================================
+	// Early warning
+	// ======================================================================
+
+	/**
+	 * Check the limit forecast warns of the level falling below the minimum limit
+	 * before the emergency stop happens, when all pumps are stuck closed, and
+	 * that acting on the warning opens more pumps in the cycle it is given. The
+	 * pumps never start, so this cannot delay the stop, but it must not bring it
+	 * forward either.
+	 */
+	@Test
+	public void safetytest_early_warning_15() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		Consumer<PhysicalUnits> fault = (PhysicalUnits model) -> {
+			for (int i = 0; i != config.getNumberOfPumps(); ++i) {
+				model.setPump(i, new PumpModels.StuckClosed(i, config.getPumpCapacity(i), model));
+			}
+		};
+		int[] ignored = untilStop(50, config, 0, fault);
+		int[] acted = untilStop(50, config, SteamBoilerController.EARLY_WARNING_CYCLES, fault);
+		assertTrue("warned " + ignored[1] + " cycles ahead", ignored[1] >= 1);
+		assertTrue("opened " + acted[2] + " pumps rather than " + ignored[2], acted[2] > ignored[2]);
+		assertTrue("gained " + (acted[0] - ignored[0]) + " cycles", acted[0] >= ignored[0]);
+	}
+
+	/**
+	 * Check acting on the limit forecast delays the emergency stop when the valve
+	 * sticks open in normal mode, compared with the same run where the forecast
+	 * is ignored.
+	 */
+	@Test
+	public void safetytest_early_warning_17() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		Function<Integer, Double> conversionModel = (Integer elapsed) -> Double
+				.valueOf(config.getMaximualSteamRate());
+		Consumer<PhysicalUnits> fault = (PhysicalUnits model) -> {
+			SteamBoilerModels boiler = new SteamBoilerModels.ValveStuck(true, config.getCapacity(), 20.0,
+					conversionModel);
+			boiler.pumpInWater(model.getBoiler().getWaterLevel());
+			model.setBoiler(boiler);
+		};
+		int[] ignored = untilStop(120, config, 0, fault);
+		int[] acted = untilStop(120, config, SteamBoilerController.EARLY_WARNING_CYCLES, fault);
+		assertTrue("warned " + ignored[1] + " cycles ahead", ignored[1] >= 1);
+		assertTrue("gained " + (acted[0] - ignored[0]) + " cycles", acted[0] > ignored[0]);
+	}
+
+	/**
+	 * Start a boiler, apply a fault to it, and clock the system until an
+	 * emergency stop.
+	 *
+	 * @param timeout
+	 *            The maximum amount of time (in seconds) to wait for the stop.
+	 * @param config
+	 *            The characteristics of the boiler.
+	 * @param warning
+	 *            How many cycles ahead a predicted breach makes the controller
+	 *            act, or zero for it to ignore the forecast.
+	 * @param fault
+	 *            The fault to apply once the boiler is running.
+	 * @return The number of cycles from the fault to the emergency stop, how
+	 *         many cycles before the stop a limit breach was first predicted
+	 *         within the early warning horizon, and how many pumps were opened
+	 *         in the cycle of that prediction.
+	 */
+	private static int[] untilStop(int timeout, SteamBoilerCharacteristics config, int warning,
+			Consumer<PhysicalUnits> fault) {
+		SteamBoilerController controller = new SteamBoilerController(config);
+		controller.setEarlyWarningCycles(warning);
+		PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+		model.setMode(PhysicalUnits.Mode.WAITING);
+		clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+		fault.accept(model);
+		MailboxMatcher stop = atleast(MODE_emergencystop);
+		int cycle = 0;
+		int warned = -1;
+		int opened = 0;
+		for (int elapsed = 0; elapsed < timeout * 1000; elapsed += 100) {
+			Mailbox received = clock(100, elapsed, controller, model);
+			if (received != null) {
+				cycle++;
+				if (stop.matches(received)) {
+					assertTrue("no warning before the emergency stop", warned != -1);
+					return new int[] { cycle, cycle - warned, opened };
+				}
+				if (warned == -1 && controller.getLimitForecast()
+						.isBreachPredicted(SteamBoilerController.EARLY_WARNING_CYCLES)) {
+					// The forecast is updated before the pumps are chosen, so the
+					// commands of this cycle are those of the warning
+					warned = cycle;
+					for (int i = 0; i != received.size(); ++i) {
+						if (received.read(i).getKind() == MessageKind.OPEN_PUMP_n) {
+							opened++;
+						}
+					}
+				}
+			}
+		}
+		fail("timeout occurred");
+		return new int[0];
+	}
 }
@@ -0,0 +1,158 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.runtime.ManualTimeSource;
+import steam.boiler.runtime.TickScheduler;
+
+/**
+ * These tests check the tick scheduler against a manual time source: that
+ * ticks stay on their deadlines however late they wake or however long they
+ * take, that overruns and missed ticks are counted, that jitter is measured,
+ * and that tasks are staggered across the period.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SchedulerTests {
+	/**
+	 * The period used by the tests, of 100ms.
+	 */
+	private static final long PERIOD = 100_000_000L;
+	/**
+	 * The time the manual clock starts at, away from zero so wrapping is not an
+	 * issue.
+	 */
+	private static final long START = 1_000_000_000L;
+
+	/**
+	 * Check ticks which take most of the period and wake late still fire on
+	 * deadlines counted from the start.
+	 */
+	@Test
+	public void test_scheduler_01() throws InterruptedException {
+		ManualTimeSource time = new ManualTimeSource(START);
+		TickScheduler scheduler = new TickScheduler(time, PERIOD);
+		List<Long> fired = new ArrayList<>();
+		scheduler.add(() -> {
+			fired.add(time.nanoTime());
+			time.advance(PERIOD * 3 / 4);
+		});
+		time.setWakeLatency(1_000);
+		scheduler.runUntil(START + 1000 * PERIOD);
+		assertEquals(1000, fired.size());
+		for (int i = 0; i != fired.size(); ++i) {
+			// Late by the wake latency, never by the accumulated work
+			assertEquals(START + i * PERIOD + (i == 0 ? 0 : 1_000), fired.get(i).longValue());
+		}
+		assertEquals(0, scheduler.getTotalOverruns());
+		assertEquals(0, scheduler.getTotalMissedTicks());
+	}
+
+	/**
+	 * Check a tick which runs past two deadlines is an overrun, that the tick it
+	 * made impossible is missed, and that the following ticks return to the
+	 * original deadlines.
+	 */
+	@Test
+	public void test_scheduler_02() throws InterruptedException {
+		ManualTimeSource time = new ManualTimeSource(START);
+		TickScheduler scheduler = new TickScheduler(time, PERIOD);
+		List<Long> fired = new ArrayList<>();
+		int task = scheduler.add(() -> {
+			fired.add(time.nanoTime());
+			if (fired.size() == 4) {
+				time.advance(PERIOD * 5 / 2);
+			}
+		});
+		scheduler.runUntil(START + 10 * PERIOD);
+		assertEquals(1, scheduler.getOverruns(task));
+		// The deadline at 4 periods passes during the slow tick, and the tick for 5
+		// periods fires half a period late.
+		assertEquals(1, scheduler.getMissedTicks(task));
+		assertEquals(START + 5 * PERIOD + PERIOD / 2, fired.get(4).longValue());
+		for (int i = 5; i != fired.size(); ++i) {
+			assertEquals(START + (i + 1) * PERIOD, fired.get(i).longValue());
+		}
+		assertEquals(9, fired.size());
+	}
+
+	/**
+	 * Check the jitter histogram records how late each tick wakes.
+	 */
+	@Test
+	public void test_scheduler_03() throws InterruptedException {
+		ManualTimeSource time = new ManualTimeSource(START);
+		TickScheduler scheduler = new TickScheduler(time, PERIOD);
+		scheduler.add(() -> {
+			// Nothing to do
+		});
+		scheduler.runOnce();
+		time.setWakeLatency(37_000);
+		scheduler.runUntil(START + 100 * PERIOD);
+		time.setWakeLatency(2_000_000);
+		scheduler.runUntil(START + 101 * PERIOD);
+		assertEquals(101, scheduler.getJitter().getCount());
+		assertEquals(2_000_000, scheduler.getJitter().getMaximum());
+		long median = scheduler.getJitter().getPercentile(0.5);
+		assertTrue("median " + median, median >= 37_000 && median <= 37_000 * 9 / 8);
+		assertEquals(2_000_000, scheduler.getJitter().getPercentile(1));
+	}
+
+	/**
+	 * Check tasks added without a phase are spread evenly over the period, and
+	 * fire in the order of their phases.
+	 */
+	@Test
+	public void test_scheduler_04() throws InterruptedException {
+		ManualTimeSource time = new ManualTimeSource(START);
+		TickScheduler scheduler = new TickScheduler(time, PERIOD);
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i != 8; ++i) {
+			int task = i;
+			scheduler.add(() -> order.add(Integer.valueOf(task)));
+		}
+		long[] expected = { 0, 4, 2, 6, 1, 5, 3, 7 };
+		for (int i = 0; i != 8; ++i) {
+			assertEquals(START + expected[i] * PERIOD / 8, scheduler.getDeadline(i));
+		}
+		scheduler.runUntil(START + PERIOD);
+		for (int i = 0; i != 8; ++i) {
+			assertEquals(i, expected[order.get(i).intValue()]);
+		}
+		assertEquals(8, scheduler.getFiredTicks());
+	}
+
+	/**
+	 * Check a task added after the scheduler has started begins at its next
+	 * deadline, and that a phase outside the period is rejected.
+	 */
+	@Test
+	public void test_scheduler_05() throws InterruptedException {
+		ManualTimeSource time = new ManualTimeSource(START);
+		TickScheduler scheduler = new TickScheduler(time, PERIOD);
+		time.advance(PERIOD * 5 / 2);
+		int task = scheduler.add(() -> {
+			// Nothing to do
+		}, PERIOD / 4);
+		assertEquals(START + 3 * PERIOD + PERIOD / 4, scheduler.getDeadline(task));
+		scheduler.runUntil(START + 10 * PERIOD);
+		assertEquals(7, scheduler.getFiredTicks());
+		assertEquals(0, scheduler.getMissedTicks(task));
+		try {
+			scheduler.add(() -> {
+				// Nothing to do
+			}, PERIOD);
+			fail("accepted a phase outside the period");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
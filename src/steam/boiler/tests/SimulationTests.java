@@ -0,0 +1,554 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.simulation.BatchScenarioRunner;
+import steam.boiler.simulation.BatchScenarioRunner.BinaryOutcomeWriter;
+import steam.boiler.simulation.BatchScenarioRunner.CsvOutcomeWriter;
+import steam.boiler.simulation.CampaignStatistics;
+import steam.boiler.simulation.FaultSchedule;
+import steam.boiler.simulation.HeadlessSimulation;
+import steam.boiler.simulation.InputFrame;
+import steam.boiler.simulation.MailboxFuzzer;
+import steam.boiler.simulation.MonteCarloCampaign;
+import steam.boiler.simulation.SimulationRun;
+import steam.boiler.simulation.StateExplorer;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the tools which run the controller outside the simulator:
+ * that fault schedules are read and injected as written, and that headless
+ * simulations take their options and report the run.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SimulationTests {
+	/**
+	 * Two scenarios of the default boiler, the second with an id which has to be
+	 * quoted in CSV and a level transmission failure after ten seconds.
+	 */
+	private static final String SCENARIOS;
+
+	static {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		String boiler = config.getNumberOfPumps() + ";" + config.getPumpCapacity(0) + ";"
+				+ FunctionalTests.average(config.getMinimalNormalLevel(),
+						config.getMaximalNormalLevel());
+		SCENARIOS = "# id;pumps;pumpCapacity;initialLevel;seconds;faults\n\nplain;" + boiler
+				+ ";30;\n  say \"hi\", again;" + boiler + ";30;10:level-tx\n";
+	}
+
+	/**
+	 * The number of runs of each Monte Carlo campaign.
+	 */
+	private static final int RUNS = 12;
+	/**
+	 * The simulated time of each run of a Monte Carlo campaign, in seconds.
+	 */
+	private static final int SECONDS = 120;
+
+	// =====================================================================
+	// Fault schedules
+	// =====================================================================
+
+	/**
+	 * Check a schedule is parsed into faults sorted by time, and is written back
+	 * in the same form.
+	 */
+	@Test
+	public void test_schedule_01() {
+		FaultSchedule schedule = FaultSchedule
+				.parse("60:pump-stuck-closed:1, 120:level-tx\n30.5:VALVE-STUCK");
+		assertEquals(3, schedule.size());
+		assertEquals(30500, schedule.getTime(0));
+		assertEquals(FaultSchedule.Kind.VALVE_STUCK, schedule.getKind(0));
+		assertEquals(-1, schedule.getUnit(0));
+		assertEquals(60000, schedule.getTime(1));
+		assertEquals(FaultSchedule.Kind.PUMP_STUCK_CLOSED, schedule.getKind(1));
+		assertEquals(1, schedule.getUnit(1));
+		assertEquals(120000, schedule.getTime(2));
+		assertEquals(FaultSchedule.Kind.LEVEL_TX, schedule.getKind(2));
+		assertEquals("30.5:valve-stuck,60.0:pump-stuck-closed:1,120.0:level-tx",
+				schedule.toString());
+		assertEquals(schedule.toString(), FaultSchedule.parse(schedule.toString()).toString());
+	}
+
+	/**
+	 * Check entries which are not valid are refused.
+	 */
+	@Test
+	public void test_schedule_02() {
+		String[] invalid = { "60", "60:melted", "60:level-tx:1", "60:pump-tx", "soon:level-tx",
+				"60:pump-tx:1:2" };
+		for (String spec : invalid) {
+			try {
+				FaultSchedule.parse(spec);
+				fail("accepted " + spec);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Check a valve which sticks part way through a run drains the water already
+	 * in the boiler, rather than starting again from an empty boiler.
+	 */
+	@Test
+	public void test_schedule_03() throws InterruptedException {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		double midpoint = FunctionalTests.average(config.getMinimalNormalLevel(),
+				config.getMaximalNormalLevel());
+		SimulationRun run = new SimulationRun(config, midpoint,
+				FaultSchedule.parse("60:valve-stuck"));
+		run.run(60, 0);
+		assertTrue(run.getMinLevel() > config.getMinimalNormalLevel());
+		// The fault is injected at the start of the next step
+		assertTrue(run.step());
+		assertTrue(run.getMinLevel() > config.getMinimalNormalLevel());
+	}
+
+	// =====================================================================
+	// Headless simulation
+	// =====================================================================
+
+	/**
+	 * Check a headless simulation reads its options, including those in an
+	 * options file, and reports the emergency stop caused by the fault injected.
+	 */
+	@Test
+	public void test_headless_01() throws IOException, InterruptedException {
+		Path options = Files.createTempFile("headless", ".txt");
+		try {
+			Files.write(options, "--time 60\n--speed max".getBytes(StandardCharsets.UTF_8));
+			String report = headless("@" + options, "--level", "500", "--faults", "30:level-tx");
+			assertTrue(report, report.contains("faults:          30.0:level-tx"));
+			assertTrue(report, report.contains("simulated time:  30.1s"));
+			assertTrue(report, report.contains("cycles:          7"));
+			assertTrue(report, report.contains("emergency stop:  30.0s (TRANSMISSION_FAILURE)"));
+		} finally {
+			Files.delete(options);
+		}
+	}
+
+	/**
+	 * Check options which are not valid are refused.
+	 */
+	@Test
+	public void test_headless_02() throws IOException, InterruptedException {
+		String[][] invalid = { { "--time" }, { "--colour", "red" }, { "--faults", "60:melted" } };
+		for (String[] args : invalid) {
+			try {
+				headless(args);
+				fail("accepted " + String.join(" ", args));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	// =====================================================================
+	// Batch scenarios
+	// =====================================================================
+
+	/**
+	 * Check only the commands to the pumps and the valve are counted, and not
+	 * the mode and the signals sent with them.
+	 */
+	@Test
+	public void test_batch_01() {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		double midpoint = FunctionalTests.average(config.getMinimalNormalLevel(),
+				config.getMaximalNormalLevel());
+		SimulationRun run = new SimulationRun(config, midpoint, new FaultSchedule());
+		// The first cycle sends MODE_initialisation and PROGRAM_READY
+		assertTrue(run.step());
+		assertEquals(1, run.getCycles());
+		assertEquals(0, run.getCommands());
+	}
+
+	/**
+	 * Check a scenario file is read skipping comments and blank lines, and that
+	 * the CSV outcomes quote the ids which need it.
+	 */
+	@Test
+	public void test_batch_02() throws IOException, InterruptedException {
+		StringWriter csv = new StringWriter();
+		try (CsvOutcomeWriter out = new CsvOutcomeWriter(csv)) {
+			assertEquals(2, BatchScenarioRunner.run(reader(SCENARIOS), out));
+		}
+		String[] lines = csv.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertEquals("id,time_to_normal,emergency_stop,cause,min_level,max_level,commands",
+				lines[0]);
+		assertTrue(lines[1], lines[1].startsWith("plain,"));
+		assertTrue(lines[1], lines[1].contains(",-1.0,,"));
+		assertTrue(lines[2], lines[2].startsWith("\"say \"\"hi\"\", again\","));
+		assertTrue(lines[2], lines[2].contains(",10.0,TRANSMISSION_FAILURE,"));
+	}
+
+	/**
+	 * Check the binary outcomes are records of the same size, which read back
+	 * as they were written.
+	 */
+	@Test
+	public void test_batch_03() throws IOException, InterruptedException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (BinaryOutcomeWriter out = new BinaryOutcomeWriter(new DataOutputStream(bytes))) {
+			assertEquals(2, BatchScenarioRunner.run(reader(SCENARIOS), out));
+		}
+		assertEquals(2 * BinaryOutcomeWriter.RECORD_BYTES, bytes.size());
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals("plain", readId(in));
+		in.readInt();
+		assertEquals(-1, in.readInt());
+		assertEquals(0, in.readInt());
+		in.skipBytes(8 + 8 + 8);
+		assertEquals("say \"hi\", again", readId(in));
+		in.readInt();
+		assertEquals(10000, in.readInt());
+		int causes = in.readInt();
+		assertEquals(1, Integer.bitCount(causes));
+		assertEquals("TRANSMISSION_FAILURE",
+				BinaryOutcomeWriter.getCause(Integer.numberOfTrailingZeros(causes)));
+	}
+
+	/**
+	 * Check scenario lines which are not valid are refused.
+	 */
+	@Test
+	public void test_batch_04() throws InterruptedException {
+		String[] invalid = { "short;4;10;500;30", "bad;four;10;500;30;",
+				"bad;4;10;500;30;60:melted" };
+		for (String scenario : invalid) {
+			try (CsvOutcomeWriter out = new CsvOutcomeWriter(new StringWriter())) {
+				BatchScenarioRunner.run(reader(scenario), out);
+				fail("accepted " + scenario);
+			} catch (IOException | IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	// =====================================================================
+	// Monte Carlo campaigns
+	// =====================================================================
+
+	/**
+	 * Check the statistics of a campaign are those of its runs, each run on its
+	 * own and merged.
+	 */
+	@Test
+	public void test_campaign_01() throws InterruptedException, ExecutionException {
+		MonteCarloCampaign campaign = campaign(7);
+		CampaignStatistics merged = new CampaignStatistics();
+		for (int run = 0; run != RUNS; ++run) {
+			CampaignStatistics single = campaign.runRange(run, RUNS, RUNS);
+			assertEquals(1, single.getRuns());
+			merged.merge(single);
+		}
+		CampaignStatistics statistics = campaign.run(RUNS, 2);
+		assertEquals(RUNS, statistics.getRuns());
+		assertTrue(statistics.getBoilerHours() <= RUNS * SECONDS / 3600.0);
+		assertEquals(merged.toString(), statistics.toString());
+	}
+
+	/**
+	 * Check a campaign gives the same statistics whatever the number of worker
+	 * threads, and that its runs are sampled from the seed alone.
+	 */
+	@Test
+	public void test_campaign_02() throws InterruptedException, ExecutionException {
+		String expected = campaign(11).run(RUNS, 1).toString();
+		for (int threads = 2; threads <= 5; ++threads) {
+			String actual = campaign(11).run(RUNS, threads).toString();
+			assertEquals(threads + " threads", expected, actual);
+		}
+		for (int run = 0; run != RUNS; ++run) {
+			assertEquals(campaign(11).sample(run).toString(), campaign(11).sample(run).toString());
+		}
+	}
+
+	// =====================================================================
+	// State exploration
+	// =====================================================================
+
+	/**
+	 * Check every state of a one pump boiler within two cycles is explored, and
+	 * that the level limits are found to be broken by entering normal mode on an
+	 * empty boiler, with a trace that replays.
+	 */
+	@Test
+	public void test_explore_01() throws InterruptedException, ExecutionException {
+		StateExplorer.Result result = explore(1);
+		assertTrue(result.isComplete());
+		List<String> violations = result.getViolations();
+		String first = violations.get(0);
+		assertTrue(first, first.startsWith("NORMAL mode with level outside the limits"));
+		assertTrue(first, first.contains("(replays in 1 cycles)"));
+		assertTrue(first, first.contains("level=0.0 steam=-1.0"));
+		assertTrue(first, first.contains("PHYSICAL_UNITS_READY"));
+		for (String violation : violations) {
+			assertTrue(violation, !violation.contains("(does not replay)"));
+		}
+	}
+
+	/**
+	 * Check the states explored and the violations found do not depend on the
+	 * number of worker threads.
+	 */
+	@Test
+	public void test_explore_02() throws InterruptedException, ExecutionException {
+		StateExplorer.Result expected = explore(1);
+		StateExplorer.Result actual = explore(3);
+		assertEquals(expected.getStates(), actual.getStates());
+		assertEquals(expected.getViolations().size(), actual.getViolations().size());
+	}
+
+	// =====================================================================
+	// Mailbox fuzzing
+	// =====================================================================
+
+	/**
+	 * Check malformed frames are rejected without changing the frame.
+	 */
+	@Test
+	public void test_fuzz_01() {
+		InputFrame frame = new InputFrame(2);
+		frame.decode("500.0 5.0 10 10 2 -1 1 -1 -1 0");
+		String before = frame.encode();
+		String[] invalid = { "500.0 5.0 10 1 2 -1 1 -1 -1 0", "500.0 5.0 1 10 2 -1 1 -1 -1 0",
+				"500.0 5.0 10 10 2 -1 2 -1 -1 0", "500.0 5.0 10 10 2 -1 1 -1 -1",
+				"500.0 5.0 10 10 128 -1 1 -1 -1 0", "500.0 5.0 10 10 2 -1 1 -1 -1 16",
+				"500.0 x 10 10 2 -1 1 -1 -1 0" };
+		for (String text : invalid) {
+			try {
+				frame.decode(text);
+				fail(text);
+			} catch (IllegalArgumentException e) {
+				assertEquals(before, frame.encode());
+			}
+		}
+	}
+
+	/**
+	 * Check a run resuming from the corpus of an earlier run keeps every file the
+	 * earlier run wrote, and skips files which are not valid.
+	 */
+	@Test
+	public void test_fuzz_02() throws IOException {
+		Path directory = Files.createTempDirectory("fuzz");
+		try {
+			MailboxFuzzer first = new MailboxFuzzer(SteamBoilerCharacteristics.DEFAULT, directory, 1);
+			first.load();
+			first.fuzz(2000);
+			Map<String, String> written = files(directory);
+			assertTrue(written.size() > 1);
+			Files.write(directory.resolve("id-invalid.txt"),
+					"# broken\n500.0 5.0 0000 1 0 -1 -1 -1 -1 0\n".getBytes(StandardCharsets.UTF_8));
+			MailboxFuzzer second = new MailboxFuzzer(SteamBoilerCharacteristics.DEFAULT, directory, 2);
+			second.load();
+			// Files whose coverage is reached by files loaded before them are not kept
+			assertTrue(second.getCorpusSize() > 0);
+			assertTrue(second.getCorpusSize() <= count(written, "id-"));
+			assertTrue(count(written, "crash-") > 0);
+			second.fuzz(2000);
+			Map<String, String> rewritten = files(directory);
+			for (Map.Entry<String, String> file : written.entrySet()) {
+				assertEquals(file.getKey(), file.getValue(), rewritten.get(file.getKey()));
+			}
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Check the coverage tells apart cycles which differ only in the repairs
+	 * received, since they choose between the repair cases of the controller.
+	 */
+	@Test
+	public void test_fuzz_03() throws IOException {
+		Path directory = Files.createTempDirectory("fuzz");
+		try {
+			MailboxFuzzer fuzzer = new MailboxFuzzer(SteamBoilerCharacteristics.DEFAULT, directory, 1);
+			String start = "500.0 0.0 0000 0000 2 -1 -1 -1 -1 0";
+			String ready = "500.0 0.0 0000 0000 1 -1 -1 -1 -1 0";
+			assertTrue(fuzzer.add(frames(start, ready, "500.0 5.0 0000 0000 0 -1 -1 -1 -1 0")));
+			// The same cycle with a steam repair sends the same messages
+			assertTrue(fuzzer.add(frames(start, ready, "500.0 5.0 0000 0000 8 -1 -1 -1 -1 0")));
+			assertTrue(fuzzer.add(frames(start, ready, "500.0 5.0 0000 0000 0 0 -1 -1 -1 0")));
+			assertTrue(!fuzzer.add(frames(start, ready, "500.0 5.0 0000 0000 8 -1 -1 -1 -1 0")));
+			assertEquals(3, fuzzer.getCorpusSize());
+		} finally {
+			delete(directory);
+		}
+	}
+
+	// =====================================================================
+	// Helpers
+	// =====================================================================
+
+	/**
+	 * Decode a sequence of frames of the default boiler.
+	 *
+	 * @param lines
+	 *            The frames as text.
+	 * @return The frames.
+	 */
+	private static InputFrame[] frames(String... lines) {
+		InputFrame[] frames = new InputFrame[lines.length];
+		for (int i = 0; i != lines.length; ++i) {
+			frames[i] = new InputFrame(SteamBoilerCharacteristics.DEFAULT.getNumberOfPumps());
+			frames[i].decode(lines[i]);
+		}
+		return frames;
+	}
+
+	/**
+	 * Read every file in a directory.
+	 *
+	 * @param directory
+	 *            The directory.
+	 * @return The contents of each file, by name.
+	 */
+	private static Map<String, String> files(Path directory) throws IOException {
+		Map<String, String> files = new HashMap<>();
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+			for (Path file : paths) {
+				files.put(file.getFileName().toString(),
+						new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Count the files whose names start with a given prefix.
+	 *
+	 * @param files
+	 *            The files, by name.
+	 * @param prefix
+	 *            The prefix.
+	 * @return The number of files.
+	 */
+	private static int count(Map<String, String> files, String prefix) {
+		int count = 0;
+		for (String name : files.keySet()) {
+			if (name.startsWith(prefix)) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Delete a directory of files.
+	 *
+	 * @param directory
+	 *            The directory.
+	 */
+	private static void delete(Path directory) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * Explore every state of a one pump boiler within two cycles.
+	 *
+	 * @param threads
+	 *            The number of worker threads.
+	 * @return The result of the exploration.
+	 */
+	private static StateExplorer.Result explore(int threads)
+			throws InterruptedException, ExecutionException {
+		SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+		config = config.setNumberOfPumps(1, config.getPumpCapacity(0));
+		return new StateExplorer(config, threads, 1 << 12, 2).explore();
+	}
+
+	/**
+	 * Construct a small campaign of the default boiler, with up to three faults
+	 * in each run.
+	 *
+	 * @param seed
+	 *            The seed of the first run.
+	 * @return The campaign.
+	 */
+	private static MonteCarloCampaign campaign(long seed) {
+		return new MonteCarloCampaign(SteamBoilerCharacteristics.DEFAULT, SECONDS, 3, seed);
+	}
+
+	/**
+	 * Read scenarios from a string.
+	 *
+	 * @param scenarios
+	 *            The scenarios, one per line.
+	 * @return A reader of the scenarios.
+	 */
+	private static BufferedReader reader(String scenarios) {
+		return new BufferedReader(new StringReader(scenarios));
+	}
+
+	/**
+	 * Read the padded id at the start of a binary outcome.
+	 *
+	 * @param in
+	 *            The binary outcomes.
+	 * @return The id.
+	 */
+	private static String readId(DataInputStream in) throws IOException {
+		byte[] id = new byte[BinaryOutcomeWriter.ID_BYTES];
+		in.readFully(id);
+		int length = 0;
+		while (length != id.length && id[length] != 0) {
+			++length;
+		}
+		return new String(id, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Run a headless simulation and capture its report.
+	 *
+	 * @param args
+	 *            The options of the simulation.
+	 * @return The report printed by the simulation.
+	 */
+	private static String headless(String... args) throws IOException, InterruptedException {
+		PrintStream out = System.out;
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(report, true, "UTF-8"));
+		try {
+			HeadlessSimulation.main(args);
+		} finally {
+			System.setOut(out);
+		}
+		return new String(report.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,159 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.telemetry.TelemetryStore;
+import steam.boiler.util.Mailbox;
+
+/**
+ * These tests check that the telemetry store gives back what was written to
+ * it, over any range and after being opened again, and that it compresses a
+ * typical history well.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TelemetryTests {
+	/**
+	 * The number of records written by each test.
+	 */
+	private static final int RECORDS = 10000;
+	/**
+	 * The resolution of the readings.
+	 */
+	private static final double RESOLUTION = 0.01;
+
+	/**
+	 * Check every record can be read back.
+	 */
+	@Test
+	public void test_telemetry_01() throws IOException {
+		Path directory = Files.createTempDirectory("telemetry");
+		try (TelemetryStore store = new TelemetryStore(directory, 1024, RESOLUTION)) {
+			write(store);
+			assertEquals(RECORDS, store.getRecordCount());
+			assertEquals(RECORDS, store.scan(Long.MIN_VALUE, Long.MAX_VALUE, TelemetryTests::check));
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Check range scans return exactly the records in the range, both before and
+	 * after the store is opened again.
+	 */
+	@Test
+	public void test_telemetry_02() throws IOException {
+		Path directory = Files.createTempDirectory("telemetry");
+		try {
+			try (TelemetryStore store = new TelemetryStore(directory, 1000, RESOLUTION)) {
+				write(store);
+				// Straddle a block boundary, and include the open block
+				assertEquals(101, store.scan(time(950), time(1050), TelemetryTests::check));
+				assertEquals(5, store.scan(time(9995), time(RECORDS + 10), TelemetryTests::check));
+				assertEquals(0, store.scan(time(RECORDS + 1), time(RECORDS + 10), TelemetryTests::check));
+			}
+			try (TelemetryStore store = new TelemetryStore(directory, 1000, RESOLUTION)) {
+				assertEquals(RECORDS, store.getRecordCount());
+				assertEquals(101, store.scan(time(950), time(1050), TelemetryTests::check));
+				assertEquals(1, store.scan(time(0), time(0), TelemetryTests::check));
+			}
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Check a typical history takes at most a tenth of the space of raw records.
+	 */
+	@Test
+	public void test_telemetry_03() throws IOException {
+		Path directory = Files.createTempDirectory("telemetry");
+		try (TelemetryStore store = new TelemetryStore(directory, 4096, RESOLUTION)) {
+			write(store);
+			store.flush();
+			long raw = (long) RECORDS * TelemetryStore.RAW_RECORD_BYTES;
+			assertTrue("compressed to " + store.getStoredBytes() + " of " + raw + " bytes",
+					store.getStoredBytes() * 10 <= raw);
+		} finally {
+			delete(directory);
+		}
+	}
+
+	// =====================================================================
+	// Helpers
+	// =====================================================================
+
+	/**
+	 * Write a history of a boiler which fills, runs normally with the level
+	 * oscillating between pump switches, and has a short spell in degraded mode.
+	 *
+	 * @param store
+	 *            The store to write to.
+	 */
+	private static void write(TelemetryStore store) throws IOException {
+		for (int i = 0; i != RECORDS; ++i) {
+			store.append(time(i), level(i), steam(i), mode(i), pumps(i), i < 10);
+		}
+	}
+
+	/**
+	 * Check a record read back from the store is the one written.
+	 */
+	private static void check(long time, double level, double steam, Mailbox.Mode mode, long pumps,
+			boolean valveOpen) {
+		int i = (int) (time / 5000);
+		assertEquals(time(i), time);
+		assertEquals(level(i), level, RESOLUTION);
+		assertEquals(steam(i), steam, RESOLUTION);
+		assertEquals(mode(i), mode);
+		assertEquals(pumps(i), pumps);
+		assertEquals(i < 10, valveOpen);
+	}
+
+	private static long time(int i) {
+		// Every cycle, with an occasional late one
+		return i * 5000L + (i % 97 == 0 && i != 0 ? 3 : 0);
+	}
+
+	private static double level(int i) {
+		return 500 + 40 * Math.sin(i / 12.0);
+	}
+
+	private static double steam(int i) {
+		return i < 20 ? 0 : 10 + (i / 500) * 0.5;
+	}
+
+	private static Mailbox.Mode mode(int i) {
+		if (i < 20) {
+			return Mailbox.Mode.INITIALISATION;
+		} else if (i >= 5000 && i < 5030) {
+			return Mailbox.Mode.DEGRADED;
+		}
+		return Mailbox.Mode.NORMAL;
+	}
+
+	private static long pumps(int i) {
+		return Math.sin(i / 12.0) < 0 ? 0b11 : 0b1;
+	}
+
+	/**
+	 * Delete a directory of block files.
+	 */
+	private static void delete(Path directory) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+}
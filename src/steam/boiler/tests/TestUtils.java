@@ -100,6 +100,22 @@ public class TestUtils {
     return new ConcreteMessageMatcher(MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n, matcher);
   }
 
+  /**
+   * Match PUMP_REPAIRED_ACKNOWLEDGEMENT_n messages.
+   */
+  public static MessageMatcher PUMP_REPAIRED_ACKNOWLEDGEMENT(int n) {
+    return new ConcreteMessageMatcher(MessageKind.PUMP_REPAIRED_ACKNOWLEDGEMENT_n,
+        new IntegerParameterMatcher(n));
+  }
+
+  /**
+   * Match PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n messages.
+   */
+  public static MessageMatcher PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT(int n) {
+    return new ConcreteMessageMatcher(MessageKind.PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n,
+        new IntegerParameterMatcher(n));
+  }
+
   /**
    * Return a given PUMP message.
    *
@@ -329,6 +345,10 @@ public class TestUtils {
    * @return
    */
   public static MailboxMatcher exactly(final MessageMatcher... matchers) {
+    CompiledMailboxMatcher compiled = CompiledMailboxMatcher.compile(matchers, true);
+    if (compiled != null) {
+      return compiled;
+    }
     return new MailboxMatcher() {
 
       @Override
@@ -369,6 +389,10 @@ public class TestUtils {
    * @return
    */
   public static MailboxMatcher atleast(final MessageMatcher... matchers) {
+    CompiledMailboxMatcher compiled = CompiledMailboxMatcher.compile(matchers, false);
+    if (compiled != null) {
+      return compiled;
+    }
     return new MailboxMatcher() {
 
       @Override
@@ -389,6 +413,122 @@ public class TestUtils {
     };
   }
 
+  /**
+   * A mailbox matcher compiled from a set of concrete message matchers. The kinds of message the
+   * matchers expect are kept as a bitmap, so a mailbox missing one of them (or, when every message
+   * must be matched, holding a kind no matcher expects) is rejected after a single scan of the kinds
+   * in the mailbox. Otherwise the messages are matched in one further pass, each message being tried
+   * only against the matchers of its kind, and the matchers already satisfied are kept as a bitmap
+   * in a single <code>long</code> when there are no more than 64 of them. So matching allocates
+   * nothing in the common case.
+   *
+   * <p>The outcome is the same as matching each matcher against the whole mailbox in turn: every
+   * matcher takes the first message it matches and, for <code>exactly</code>, no two matchers may
+   * take the same message.
+   */
+  private static final class CompiledMailboxMatcher implements MailboxMatcher {
+    private static final MessageKind[] KINDS = MessageKind.values();
+    private static final int[] NONE = new int[0];
+
+    private final ConcreteMessageMatcher[] matchers;
+    private final boolean exact;
+    /**
+     * The bitmap of the kind ordinals expected by the matchers.
+     */
+    private final long kinds;
+    /**
+     * The indices of the matchers expecting each kind, by kind ordinal.
+     */
+    private final int[][] byKind;
+
+    private CompiledMailboxMatcher(ConcreteMessageMatcher[] matchers, boolean exact) {
+      this.matchers = matchers;
+      this.exact = exact;
+      int[] counts = new int[KINDS.length];
+      long kinds = 0;
+      for (ConcreteMessageMatcher matcher : matchers) {
+        counts[matcher.kind.ordinal()]++;
+        kinds |= 1L << matcher.kind.ordinal();
+      }
+      this.kinds = kinds;
+      this.byKind = new int[KINDS.length][];
+      for (int k = 0; k != KINDS.length; ++k) {
+        this.byKind[k] = counts[k] == 0 ? NONE : new int[counts[k]];
+        counts[k] = 0;
+      }
+      for (int j = 0; j != matchers.length; ++j) {
+        int k = matchers[j].kind.ordinal();
+        this.byKind[k][counts[k]++] = j;
+      }
+    }
+
+    /**
+     * Compile a set of message matchers, if they are all concrete.
+     *
+     * @param matchers The set of matchers
+     * @param exact Whether every message must be matched by exactly one matcher
+     * @return The compiled matcher, or null if some matcher is not concrete
+     */
+    static CompiledMailboxMatcher compile(MessageMatcher[] matchers, boolean exact) {
+      if (KINDS.length > Long.SIZE) {
+        return null;
+      }
+      ConcreteMessageMatcher[] concrete = new ConcreteMessageMatcher[matchers.length];
+      for (int j = 0; j != matchers.length; ++j) {
+        if (!(matchers[j] instanceof ConcreteMessageMatcher)) {
+          return null;
+        }
+        concrete[j] = (ConcreteMessageMatcher) matchers[j];
+      }
+      return new CompiledMailboxMatcher(concrete, exact);
+    }
+
+    @Override
+    public boolean matches(Mailbox mailbox) {
+      int size = mailbox.size();
+      if (exact && size != matchers.length) {
+        return false;
+      }
+      long present = 0;
+      for (int i = 0; i != size; ++i) {
+        present |= 1L << mailbox.read(i).getKind().ordinal();
+      }
+      if ((kinds & ~present) != 0 || (exact && (present & ~kinds) != 0)) {
+        return false;
+      }
+      // The matchers already satisfied, in a long when there are few enough
+      long small = 0;
+      long[] large = matchers.length > Long.SIZE ? new long[(matchers.length + 63) >>> 6] : null;
+      int remaining = matchers.length;
+      for (int i = 0; i != size && remaining != 0; ++i) {
+        Message message = mailbox.read(i);
+        int hits = 0;
+        for (int j : byKind[message.getKind().ordinal()]) {
+          long bit = 1L << j;
+          boolean done = large == null ? (small & bit) != 0 : (large[j >>> 6] & bit) != 0;
+          if (!done && matchers[j].matches(message)) {
+            if (large == null) {
+              small |= bit;
+            } else {
+              large[j >>> 6] |= bit;
+            }
+            ++hits;
+          }
+        }
+        if (exact && hits != 1) {
+          return false;
+        }
+        remaining -= hits;
+      }
+      return remaining == 0;
+    }
+
+    @Override
+    public String toString() {
+      return (exact ? "exactly" : "atleast") + Arrays.toString(matchers);
+    }
+  }
+
   /**
    * A concrete message matcher messages of a given kind. For example, it could be used to match any
    * kind of <code>LEVEL_v</code> message.